@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.bf2.arch.bot.model.patch.FilePatch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The undefined acronym heuristic, over the body of a short ADR and a 10000 line one,
+ * as the split-and-rescan prototype it replaced, and as {@link UndefinedAcronyms}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AcronymHeuristicBenchmark {
+
+    @Param({"50", "10000"})
+    public int lines;
+
+    private String text;
+    private FilePatch patch;
+
+    @Setup
+    public void setup() {
+        text = Corpora.prose(lines, 42);
+        StringBuilder sb = new StringBuilder("@@ -0,0 +1,").append(lines).append(" @@\n");
+        text.lines().forEach(line -> sb.append('+').append(line).append('\n'));
+        patch = FilePatch.parsePatch(sb);
+    }
+
+    /** The prototype, splitting the text into words and rescanning the neighbours of each acronym. */
+    static List<String> legacyUndefinedAcronyms(String text, Set<String> knownAcronyms) {
+        Pattern acronymPattern = Pattern.compile("[A-Z0-9]{2,}");
+        Set<String> definedAcronyms = new HashSet<>(knownAcronyms);
+        List<String> undefined = new ArrayList<>();
+        String[] words = text.split("\\W+");
+        for (int i = 0; i < words.length; i++) {
+            String word = words[i];
+            Matcher acronymMatcher = acronymPattern.matcher(word);
+            if (acronymMatcher.matches()) {
+                String acronym = word;
+                if (!definedAcronyms.contains(acronym)) {
+                    boolean expansionFollows = true;
+                    boolean expansionPreceeds = true;
+                    for (int j = 0; j < acronym.length(); j++) {
+                        if (i + j + 1 < words.length && !words[i + j + 1].isEmpty()) {
+                            String a = words[i + j + 1].substring(0, 1).toUpperCase(Locale.ROOT);
+                            String b = acronym.substring(j, j + 1).toUpperCase(Locale.ROOT);
+                            if (!a.equals(b)) {
+                                expansionFollows = false;
+                                break;
+                            }
+                        } else {
+                            expansionFollows = false;
+                            break;
+                        }
+                    }
+                    if (!expansionFollows) {
+                        for (int j = 0; j < acronym.length(); j++) {
+                            if (i - acronym.length() + j >= 0 && !words[i - acronym.length() + j].isEmpty()) {
+                                String a = words[i - acronym.length() + j].substring(0, 1).toUpperCase(Locale.ROOT);
+                                String b = acronym.substring(j, j + 1).toUpperCase(Locale.ROOT);
+                                if (!a.equals(b)) {
+                                    expansionPreceeds = false;
+                                    break;
+                                }
+                            } else {
+                                expansionPreceeds = false;
+                                break;
+                            }
+                        }
+                    }
+
+                    if (expansionFollows || expansionPreceeds) {
+                        definedAcronyms.add(acronym);
+                    } else {
+                        undefined.add(acronym);
+                    }
+                }
+            }
+        }
+        return undefined;
+    }
+
+    @Benchmark
+    public List<String> legacy() {
+        return legacyUndefinedAcronyms(text, Set.of("OK"));
+    }
+
+    @Benchmark
+    public List<String> undefinedAcronyms() {
+        return PrReviewFlow.undefinedAcronyms(text, Set.of("OK"));
+    }
+
+    /** As the review rule runs it, over the added lines of a patch. */
+    @Benchmark
+    public List<UndefinedAcronyms.Use> patch() {
+        return new UndefinedAcronyms(Set.of("OK")).scan(patch).finish();
+    }
+}
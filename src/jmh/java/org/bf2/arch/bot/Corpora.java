@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import java.util.Random;
+
+/**
+ * Generates the inputs for the benchmarks: record pages and patches of realistic shapes.
+ * The output depends only on the arguments, so runs are comparable.
+ */
+public final class Corpora {
+
+    /**
+     * The shapes of patch the bot sees.
+     */
+    public enum PatchShape {
+        /** A status change: one hunk, as in the {@code FilePatch} javadoc. */
+        SMALL(1, 7),
+        /** A new 5000 line record: one hunk of additions. */
+        LARGE(1, 5000),
+        /** Edits throughout a long record: 200 small hunks. */
+        MANY_HUNKS(200, 7);
+
+        final int hunks;
+        final int linesPerHunk;
+
+        PatchShape(int hunks, int linesPerHunk) {
+            this.hunks = hunks;
+            this.linesPerHunk = linesPerHunk;
+        }
+    }
+
+    private static final String[] WORDS = {
+        "the", "cluster", "operator", "should", "reconcile", "broker", "configuration", "when", "a", "tenant",
+        "requests", "more", "capacity", "and", "we", "need", "to", "decide", "whether", "control", "plane",
+        "data", "is", "stored", "in", "service", "registry", "or", "connectors", "with", "quota", "for", "each",
+        "instance", "this", "decision", "affects", "how", "upgrades", "are", "rolled", "out", "across", "zones",
+    };
+
+    private static final String[] ACRONYMS = {"ADR", "API", "SLO", "TLS", "CRD", "SSO", "ACL", "MTLS", "RBAC", "QoS"};
+
+    private Corpora() {
+    }
+
+    /**
+     * @return A line of prose, sometimes using (and sometimes defining) acronyms.
+     */
+    static String sentence(Random random) {
+        var sb = new StringBuilder();
+        int words = 6 + random.nextInt(14);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            int r = random.nextInt(20);
+            if (r == 0) {
+                sb.append(ACRONYMS[random.nextInt(ACRONYMS.length)]);
+            } else if (r == 1) {
+                sb.append("Three Letter Abbreviation (TLA)");
+            } else {
+                String word = WORDS[random.nextInt(WORDS.length)];
+                sb.append(i == 0 ? Character.toUpperCase(word.charAt(0)) + word.substring(1) : word);
+            }
+        }
+        return sb.append('.').toString();
+    }
+
+    /**
+     * @return Asciidoc prose of the given number of lines, one sentence per line, with occasional headings.
+     */
+    public static String prose(int lines, long seed) {
+        var random = new Random(seed);
+        var sb = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            if (i % 40 == 0) {
+                sb.append("== Section ").append(i / 40).append('\n');
+            } else if (i % 40 == 1) {
+                sb.append('\n');
+            } else {
+                sb.append(sentence(random)).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return The content of a record page with the given number of body lines.
+     */
+    public static String recordPage(int bodyLines, long seed) {
+        return "---\n" +
+                "num: 89\n" +
+                "title: \"Use a shared control plane database\"\n" +
+                "status: \"Draft\" # One of Draft, Accepted, Rejected\n" +
+                "authors:\n" +
+                "  - \"tombentley\"\n" +
+                "  - \"someone-else\"\n" +
+                "tags:\n" +
+                "  - \"kafka\"\n" +
+                "  - \"control-plane\"\n" +
+                "applies_padrs: # What PADRs does this ADR apply?\n" +
+                "applies_patterns: # What APs does this ADR apply?\n" +
+                "---\n" +
+                prose(bodyLines, seed);
+    }
+
+    /**
+     * @return A patch, in the format of the GitHub pull request files API, of the given shape.
+     */
+    public static String patch(PatchShape shape, long seed) {
+        var random = new Random(seed);
+        var sb = new StringBuilder();
+        int oldLine = 1;
+        int newLine = 1;
+        for (int h = 0; h < shape.hunks; h++) {
+            if (shape == PatchShape.LARGE) {
+                sb.append("@@ -0,0 +1,").append(shape.linesPerHunk).append(" @@\n");
+                for (int i = 0; i < shape.linesPerHunk; i++) {
+                    sb.append('+').append(i == 2 ? "status: \"Draft\"" : sentence(random)).append('\n');
+                }
+                continue;
+            }
+            // 3 lines of context either side of a one line change
+            int context = shape.linesPerHunk - 1;
+            sb.append("@@ -").append(oldLine).append(',').append(context)
+                    .append(" +").append(newLine).append(',').append(context)
+                    .append(" @@\n");
+            for (int i = 0; i < context; i++) {
+                if (i == context / 2) {
+                    sb.append('-').append(h == 0 ? "status: \"Draft\"" : sentence(random)).append('\n');
+                    sb.append('+').append(h == 0 ? "status: \"Accepted\"" : sentence(random)).append('\n');
+                } else {
+                    sb.append(' ').append(sentence(random)).append('\n');
+                }
+            }
+            oldLine += 25;
+            newLine += 25;
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Finding suspect terms in the lines of a 10000 line record, with {@link TermScanner}
+ * and with a regex per term.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TermScannerBenchmark {
+
+    @Param({"10", "200"})
+    public int terms;
+
+    private List<String> lines;
+    private TermScanner scanner;
+    private List<Pattern> patterns;
+
+    @Setup
+    public void setup() {
+        lines = Corpora.prose(10000, 42).lines().collect(Collectors.toList());
+        var random = new Random(42);
+        List<String> dictionary = new ArrayList<>(List.of("tenant", "control plane", "quota"));
+        while (dictionary.size() < terms) {
+            var sb = new StringBuilder();
+            for (int i = 0; i < 4 + random.nextInt(6); i++) {
+                sb.append((char) ('a' + random.nextInt(26)));
+            }
+            dictionary.add(sb.toString());
+        }
+        scanner = new TermScanner(dictionary);
+        patterns = new ArrayList<>();
+        for (String term : dictionary) {
+            patterns.add(Pattern.compile("\\b" + Pattern.quote(term) + "\\b", Pattern.CASE_INSENSITIVE));
+        }
+    }
+
+    @Benchmark
+    public void regexPerTerm(Blackhole blackhole) {
+        for (String line : lines) {
+            for (Pattern pattern : patterns) {
+                var matcher = pattern.matcher(line);
+                while (matcher.find()) {
+                    blackhole.consume(matcher.start());
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void scanner(Blackhole blackhole) {
+        for (String line : lines) {
+            scanner.scan(line, (term, start, end) -> blackhole.consume(start));
+        }
+    }
+}
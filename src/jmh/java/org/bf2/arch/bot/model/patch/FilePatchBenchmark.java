@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot.model.patch;
+
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.bf2.arch.bot.Corpora;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing patches, finding the lines in them, and applying them to the base page,
+ * as the review flow does for each file of a PR.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilePatchBenchmark {
+
+    private static final Pattern STATUS = Pattern.compile("^status:.*$");
+
+    @Param
+    public Corpora.PatchShape shape;
+
+    private String patch;
+    private FilePatch filePatch;
+    private String original;
+
+    @Setup
+    public void setup() {
+        patch = Corpora.patch(shape, 42);
+        filePatch = FilePatch.parsePatch(patch);
+        original = original(filePatch);
+    }
+
+    /**
+     * @return A file the patch applies to: the old lines of its hunks, where their headers say, among other lines.
+     */
+    static String original(FilePatch filePatch) {
+        var sb = new StringBuilder();
+        int line = 1;
+        for (Hunk hunk : filePatch.hunks()) {
+            for (; line < hunk.oldStartLine(); line++) {
+                sb.append("Line ").append(line).append(" isn't in the patch.\n");
+            }
+            for (Line hunkLine : hunk.lines()) {
+                if (hunkLine.type() != Line.Type.ADD) {
+                    sb.append(hunkLine.line()).append('\n');
+                    line++;
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    @Benchmark
+    public FilePatch parsePatch() {
+        return FilePatch.parsePatch(patch);
+    }
+
+    @Benchmark
+    public long linesMatching() {
+        return filePatch.linesMatching(EnumSet.of(Line.Type.ADD), STATUS).count();
+    }
+
+    @Benchmark
+    public String apply() {
+        return filePatch.apply(original);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot.model.record;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Classifies the files of a 300 file PR (the most the PR files API lists),
+ * with {@link RecordPathClassifier} and with the regex-per-call {@code RecordType.recordOf} it replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecordPathClassifierBenchmark {
+
+    private List<String> paths;
+
+    @Setup
+    public void setup() {
+        var random = new Random(42);
+        paths = new ArrayList<>();
+        String[] others = {"README.md", "_config.yml", "_layouts/default.html", "bf2-arch-bot.yml",
+            "assets/images/diagram.png", "_adr/index.adoc"};
+        for (int i = 0; i < 300; i++) {
+            if (i % 3 == 0) {
+                paths.add(others[random.nextInt(others.length)]);
+            } else {
+                RecordType recordType = RecordType.values()[random.nextInt(RecordType.values().length)];
+                paths.add(i % 10 == 1
+                        ? recordType.repoDir + "/" + random.nextInt(100) + "/diagram.png"
+                        : recordType.path(random.nextInt(400)));
+            }
+        }
+    }
+
+    /** {@code RecordType.recordOf} as it was, compiling a regex per call. */
+    static RecordId legacyRecordOf(RecordType recordType, String repoPath) {
+        Pattern p = Pattern.compile(recordType.repoDir + "/(?<num>[0-9]+)/index.adoc");
+        Matcher matcher = p.matcher(repoPath);
+        if (matcher.matches()) {
+            return new RecordId(recordType, Integer.parseInt(matcher.group("num")));
+        } else {
+            return null;
+        }
+    }
+
+    @Benchmark
+    public void legacy(Blackhole blackhole) {
+        for (String path : paths) {
+            for (RecordType recordType : RecordType.values()) {
+                blackhole.consume(legacyRecordOf(recordType, path));
+            }
+        }
+    }
+
+    /** {@code RecordType.recordOf}, as still used by callers which only care about one type. */
+    @Benchmark
+    public void recordOf(Blackhole blackhole) {
+        for (String path : paths) {
+            for (RecordType recordType : RecordType.values()) {
+                blackhole.consume(recordType.recordOf(path));
+            }
+        }
+    }
+
+    @Benchmark
+    public void classifier(Blackhole blackhole) {
+        for (String path : paths) {
+            blackhole.consume(RecordPathClassifier.DEFAULT.classify(path));
+        }
+    }
+}
@@ -1,6 +1,12 @@
 package org.bf2.arch.bot;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -33,6 +39,31 @@ public class ArchBotConfig {
      */
     String publishedUrl = "https://architecture.appservices.tech";
 
+    /**
+     * Acronyms which records can use without defining them.
+     */
+    @JsonDeserialize(as = TreeSet.class)
+    Set<String> knownAcronyms = new TreeSet<>();
+
+    /**
+     * Terms which records shouldn't use (matched ignoring case), each mapped to advice about what to use instead.
+     */
+    @JsonDeserialize(as = LinkedHashMap.class)
+    Map<String, String> suspectTerms = new LinkedHashMap<>();
+
+    /**
+     * @return A digest of the config, which changes when any of its settings do.
+     */
+    public String revision() {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256").digest(toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            // Every JRE has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
     @Override
     public String toString() {
         return "ArchBotConfig(" +
@@ -40,6 +71,8 @@ public class ArchBotConfig {
                 ", stalledDiscussionPollTimeMins=" + stalledDiscussionPollTimeMins +
                 ", recordCreationApprovers=" + recordCreationApprovers +
                 ", publishedUrl='" + publishedUrl + '\'' +
+                ", knownAcronyms=" + knownAcronyms +
+                ", suspectTerms=" + suspectTerms +
                 ')';
     }
 }
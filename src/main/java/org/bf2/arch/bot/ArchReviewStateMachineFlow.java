@@ -16,6 +16,7 @@
  */
 package org.bf2.arch.bot;
 
+import javax.inject.Inject;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.EnumSet;
@@ -26,7 +27,6 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.stream.Collectors;
 
 import io.quarkiverse.githubapp.ConfigFile;
 import io.quarkiverse.githubapp.event.IssueComment;
@@ -36,7 +36,6 @@ import org.bf2.arch.bot.model.record.RecordType;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.kohsuke.github.GHEventPayload;
 import org.kohsuke.github.GHIssue;
-import org.kohsuke.github.GHPerson;
 import org.kohsuke.github.GHPullRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,9 +44,14 @@ public class ArchReviewStateMachineFlow {
     private static final Logger LOG = LoggerFactory.getLogger(ArchReviewStateMachineFlow.class);
 
     private static final String ENABLE = "bot.enable.state-machine";
+    private static final String CLASSIFY = "classify";
+    private static final String READY_FOR_MERGE = "ready-for-merge";
     @ConfigProperty(name = ENABLE, defaultValue = "false")
     boolean enabled;
 
+    @Inject
+    PullRequestEventQueue queue;
+
     /**
      * <pre>
      * WHEN
@@ -76,14 +80,25 @@ public class ArchReviewStateMachineFlow {
             return;
         }
         GHPullRequest pullRequest = pullRequestPayload.getPullRequest();
-        if (!pullRequest.isDraft()
-                && !Util.isThisBot(config, pullRequestPayload.getSender())) {
-            LOG.info("Processing PR#{}", pullRequest.getId());
-            Set<String> existingLabels = Util.existingLabels(pullRequest);
-            LOG.info("PR#{}: existing labels {}", pullRequest.getId(), existingLabels);
+        if (!Util.isThisBot(config, pullRequestPayload.getSender())) {
+            queue.submit(CLASSIFY, pullRequest, this::classify);
+        } else {
+            LOG.info("Ignoring PR#{}", pullRequest.getId());
+        }
+    }
+
+    /**
+     * Classifies the latest state of a PR, once a burst of events about it has been coalesced.
+     */
+    void classify(PullRequestSnapshot snapshot) throws IOException {
+        GHPullRequest pullRequest = snapshot.pullRequest();
+        if (!pullRequest.isDraft()) {
+            LOG.info("Processing PR#{}", snapshot.number());
+            Set<String> existingLabels = snapshot.labels();
+            LOG.info("PR#{}: existing labels {}", snapshot.number(), existingLabels);
             Set<String> labels = new HashSet<>(existingLabels);
-            EnumSet<RecordType> touchedRecords = touchesRecord(pullRequest);
-            LOG.info("PR#{} touches {}", pullRequest.getId(), touchedRecords);
+            EnumSet<RecordType> touchedRecords = touchesRecord(snapshot);
+            LOG.info("PR#{} touches {}", snapshot.number(), touchedRecords);
             if (!touchedRecords.isEmpty()) {
                 labels.remove(Labels.TYPE_INFRA);
                 touchedRecords.forEach(x -> {
@@ -99,7 +114,7 @@ public class ArchReviewStateMachineFlow {
                             break;
                     }
                 });
-                if (pullRequest.getRequestedReviewers().isEmpty()) {
+                if (snapshot.requestedReviewers().isEmpty()) {
                     labels.add(Labels.STATE_NEEDS_REVIEWERS);
                 } else {
                     labels.remove(Labels.STATE_NEEDS_REVIEWERS);
@@ -113,33 +128,26 @@ public class ArchReviewStateMachineFlow {
             }
 
             if (!existingLabels.equals(labels)) {
-                LOG.info("PR#{}: updating labels {}", pullRequest.getId(), labels);
-                Util.setLabels(pullRequest, labels);
+                LOG.info("PR#{}: updating labels {}", snapshot.number(), labels);
+                snapshot.setLabels(labels);
             } else {
-                LOG.info("PR#{}: unchanged labels", pullRequest.getId());
+                LOG.info("PR#{}: unchanged labels", snapshot.number());
             }
         } else {
-            LOG.info("Ignoring PR#{}", pullRequest.getId());
+            LOG.info("Ignoring PR#{}", snapshot.number());
         }
     }
 
     /**
      * Returns true if the PR touches any record (ADR, AP, PADR)
-     * @param pullRequest The pull request
+     * @param snapshot The pull request
      * @return true iff a record file is touched by the commits in the PR.
      */
-    EnumSet<RecordType> touchesRecord(GHPullRequest pullRequest) {
+    EnumSet<RecordType> touchesRecord(PullRequestSnapshot snapshot) {
         EnumSet<RecordType> touchesRecord = EnumSet.noneOf(RecordType.class);
-        var prNumber = pullRequest.getNumber();
-        for (var fileDetail : pullRequest.listFiles()) {
-            String repoPath = fileDetail.getFilename();
-            LOG.info("PR #{} modifies file {}", prNumber, repoPath);
-            for (var rt : RecordType.values()) {
-                RecordId recordId = rt.recordOf(repoPath);
-                if (recordId != null) {
-                    touchesRecord.add(rt);
-                }
-            }
+        for (RecordId recordId : snapshot.touchedRecords()) {
+            LOG.info("PR #{} modifies record {}", snapshot.number(), recordId);
+            touchesRecord.add(recordId.recordType());
         }
         return touchesRecord;
     }
@@ -179,8 +187,16 @@ public class ArchReviewStateMachineFlow {
         if (pullRequest == null) {
             return;
         }
+        queue.submit(READY_FOR_MERGE, pullRequest, this::readyForMerge);
+    }
 
-        Set<String> reviewers = pullRequest.getRequestedReviewers().stream().map(GHPerson::getLogin).collect(Collectors.toSet());
+    /**
+     * Checks the reviewers' conclusions on the latest state of a PR, once a burst of comments on it has been coalesced.
+     */
+    void readyForMerge(PullRequestSnapshot snapshot) throws IOException {
+        GHPullRequest pullRequest = snapshot.pullRequest();
+        GHIssue issue = pullRequest;
+        Set<String> reviewers = snapshot.requestedReviewers();
 
         if (reviewers.isEmpty()) {
             LOG.debug("PR#{}: Ignoring because it has no reviewers", issue.getNumber());
@@ -188,7 +204,7 @@ public class ArchReviewStateMachineFlow {
         }
 
         Map<String, ReviewerDisposition> outcomes = new HashMap<>();
-        for (var comment : issue.getComments()) {
+        for (var comment : snapshot.comments()) {
             String reviewer = comment.getUser().getLogin();
             if (reviewers.contains(reviewer)) {
                 // TODO might want to check for these as words, not merely contains
@@ -211,7 +227,7 @@ public class ArchReviewStateMachineFlow {
             // All reviewers have expressed a conclusion
             LOG.debug("PR#{}: All reviewers have now expressed their opinion",
                     issue.getNumber());
-            Set<String> labels = Util.existingLabels(pullRequest);
+            Set<String> labels = new HashSet<>(snapshot.labels());
             if (new HashSet<>(outcomes.values()).size() == 1) {
                 // And they've all reached the same conclusion
                 LOG.debug("PR#{}: All reviewers have now the same opinion",
@@ -242,7 +258,7 @@ public class ArchReviewStateMachineFlow {
                 // Tag with split review
                 labels.add(Labels.NOTICE_SPLIT_REVIEW);
             }
-            Util.setLabels(pullRequest, labels);
+            snapshot.setLabels(labels);
         } else {
             LOG.debug("PR#{}: Not all reviewers have expressed their opinion",
                     issue.getNumber());
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import java.io.IOException;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * The names of the bot's own metrics, and helpers for recording them.
+ * The metrics are exposed for Prometheus at {@code /q/metrics}.
+ */
+public final class BotMetrics {
+
+    /** A timer of runs of a flow, tagged with the flow and the outcome. */
+    public static final String FLOW_DURATION = "bot.flow.duration";
+
+    /** A gauge of the number of PRs with actions waiting in the {@link PullRequestEventQueue}. */
+    public static final String QUEUE_DEPTH = "bot.queue.depth";
+
+    /** A timer of how long work waits in the {@link PullRequestEventQueue} for a worker, once it's ready to run. */
+    public static final String QUEUE_WAIT = "bot.queue.wait";
+
+    /** A counter of the work the {@link PullRequestEventQueue} turned away because it was full. */
+    public static final String QUEUE_REJECTED = "bot.queue.rejected";
+
+    /** A timer of runs of a {@link ReviewRule} over a record, tagged with the rule and the outcome. */
+    public static final String REVIEW_RULE_DURATION = "bot.review.rule.duration";
+
+    /** A counter of duplicate deliveries and commands dropped, tagged with the kind of key they duplicated. */
+    public static final String DUPLICATES = "bot.dedup.dropped";
+
+    private BotMetrics() {
+    }
+
+    /**
+     * The body of a flow.
+     */
+    @FunctionalInterface
+    public interface Body {
+        void run() throws IOException;
+    }
+
+    /**
+     * Runs the given body, recording its duration and whether it succeeded.
+     */
+    public static void timeFlow(MeterRegistry registry, String flow, Body body) throws IOException {
+        Timer.Sample sample = Timer.start(registry);
+        String outcome = "failure";
+        try {
+            body.run();
+            outcome = "success";
+        } finally {
+            sample.stop(Timer.builder(FLOW_DURATION)
+                    .description("Runs of each flow")
+                    .tag("flow", flow)
+                    .tag("outcome", outcome)
+                    .register(registry));
+        }
+    }
+}
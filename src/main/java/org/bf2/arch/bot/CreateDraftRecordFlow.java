@@ -1,34 +1,42 @@
 package org.bf2.arch.bot;
 
+import javax.inject.Inject;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.text.MessageFormat;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import io.quarkiverse.githubapp.ConfigFile;
 import io.quarkiverse.githubapp.event.IssueComment;
+import io.quarkiverse.githubapp.event.PullRequest;
 import org.bf2.arch.bot.model.record.RecordPage;
 import org.bf2.arch.bot.model.record.RecordId;
 import org.bf2.arch.bot.model.record.RecordType;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.context.ManagedExecutor;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.kohsuke.github.GHBranch;
 import org.kohsuke.github.GHCommit;
 import org.kohsuke.github.GHContent;
 import org.kohsuke.github.GHEventPayload;
+import org.kohsuke.github.GHFileNotFoundException;
 import org.kohsuke.github.GHIssue;
 import org.kohsuke.github.GHPerson;
 import org.kohsuke.github.GHPullRequest;
 import org.kohsuke.github.GHRepository;
 import org.kohsuke.github.GHTree;
-import org.kohsuke.github.GHTreeEntry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -54,19 +62,52 @@ import org.slf4j.LoggerFactory;
  *
  * Post condition: An ADR in the draft state exists.
  * The user can then edit that ADR in their own branch.
+ *
+ * <p>The steps are checkpointed in the {@link EventJournal}, so that a creation interrupted by a restart is
+ * resumed, rather than repeated, when the comment's event is replayed.</p>
  */
 public class CreateDraftRecordFlow {
 
     public static final Pattern CMD_CREATE = Pattern.compile("/create +(?<recordType>p?adr|ap)", Pattern.CASE_INSENSITIVE);
     public static final Pattern CMD_SUPERSEDE = Pattern.compile("/supersede +(?<recordType>p?adr|ap) +(?<num>[0-9]+)", Pattern.CASE_INSENSITIVE);
+    /** The branches of the PRs for draft records, see {@link #branchRef(RecordId)}. */
+    static final Pattern DRAFT_BRANCH = Pattern.compile("create-(?<recordType>PADR|ADR|AP)-(?<num>[0-9]+)");
 
     private static final Logger LOG = LoggerFactory.getLogger(CreateDraftRecordFlow.class);
 
     public static final String ENABLE = "bot.enable.create-draft";
+    private static final String FLOW = "create-draft";
+
+    /** The checkpointed steps of a creation. */
+    static final String STEP_RECORD = "record";
+    static final String STEP_PULL_REQUEST = "pull-request";
+    static final String STEP_MERGED = "merged";
+    static final String STEP_COMMENTED = "commented";
 
     @ConfigProperty(name = ENABLE, defaultValue = "false")
     boolean enabled;
 
+    @Inject
+    RecordIdAllocator allocator;
+
+    @Inject
+    RecordPageCache pageCache;
+
+    @Inject
+    ManagedExecutor executor;
+
+    @Inject
+    PullRequestEventQueue queue;
+
+    @Inject
+    EventJournal journal;
+
+    @Inject
+    IdempotencyKeys.Commands keys;
+
+    @Inject
+    MeterRegistry registry;
+
 
     /**
      * Creates a PR for a Draft ADR when an issue comment has {@code /create-adr} (or ap, or padr),
@@ -87,30 +128,91 @@ public class CreateDraftRecordFlow {
         if (config == null) {
             throw new IllegalStateException("Repo is missing config file");
         }
-        LOG.debug("Config: {}", config);
-        boolean authorized = isAuthorized(commentPayload, config);
+        // Everything up to queueing the creation uses only the payload, so duplicates cost no requests
         String body = commentPayload.getComment().getBody().trim();
         Matcher createMatcher = CMD_CREATE.matcher(body);
-        if (createMatcher.matches()
-                && authorized) {
-            var recordType = RecordType.valueOf(createMatcher.group("recordType").toUpperCase(Locale.ROOT));
-            createDraft(config, commentPayload, recordType, -1);
+        Matcher supersedureMatcher = CMD_SUPERSEDE.matcher(body);
+        RecordType recordType;
+        int supersedesRecord;
+        if (createMatcher.matches()) {
+            recordType = RecordType.valueOf(createMatcher.group("recordType").toUpperCase(Locale.ROOT));
+            supersedesRecord = -1;
+        } else if (supersedureMatcher.matches()) {
+            recordType = RecordType.valueOf(supersedureMatcher.group("recordType").toUpperCase(Locale.ROOT));
+            supersedesRecord = Integer.parseInt(supersedureMatcher.group("num"));
         } else {
-            Matcher supersedureMatcher = CMD_SUPERSEDE.matcher(body);
-            if (supersedureMatcher.matches()
-                    && authorized) {
-                var recordType = RecordType.valueOf(supersedureMatcher.group("recordType").toUpperCase(Locale.ROOT));
-                var supersedesRecord = Integer.parseInt(supersedureMatcher.group("num"));
-                createDraft(config, commentPayload, recordType, supersedesRecord);
-            } else {
-                LOG.debug("Ignoring message on issue #{}: {}", commentPayload.getIssue().getNumber(), body);
+            LOG.debug("Ignoring message on issue #{}: {}", commentPayload.getIssue().getNumber(), body);
+            return;
+        }
+        if (!isAuthorized(commentPayload, config)) {
+            LOG.debug("Ignoring command on issue #{}: not authorized", commentPayload.getIssue().getNumber());
+            return;
+        }
+        // A redelivered or edited comment repeats the command, which must not create another record
+        String key = commandKey(commentPayload.getComment().getId(), recordType, supersedesRecord);
+        if (!keys.add(key)) {
+            LOG.info("Ignoring repeated command {}", key);
+            registry.counter(BotMetrics.DUPLICATES, "key", "command").increment();
+            return;
+        }
+        // Creating a draft takes a dozen requests, so don't hold up the dispatch of other events
+        boolean queued = queue.execute(commentPayload.getRepository().getFullName(), FLOW, () -> {
+            LOG.debug("Config: {}", config);
+            try {
+                createDraft(config, commentPayload, key, recordType, supersedesRecord);
+            } catch (IOException | RuntimeException e) {
+                // The command can be given again, and a redelivery can resume it
+                keys.remove(key);
+                throw e;
             }
+        });
+        if (!queued) {
+            keys.remove(key);
         }
 
         // TODO support /help
         // TODO should we only respond on open issues?
     }
 
+    /**
+     * Gives back the id of a draft record whose PR was closed without being merged.
+     * The draft's branch is deleted, since it would otherwise keep the id taken, and the id's reservation released.
+     * @param payload The payload
+     * @throws IOException From github
+     */
+    public void onPullRequestClosed(@PullRequest.Closed GHEventPayload.PullRequest payload) throws IOException {
+        if (!enabled) {
+            LOG.debug("Ignoring event: disabled due to {}=false", ENABLE);
+            return;
+        }
+        var pullRequest = payload.getPullRequest();
+        var repo = payload.getRepository();
+        var head = pullRequest.getHead();
+        RecordId draftRecord = draftRecord(head.getRef());
+        if (draftRecord == null || pullRequest.isMerged()
+                || head.getRepository() == null || !repo.getFullName().equals(head.getRepository().getFullName())) {
+            return;
+        }
+        LOG.info("PR#{}: closed without merging, giving back {}", pullRequest.getNumber(), draftRecord);
+        try {
+            repo.getRef("heads/" + head.getRef()).delete();
+        } catch (GHFileNotFoundException e) {
+            LOG.debug("PR#{}: branch {} already deleted", pullRequest.getNumber(), head.getRef());
+        }
+        allocator.release(repo, draftRecord);
+    }
+
+    /**
+     * @return The draft record whose PR has the given branch, or null if the branch isn't for a draft record.
+     */
+    static RecordId draftRecord(String branch) {
+        Matcher matcher = DRAFT_BRANCH.matcher(branch);
+        if (!matcher.matches()) {
+            return null;
+        }
+        return new RecordId(RecordType.valueOf(matcher.group("recordType")), Integer.parseInt(matcher.group("num")));
+    }
+
     private boolean isAuthorized(GHEventPayload.IssueComment commentPayload, ArchBotConfig config) throws IOException {
         String userLogin = commentPayload.getComment().getUser().getLogin();
         LOG.debug("Issue #{}, isAuthorized: recordCreationApprovers={}, user={}",
@@ -120,64 +222,240 @@ public class CreateDraftRecordFlow {
         return config.recordCreationApprovers.contains(userLogin);
     }
 
+    /**
+     * @return The key identifying a command given in a comment.
+     */
+    static String commandKey(long commentId, RecordType recordType, int supersedesRecordNum) {
+        return FLOW + ":" + commentId + ":"
+                + (supersedesRecordNum > 0 ? "supersede " + recordType + " " + supersedesRecordNum : "create " + recordType);
+    }
+
     private void createDraft(ArchBotConfig config, GHEventPayload.IssueComment commentPayload,
+                             String key,
                              RecordType recordType,
                              int supersedesRecordNum) throws IOException {
 
         var issue = commentPayload.getIssue();
+        // The comment's event may be seen again after a restart, so the steps are checkpointed
+        var progress = journal.progress(key);
+        if (progress.containsKey(EventJournal.DONE)) {
+            LOG.info("Ignoring comment {}: already done", key);
+            return;
+        }
+        var timings = new PhaseTimings();
         try {
             var repo = issue.getRepository();
-            LOG.debug("Creating {} in {}", recordType, repo);
             var defaultBranchName = repo.getDefaultBranch();
-            var defaultBranch = repo.getBranch(defaultBranchName);
-            LOG.debug("Using branch {} to find current max ID", defaultBranch.getName());
-            var defaultBranchSha = defaultBranch.getSHA1();
-            LOG.debug("Branch {} tip is {}", defaultBranch.getName(), defaultBranchSha);
-            // Allocate a new ADR id
-            var draftRecord = new RecordId(recordType, allocateId(repo, defaultBranchSha, recordType));
+            var authors = recordAuthors(issue).collect(Collectors.toList());
 
-            var tree = repo.createTree()
-                    .baseTree(defaultBranchSha);
+            RecordId draftRecord;
+            if (progress.containsKey(STEP_RECORD)) {
+                draftRecord = parseRecordId(progress.get(STEP_RECORD));
+                LOG.info("Resuming creation of {} in {}", draftRecord, repo.getFullName());
+            } else {
+                draftRecord = createBranch(repo, defaultBranchName, issue, recordType, supersedesRecordNum, authors, timings);
+                journal.checkpoint(key, STEP_RECORD, draftRecord.recordType() + ":" + draftRecord.num());
+            }
+            var commitMessage = commitMessage(draftRecord, issue);
+            var branchRef = branchRef(draftRecord);
+
+            // Open a PR
+            GHPullRequest pr;
+            if (progress.containsKey(STEP_PULL_REQUEST)) {
+                pr = repo.getPullRequest(Integer.parseInt(progress.get(STEP_PULL_REQUEST)));
+            } else {
+                pr = openPullRequest(repo, defaultBranchName, draftRecord, commitMessage, branchRef);
+                journal.checkpoint(key, STEP_PULL_REQUEST, Integer.toString(pr.getNumber()));
+            }
+            timings.phase("pr");
+
+            // Merge it
+            if (!progress.containsKey(STEP_MERGED)) {
+                if (!progress.containsKey(STEP_PULL_REQUEST) || !pr.isMerged()) {
+                    pr.merge(commitMessage, null, GHPullRequest.MergeMethod.REBASE);
+                }
+                journal.checkpoint(key, STEP_MERGED, "");
+            }
+            timings.phase("merge");
+            LOG.info("Created {} in {}: {}", draftRecord, repo.getFullName(), timings);
+
+            // The record exists now, so the issue is tidied up without holding up the event
+            boolean commented = progress.containsKey(STEP_COMMENTED);
+            executor.supplyAsync(unchecked(() -> {
+                // Comment on the issue with instructions
+                if (!commented) {
+                    issue.comment(String.format(
+                            "Closing following creation of [%s](%s)\n" +
+                                    "%s, please write your content in [%s](%s) and open a PR for %s acceptance.",
+                            draftRecord, draftRecord.publishedUrl(config.publishedUrl),
+                            authors.stream().map(login -> "@" + login).collect(Collectors.joining(", ")),
+                            draftRecord.repoPath(), githubFileLink(issue.getRepository(), draftRecord),
+                            draftRecord.recordType()));
+                    journal.checkpoint(key, STEP_COMMENTED, "");
+                }
+
+                // Close the issue
+                issue.close();
+                journal.checkpoint(key, EventJournal.DONE, "");
+                return null;
+            })).whenComplete((ignored, e) -> {
+                if (e != null) {
+                    LOG.error("Unable to comment on and close issue #{} after creating {}", issue.getNumber(), draftRecord, e);
+                }
+            });
+        } catch (BotError e) {
+            // Nothing was created, so the command can be given again, once whatever the error says is fixed
+            issue.comment(e.getMessage());
+            keys.remove(key);
+        }
+    }
 
+    /**
+     * Allocates an id for the record, and creates a branch with a commit of its draft page
+     * (and the superseded record's updated page).
+     */
+    private RecordId createBranch(GHRepository repo,
+                                  String defaultBranchName,
+                                  GHIssue issue,
+                                  RecordType recordType,
+                                  int supersedesRecordNum,
+                                  List<String> authors,
+                                  PhaseTimings timings) throws IOException {
+        LOG.debug("Creating {} in {}", recordType, repo);
+        var defaultBranch = repo.getBranch(defaultBranchName);
+        LOG.debug("Using branch {} to find current max ID", defaultBranch.getName());
+        var defaultBranchSha = defaultBranch.getSHA1();
+        LOG.debug("Branch {} tip is {}", defaultBranch.getName(), defaultBranchSha);
+        timings.phase("branch");
+
+        // The pages don't depend on the id, so read them while the id is being allocated
+        var supersededRecord = supersedesRecordNum > 0 ? new RecordId(recordType, supersedesRecordNum) : null;
+        CompletableFuture<RecordPage> template = executor.supplyAsync(unchecked(() ->
+                pageCache.page(repo, defaultBranchSha, recordType.path(0))));
+        CompletableFuture<RecordPage> superseded = supersededRecord == null
+                ? CompletableFuture.completedFuture(null)
+                : executor.supplyAsync(unchecked(() -> pageCache.page(repo, defaultBranchSha, supersededRecord.repoPath())));
+        var tags = recordTags(issue);
+
+        // Allocate a new ADR id, and create a branch with the draft
+        return allocator.allocate(repo, defaultBranchSha, recordType, recordId -> {
+            timings.attempt();
+            timings.phase("allocate");
             // generate content from template
-            var draftRecordContent = draftContent(repo, defaultBranch,
-                    draftRecord,
+            var draftRecordContent = renderTemplate(recordId,
                     issue.getTitle(),
-                    recordAuthors(issue).collect(Collectors.toList()),
-                    recordTags(issue));
-            tree.add(draftRecord.repoPath(), draftRecordContent.toContentString(), false);
+                    authors,
+                    tags,
+                    join(template).copy());
+            timings.phase("read");
+
+            // All the files go in a single tree
+            var tree = repo.createTree()
+                    .baseTree(defaultBranchSha);
+            tree.add(recordId.repoPath(), draftRecordContent.toContentString(), false);
 
             // update the supersede record
-            if (supersedesRecordNum > 0) {
+            if (supersededRecord != null) {
                 // update the superseded record content
-                var supersededRecord = new RecordId(recordType, supersedesRecordNum);
-                // TODO handle the case where the superseded record doesn't exist
-                var supersededPage = supersededContent(repo, defaultBranch, supersededRecord, draftRecord.num());
+                var supersededPage = supersededContent(join(superseded), supersededRecord, recordId.num());
                 tree.add(supersededRecord.repoPath(), supersededPage.toContentString(), false);
             }
 
-            var commitMessage = String.format("%s: Create draft\nFixes #%d", draftRecord, issue.getNumber());
-            var branchRef = createCommit(draftRecord, repo, defaultBranchSha, commitMessage, tree.create());
+            createCommit(recordId, repo, defaultBranchSha, commitMessage(recordId, issue), tree.create());
+            timings.phase("commit");
+            return recordId;
+        });
+    }
 
-            // Open a PR
-            var pr = openPullRequest(repo, defaultBranchName, draftRecord, commitMessage, branchRef);
+    /**
+     * @return The record id checkpointed as {@code <type>:<num>}.
+     */
+    static RecordId parseRecordId(String checkpointed) {
+        int colon = checkpointed.indexOf(':');
+        return new RecordId(RecordType.valueOf(checkpointed.substring(0, colon)),
+                Integer.parseInt(checkpointed.substring(colon + 1)));
+    }
 
-            // Merge it
-            pr.merge(commitMessage, null, GHPullRequest.MergeMethod.REBASE);
-
-            // Comment on the issue with instructions
-            issue.comment(String.format(
-                    "Closing following creation of [%s](%s)\n" +
-                            "%s, please write your content in [%s](%s) and open a PR for %s acceptance.",
-                    draftRecord, draftRecord.publishedUrl(config.publishedUrl),
-                    recordAuthors(issue).map(login -> "@" + login).collect(Collectors.joining(", ")),
-                    draftRecord.repoPath(), githubFileLink(issue.getRepository(), draftRecord),
-                    draftRecord.recordType()));
-
-            // Close the issue
-            issue.close();
-        } catch (BotError e) {
-            issue.comment(e.getMessage());
+    /**
+     * Something which can throw an IOException.
+     */
+    @FunctionalInterface
+    interface IoSupplier<T> {
+        T get() throws IOException;
+    }
+
+    private static <T> Supplier<T> unchecked(IoSupplier<T> supplier) {
+        return () -> {
+            try {
+                return supplier.get();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+    /**
+     * @return The result of the given future, rethrowing its failure as thrown by the task.
+     */
+    private static <T> T join(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * The time taken by each phase of a creation, for logging.
+     * Only the phases of the last {@linkplain #attempt() attempt} are shown,
+     * with the time taken by the earlier attempts shown as a single {@code retries} phase.
+     */
+    static class PhaseTimings {
+        private final StringBuilder sb = new StringBuilder();
+        private final long start = System.nanoTime();
+        private long last = start;
+        /** The length of {@link #sb} before the first attempt's phases, or -1 before the first attempt. */
+        private int attemptMark = -1;
+        private long attemptStart;
+        private int retries;
+        private long retriedNanos;
+
+        /**
+         * Starts an attempt at the phases which follow, discarding the phases of the previous attempt, if any.
+         */
+        void attempt() {
+            long now = System.nanoTime();
+            if (attemptMark < 0) {
+                attemptMark = sb.length();
+                attemptStart = last;
+            } else {
+                sb.setLength(attemptMark);
+                retries++;
+                retriedNanos += now - attemptStart;
+                attemptStart = now;
+                last = now;
+            }
+        }
+
+        void phase(String name) {
+            long now = System.nanoTime();
+            sb.append(name).append('=').append((now - last) / 1_000_000).append("ms, ");
+            last = now;
+        }
+
+        @Override
+        public String toString() {
+            var phases = new StringBuilder(sb);
+            if (retries > 0) {
+                phases.insert(attemptMark, "retries=" + retries + " in " + retriedNanos / 1_000_000 + "ms, ");
+            }
+            return phases + "total=" + (last - start) / 1_000_000 + "ms";
         }
     }
 
@@ -187,11 +465,9 @@ public class CreateDraftRecordFlow {
     }
 
     @NotNull
-    private static RecordPage supersededContent(GHRepository repo,
-                                                GHBranch defaultBranch,
-                                                RecordId supersededRecord,
-                                                int supersededBy) throws IOException {
-        var supersededPage = getPage(repo, defaultBranch, supersededRecord.repoPath());
+    static RecordPage supersededContent(RecordPage supersededPage,
+                                        RecordId supersededRecord,
+                                        int supersededBy) {
         if (supersededPage == null) {
             throw new BotError(String.format("There is no %s with number %d", supersededRecord.recordType(), supersededRecord.num()));
         }
@@ -234,6 +510,19 @@ public class CreateDraftRecordFlow {
     }
 
 
+    private static String commitMessage(RecordId record, GHIssue issue) {
+        return String.format("%s: Create draft\nFixes #%d", record, issue.getNumber());
+    }
+
+    private static String branchRef(RecordId record) {
+        return String.format("refs/heads/create-%s", record);
+    }
+
+    /**
+     * Creates the commit for the record, and the branch for the commit.
+     * @throws RecordIdAllocator.IdTakenException If the branch already exists, meaning that the record's id
+     * has been taken by a concurrent creation.
+     */
     private String createCommit(RecordId record,
                                 GHRepository repo,
                                 String defaultBranchSha,
@@ -244,26 +533,18 @@ public class CreateDraftRecordFlow {
                 .message(commitMessage)
                 .tree(tree.getSha()).create();
 
-        var refName = String.format("refs/heads/create-%s", record);
-        repo.createRef(refName, commit.getSHA1());
+        var refName = branchRef(record);
+        try {
+            repo.createRef(refName, commit.getSHA1());
+        } catch (IOException e) {
+            if (RecordIdAllocator.isRefConflict(e)) {
+                throw new RecordIdAllocator.IdTakenException(record, e);
+            }
+            throw e;
+        }
         return refName;
     }
 
-    @NotNull
-    private RecordPage draftContent(GHRepository repo,
-                                    GHBranch defaultBranch,
-                                    RecordId record,
-                                    String title,
-                                    List<String> authors,
-                                    List<String> tags) throws IOException {
-        var templateRepoPath = record.recordType().path(0);
-        return renderTemplate(record,
-                title,
-                authors,
-                tags,
-                getPage(repo, defaultBranch, templateRepoPath));
-    }
-
     @Nullable
     static RecordPage getPage(GHRepository repo, GHBranch defaultBranch, String repoPath) throws IOException {
         String content = getContent(repo, defaultBranch, repoPath);
@@ -297,28 +578,4 @@ public class CreateDraftRecordFlow {
         recordPage.frontMatter.tags = tags;
         return recordPage;
     }
-
-    int allocateId(GHRepository repo, String commitSha, RecordType recordType) throws IOException {
-        var collect = collect(repo.getCommit(commitSha).getTree(), recordType);
-        var maxId = collect.stream().map(entry -> {
-            String path = entry.getPath();
-            LOG.debug("Path: {}", path);
-            try {
-                return Integer.parseInt(path);
-            } catch (NumberFormatException e) {
-                return -1;
-            }
-        }).max(Integer::compareTo);
-
-        LOG.debug("Max existing {} id {}", recordType, maxId);
-        var nextId = maxId.orElse(1) + 1;
-        LOG.debug("Next {} id {}", recordType, nextId);
-        return nextId;
-    }
-
-    List<GHTreeEntry> collect(GHTree root, RecordType recordType) throws IOException {
-        var recordEntries = root.getEntry(recordType.repoDir);
-        LOG.debug("{} entry: {}", recordType.repoDir, recordEntries);
-        return recordEntries.asTree().getTree();
-    }
 }
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import javax.inject.Inject;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.vertx.web.RouteFilter;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.ext.web.RoutingContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drops webhook deliveries which have already been handled, as happens when a delivery is redelivered,
+ * before they reach the framework, so that they cost no GitHub requests.
+ *
+ * <p>A delivery is claimed when it arrives, so a redelivery which arrives while the original is still being handled
+ * is dropped too. The claim is released if the delivery isn't successfully accepted, so redelivering one which
+ * failed still works.</p>
+ */
+public class DuplicateDeliveryFilter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DuplicateDeliveryFilter.class);
+
+    static final String DELIVERY_HEADER = "X-GitHub-Delivery";
+
+    @Inject
+    IdempotencyKeys.Deliveries keys;
+
+    @Inject
+    MeterRegistry registry;
+
+    @RouteFilter
+    void filter(RoutingContext context) {
+        String deliveryId = context.request().getHeader(DELIVERY_HEADER);
+        if (context.request().method() != HttpMethod.POST || deliveryId == null) {
+            context.next();
+            return;
+        }
+        String key = "delivery:" + deliveryId;
+        if (!keys.add(key)) {
+            LOG.info("Dropping duplicate delivery {}", deliveryId);
+            registry.counter(BotMetrics.DUPLICATES, "key", "delivery").increment();
+            context.response().setStatusCode(200).end();
+            return;
+        }
+        context.addEndHandler(ended -> {
+            int status = context.response().getStatusCode();
+            if (ended.failed() || status < 200 || status >= 300) {
+                keys.remove(key);
+            }
+        });
+        context.next();
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import javax.annotation.Priority;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Event;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.quarkiverse.githubapp.GitHubEvent;
+import io.quarkus.runtime.StartupEvent;
+import io.quarkus.scheduler.Scheduled;
+import io.vertx.core.json.JsonObject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A durable record of the webhook events received and of the progress of the flows handling them,
+ * so that the work in hand when the bot stops is picked up again when it restarts.
+ *
+ * <p>Each event is journalled as it's received, before GitHub's delivery is acknowledged.
+ * The events are done with once the {@link PullRequestEventQueue} has finished all the work submitted up to
+ * {@code bot.journal.settle} after they were received, which is recorded as a watermark.
+ * On startup the events after the watermark are dispatched again, marked as replayed.</p>
+ *
+ * <p>So flows may see an event more than once. Flows whose effects can't be repeated record checkpoints
+ * of their progress, and on seeing the event again resume from the last checkpoint.</p>
+ *
+ * <p>The journal is a {@link Journal} under {@code ${bot.state.dir}/journal}, compacted as it grows.</p>
+ */
+@ApplicationScoped
+public class EventJournal {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventJournal.class);
+
+    public static final String ENABLE = "bot.journal.enabled";
+
+    /** The step which checkpoints the completion of a flow. */
+    public static final String DONE = "done";
+
+    private static final byte DELIVERY = 1;
+    private static final byte WATERMARK = 2;
+    private static final byte CHECKPOINT = 3;
+
+    /** How long the checkpoints of finished work are kept, in case the event they're for is seen again. */
+    static final Duration CHECKPOINT_RETENTION = Duration.ofHours(24);
+
+    /**
+     * A journalled event.
+     */
+    static class Delivery {
+        final long seq;
+        final long receivedAt;
+        final GitHubEvent event;
+
+        Delivery(long seq, long receivedAt, GitHubEvent event) {
+            this.seq = seq;
+            this.receivedAt = receivedAt;
+            this.event = event;
+        }
+    }
+
+    /**
+     * A flow's progress with a piece of work.
+     */
+    private static class Progress {
+        final Map<String, String> steps = new LinkedHashMap<>();
+        long updatedAt;
+    }
+
+    @ConfigProperty(name = ENABLE, defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "bot.state.dir", defaultValue = "/tmp/bf2-arch-bot")
+    String stateDir;
+
+    @ConfigProperty(name = "bot.journal.settle", defaultValue = "PT10S")
+    Duration settle;
+
+    @ConfigProperty(name = "bot.journal.max-bytes", defaultValue = "268435456")
+    long maxBytes;
+
+    @Inject
+    Event<GitHubEvent> dispatcher;
+
+    @Inject
+    PullRequestEventQueue queue;
+
+    private Journal journal;
+    /** The events after the watermark, by sequence number. Guarded by this. */
+    private final LinkedHashMap<Long, Delivery> deliveries = new LinkedHashMap<>();
+    /** Guarded by this. */
+    private final Map<String, Progress> progress = new HashMap<>();
+    private long nextSeq;
+    /** The size of the journal after it was last compacted. */
+    private int compactedSize;
+
+    void onStart(@Observes StartupEvent startup) throws IOException {
+        if (!enabled) {
+            LOG.debug("Journal disabled due to {}=false", ENABLE);
+            return;
+        }
+        List<Delivery> unfinished;
+        synchronized (this) {
+            journal = Journal.open(Path.of(stateDir, "journal", "events.journal"), maxBytes);
+            load(journal.entries());
+            compact();
+            unfinished = new ArrayList<>(deliveries.values());
+        }
+        LOG.info("Journal has {} unfinished events and {} flows in progress", unfinished.size(), progress.size());
+        for (Delivery delivery : unfinished) {
+            LOG.info("Replaying {} event {}", delivery.event.getEventAction(), delivery.event.getDeliveryId());
+            try {
+                dispatcher.fire(delivery.event);
+            } catch (RuntimeException e) {
+                LOG.error("Replay of event {} failed", delivery.event.getDeliveryId(), e);
+            }
+        }
+    }
+
+    private void load(List<Journal.Entry> entries) throws IOException {
+        for (Journal.Entry entry : entries) {
+            var in = new DataInputStream(new ByteArrayInputStream(entry.body));
+            switch (entry.type) {
+                case DELIVERY:
+                    long seq = in.readLong();
+                    long receivedAt = in.readLong();
+                    String deliveryId = readString(in);
+                    String appName = readString(in);
+                    String repository = readString(in);
+                    String event = readString(in);
+                    String action = readString(in);
+                    long installationId = in.readLong();
+                    String payload = readString(in);
+                    deliveries.put(seq, new Delivery(seq, receivedAt, new GitHubEvent(installationId >= 0 ? installationId : null, appName, deliveryId,
+                            repository, event, action, payload, new JsonObject(payload), true)));
+                    nextSeq = seq + 1;
+                    break;
+                case WATERMARK:
+                    long watermark = in.readLong();
+                    deliveries.keySet().removeIf(s -> s <= watermark);
+                    nextSeq = Math.max(nextSeq, watermark + 1);
+                    break;
+                case CHECKPOINT:
+                    long at = in.readLong();
+                    var p = progress.computeIfAbsent(readString(in), k -> new Progress());
+                    p.steps.put(readString(in), readString(in));
+                    p.updatedAt = at;
+                    break;
+                default:
+                    LOG.warn("Ignoring journal entry of unknown type {}", entry.type);
+            }
+        }
+    }
+
+    /**
+     * Journals a received event.
+     */
+    void onEvent(@Observes @Priority(1) GitHubEvent event) {
+        if (!enabled || event.isReplayed()) {
+            return;
+        }
+        synchronized (this) {
+            if (journal == null) {
+                return;
+            }
+            var delivery = new Delivery(nextSeq++, System.currentTimeMillis(), event);
+            if (append(DELIVERY, encode(delivery))) {
+                deliveries.put(delivery.seq, delivery);
+                journal.force();
+            }
+        }
+    }
+
+    /**
+     * @param key Identifies a piece of work.
+     * @return The steps of the work which have been done, with the values recorded for them.
+     */
+    public synchronized Map<String, String> progress(String key) {
+        var p = progress.get(key);
+        return p == null ? Map.of() : Map.copyOf(p.steps);
+    }
+
+    /**
+     * Records that a step of a piece of work has been done.
+     * @param key Identifies the piece of work.
+     * @param step The step.
+     * @param value What the step produced, which is needed to resume the work, or "".
+     */
+    public synchronized void checkpoint(String key, String step, String value) {
+        if (!enabled || journal == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (append(CHECKPOINT, encodeCheckpoint(now, key, step, value))) {
+            var p = progress.computeIfAbsent(key, k -> new Progress());
+            p.steps.put(step, value);
+            p.updatedAt = now;
+            journal.force();
+        }
+    }
+
+    private boolean append(byte type, byte[] body) {
+        try {
+            journal.append(type, body);
+            return true;
+        } catch (IOException e) {
+            LOG.error("Unable to journal entry", e);
+            return false;
+        }
+    }
+
+    /**
+     * Moves the watermark past the events whose work has all finished, and compacts the journal once it's
+     * doubled in size.
+     */
+    @Scheduled(every = "10s")
+    void advance() {
+        if (!enabled || journal == null) {
+            return;
+        }
+        // Events received before this have had time to submit their work, and it's finished
+        long finishedBefore = queue.oldestOutstanding() - settle.toMillis();
+        synchronized (this) {
+            long watermark = -1;
+            for (Iterator<Delivery> it = deliveries.values().iterator(); it.hasNext(); ) {
+                Delivery delivery = it.next();
+                if (delivery.receivedAt >= finishedBefore) {
+                    break;
+                }
+                watermark = delivery.seq;
+                it.remove();
+            }
+            if (watermark >= 0) {
+                append(WATERMARK, encodeWatermark(watermark));
+            }
+            if (journal.size() > Math.max(2 * compactedSize, Journal.MIN_CAPACITY)) {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    LOG.error("Unable to compact journal", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrites the journal with just the unfinished events and the recent checkpoints.
+     */
+    private void compact() throws IOException {
+        long cutoff = System.currentTimeMillis() - CHECKPOINT_RETENTION.toMillis();
+        progress.values().removeIf(p -> p.steps.containsKey(DONE) && p.updatedAt < cutoff);
+        List<Journal.Entry> entries = new ArrayList<>();
+        if (nextSeq > 0) {
+            // Keep the sequence going
+            entries.add(new Journal.Entry(WATERMARK, encodeWatermark(nextSeq - 1)));
+        }
+        for (var p : progress.entrySet()) {
+            for (var step : p.getValue().steps.entrySet()) {
+                entries.add(new Journal.Entry(CHECKPOINT,
+                        encodeCheckpoint(p.getValue().updatedAt, p.getKey(), step.getKey(), step.getValue())));
+            }
+        }
+        for (Delivery delivery : deliveries.values()) {
+            entries.add(new Journal.Entry(DELIVERY, encode(delivery)));
+        }
+        journal.rewrite(entries);
+        compactedSize = journal.size();
+        LOG.debug("Compacted journal to {} bytes", compactedSize);
+    }
+
+    private static byte[] encode(Delivery delivery) {
+        var event = delivery.event;
+        var out = new Output();
+        out.writeLong(delivery.seq);
+        out.writeLong(delivery.receivedAt);
+        out.writeString(event.getDeliveryId());
+        out.writeString(event.getAppName().orElse(null));
+        out.writeString(event.getRepository().orElse(null));
+        out.writeString(event.getEvent());
+        out.writeString(event.getAction());
+        out.writeLong(event.getInstallationId() != null ? event.getInstallationId() : -1);
+        out.writeString(event.getPayload());
+        return out.toByteArray();
+    }
+
+    private static byte[] encodeWatermark(long seq) {
+        var out = new Output();
+        out.writeLong(seq);
+        return out.toByteArray();
+    }
+
+    private static byte[] encodeCheckpoint(long at, String key, String step, String value) {
+        var out = new Output();
+        out.writeLong(at);
+        out.writeString(key);
+        out.writeString(step);
+        out.writeString(value);
+        return out.toByteArray();
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        return new String(in.readNBytes(length), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The body of an entry.
+     */
+    private static class Output {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        void writeLong(long value) {
+            try {
+                out.writeLong(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void writeString(String value) {
+            try {
+                if (value == null) {
+                    out.writeInt(-1);
+                } else {
+                    byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(utf8.length);
+                    out.write(utf8);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+}
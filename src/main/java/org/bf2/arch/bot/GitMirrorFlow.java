@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import javax.inject.Inject;
+
+import io.quarkiverse.githubapp.event.PullRequest;
+import io.quarkiverse.githubapp.event.Push;
+import org.bf2.arch.bot.github.GitMirror;
+import org.kohsuke.github.GHEventPayload;
+import org.kohsuke.github.GHRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the {@link GitMirror} of a repo up to date, by fetching when its branches or pull requests change.
+ */
+public class GitMirrorFlow {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GitMirrorFlow.class);
+    private static final String FLOW = "git-mirror";
+
+    @Inject
+    GitMirror mirror;
+
+    @Inject
+    PullRequestEventQueue queue;
+
+    void onPush(@Push GHEventPayload.Push push) {
+        fetch(push.getRepository(), push, "push to " + push.getRef());
+    }
+
+    void onPullRequestUpdated(@PullRequest.Opened
+                              @PullRequest.Synchronize
+                              @PullRequest.Reopened
+                              GHEventPayload.PullRequest pullRequest) {
+        fetch(pullRequest.getRepository(), pullRequest, "PR #" + pullRequest.getNumber());
+    }
+
+    private void fetch(GHRepository repo, GHEventPayload payload, String cause) {
+        if (!mirror.enabled()) {
+            LOG.debug("Ignoring event: disabled due to {}=false", GitMirror.ENABLE);
+            return;
+        }
+        LOG.debug("Fetching {} following {}", repo.getFullName(), cause);
+        long installationId = payload.getInstallation().getId();
+        queue.execute(repo.getFullName(), FLOW, () -> mirror.fetch(repo.getFullName(), installationId));
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * The keys of work seen recently, used to drop duplicate webhook deliveries and repeated commands.
+ *
+ * <p>Keys are remembered for {@code bot.dedup.window}, and at most a given number are remembered,
+ * the oldest being forgotten first. The keys are kept in the order they were added, so forgetting them,
+ * like looking them up, costs O(1) per key.</p>
+ *
+ * <p>Deliveries and commands are remembered separately, each with their own bound,
+ * so that a flood of deliveries can't make the bot forget the commands it's carried out.</p>
+ */
+public class IdempotencyKeys {
+
+    /**
+     * The ids of the webhook deliveries which have been accepted.
+     */
+    @ApplicationScoped
+    public static class Deliveries extends IdempotencyKeys {
+        /**
+         * For the client proxy only.
+         */
+        Deliveries() {
+        }
+
+        @Inject
+        public Deliveries(@ConfigProperty(name = "bot.dedup.window", defaultValue = "PT24H")
+                          Duration window,
+                          @ConfigProperty(name = "bot.dedup.max-deliveries", defaultValue = "100000")
+                          int maxEntries) {
+            super(window, maxEntries);
+        }
+    }
+
+    /**
+     * The keys of the commands which have been carried out.
+     */
+    @ApplicationScoped
+    public static class Commands extends IdempotencyKeys {
+        /**
+         * For the client proxy only.
+         */
+        Commands() {
+        }
+
+        @Inject
+        public Commands(@ConfigProperty(name = "bot.dedup.window", defaultValue = "PT24H")
+                        Duration window,
+                        @ConfigProperty(name = "bot.dedup.max-commands", defaultValue = "10000")
+                        int maxEntries) {
+            super(window, maxEntries);
+        }
+    }
+
+    private final long windowMillis;
+    private final int maxEntries;
+    private final LongSupplier clock;
+    /** When each key was added, oldest first. Guarded by this. */
+    private final LinkedHashMap<String, Long> seen = new LinkedHashMap<>();
+
+    IdempotencyKeys() {
+        this.windowMillis = 0;
+        this.maxEntries = 0;
+        this.clock = null;
+    }
+
+    public IdempotencyKeys(Duration window, int maxEntries) {
+        this(window, maxEntries, System::currentTimeMillis);
+    }
+
+    IdempotencyKeys(Duration window, int maxEntries, LongSupplier clock) {
+        this.windowMillis = window.toMillis();
+        this.maxEntries = maxEntries;
+        this.clock = clock;
+    }
+
+    /**
+     * @return Whether the given key was added within the window.
+     */
+    public synchronized boolean contains(String key) {
+        expire(clock.getAsLong());
+        return seen.containsKey(key);
+    }
+
+    /**
+     * Adds the given key, unless it was added within the window.
+     * @return true if the key was added, false if it was already present.
+     */
+    public synchronized boolean add(String key) {
+        long now = clock.getAsLong();
+        expire(now);
+        if (seen.putIfAbsent(key, now) != null) {
+            return false;
+        }
+        if (seen.size() > maxEntries) {
+            Iterator<String> eldest = seen.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+        return true;
+    }
+
+    /**
+     * Forgets the given key, e.g. because the work it identifies failed, and should be done again if it's repeated.
+     */
+    public synchronized void remove(String key) {
+        seen.remove(key);
+    }
+
+    private void expire(long now) {
+        for (Iterator<Map.Entry<String, Long>> it = seen.entrySet().iterator(); it.hasNext(); ) {
+            if (it.next().getValue() > now - windowMillis) {
+                break;
+            }
+            it.remove();
+        }
+    }
+}
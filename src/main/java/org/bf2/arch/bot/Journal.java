@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of typed entries in a memory-mapped file.
+ *
+ * <p>After a 4 byte magic number the file is a sequence of entries, each a 4 byte body length,
+ * a 4 byte CRC32 of the type and body, a 1 byte type, and the body.
+ * The length is written last, and a length of zero marks the end of the log, so an entry which was being
+ * appended when the process died is either absent or fails its CRC check. Reading stops at the first entry
+ * which fails the check, and the next append overwrites it.</p>
+ *
+ * <p>The mapping grows, by doubling, up to a maximum size. {@link #rewrite(List)} replaces the log with the
+ * given entries, which is how it's compacted.</p>
+ */
+class Journal {
+
+    private static final int MAGIC = 0xbf2a7c01;
+    private static final int ENTRY_HEADER = 9;
+    static final int MIN_CAPACITY = 64 * 1024;
+
+    /**
+     * An entry in the log.
+     */
+    static class Entry {
+        final byte type;
+        final byte[] body;
+
+        Entry(byte type, byte[] body) {
+            this.type = type;
+            this.body = body;
+        }
+    }
+
+    private final Path file;
+    private final long maxCapacity;
+    private final List<Entry> entries;
+    private MappedByteBuffer buffer;
+    private int position;
+
+    private Journal(Path file, long maxCapacity) throws IOException {
+        this.file = file;
+        this.maxCapacity = maxCapacity;
+        long size = Files.exists(file) ? Files.size(file) : 0;
+        this.buffer = map(file, Math.max(MIN_CAPACITY, size));
+        this.entries = new ArrayList<>();
+        if (buffer.getInt(0) != MAGIC) {
+            buffer.putInt(0, MAGIC);
+            position = 4;
+        } else {
+            position = read(buffer, entries);
+        }
+        // Clear whatever a torn append left behind, so it can't be mistaken for an entry later
+        for (int i = position; i < buffer.capacity() && i < position + ENTRY_HEADER; i++) {
+            buffer.put(i, (byte) 0);
+        }
+    }
+
+    /**
+     * Opens the log in the given file, creating it if it doesn't exist.
+     */
+    static Journal open(Path file, long maxCapacity) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        return new Journal(file, maxCapacity);
+    }
+
+    private static MappedByteBuffer map(Path file, long capacity) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+    }
+
+    /**
+     * Reads the valid entries.
+     * @return The position following the last valid entry.
+     */
+    private static int read(MappedByteBuffer buffer, List<Entry> entries) {
+        int position = 4;
+        var crc = new CRC32();
+        while (position + ENTRY_HEADER <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + ENTRY_HEADER + (long) length > buffer.capacity()) {
+                break;
+            }
+            byte type = buffer.get(position + 8);
+            byte[] body = new byte[length];
+            buffer.get(position + ENTRY_HEADER, body);
+            crc.reset();
+            crc.update(type);
+            crc.update(body);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                break;
+            }
+            entries.add(new Entry(type, body));
+            position += ENTRY_HEADER + length;
+        }
+        return position;
+    }
+
+    /**
+     * @return The entries which were in the log when it was opened.
+     */
+    List<Entry> entries() {
+        return entries;
+    }
+
+    /**
+     * @return The number of bytes of the file in use.
+     */
+    synchronized int size() {
+        return position;
+    }
+
+    /**
+     * Appends an entry.
+     * @throws IOException If the log has reached its maximum size.
+     */
+    synchronized void append(byte type, byte[] body) throws IOException {
+        long end = position + ENTRY_HEADER + (long) body.length;
+        if (end + ENTRY_HEADER > buffer.capacity()) {
+            grow(end + ENTRY_HEADER);
+        }
+        var crc = new CRC32();
+        crc.update(type);
+        crc.update(body);
+        buffer.putInt(position + 4, (int) crc.getValue());
+        buffer.put(position + 8, type);
+        buffer.put(position + ENTRY_HEADER, body);
+        // Terminate the log, then publish the entry
+        buffer.putInt((int) end, 0);
+        buffer.putInt(position, body.length);
+        position = (int) end;
+    }
+
+    private void grow(long needed) throws IOException {
+        long capacity = buffer.capacity();
+        while (capacity < needed) {
+            capacity *= 2;
+        }
+        if (capacity > maxCapacity) {
+            throw new IOException("Journal " + file + " is full: " + needed + " bytes needed, at most " + maxCapacity + " allowed");
+        }
+        buffer.force();
+        buffer = map(file, capacity);
+    }
+
+    /**
+     * Writes the appended entries through to the file.
+     */
+    synchronized void force() {
+        buffer.force();
+    }
+
+    /**
+     * Atomically replaces the log with the given entries.
+     */
+    synchronized void rewrite(List<Entry> entries) throws IOException {
+        long needed = 4 + ENTRY_HEADER;
+        for (Entry entry : entries) {
+            needed += ENTRY_HEADER + entry.body.length;
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.deleteIfExists(tmp);
+        var compacted = new Journal(tmp, Math.max(2 * needed, maxCapacity));
+        for (Entry entry : entries) {
+            compacted.append(entry.type, entry.body);
+        }
+        compacted.force();
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        buffer = compacted.buffer;
+        position = compacted.position;
+    }
+}
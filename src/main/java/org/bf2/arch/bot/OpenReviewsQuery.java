@@ -0,0 +1,256 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+import io.smallrye.graphql.client.Response;
+import io.smallrye.graphql.client.dynamic.api.DynamicGraphQLClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fetches the open PRs under review in a repository using the GraphQL API, either all of them, or those matching
+ * a search, together with everything the stalled discussion sweep needs to know about them,
+ * one page of 100 PRs per request.
+ * The REST equivalent needs a search, plus several requests per PR, and its searches count against
+ * the search API's rate limit of 30 requests a minute, which a sweep of many repos soon uses up.
+ */
+class OpenReviewsQuery {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OpenReviewsQuery.class);
+
+    /** What the sweep needs to know about each PR. */
+    private static final String PULL_REQUEST_FIELDS =
+            "        id number createdAt updatedAt\n" +
+            "        labels(first: 100) { nodes { name } }\n" +
+            "        latestReview: reviews(last: 1) { nodes { submittedAt } }\n" +
+            "        latestComment: comments(last: 1) { nodes { createdAt } }\n";
+
+    static final String QUERY = "query($owner: String!, $name: String!, $after: String) {\n" +
+            "  repository(owner: $owner, name: $name) {\n" +
+            "    stalledLabel: label(name: \"" + Labels.NOTICE_STALLED_DISCUSSION + "\") { id }\n" +
+            // multiple labels => OR
+            "    pullRequests(states: OPEN, first: 100, after: $after,\n" +
+            "        labels: [\"" + Labels.STATE_NEEDS_REVIEWERS + "\", \"" + Labels.STATE_BEING_REVIEWED + "\"],\n" +
+            "        orderBy: {field: UPDATED_AT, direction: ASC}) {\n" +
+            "      pageInfo { hasNextPage endCursor }\n" +
+            "      nodes {\n" +
+            PULL_REQUEST_FIELDS +
+            "      }\n" +
+            "    }\n" +
+            "  }\n" +
+            "}";
+
+    static final String SEARCH = "query($owner: String!, $name: String!, $query: String!, $after: String) {\n" +
+            "  repository(owner: $owner, name: $name) {\n" +
+            "    stalledLabel: label(name: \"" + Labels.NOTICE_STALLED_DISCUSSION + "\") { id }\n" +
+            "  }\n" +
+            "  search(query: $query, type: ISSUE, first: 100, after: $after) {\n" +
+            "    pageInfo { hasNextPage endCursor }\n" +
+            "    nodes {\n" +
+            "      ... on PullRequest {\n" +
+            PULL_REQUEST_FIELDS +
+            "      }\n" +
+            "    }\n" +
+            "  }\n" +
+            "}";
+
+    static final String ADD_LABELS = "mutation($id: ID!, $labelId: ID!) {\n" +
+            "  addLabelsToLabelable(input: {labelableId: $id, labelIds: [$labelId]}) { clientMutationId }\n" +
+            "}";
+
+    /**
+     * An open PR under review.
+     */
+    static class OpenReview {
+        /** The GraphQL node id. */
+        final String id;
+        final int number;
+        final Set<String> labels;
+        /**
+         * When the most recent review or comment was made, or when the PR was last updated if it has neither.
+         * Review comments are always part of a review, so they're covered by the review's timestamp.
+         * @see StalledDiscussionFlow#lastActivity(org.kohsuke.github.GHPullRequest)
+         */
+        final Instant lastActivity;
+
+        OpenReview(String id, int number, Set<String> labels, Instant lastActivity) {
+            this.id = id;
+            this.number = number;
+            this.labels = labels;
+            this.lastActivity = lastActivity;
+        }
+
+        @Override
+        public String toString() {
+            return "OpenReview(" +
+                    "number=" + number +
+                    ", labels=" + labels +
+                    ", lastActivity=" + lastActivity +
+                    ')';
+        }
+    }
+
+    /**
+     * The result of the query.
+     */
+    static class OpenReviews {
+        /** The node id of the stalled discussion label, or null if the repository doesn't have the label yet. */
+        final String stalledLabelId;
+        final List<OpenReview> pullRequests;
+
+        OpenReviews(String stalledLabelId, List<OpenReview> pullRequests) {
+            this.stalledLabelId = stalledLabelId;
+            this.pullRequests = pullRequests;
+        }
+    }
+
+    private final DynamicGraphQLClient client;
+
+    OpenReviewsQuery(DynamicGraphQLClient client) {
+        this.client = client;
+    }
+
+    /**
+     * @return The open PRs under review in the given repository, least recently updated first.
+     */
+    OpenReviews openReviews(String owner, String name) throws IOException {
+        return fetch(QUERY, owner, name, Map.of(), data -> data.getJsonObject("repository").getJsonObject("pullRequests"));
+    }
+
+    /**
+     * @param query An issue search query, which should only match PRs in the given repository.
+     * @return The PRs matching the query, in the order given by the query.
+     */
+    OpenReviews search(String owner, String name, String query) throws IOException {
+        return fetch(SEARCH, owner, name, Map.of("query", query), data -> data.getJsonObject("search"));
+    }
+
+    private OpenReviews fetch(String document, String owner, String name, Map<String, Object> parameters,
+                              Function<JsonObject, JsonObject> connection) throws IOException {
+        String stalledLabelId = null;
+        List<OpenReview> result = new ArrayList<>();
+        String after = null;
+        int pages = 0;
+        do {
+            Map<String, Object> variables = new HashMap<>(parameters);
+            variables.put("owner", owner);
+            variables.put("name", name);
+            if (after != null) {
+                variables.put("after", after);
+            }
+            JsonObject data = execute(document, variables);
+            if (!data.containsKey("repository") || data.isNull("repository")) {
+                throw new IOException("Repository " + owner + "/" + name + " not found");
+            }
+            JsonObject repository = data.getJsonObject("repository");
+            if (!repository.isNull("stalledLabel")) {
+                stalledLabelId = repository.getJsonObject("stalledLabel").getString("id");
+            }
+            JsonObject pullRequests = connection.apply(data);
+            for (JsonValue node : pullRequests.getJsonArray("nodes")) {
+                // Search nodes which aren't PRs are empty
+                if (node.asJsonObject().containsKey("id")) {
+                    result.add(openReview(node.asJsonObject()));
+                }
+            }
+            JsonObject pageInfo = pullRequests.getJsonObject("pageInfo");
+            after = pageInfo.getBoolean("hasNextPage") ? pageInfo.getString("endCursor") : null;
+            pages++;
+        } while (after != null);
+        LOG.debug("{}/{}: fetched {} open reviews in {} requests", owner, name, result.size(), pages);
+        return new OpenReviews(stalledLabelId, result);
+    }
+
+    private static OpenReview openReview(JsonObject node) {
+        Set<String> labels = new HashSet<>();
+        for (JsonObject label : nodes(node, "labels")) {
+            labels.add(label.getString("name"));
+        }
+        Instant lastActivity = null;
+        for (JsonObject review : nodes(node, "latestReview")) {
+            lastActivity = latest(lastActivity, review, "submittedAt");
+        }
+        for (JsonObject comment : nodes(node, "latestComment")) {
+            lastActivity = latest(lastActivity, comment, "createdAt");
+        }
+        if (lastActivity == null) {
+            lastActivity = Instant.parse(node.getString("updatedAt"));
+        }
+        return new OpenReview(node.getString("id"), node.getInt("number"),
+                Collections.unmodifiableSet(labels), lastActivity);
+    }
+
+    private static List<JsonObject> nodes(JsonObject node, String connection) {
+        if (node.isNull(connection)) {
+            return List.of();
+        }
+        JsonArray nodes = node.getJsonObject(connection).getJsonArray("nodes");
+        return nodes.getValuesAs(JsonObject.class);
+    }
+
+    private static Instant latest(Instant current, JsonObject node, String field) {
+        // submittedAt is null for a pending review
+        if (!node.containsKey(field) || node.isNull(field)) {
+            return current;
+        }
+        Instant instant = Instant.parse(node.getString(field));
+        return current == null || instant.isAfter(current) ? instant : current;
+    }
+
+    /**
+     * Adds a label to a PR (or issue).
+     * @param id The node id of the PR.
+     * @param labelId The node id of the label.
+     */
+    void addLabel(String id, String labelId) throws IOException {
+        execute(ADD_LABELS, Map.of("id", id, "labelId", labelId));
+    }
+
+    private JsonObject execute(String document, Map<String, Object> variables) throws IOException {
+        Response response;
+        try {
+            response = client.executeSync(document, variables);
+        } catch (ExecutionException e) {
+            throw new IOException("GraphQL request failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted during GraphQL request", e);
+        }
+        if (response.hasError()) {
+            throw new IOException("GraphQL request failed: " + response.getErrors());
+        }
+        if (!response.hasData()) {
+            throw new IOException("GraphQL response had no data");
+        }
+        return response.getData();
+    }
+}
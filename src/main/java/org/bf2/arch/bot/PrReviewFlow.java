@@ -1,34 +1,43 @@
 package org.bf2.arch.bot;
 
+import javax.inject.Inject;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
-import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Locale;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
+import io.quarkiverse.githubapp.ConfigFile;
 import io.quarkiverse.githubapp.event.IssueComment;
 import io.quarkiverse.githubapp.event.PullRequest;
-import org.bf2.arch.bot.model.record.RecordId;
-import org.bf2.arch.bot.model.record.RecordType;
 import org.bf2.arch.bot.model.patch.FilePatch;
-import org.bf2.arch.bot.model.patch.Line;
+import org.bf2.arch.bot.model.patch.PatchConflictException;
+import org.bf2.arch.bot.model.record.RecordId;
+import org.bf2.arch.bot.model.record.RecordPage;
+import org.bf2.arch.bot.model.record.RecordPathClassifier;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.kohsuke.github.GHCommit;
 import org.kohsuke.github.GHCommitPointer;
+import org.kohsuke.github.GHCompare;
 import org.kohsuke.github.GHDirection;
 import org.kohsuke.github.GHEventPayload;
+import org.kohsuke.github.GHFileNotFoundException;
 import org.kohsuke.github.GHIssue;
 import org.kohsuke.github.GHIssueState;
+import org.kohsuke.github.GHLabel;
 import org.kohsuke.github.GHPerson;
 import org.kohsuke.github.GHPullRequest;
+import org.kohsuke.github.GHPullRequestFileDetail;
 import org.kohsuke.github.GHPullRequestQueryBuilder;
+import org.kohsuke.github.GHPullRequestReview;
 import org.kohsuke.github.GHPullRequestReviewBuilder;
+import org.kohsuke.github.GHPullRequestReviewComment;
+import org.kohsuke.github.GHPullRequestReviewEvent;
 import org.kohsuke.github.GHRepository;
 import org.kohsuke.github.GitHub;
 import org.slf4j.Logger;
@@ -42,13 +51,28 @@ import org.slf4j.LoggerFactory;
  * Has the status been updated?
  * Any banned terms (Actors/Personas)
  * ?Sentence per line?
+ *
+ * The checks are {@link ReviewRule ReviewRules}.
  */
 public class PrReviewFlow {
 
     public static final String ENABLE = "bot.enable.pr-review";
+    private static final String REVIEW = "review";
     @ConfigProperty(name = ENABLE, defaultValue = "false")
     boolean enabled;
 
+    @Inject
+    PullRequestEventQueue queue;
+
+    @Inject
+    RecordPageCache pageCache;
+
+    @Inject
+    ReviewEngine engine;
+
+    @Inject
+    ReviewedHeads reviewedHeads;
+
     /**
      * When a PR that touches an ADR is marked ready for review:
      * 1. Bot adds "needs-reviewers" label
@@ -112,45 +136,49 @@ public class PrReviewFlow {
     }
 
     public void onPullRequestOpened(@PullRequest.Opened
-                                    GHEventPayload.PullRequest pullRequest) throws IOException {
+                                    GHEventPayload.PullRequest pullRequest,
+                                    @ConfigFile(Util.CONFIG_REPO_PATH) ArchBotConfig config) throws IOException {
         if (!enabled) {
             LOG.debug("Ignoring event: disabled due to {}=false", ENABLE);
             return;
         }
         if (!pullRequest.getPullRequest().isDraft()) {
             LOG.debug("ReadyForReview PR #{} opened", pullRequest.getNumber());
-            files(pullRequest.getPullRequest());
+            queue.submit(REVIEW, pullRequest.getPullRequest(), snapshot -> files(snapshot, config));
         } else {
             LOG.debug("Draft PR #{} opened", pullRequest.getNumber());
         }
     }
 
     public void onPullRequestEdited(@PullRequest.Edited
-                                    GHEventPayload.PullRequest pullRequest) throws IOException {
+                                    GHEventPayload.PullRequest pullRequest,
+                                    @ConfigFile(Util.CONFIG_REPO_PATH) ArchBotConfig config) throws IOException {
         if (!enabled) {
             LOG.debug("Ignoring event: disabled due to {}=false", ENABLE);
             return;
         }
         if (!pullRequest.getPullRequest().isDraft()) {
             LOG.debug("ReadyForReview PR #{} edited", pullRequest.getNumber());
-            files(pullRequest.getPullRequest());
+            queue.submit(REVIEW, pullRequest.getPullRequest(), snapshot -> files(snapshot, config));
         } else {
             LOG.debug("Draft PR #{} edited", pullRequest.getNumber());
         }
     }
 
     public void onPullRequestReadyForReview(@PullRequest.ReadyForReview
-                                     GHEventPayload.PullRequest pullRequest) throws IOException {
+                                     GHEventPayload.PullRequest pullRequest,
+                                     @ConfigFile(Util.CONFIG_REPO_PATH) ArchBotConfig config) throws IOException {
         if (!enabled) {
             LOG.debug("Ignoring event: disabled due to {}=false", ENABLE);
             return;
         }
         LOG.debug("PR #{} ReadyForReview", pullRequest.getNumber());
-        files(pullRequest.getPullRequest());
+        queue.submit(REVIEW, pullRequest.getPullRequest(), snapshot -> files(snapshot, config));
     }
 
     public void onPullRequestComment(@IssueComment.Created
-                                     GHEventPayload.IssueComment comment) throws IOException, URISyntaxException {
+                                     GHEventPayload.IssueComment comment,
+                                     @ConfigFile(Util.CONFIG_REPO_PATH) ArchBotConfig config) throws IOException, URISyntaxException {
         if (!enabled) {
             LOG.debug("Ignoring event: disabled due to {}=false", ENABLE);
             return;
@@ -158,173 +186,257 @@ public class PrReviewFlow {
         GHIssue issue = comment.getIssue();
         GHPullRequest pullRequest = Util.findPullRequest(issue);
         if (pullRequest != null) {
-            files(pullRequest);
+            queue.submit(REVIEW, pullRequest, snapshot -> files(snapshot, config));
         }
     }
 
-    private List<RecordId> modifiedRecords(GHPullRequest pullRequest) {
-        var result = new ArrayList<RecordId>();
-        var prNumber = pullRequest.getNumber();
-        for (var fileDetail : pullRequest.listFiles()) {
-            String repoPath = fileDetail.getFilename();
-            LOG.debug("PR #{} modifies file {}", prNumber, repoPath);
-            for (var rt : RecordType.values()) {
-                RecordId recordId = rt.recordOf(repoPath);
-                if (recordId != null) {
-                    result.add(recordId);
-                }
+    private List<RecordId> modifiedRecords(PullRequestSnapshot snapshot) {
+        return snapshot.touchedRecords();
+    }
+
+    /**
+     * Reviews the records the PR changes, with the {@link ReviewEngine ReviewEngine's} rules,
+     * as a single review of the PR's head commit.
+     * A head commit which the bot has already reviewed isn't reviewed again, and when the bot remembers
+     * reviewing an earlier head only the lines which have changed since then are reviewed.
+     * A change to the repo's config since the last review means reviewing in full, but without repeating
+     * the comments the bot has already made on the head commit.
+     */
+    void files(PullRequestSnapshot snapshot, ArchBotConfig config) throws IOException {
+        GHPullRequest pullRequest = snapshot.pullRequest();
+        GHRepository ourRepo = pullRequest.getBase().getRepository();
+        var prNumber = snapshot.number();
+        String headSha = pullRequest.getHead().getSha();
+        String configRevision = config != null ? config.revision() : null;
+        ReviewedHeads.Head last = reviewedHeads.get(ourRepo.getFullName(), prNumber);
+        boolean configChanged = false;
+        if (last != null && !Objects.equals(last.configRevision(), configRevision)) {
+            LOG.debug("PR #{}: the config has changed since {} was reviewed, reviewing in full", prNumber, last.sha());
+            configChanged = true;
+            last = null;
+        } else if (last != null && last.sha().equals(headSha)) {
+            LOG.debug("PR #{}: already reviewed {}", prNumber, headSha);
+            return;
+        } else if (last == null && reviewed(snapshot, config, headSha)) {
+            LOG.debug("PR #{}: already reviewed {}", prNumber, headSha);
+            reviewedHeads.put(ourRepo.getFullName(), prNumber, headSha, recordBlobs(snapshot), configRevision);
+            return;
+        }
+        List<RecordChange> changes = recordChanges(snapshot, config, last);
+        List<ReviewComment> comments = changes.isEmpty() ? List.of() : engine.review(changes);
+        if (configChanged && !comments.isEmpty()) {
+            comments = unposted(snapshot, config, headSha, comments);
+        }
+        if (comments.isEmpty()) {
+            LOG.debug("PR #{}: nothing to say about {}", prNumber, headSha);
+        } else {
+            LOG.debug("PR #{}: reviewing {} with {} comments", prNumber, headSha, comments.size());
+            GHPullRequestReviewBuilder review = pullRequest.createReview()
+                    .commitId(headSha)
+                    .event(GHPullRequestReviewEvent.COMMENT);
+            for (ReviewComment comment : comments) {
+                review.comment(comment.body(), comment.path(), comment.position());
             }
+            review.create();
         }
-        return result;
+        reviewedHeads.put(ourRepo.getFullName(), prNumber, headSha, recordBlobs(snapshot), configRevision);
     }
 
-    private void files(GHPullRequest pullRequest) throws IOException {
-        var prNumber = pullRequest.getNumber();
-        for (var fileDetail : pullRequest.listFiles()) {
-            String repoPath = fileDetail.getFilename();
-            LOG.debug("PR #{} modifies file {}", prNumber, repoPath);
-            for (var rt : RecordType.values()) {
-                RecordId recordId = rt.recordOf(repoPath);
-                if (recordId != null) {
-                    // TODO replace with ArchReviewStateMachineFlow.touchesRecord
-
-                    // Do we consume the diff directly
-                    // Or should we apply the diff, build a pre- and post- PR version of the Page
-                    // and particularly the FrontMatter and see how the FrontMatter change?
-                    GHRepository ourRepo = pullRequest.getBase().getRepository();
-                    String defaultBranch = ourRepo.getDefaultBranch();
-                    var basePage = CreateDraftRecordFlow.getPage(ourRepo, ourRepo.getBranch(defaultBranch), repoPath);
-
-                    GHCommitPointer head = pullRequest.getHead();
-                    var theirRepo = head.getRepository();
-                    var headPage = CreateDraftRecordFlow.getPage(ourRepo, theirRepo.getBranch(head.getRef()), repoPath);
-
-                    GHPullRequestReviewBuilder review = pullRequest.createReview();
-                    FilePatch filePatch = FilePatch.parsePatch(fileDetail.getPatch());
-
-                    if (basePage.frontMatter.status.equals(headPage.frontMatter.status)) {
-                        LOG.debug("PR #{} does not change the status: {}", prNumber,
-                                basePage.frontMatter.status);
-                    } else {
-                        LOG.debug("PR #{} changes the status {} -> {}", prNumber,
-                                basePage.frontMatter.status, headPage.frontMatter.status);
-                        Optional<FilePatch.LineMatch> first = filePatch.linesMatching(
-                                EnumSet.of(Line.Type.ADD),
-                                Pattern.compile("^status:.*$")).findFirst();
-                        int statusLineNumber = first.map(FilePatch.LineMatch::patchLineNum).orElse(1);
-
-                        // Validate the status
-                        List<String> statuses = List.of("Draft", "Accepted", "Superseded", "Rejected", "Deferred");
-                        if (!statuses.contains(headPage.frontMatter.status)) {
-                            review.comment("Status must be one of " + statuses, fileDetail.getFilename(), statusLineNumber);
-                        }
-
-                        // Validate the status transition (e.g. Draft -> Superseded, or Accepted -> Rejected)
-                        switch (headPage.frontMatter.status) {
-                            case "Deferred":
-                            case "Accepted":
-                            case "Rejected":
-                                if (!"Draft".equals(basePage.frontMatter.status)) {
-                                    review.comment("Suspect state transition", fileDetail.getFilename(), statusLineNumber);
-                                }
-                                break;
-                            case "Superseded":
-                                if (!"Accepted".equals(basePage.frontMatter.status)) {
-                                    review.comment("Suspect state transition", fileDetail.getFilename(), statusLineNumber);
-                                }
-                                break;
-                        }
-                    }
-
-                    // TODO Validate that there's a github label for each tag
-                    // TODO Check for undefined abbrevs, and add comment
-                    // TODO Check for suspect terminology
-                    // TODO Check about sentence per line?
-
-
+    /**
+     * @return Whether the bot has already reviewed the given commit of the PR.
+     */
+    private static boolean reviewed(PullRequestSnapshot snapshot, ArchBotConfig config, String headSha)
+            throws IOException {
+        if (config == null || config.botUserLogin == null) {
+            return false;
+        }
+        for (GHPullRequestReview review : snapshot.reviews()) {
+            if (headSha.equals(review.getCommitId()) && Util.isThisBot(config, review.getUser())) {
+                return true;
+            }
+        }
+        return false;
+    }
 
+    /**
+     * @return The given comments, less those the bot has already made on the given commit of the PR.
+     */
+    private static List<ReviewComment> unposted(PullRequestSnapshot snapshot, ArchBotConfig config, String headSha,
+                                                List<ReviewComment> comments) throws IOException {
+        if (config == null || config.botUserLogin == null) {
+            return comments;
+        }
+        Set<ReviewComment> posted = new HashSet<>();
+        for (GHPullRequestReview review : snapshot.reviews()) {
+            if (headSha.equals(review.getCommitId()) && Util.isThisBot(config, review.getUser())) {
+                for (GHPullRequestReviewComment comment : review.listReviewComments()) {
+                    posted.add(new ReviewComment(comment.getPath(), comment.getOriginalPosition(), comment.getBody()));
                 }
             }
         }
+        return comments.stream()
+                .filter(comment -> !posted.contains(comment))
+                .collect(Collectors.toList());
     }
 
+    /**
+     * @return The SHA of the head blob of each record page the PR changes, by path.
+     */
+    private static Map<String, String> recordBlobs(PullRequestSnapshot snapshot) {
+        Map<String, String> blobs = new HashMap<>();
+        for (var fileDetail : snapshot.files()) {
+            if (fileDetail.getSha() != null && RecordPathClassifier.DEFAULT.classify(fileDetail.getFilename()) != null) {
+                blobs.put(fileDetail.getFilename(), fileDetail.getSha());
+            }
+        }
+        return blobs;
+    }
 
-    /** Heuristic code to identify undefined acronyms/initialisms */
-    public static void main(String[] args) {
-
-        // TODO, but need to handle line numbers, or search again after the fact for the first occurrance
-
-        Pattern acronymPattern = Pattern.compile("[A-Z0-9]{2,}");
-        Set<String> definedAcronyms = new HashSet<>(Set.of("OK"));
-
-        // Assume explained abbreviations look like either:
-        // a) Three Letter Abbreviation (TLA)
-        // b) TLA (Three letter abbreviation)
-        // Further assume that parentheses are always balanced
-        // Then we're looking for acronyms which are not directly enclosed in parens (a)
-        // And are not followed by an open bracket (b)
-
-        //
-
-        String text = "WOOT. This is some text with a Three Letter Abbreviation (TLA).\n" +
-                "And some more stuff. It's OK to mention TLA again here.\n" +
-                "But later on I might use 3LA (3 letter abbreviation), which is also fine.\n" +
-                "So long as I don't use FLA and not define it. WDYT?";
-
-//        var p = Pattern.compile("(?<![(A-Z0-9])([A-Z0-9]{2,})(?!\\s*\\()");
-//        var m = p.matcher(text);
-//        while (m.find()) {
-//            System.out.println(m.group(1));
-//        }
+    /**
+     * @return The patches of the files changed between the given commits, by path, or null if the later commit
+     * doesn't descend from the earlier one (e.g. because the PR's branch was rebased).
+     */
+    static Map<String, FilePatch> changedSince(GHRepository repo, String fromSha, String toSha) throws IOException {
+        GHCompare compare;
+        try {
+            compare = repo.getCompare(fromSha, toSha);
+        } catch (GHFileNotFoundException e) {
+            // The earlier commit is gone, after a force push
+            return null;
+        }
+        if (compare.getStatus() != GHCompare.Status.ahead) {
+            // The comparison would be with the merge base, not the earlier commit
+            return null;
+        }
+        Map<String, FilePatch> patches = new HashMap<>();
+        for (GHCommit.File file : compare.getFiles()) {
+            // Files with no patch (e.g. too big) are reviewed in full
+            if (file.getPatch() != null) {
+                patches.put(file.getFileName(), FilePatch.parsePatch(file.getPatch()));
+            }
+        }
+        return patches;
+    }
 
-        String[] words = text.split("\\W+");
-        for (int i = 0; i < words.length; i++) {
-            String word = words[i];
-            System.out.println(word);
-            Matcher acronymMatcher = acronymPattern.matcher(word);
-            if (acronymMatcher.matches()) {
-                String acronym = word;
-                if (!definedAcronyms.contains(acronym)) {
-                    boolean expansionFollows = true;
-                    boolean expansionPreceeds = true;
-                    for (int j = 0; j < acronym.length(); j++) {
-                        if (i + j + 1 < words.length) {
-                            String a = words[i + j + 1].substring(0, 1).toUpperCase(Locale.ROOT);
-                            String b = acronym.substring(j, j + 1).toUpperCase(Locale.ROOT);
-                            if (!a.equals(b)) {
-                                expansionFollows = false;
-                                break;
-                            }
-                        } else {
-                            expansionFollows = false;
-                            break;
-                        }
-                    }
-                    if (!expansionFollows) {
-                        for (int j = 0; j < acronym.length(); j++) {
-                            if (i - acronym.length() + j >= 0) {
-                                String a = words[i - acronym.length() + j].substring(0, 1).toUpperCase(Locale.ROOT);
-                                String b = acronym.substring(j, j + 1).toUpperCase(Locale.ROOT);
-                                if (!a.equals(b)) {
-                                    expansionPreceeds = false;
-                                    break;
-                                }
-                            } else {
-                                expansionPreceeds = false;
-                                break;
-                            }
-                        }
+    /**
+     * Fetches and parses the base and head pages of the records the PR changes.
+     * @param last The head of the PR the bot last reviewed, or null to review all the changes.
+     */
+    private List<RecordChange> recordChanges(PullRequestSnapshot snapshot, ArchBotConfig config,
+                                             ReviewedHeads.Head last) throws IOException {
+        GHPullRequest pullRequest = snapshot.pullRequest();
+        GHRepository ourRepo = pullRequest.getBase().getRepository();
+        String baseSha = null;
+        Set<String> repoLabels = null;
+        Map<String, FilePatch> sinceLast = null;
+        List<RecordChange> changes = new ArrayList<>();
+        for (var fileDetail : snapshot.files()) {
+            String repoPath = fileDetail.getFilename();
+            LOG.debug("PR #{} modifies file {}", snapshot.number(), repoPath);
+            RecordId recordId = RecordPathClassifier.DEFAULT.classify(repoPath);
+            if (recordId == null || "removed".equals(fileDetail.getStatus())) {
+                continue;
+            }
+            String lastBlob = last != null ? last.blobs().get(repoPath) : null;
+            if (lastBlob != null && lastBlob.equals(fileDetail.getSha())) {
+                LOG.debug("PR #{}: {} is unchanged since {}", snapshot.number(), repoPath, last.sha());
+                continue;
+            }
+            FilePatch patch = snapshot.patch(fileDetail);
+            RecordPage previousPage = null;
+            if (lastBlob != null) {
+                if (sinceLast == null) {
+                    sinceLast = changedSince(ourRepo, last.sha(), pullRequest.getHead().getSha());
+                    if (sinceLast == null) {
+                        LOG.debug("PR #{}: {} isn't an ancestor of the head, reviewing changed pages in full",
+                                snapshot.number(), last.sha());
+                        sinceLast = Map.of();
                     }
-
-                    if (expansionFollows || expansionPreceeds) {
-                        definedAcronyms.add(acronym);
-                    } else {
-                        System.err.println("Acronym undefined at this point " + acronym);
+                }
+                FilePatch changed = sinceLast.get(repoPath);
+                if (changed != null) {
+                    patch = patch.hunksAdding(changed.addedLines());
+                    if (patch.hunks().isEmpty()) {
+                        // Only removals since the last review
+                        continue;
                     }
+                    previousPage = pageCache.page(ourRepo, lastBlob);
                 }
             }
+            if (baseSha == null) {
+                baseSha = ourRepo.getBranch(ourRepo.getDefaultBranch()).getSHA1();
+                repoLabels = ourRepo.listLabels().toList().stream()
+                        .map(GHLabel::getName)
+                        .collect(Collectors.toSet());
+            }
+            RecordPage basePage;
+            try {
+                basePage = pageCache.page(ourRepo, baseSha, repoPath);
+            } catch (GHFileNotFoundException e) {
+                // The PR creates the record
+                basePage = null;
+            }
+            RecordPage headPage = headPage(snapshot, fileDetail, basePage);
+            changes.add(new RecordChange(recordId, repoPath, basePage, headPage, previousPage, patch,
+                    config, repoLabels));
         }
+        return changes;
     }
 
+    /**
+     * The head page is reconstructed from the base page and the PR's patch when possible,
+     * which saves fetching it, and doesn't need the PR's fork to be readable.
+     * @param basePage The base page, or null if the PR creates the record.
+     */
+    private RecordPage headPage(PullRequestSnapshot snapshot, GHPullRequestFileDetail fileDetail, RecordPage basePage)
+            throws IOException {
+        GHPullRequest pullRequest = snapshot.pullRequest();
+        GHRepository ourRepo = pullRequest.getBase().getRepository();
+        String repoPath = fileDetail.getFilename();
+        // The files API gives the SHA of the head blob, so an unchanged head needn't be fetched again
+        String headBlob = fileDetail.getSha();
+        RecordPage headPage = headBlob != null ? pageCache.cached(headBlob) : null;
+        if (headPage != null) {
+            return headPage;
+        }
+        String baseContent = basePage != null ? basePage.content() : "";
+        if (fileDetail.getPatch() != null && baseContent != null) {
+            try {
+                String content = snapshot.patch(fileDetail).apply(baseContent);
+                // The blob's SHA tells whether the result is the head, which it won't be if the base branch
+                // has changed the page since the PR's merge base. Without it the result is the best there is.
+                headPage = headBlob != null ? pageCache.page(headBlob, content) : RecordPage.fromContent(content);
+                if (headPage != null) {
+                    return headPage;
+                }
+            } catch (PatchConflictException e) {
+                LOG.debug("PR #{}: patch to {} doesn't apply to the base: {}", snapshot.number(), repoPath,
+                        e.getMessage());
+            }
+        }
+        if (headBlob != null) {
+            return pageCache.page(ourRepo, headBlob);
+        }
+        GHCommitPointer head = pullRequest.getHead();
+        var theirRepo = head.getRepository();
+        return pageCache.page(ourRepo, theirRepo.getBranch(head.getRef()).getSHA1(), repoPath);
+    }
 
+    /**
+     * Heuristic to identify undefined acronyms/initialisms.
+     * @param text The text.
+     * @param knownAcronyms Acronyms which don't need defining.
+     * @return The acronyms used in the text without having been defined, in the order they're first used.
+     * @see UndefinedAcronyms
+     */
+    static List<String> undefinedAcronyms(String text, Set<String> knownAcronyms) {
+        var scanner = new UndefinedAcronyms(knownAcronyms);
+        int lineNum = 1;
+        for (var it = text.lines().iterator(); it.hasNext(); lineNum++) {
+            scanner.scan(it.next(), lineNum, true);
+        }
+        return scanner.finish().stream()
+                .map(UndefinedAcronyms.Use::acronym)
+                .collect(Collectors.toList());
+    }
 }
@@ -0,0 +1,439 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.runtime.Startup;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.kohsuke.github.GHPullRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the work of the webhook flows off the event dispatch thread, on a bounded pool of workers,
+ * and coalesces bursts of events about the same pull request.
+ *
+ * <p>A flow {@linkplain #submit(String, GHPullRequest, Action) submits} an action for a PR rather than
+ * acting on the event directly. The action runs once the window has elapsed, with the PR re-read
+ * from GitHub, and any further submissions by the same flow for the same PR in the meantime replace
+ * the pending action. So N edits and comments in quick succession cost one run of each flow.
+ * Work which isn't about a PR is {@linkplain #execute(String, String, BotMetrics.Body) executed} as soon as
+ * a worker is free.</p>
+ *
+ * <p>Actions for the same PR never run concurrently, and run in submission order.
+ * Actions for different PRs run in parallel.
+ * Workers take ready work from each repo in turn, so a burst of work in one repo doesn't hold up the others.
+ * When {@code bot.queue.capacity} PRs and other work are already waiting, further work is rejected.</p>
+ *
+ * <p>The actions run together share a single {@link PullRequestSnapshot}, one at a time, in submission order,
+ * so that each sees the labels the ones before it set.
+ * Each run of an action is timed as a run of the flow it was submitted under.</p>
+ */
+@Startup
+@ApplicationScoped
+public class PullRequestEventQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PullRequestEventQueue.class);
+
+    /**
+     * Something a flow does to a PR.
+     */
+    @FunctionalInterface
+    public interface Action {
+        void run(PullRequestSnapshot snapshot) throws IOException;
+    }
+
+    /**
+     * The coalescing key: A PR in a repo.
+     */
+    private static class Key {
+        final String repo;
+        final int number;
+
+        Key(String repo, int number) {
+            this.repo = repo;
+            this.number = number;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return number == key.number && repo.equals(key.repo);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(repo, number);
+        }
+
+        @Override
+        public String toString() {
+            return repo + "#" + number;
+        }
+    }
+
+    /**
+     * The state of a key. Guarded by the monitor of {@link #slots}.
+     */
+    private static class Slot {
+        /** The most recently submitted PR, used to re-read the latest state of the PR. */
+        GHPullRequest pullRequest;
+        /** The pending actions, by flow. */
+        final Map<String, Action> pending = new LinkedHashMap<>();
+        /** When the earliest of the pending actions was submitted. */
+        long pendingSince;
+        /** When the earliest of the running actions was submitted. */
+        long runningSince;
+        boolean scheduled;
+        boolean running;
+    }
+
+    /**
+     * Work which is ready for a worker.
+     */
+    private static class Task {
+        final Runnable body;
+        final long readyAt = System.nanoTime();
+
+        Task(Runnable body) {
+            this.body = body;
+        }
+    }
+
+    @ConfigProperty(name = "bot.coalesce.window", defaultValue = "PT5S")
+    Duration window;
+
+    @ConfigProperty(name = "bot.coalesce.threads", defaultValue = "4")
+    int threads;
+
+    @ConfigProperty(name = "bot.queue.capacity", defaultValue = "1000")
+    int capacity;
+
+    @Inject
+    MeterRegistry registry;
+
+    /** Runs the coalescing windows' timers. */
+    private ScheduledExecutorService timer;
+    private final List<Thread> workers = new ArrayList<>();
+    private Timer waitTimer;
+    private Counter rejected;
+
+    private final Map<Key, Slot> slots = new HashMap<>();
+    /** The number of slots with pending actions. Guarded by the monitor of {@link #slots}. */
+    private int pendingCount;
+    /** Ready work, by repo, in the order the repos are to be served. Guarded by the monitor of {@link #slots}. */
+    private final LinkedHashMap<String, ArrayDeque<Task>> ready = new LinkedHashMap<>();
+    /** The submission times of work other than PR actions, waiting or running. Guarded by the monitor of {@link #slots}. */
+    private final TreeMap<Long, Integer> executing = new TreeMap<>();
+    private int executingCount;
+    private boolean stopped;
+
+    PullRequestEventQueue() {
+    }
+
+    PullRequestEventQueue(Duration window, int threads) {
+        this(window, threads, 1000);
+    }
+
+    PullRequestEventQueue(Duration window, int threads, int capacity) {
+        this.window = window;
+        this.threads = threads;
+        this.capacity = capacity;
+        this.registry = Metrics.globalRegistry;
+        init();
+    }
+
+    @PostConstruct
+    void init() {
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "pr-event-queue-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        LOG.info("Starting {} workers", threads);
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(this::work);
+            worker.setName("pr-event-queue-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+        Gauge.builder(BotMetrics.QUEUE_DEPTH, this, PullRequestEventQueue::depth)
+                .description("PRs with actions waiting to run")
+                .register(registry);
+        waitTimer = Timer.builder(BotMetrics.QUEUE_WAIT)
+                .description("Time ready work waited for a worker")
+                .register(registry);
+        rejected = Counter.builder(BotMetrics.QUEUE_REJECTED)
+                .description("Work rejected because the queue was full")
+                .register(registry);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        synchronized (slots) {
+            // Before the timer stops accepting tasks, so that nothing tries to schedule one afterwards
+            stopped = true;
+            slots.notifyAll();
+        }
+        timer.shutdown();
+    }
+
+    /**
+     * Submits an action to be run on the latest state of the given PR once the coalescing window has elapsed.
+     * @param flow The name of the flow. A later submission for the same flow and PR replaces an earlier one which
+     *             has yet to run.
+     * @param pullRequest The PR.
+     * @param action The action.
+     */
+    public void submit(String flow, GHPullRequest pullRequest, Action action) {
+        var key = new Key(pullRequest.getRepository().getFullName(), pullRequest.getNumber());
+        synchronized (slots) {
+            if (stopped) {
+                LOG.info("{}: dropped {} work, the queue has been shut down", key, flow);
+                return;
+            }
+            Slot slot = slots.get(key);
+            if ((slot == null || slot.pending.isEmpty()) && full()) {
+                reject(key, flow);
+                return;
+            }
+            if (slot == null) {
+                slot = new Slot();
+                slots.put(key, slot);
+            }
+            slot.pullRequest = pullRequest;
+            if (slot.pending.isEmpty()) {
+                slot.pendingSince = System.currentTimeMillis();
+                pendingCount++;
+            }
+            if (slot.pending.put(flow, action) != null) {
+                LOG.debug("{}: coalesced {} event", key, flow);
+            }
+            if (!slot.scheduled && !slot.running) {
+                schedule(key, slot);
+            }
+        }
+    }
+
+    /**
+     * Runs the given work, which isn't about a particular PR, once a worker is free.
+     * @param repo The full name of the repo the work is for.
+     * @param flow The name of the flow, which the run is timed as.
+     * @param body The work.
+     * @return Whether the work was accepted, rather than rejected because the queue is full or has been shut down.
+     */
+    public boolean execute(String repo, String flow, BotMetrics.Body body) {
+        synchronized (slots) {
+            if (stopped) {
+                LOG.info("{}: dropped {} work, the queue has been shut down", repo, flow);
+                return false;
+            }
+            if (full()) {
+                reject(repo, flow);
+                return false;
+            }
+            long submitted = System.currentTimeMillis();
+            executing.merge(submitted, 1, Integer::sum);
+            executingCount++;
+            ready(repo, () -> {
+                try {
+                    BotMetrics.timeFlow(registry, flow, body);
+                } catch (Exception e) {
+                    LOG.error("{}: {} failed", repo, flow, e);
+                } finally {
+                    synchronized (slots) {
+                        executing.computeIfPresent(submitted, (t, n) -> n == 1 ? null : n - 1);
+                        executingCount--;
+                    }
+                }
+            });
+            return true;
+        }
+    }
+
+    /**
+     * @return The number of PRs with actions waiting to run.
+     */
+    public int depth() {
+        synchronized (slots) {
+            return pendingCount;
+        }
+    }
+
+    /**
+     * @return When the earliest submitted work which has yet to finish was submitted,
+     * or now if there is no such work. All the work submitted before then has finished.
+     */
+    public long oldestOutstanding() {
+        long oldest = System.currentTimeMillis();
+        synchronized (slots) {
+            for (Slot slot : slots.values()) {
+                if (!slot.pending.isEmpty()) {
+                    oldest = Math.min(oldest, slot.pendingSince);
+                }
+                if (slot.running) {
+                    oldest = Math.min(oldest, slot.runningSince);
+                }
+            }
+            if (!executing.isEmpty()) {
+                oldest = Math.min(oldest, executing.firstKey());
+            }
+        }
+        return oldest;
+    }
+
+    private boolean full() {
+        return pendingCount + executingCount >= capacity;
+    }
+
+    private void reject(Object target, String flow) {
+        LOG.warn("{}: rejected {} work, the queue is full", target, flow);
+        rejected.increment();
+    }
+
+    /**
+     * Schedules the draining of a slot once the window has elapsed. The caller holds the monitor of {@link #slots}.
+     */
+    private void schedule(Key key, Slot slot) {
+        if (stopped) {
+            LOG.info("{}: dropped {} pending actions, the queue has been shut down", key, slot.pending.size());
+            return;
+        }
+        slot.scheduled = true;
+        timer.schedule(() -> {
+            synchronized (slots) {
+                ready(key.repo, () -> drain(key));
+            }
+        }, window.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues work for a worker. The caller holds the monitor of {@link #slots}.
+     */
+    private void ready(String repo, Runnable body) {
+        ready.computeIfAbsent(repo, r -> new ArrayDeque<>()).add(new Task(body));
+        slots.notify();
+    }
+
+    /**
+     * @return The next ready task, from the repo which has waited longest to be served,
+     * or null once the queue has been shut down.
+     */
+    private Task take() throws InterruptedException {
+        synchronized (slots) {
+            while (ready.isEmpty() && !stopped) {
+                slots.wait();
+            }
+            if (stopped) {
+                return null;
+            }
+            var it = ready.entrySet().iterator();
+            var entry = it.next();
+            Task task = entry.getValue().poll();
+            it.remove();
+            if (!entry.getValue().isEmpty()) {
+                // To the back of the line
+                ready.put(entry.getKey(), entry.getValue());
+            }
+            return task;
+        }
+    }
+
+    private void work() {
+        try {
+            Task task;
+            while ((task = take()) != null) {
+                waitTimer.record(System.nanoTime() - task.readyAt, TimeUnit.NANOSECONDS);
+                try {
+                    task.body.run();
+                } catch (RuntimeException e) {
+                    LOG.error("Unexpected failure", e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain(Key key) {
+        GHPullRequest submitted;
+        Map<String, Action> actions;
+        synchronized (slots) {
+            Slot slot = slots.get(key);
+            slot.scheduled = false;
+            slot.running = true;
+            slot.runningSince = slot.pendingSince;
+            submitted = slot.pullRequest;
+            actions = new LinkedHashMap<>(slot.pending);
+            slot.pending.clear();
+            pendingCount--;
+        }
+        try {
+            GHPullRequest latest;
+            try {
+                latest = submitted.getRepository().getPullRequest(key.number);
+            } catch (IOException e) {
+                LOG.warn("{}: unable to re-read PR, using the submitted state", key, e);
+                latest = submitted;
+            }
+            var snapshot = new PullRequestSnapshot(latest);
+            for (var entry : actions.entrySet()) {
+                try {
+                    LOG.debug("{}: running {}", key, entry.getKey());
+                    BotMetrics.timeFlow(registry, entry.getKey(), () -> entry.getValue().run(snapshot));
+                } catch (Exception e) {
+                    LOG.error("{}: {} failed", key, entry.getKey(), e);
+                }
+            }
+        } finally {
+            synchronized (slots) {
+                Slot slot = slots.get(key);
+                slot.running = false;
+                if (!slot.pending.isEmpty()) {
+                    schedule(key, slot);
+                } else {
+                    slots.remove(key);
+                }
+            }
+        }
+    }
+}
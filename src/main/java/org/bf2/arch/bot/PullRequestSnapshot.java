@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.bf2.arch.bot.model.patch.FilePatch;
+import org.bf2.arch.bot.model.record.RecordId;
+import org.bf2.arch.bot.model.record.RecordPathClassifier;
+import org.kohsuke.github.GHIssueComment;
+import org.kohsuke.github.GHLabel;
+import org.kohsuke.github.GHPerson;
+import org.kohsuke.github.GHPullRequest;
+import org.kohsuke.github.GHPullRequestFileDetail;
+import org.kohsuke.github.GHPullRequestReview;
+
+/**
+ * A view of a PR, shared by all the flows handling an event about that PR,
+ * so that each part of the PR is read from GitHub at most once per event, however many flows look at it.
+ * Each part is loaded lazily, on first use.
+ *
+ * <p>The view is read-only, except for its {@link #labels()}, which flows change with {@link #setLabels(Set)}.
+ * The {@link PullRequestEventQueue} runs the flows sharing a snapshot one at a time, in the order they were
+ * submitted, so each flow sees the labels as left by the flows before it, and none sees them change while it runs.
+ * A flow which used a snapshot outside the queue would have to provide the same ordering.</p>
+ */
+public class PullRequestSnapshot {
+
+    private final GHPullRequest pullRequest;
+
+    private List<GHPullRequestFileDetail> files;
+    private final Map<String, FilePatch> patches = new HashMap<>();
+    private List<RecordId> touchedRecords;
+    private Set<String> labels;
+    private Set<String> requestedReviewers;
+    private List<GHPullRequestReview> reviews;
+    private List<GHIssueComment> comments;
+
+    public PullRequestSnapshot(GHPullRequest pullRequest) {
+        this.pullRequest = pullRequest;
+    }
+
+    /**
+     * @return The PR itself, for reading its scalar properties and making changes to it.
+     */
+    public GHPullRequest pullRequest() {
+        return pullRequest;
+    }
+
+    public int number() {
+        return pullRequest.getNumber();
+    }
+
+    /**
+     * @return The files changed by the PR.
+     */
+    public synchronized List<GHPullRequestFileDetail> files() {
+        if (files == null) {
+            var result = new ArrayList<GHPullRequestFileDetail>();
+            for (var fileDetail : pullRequest.listFiles()) {
+                result.add(fileDetail);
+            }
+            files = Collections.unmodifiableList(result);
+        }
+        return files;
+    }
+
+    /**
+     * @return The parsed patch for the given file of this PR.
+     */
+    public synchronized FilePatch patch(GHPullRequestFileDetail fileDetail) {
+        return patches.computeIfAbsent(fileDetail.getFilename(), f -> FilePatch.parsePatch(fileDetail.getPatch()));
+    }
+
+    /**
+     * @return The records changed by the PR.
+     */
+    public synchronized List<RecordId> touchedRecords() {
+        if (touchedRecords == null) {
+            var result = new ArrayList<RecordId>();
+            for (var fileDetail : files()) {
+                RecordId recordId = RecordPathClassifier.DEFAULT.classify(fileDetail.getFilename());
+                if (recordId != null) {
+                    result.add(recordId);
+                }
+            }
+            touchedRecords = Collections.unmodifiableList(result);
+        }
+        return touchedRecords;
+    }
+
+    /**
+     * @return The names of the PR's labels (as of when the PR was read, or as last set via {@link #setLabels(Set)}).
+     */
+    public synchronized Set<String> labels() {
+        if (labels == null) {
+            labels = pullRequest.getLabels().stream().map(GHLabel::getName).collect(Collectors.toUnmodifiableSet());
+        }
+        return labels;
+    }
+
+    /**
+     * Replaces the PR's labels on GitHub, and in this snapshot.
+     * Flows must change labels this way, rather than via {@link #pullRequest()},
+     * so that the flows which run after them start from these labels, rather than undoing the change.
+     */
+    public synchronized void setLabels(Set<String> labels) throws IOException {
+        Util.setLabels(pullRequest, labels);
+        this.labels = Set.copyOf(labels);
+    }
+
+    /**
+     * @return The logins of the PR's requested reviewers.
+     */
+    public synchronized Set<String> requestedReviewers() throws IOException {
+        if (requestedReviewers == null) {
+            requestedReviewers = pullRequest.getRequestedReviewers().stream()
+                    .map(GHPerson::getLogin)
+                    .collect(Collectors.toUnmodifiableSet());
+        }
+        return requestedReviewers;
+    }
+
+    /**
+     * @return The PR's reviews.
+     */
+    public synchronized List<GHPullRequestReview> reviews() throws IOException {
+        if (reviews == null) {
+            reviews = Collections.unmodifiableList(pullRequest.listReviews().toList());
+        }
+        return reviews;
+    }
+
+    /**
+     * @return The comments on the PR's conversation.
+     */
+    public synchronized List<GHIssueComment> comments() throws IOException {
+        if (comments == null) {
+            comments = Collections.unmodifiableList(pullRequest.getComments());
+        }
+        return comments;
+    }
+}
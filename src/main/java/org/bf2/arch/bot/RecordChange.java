@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import java.util.Set;
+
+import org.bf2.arch.bot.model.patch.FilePatch;
+import org.bf2.arch.bot.model.record.RecordId;
+import org.bf2.arch.bot.model.record.RecordPage;
+
+/**
+ * A PR's change to a record, parsed, for {@link ReviewRule ReviewRules} to examine.
+ * Rules run in parallel over the same change, so mustn't modify it.
+ */
+public final class RecordChange {
+
+    private final RecordId recordId;
+    private final String path;
+    private final RecordPage base;
+    private final RecordPage head;
+    private final RecordPage previous;
+    private final FilePatch patch;
+    private final ArchBotConfig config;
+    private final Set<String> repoLabels;
+
+    public RecordChange(RecordId recordId, String path, RecordPage base, RecordPage head, RecordPage previous,
+                        FilePatch patch, ArchBotConfig config, Set<String> repoLabels) {
+        this.recordId = recordId;
+        this.path = path;
+        this.base = base;
+        this.head = head;
+        this.previous = previous;
+        this.patch = patch;
+        this.config = config != null ? config : new ArchBotConfig();
+        this.repoLabels = repoLabels;
+    }
+
+    public RecordId recordId() {
+        return recordId;
+    }
+
+    /**
+     * @return The path of the record's page in the repo.
+     */
+    public String path() {
+        return path;
+    }
+
+    /**
+     * @return The page before the change, or null if the PR creates the record.
+     */
+    public RecordPage base() {
+        return base;
+    }
+
+    /**
+     * @return The page after the change.
+     */
+    public RecordPage head() {
+        return head;
+    }
+
+    /**
+     * @return The page as of the bot's last review of the PR, or null if the bot hasn't reviewed this page before.
+     * Anything the page already said then has already been reviewed.
+     */
+    public RecordPage previous() {
+        return previous;
+    }
+
+    /**
+     * @return The hunks of the PR's patch to review: when there's a {@link #previous()} page, only those
+     * which add lines changed since then, with their other added lines, already reviewed, as context.
+     */
+    public FilePatch patch() {
+        return patch;
+    }
+
+    /**
+     * @return The repo's config, or the defaults if it doesn't have one.
+     */
+    public ArchBotConfig config() {
+        return config;
+    }
+
+    /**
+     * @return The names of the labels which exist in the repo.
+     */
+    public Set<String> repoLabels() {
+        return repoLabels;
+    }
+}
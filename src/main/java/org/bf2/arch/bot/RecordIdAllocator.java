@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.bf2.arch.bot.model.record.RecordId;
+import org.bf2.arch.bot.model.record.RecordType;
+import org.kohsuke.github.GHRepository;
+import org.kohsuke.github.HttpException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Allocates record ids, so that concurrent requests to create records of the same type get distinct ids.
+ *
+ * <p>Within this process ids are reserved under a lock striped by repo and record type,
+ * so concurrent creations never try the same id.
+ * Between processes (e.g. bot replicas) creating the branch for the record is the compare-and-swap:
+ * if the branch already exists the creation is retried with the next id.</p>
+ */
+@ApplicationScoped
+public class RecordIdAllocator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RecordIdAllocator.class);
+
+    static final int STRIPES = 16;
+    static final int MAX_ATTEMPTS = 5;
+
+    /**
+     * Creates a record with a given id.
+     */
+    @FunctionalInterface
+    public interface Creation<T> {
+        /**
+         * @throws IdTakenException If some other process has already used the id.
+         */
+        T create(RecordId recordId) throws IOException;
+    }
+
+    /**
+     * Thrown by a {@link Creation} when the id it was given has already been used.
+     */
+    public static class IdTakenException extends IOException {
+        public IdTakenException(RecordId recordId, Throwable cause) {
+            super(recordId + " has already been taken", cause);
+        }
+    }
+
+    /**
+     * The ids of one record type in one repo which have been handed out but might not be on the default branch yet,
+     * guarded by the stripe's lock.
+     */
+    private static class Reservations {
+        final TreeSet<Integer> reserved = new TreeSet<>();
+        /** The largest id known to have been taken by some other process. */
+        int taken = -1;
+    }
+
+    private final RecordIndex recordIndex;
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    private final Map<String, Reservations> reservations = new HashMap<>();
+
+    @Inject
+    public RecordIdAllocator(RecordIndex recordIndex) {
+        this.recordIndex = recordIndex;
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * @return Whether the given exception means that a ref being created already exists.
+     * Creating a ref fails with 422 for other reasons too (e.g. an invalid ref name or unknown commit),
+     * and only this one means the id was taken.
+     */
+    public static boolean isRefConflict(IOException e) {
+        return e instanceof HttpException
+                && ((HttpException) e).getResponseCode() == 422
+                && e.getMessage() != null
+                && e.getMessage().contains("Reference already exists");
+    }
+
+    /**
+     * Allocates an id and uses it to create a record,
+     * retrying with the next id if the creation finds the id has already been taken.
+     * @param repo The repo.
+     * @param commitSha The commit of the default branch the record is being created from.
+     * @param recordType The type of record.
+     * @param creation Creates the record.
+     * @return The result of the creation.
+     */
+    public <T> T allocate(GHRepository repo, String commitSha, RecordType recordType, Creation<T> creation) throws IOException {
+        String key = key(repo, recordType);
+        for (int attempt = 1; ; attempt++) {
+            var recordId = new RecordId(recordType, reserve(repo, commitSha, recordType));
+            boolean created = false;
+            try {
+                LOG.debug("{}: attempt {} to create {}", key, attempt, recordId);
+                T result = creation.create(recordId);
+                created = true;
+                return result;
+            } catch (IdTakenException e) {
+                LOG.info("{}: {} was taken by someone else", key, recordId);
+                markTaken(key, recordId.num());
+                if (attempt == MAX_ATTEMPTS) {
+                    throw new BotError(String.format("Unable to allocate a %s id after %d attempts", recordType, attempt));
+                }
+            } finally {
+                if (!created) {
+                    release(key, recordId.num());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The id the next allocation would try.
+     */
+    public int nextId(GHRepository repo, String commitSha, RecordType recordType) throws IOException {
+        String key = key(repo, recordType);
+        var lock = lock(key);
+        lock.lock();
+        try {
+            return next(repo, commitSha, recordType, reservations(key));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases the id of a record which won't be reaching the default branch (e.g. because its PR was closed),
+     * so that a later allocation can use it again.
+     * Otherwise the reservation is held until this process restarts.
+     */
+    public void release(GHRepository repo, RecordId recordId) {
+        String key = key(repo, recordId.recordType());
+        LOG.debug("{}: releasing {}", key, recordId.num());
+        release(key, recordId.num());
+    }
+
+    private int reserve(GHRepository repo, String commitSha, RecordType recordType) throws IOException {
+        String key = key(repo, recordType);
+        var lock = lock(key);
+        lock.lock();
+        try {
+            Reservations reservations = reservations(key);
+            int id = next(repo, commitSha, recordType, reservations);
+            reservations.reserved.add(id);
+            LOG.debug("{}: reserved {}", key, id);
+            return id;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int next(GHRepository repo, String commitSha, RecordType recordType, Reservations reservations) throws IOException {
+        var existing = recordIndex.numbers(repo, commitSha, recordType);
+        // Forget reservations which have made it onto the default branch
+        reservations.reserved.removeIf(existing::contains);
+        int id = recordIndex.nextId(repo, commitSha, recordType);
+        if (!reservations.reserved.isEmpty()) {
+            id = Math.max(id, reservations.reserved.last() + 1);
+        }
+        return Math.max(id, reservations.taken + 1);
+    }
+
+    private void markTaken(String key, int id) {
+        var lock = lock(key);
+        lock.lock();
+        try {
+            Reservations reservations = reservations(key);
+            reservations.taken = Math.max(reservations.taken, id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(String key, int id) {
+        var lock = lock(key);
+        lock.lock();
+        try {
+            reservations(key).reserved.remove(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Reservations reservations(String key) {
+        synchronized (reservations) {
+            return reservations.computeIfAbsent(key, k -> new Reservations());
+        }
+    }
+
+    private ReentrantLock lock(String key) {
+        return stripes[Math.floorMod(key.hashCode(), stripes.length)];
+    }
+
+    private static String key(GHRepository repo, RecordType recordType) {
+        return repo.getFullName() + " " + recordType;
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bf2.arch.bot.github.GitMirror;
+import org.bf2.arch.bot.model.record.RecordNumbers;
+import org.bf2.arch.bot.model.record.RecordType;
+import org.eclipse.jgit.lib.ObjectId;
+import org.kohsuke.github.GHCommit;
+import org.kohsuke.github.GHCompare;
+import org.kohsuke.github.GHRepository;
+import org.kohsuke.github.GHTreeEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An index of the existing record numbers in each repo, by record type.
+ *
+ * <p>The index for a repo and record type is built by listing the record type's directory
+ * at some commit of the default branch.
+ * When asked about a later commit it is updated using the compare API, which costs a single request,
+ * rather than being rebuilt.
+ * It is only rebuilt if the branch didn't simply move forward (e.g. after a force push),
+ * the comparison is too big to be complete, or a record might have been deleted.
+ * When the record directory's tree SHA is unchanged a rebuild reuses the existing numbers.
+ * When the {@link GitMirror} has the commit the directory is listed from the mirror instead.</p>
+ */
+@ApplicationScoped
+public class RecordIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RecordIndex.class);
+
+    /** The compare API lists at most this many files. */
+    static final int COMPARE_MAX_FILES = 300;
+
+    /**
+     * The numbers of the records of one type at a commit.
+     */
+    private static class Snapshot {
+        final String commitSha;
+        /** The SHA of the record directory's tree, if known. */
+        final String treeSha;
+        final RecordNumbers numbers;
+
+        Snapshot(String commitSha, String treeSha, RecordNumbers numbers) {
+            this.commitSha = commitSha;
+            this.treeSha = treeSha;
+            this.numbers = numbers;
+        }
+    }
+
+    private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+    private final GitMirror mirror;
+
+    public RecordIndex() {
+        this(null);
+    }
+
+    @Inject
+    public RecordIndex(GitMirror mirror) {
+        this.mirror = mirror != null && mirror.enabled() ? mirror : null;
+    }
+
+    /**
+     * @return The numbers of the existing records of the given type at the given commit.
+     */
+    public RecordNumbers numbers(GHRepository repo, String commitSha, RecordType recordType) throws IOException {
+        String key = repo.getFullName() + " " + recordType;
+        Snapshot current = snapshots.get(key);
+        if (current != null && current.commitSha.equals(commitSha)) {
+            return current.numbers;
+        }
+        // Listing the directory in the mirror costs no requests at all
+        Snapshot updated = mirror != null ? fromMirror(repo, commitSha, recordType, current) : null;
+        if (updated == null && current != null) {
+            updated = update(repo, current, commitSha, recordType);
+        }
+        if (updated == null) {
+            updated = build(repo, commitSha, recordType, current);
+        }
+        snapshots.put(key, updated);
+        return updated.numbers;
+    }
+
+    /**
+     * @return The number following the largest existing record number of the given type at the given commit.
+     */
+    public int nextId(GHRepository repo, String commitSha, RecordType recordType) throws IOException {
+        return numbers(repo, commitSha, recordType).max(1) + 1;
+    }
+
+    private Snapshot build(GHRepository repo, String commitSha, RecordType recordType, Snapshot previous) throws IOException {
+        GHCommit commit = repo.getCommit(commitSha);
+        GHTreeEntry dir = commit.getTree().getEntry(recordType.repoDir);
+        if (dir == null) {
+            LOG.debug("{}: no {} directory at {}", repo.getFullName(), recordType.repoDir, commitSha);
+            return new Snapshot(commitSha, null, RecordNumbers.EMPTY);
+        }
+        String treeSha = dir.getSha();
+        if (previous != null && treeSha != null && treeSha.equals(previous.treeSha)) {
+            LOG.debug("{}: {} unchanged at {}", repo.getFullName(), recordType.repoDir, commitSha);
+            return new Snapshot(commitSha, treeSha, previous.numbers);
+        }
+        var entries = dir.asTree().getTree();
+        int[] numbers = new int[entries.size()];
+        int size = 0;
+        for (GHTreeEntry entry : entries) {
+            int number = parseNumber(entry.getPath(), 0, entry.getPath().length());
+            if (number >= 0) {
+                numbers[size++] = number;
+            }
+        }
+        LOG.debug("{}: indexed {} {} entries at {}", repo.getFullName(), size, recordType, commitSha);
+        return new Snapshot(commitSha, treeSha, RecordNumbers.of(Arrays.copyOf(numbers, size)));
+    }
+
+    /**
+     * @return The snapshot at the given commit read from the mirror, or null if the mirror doesn't have the commit.
+     */
+    private Snapshot fromMirror(GHRepository repo, String commitSha, RecordType recordType, Snapshot previous) throws IOException {
+        ObjectId treeId = mirror.entryId(repo.getFullName(), commitSha, recordType.repoDir);
+        if (treeId != null && previous != null && treeId.name().equals(previous.treeSha)) {
+            return new Snapshot(commitSha, previous.treeSha, previous.numbers);
+        }
+        List<String> names = mirror.list(repo.getFullName(), commitSha, recordType.repoDir);
+        if (names == null) {
+            return null;
+        }
+        int[] numbers = new int[names.size()];
+        int size = 0;
+        for (String name : names) {
+            int number = parseNumber(name, 0, name.length());
+            if (number >= 0) {
+                numbers[size++] = number;
+            }
+        }
+        LOG.debug("{}: indexed {} {} entries at {} from mirror", repo.getFullName(), size, recordType, commitSha);
+        return new Snapshot(commitSha, treeId != null ? treeId.name() : null, RecordNumbers.of(Arrays.copyOf(numbers, size)));
+    }
+
+    /**
+     * @return The snapshot updated to the given commit, or null if it has to be rebuilt.
+     */
+    private Snapshot update(GHRepository repo, Snapshot current, String commitSha, RecordType recordType) throws IOException {
+        GHCompare compare;
+        try {
+            compare = repo.getCompare(current.commitSha, commitSha);
+        } catch (IOException e) {
+            LOG.debug("{}: unable to compare {}...{}", repo.getFullName(), current.commitSha, commitSha, e);
+            return null;
+        }
+        if (compare.getStatus() != GHCompare.Status.ahead) {
+            LOG.debug("{}: {} is {} of {}", repo.getFullName(), commitSha, compare.getStatus(), current.commitSha);
+            return null;
+        }
+        GHCommit.File[] files = compare.getFiles();
+        if (files == null || files.length >= COMPARE_MAX_FILES) {
+            return null;
+        }
+        RecordNumbers numbers = current.numbers;
+        for (GHCommit.File file : files) {
+            String status = file.getStatus();
+            if (("removed".equals(status) || "renamed".equals(status))
+                    && numberIn(recordType, "removed".equals(status) ? file.getFileName() : file.getPreviousFilename()) >= 0) {
+                // The record's directory might now be gone
+                return null;
+            }
+            int number = numberIn(recordType, file.getFileName());
+            if (number >= 0) {
+                numbers = numbers.with(number);
+            }
+        }
+        LOG.debug("{}: updated {} index from {} to {}", repo.getFullName(), recordType, current.commitSha, commitSha);
+        return new Snapshot(commitSha, null, numbers);
+    }
+
+    /**
+     * @return The number of the record directory containing the given path, or -1 if it's not in a record directory.
+     */
+    static int numberIn(RecordType recordType, String repoPath) {
+        String dir = recordType.repoDir;
+        if (repoPath == null
+                || repoPath.length() <= dir.length() + 1
+                || !repoPath.startsWith(dir)
+                || repoPath.charAt(dir.length()) != '/') {
+            return -1;
+        }
+        int start = dir.length() + 1;
+        int end = repoPath.indexOf('/', start);
+        return parseNumber(repoPath, start, end < 0 ? repoPath.length() : end);
+    }
+
+    /**
+     * @return The non-negative decimal number in the given range of the string, or -1 if it's not a number.
+     */
+    static int parseNumber(String s, int start, int end) {
+        if (start >= end || end - start > 9) {
+            return -1;
+        }
+        int result = 0;
+        for (int i = start; i < end; i++) {
+            char ch = s.charAt(i);
+            if (ch < '0' || ch > '9') {
+                return -1;
+            }
+            result = result * 10 + (ch - '0');
+        }
+        return result;
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.quarkus.runtime.Startup;
+import org.bf2.arch.bot.github.GitMirror;
+import org.bf2.arch.bot.model.record.RecordPage;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jetbrains.annotations.Nullable;
+import org.kohsuke.github.GHContent;
+import org.kohsuke.github.GHRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A cache of parsed {@link RecordPage RecordPages}, keyed by the SHA of the git blob they were parsed from.
+ *
+ * <p>A blob's content never changes, so entries never need invalidating, and because the key identifies
+ * the content rather than where it came from, the cache is shared between flows, repos and installations.
+ * The cache is bounded by the approximate memory used by the pages, evicting those least likely to be used again.</p>
+ *
+ * <p>When the {@link GitMirror} is enabled pages are read from it, rather than through the API, when it can.</p>
+ *
+ * <p>Pages are returned as copies, so callers are free to change them.</p>
+ */
+@Startup
+@ApplicationScoped
+public class RecordPageCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RecordPageCache.class);
+
+    private final Cache<String, RecordPage> pages;
+    private final GitMirror mirror;
+
+    public RecordPageCache(long maxBytes) {
+        this(maxBytes, null);
+    }
+
+    public RecordPageCache(long maxBytes, GitMirror mirror) {
+        this.pages = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String sha, RecordPage page) -> page.weight())
+                .recordStats()
+                .build();
+        this.mirror = mirror != null && mirror.enabled() ? mirror : null;
+    }
+
+    @Inject
+    public RecordPageCache(@ConfigProperty(name = "bot.page-cache.max-bytes", defaultValue = "33554432")
+                           long maxBytes,
+                           GitMirror mirror,
+                           MeterRegistry registry) {
+        this(maxBytes, mirror);
+        CaffeineCacheMetrics.monitor(registry, pages, "record-pages");
+    }
+
+    /**
+     * @return The page in the given blob of the given repo.
+     */
+    public RecordPage page(GHRepository repo, String blobSha) throws IOException {
+        RecordPage page = pages.getIfPresent(blobSha);
+        if (page == null) {
+            byte[] bytes = mirror != null ? mirror.read(repo.getFullName(), blobSha) : null;
+            if (bytes == null) {
+                try (InputStream in = repo.getBlob(blobSha).read()) {
+                    bytes = in.readAllBytes();
+                }
+            }
+            page = parse(blobSha, new String(bytes, StandardCharsets.UTF_8));
+        }
+        return page.copy();
+    }
+
+    /**
+     * @return The page at the given path in the given repo at the given ref, or null if there's no such file.
+     */
+    @Nullable
+    public RecordPage page(GHRepository repo, String ref, String repoPath) throws IOException {
+        if (mirror != null) {
+            ObjectId blobId = mirror.entryId(repo.getFullName(), ref, repoPath);
+            if (blobId != null) {
+                return page(repo, blobId.name());
+            }
+        }
+        GHContent content = repo.getFileContent(repoPath, ref);
+        if (content == null) {
+            return null;
+        }
+        return page(content);
+    }
+
+    /**
+     * @return The page with the given content, which is only read if the page isn't cached.
+     */
+    public RecordPage page(GHContent content) throws IOException {
+        String blobSha = content.getSha();
+        RecordPage page = blobSha != null ? pages.getIfPresent(blobSha) : null;
+        if (page == null) {
+            try (InputStream in = content.read()) {
+                String text = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+                page = blobSha != null ? parse(blobSha, text) : RecordPage.fromContent(text);
+            }
+        }
+        return page.copy();
+    }
+
+    /**
+     * @return The page in the given blob, if it's cached, otherwise null.
+     */
+    @Nullable
+    public RecordPage cached(String blobSha) {
+        RecordPage page = pages.getIfPresent(blobSha);
+        return page != null ? page.copy() : null;
+    }
+
+    /**
+     * Caches content which should be that of the given blob, but which wasn't read from it
+     * (e.g. because it was reconstructed by applying a patch), after checking that it is.
+     * @return The page, or null if the content isn't that of the blob.
+     */
+    @Nullable
+    public RecordPage page(String blobSha, String content) throws IOException {
+        RecordPage page = pages.getIfPresent(blobSha);
+        if (page == null) {
+            String actualSha = blobSha(content.getBytes(StandardCharsets.UTF_8));
+            if (!actualSha.equals(blobSha)) {
+                LOG.debug("Content for blob {} is that of blob {}", blobSha, actualSha);
+                return null;
+            }
+            page = parse(blobSha, content);
+        }
+        return page.copy();
+    }
+
+    /**
+     * @return The SHA which git would give a blob with the given content.
+     */
+    static String blobSha(byte[] content) {
+        try (var formatter = new ObjectInserter.Formatter()) {
+            return formatter.idFor(Constants.OBJ_BLOB, content).name();
+        }
+    }
+
+    private RecordPage parse(String blobSha, String content) throws IOException {
+        RecordPage page = RecordPage.fromContent(content);
+        // Concurrent misses for the same blob can both parse it, but they'll agree on the result
+        pages.put(blobSha, page);
+        LOG.debug("Cached page for blob {}", blobSha);
+        return page;
+    }
+
+    /**
+     * @return The hit, miss and eviction counts of the cache.
+     */
+    public CacheStats stats() {
+        return pages.stats();
+    }
+
+    /**
+     * @return The number of pages in the cache.
+     */
+    public long size() {
+        return pages.estimatedSize();
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import java.util.Comparator;
+import java.util.Objects;
+
+/**
+ * A comment a {@link ReviewRule} makes on a line of a PR's diff.
+ */
+public final class ReviewComment {
+
+    /** Orders comments by where they are in the diff. */
+    static final Comparator<ReviewComment> DIFF_ORDER = Comparator.comparing(ReviewComment::path)
+            .thenComparingInt(ReviewComment::position);
+
+    private final String path;
+    private final int position;
+    private final String body;
+
+    /**
+     * @param position The position in the file's patch, in the sense of {@link
+     * org.bf2.arch.bot.model.patch.FilePatch.LineMatch#patchLineNum()}.
+     */
+    public ReviewComment(String path, int position, String body) {
+        this.path = path;
+        this.position = position;
+        this.body = body;
+    }
+
+    public String path() {
+        return path;
+    }
+
+    public int position() {
+        return position;
+    }
+
+    public String body() {
+        return body;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        ReviewComment that = (ReviewComment) o;
+        return position == that.position && path.equals(that.path) && body.equals(that.body);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(path, position, body);
+    }
+
+    @Override
+    public String toString() {
+        return path + "@" + position + ": " + body;
+    }
+}
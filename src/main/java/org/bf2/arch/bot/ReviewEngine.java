@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.inject.Any;
+import javax.enterprise.inject.Instance;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the {@link ReviewRule ReviewRules} over the records a PR changes.
+ *
+ * <p>Every rule is run for every record, in parallel on a dedicated {@link ForkJoinPool}
+ * ({@code bot.review.parallelism} threads, defaulting to the number of processors).
+ * The rules are CPU bound: the records are fetched and parsed before they're run.
+ * The time each rule takes is recorded as {@value BotMetrics#REVIEW_RULE_DURATION}.</p>
+ *
+ * <p>A rule which fails is logged and otherwise ignored, so one broken rule doesn't stop the others being
+ * useful.</p>
+ */
+@ApplicationScoped
+public class ReviewEngine {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReviewEngine.class);
+
+    private final List<ReviewRule> rules;
+    private final ForkJoinPool pool;
+    private final MeterRegistry registry;
+
+    ReviewEngine(List<ReviewRule> rules, int parallelism, MeterRegistry registry) {
+        this.rules = rules;
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        this.registry = registry;
+    }
+
+    @Inject
+    public ReviewEngine(@Any Instance<ReviewRule> rules,
+                        @ConfigProperty(name = "bot.review.parallelism", defaultValue = "0") int parallelism,
+                        MeterRegistry registry) {
+        this(rules.stream().collect(Collectors.toList()), parallelism, registry);
+        LOG.info("Review rules: {}", this.rules.stream().map(ReviewRule::name).collect(Collectors.toList()));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * @return The comments all the rules make about all the changes, in diff order without duplicates.
+     */
+    public List<ReviewComment> review(List<RecordChange> changes) {
+        List<ForkJoinTask<List<ReviewComment>>> tasks = new ArrayList<>(changes.size() * rules.size());
+        for (RecordChange change : changes) {
+            for (ReviewRule rule : rules) {
+                tasks.add(ForkJoinTask.adapt(() -> run(rule, change)));
+            }
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+        var comments = new LinkedHashSet<ReviewComment>();
+        for (var task : tasks) {
+            comments.addAll(task.join());
+        }
+        List<ReviewComment> result = new ArrayList<>(comments);
+        result.sort(ReviewComment.DIFF_ORDER);
+        return result;
+    }
+
+    private List<ReviewComment> run(ReviewRule rule, RecordChange change) {
+        Timer.Sample sample = Timer.start(registry);
+        String outcome = "failure";
+        try {
+            List<ReviewComment> comments = rule.review(change);
+            outcome = "success";
+            return comments;
+        } catch (Exception e) {
+            LOG.warn("Review rule {} failed on {}", rule.name(), change.path(), e);
+            return List.of();
+        } finally {
+            sample.stop(Timer.builder(BotMetrics.REVIEW_RULE_DURATION)
+                    .description("Runs of each review rule over a record")
+                    .tag("rule", rule.name())
+                    .tag("outcome", outcome)
+                    .register(registry));
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A check which {@link PrReviewFlow} makes of each record a PR changes.
+ *
+ * <p>Rules are beans, so a new rule only needs to be an {@code @ApplicationScoped} implementation of this
+ * interface. The {@link ReviewEngine} runs the rules for all the changed records in parallel, so a rule must be
+ * safe to call from several threads at once. It shouldn't make requests to GitHub: what it needs should
+ * be on the {@link RecordChange}.</p>
+ */
+public interface ReviewRule {
+
+    /**
+     * @return The name of the rule, as used in its metrics.
+     */
+    String name();
+
+    /**
+     * @return The comments the rule makes about the change, which may be none.
+     */
+    List<ReviewComment> review(RecordChange change) throws IOException;
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.Map;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * What the bot last reviewed of each PR: the PR's head commit, the blob of each record page the PR changed,
+ * and the revision of the repo's config it was reviewed with.
+ * A PR whose head hasn't moved needn't be reviewed again, and otherwise only the pages whose blobs have changed,
+ * and only the parts of them which changed, need reviewing. A change to the config means reviewing in full.
+ *
+ * <p>At most {@code bot.review.remembered-prs} PRs are remembered, in memory, those least recently reviewed
+ * being forgotten first. A forgotten PR is reviewed in full, as after a restart.</p>
+ */
+@ApplicationScoped
+public class ReviewedHeads {
+
+    /**
+     * A reviewed head of a PR.
+     */
+    public static final class Head {
+        private final String sha;
+        private final Map<String, String> blobs;
+        private final String configRevision;
+
+        Head(String sha, Map<String, String> blobs, String configRevision) {
+            this.sha = sha;
+            this.blobs = Map.copyOf(blobs);
+            this.configRevision = configRevision;
+        }
+
+        /**
+         * @return The SHA of the reviewed commit.
+         */
+        public String sha() {
+            return sha;
+        }
+
+        /**
+         * @return The SHA of the reviewed blob of each record page the PR changed, by path.
+         */
+        public Map<String, String> blobs() {
+            return blobs;
+        }
+
+        /**
+         * @return The {@link ArchBotConfig#revision() revision} of the config the head was reviewed with.
+         */
+        public String configRevision() {
+            return configRevision;
+        }
+    }
+
+    private final Cache<String, Head> heads;
+
+    @Inject
+    public ReviewedHeads(@ConfigProperty(name = "bot.review.remembered-prs", defaultValue = "10000") long maxPrs) {
+        this.heads = Caffeine.newBuilder()
+                .maximumSize(maxPrs)
+                .build();
+    }
+
+    /**
+     * @return The head of the given PR which was last reviewed, or null if it isn't known.
+     */
+    public Head get(String repoFullName, int number) {
+        return heads.getIfPresent(key(repoFullName, number));
+    }
+
+    /**
+     * Records that the given head of the given PR has been reviewed.
+     * @param blobs The SHA of the blob of each record page the PR changes, by path.
+     * @param configRevision The {@link ArchBotConfig#revision() revision} of the config it was reviewed with.
+     */
+    public void put(String repoFullName, int number, String sha, Map<String, String> blobs, String configRevision) {
+        heads.put(key(repoFullName, number), new Head(sha, blobs, configRevision));
+    }
+
+    private static String key(String repoFullName, int number) {
+        return repoFullName + "#" + number;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent high-water marks, one per repository, recording how far a periodic scan has got.
+ * The marks are stored as a properties file mapping the repository's full name to an epoch millis timestamp,
+ * so that a restarted bot carries on from where it left off rather than rescanning everything.
+ */
+class ScanCursors {
+
+    private final Path file;
+    private final Map<String, Long> marks = new ConcurrentHashMap<>();
+
+    private ScanCursors(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the cursors from the given file, which need not exist yet.
+     */
+    static ScanCursors load(Path file) throws IOException {
+        var cursors = new ScanCursors(file);
+        if (Files.exists(file)) {
+            var properties = new Properties();
+            try (InputStream in = Files.newInputStream(file)) {
+                properties.load(in);
+            }
+            for (String repo : properties.stringPropertyNames()) {
+                cursors.marks.put(repo, Long.parseLong(properties.getProperty(repo)));
+            }
+        }
+        return cursors;
+    }
+
+    /**
+     * @return The high-water mark for the given repo, or 0 if the repo has never been scanned.
+     */
+    long get(String repoFullName) {
+        return marks.getOrDefault(repoFullName, 0L);
+    }
+
+    /**
+     * Advances the high-water mark for the given repo and persists all the marks.
+     */
+    synchronized void advance(String repoFullName, long mark) throws IOException {
+        marks.merge(repoFullName, mark, Math::max);
+        var properties = new Properties();
+        marks.forEach((repo, value) -> properties.setProperty(repo, Long.toString(value)));
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            properties.store(out, "High-water marks by repository");
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
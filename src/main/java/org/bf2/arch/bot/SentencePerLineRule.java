@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import javax.enterprise.context.ApplicationScoped;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import org.bf2.arch.bot.model.patch.FilePatch;
+import org.bf2.arch.bot.model.patch.Hunk;
+import org.bf2.arch.bot.model.patch.Line;
+
+/**
+ * Checks that the prose a change adds has one sentence per line, which keeps diffs and review comments
+ * focused on the sentences which changed.
+ * Front matter, headings, tables, block delimiters and the content of listing blocks are ignored.
+ * To not be too annoying, only the first such line of each file is commented on.
+ */
+@ApplicationScoped
+public class SentencePerLineRule implements ReviewRule {
+
+    /** Words which end with a full stop without ending a sentence. */
+    private static final Set<String> ABBREVIATIONS = Set.of("e.g", "i.e", "etc", "vs", "cf", "approx", "Mr", "Mrs",
+            "Ms", "Dr", "St", "no", "No");
+
+    @Override
+    public String name() {
+        return "sentence-per-line";
+    }
+
+    @Override
+    public List<ReviewComment> review(RecordChange change) {
+        var visitor = new Visitor(change.head().frontMatterLines());
+        change.patch().visit(EnumSet.of(Line.Type.CONTEXT, Line.Type.ADD), visitor);
+        if (visitor.firstPosition < 0) {
+            return List.of();
+        }
+        String body = visitor.lines == 1
+                ? "Please put each sentence on a line of its own"
+                : "Please put each sentence on a line of its own (" + visitor.lines
+                        + " lines added here have more than one sentence)";
+        return List.of(new ReviewComment(change.path(), visitor.firstPosition, body));
+    }
+
+    private static final class Visitor implements FilePatch.LineVisitor {
+        private final int frontMatterLines;
+        /** The line number in the new file of the next line. */
+        private int lineNum;
+        private boolean inListing;
+        int firstPosition = -1;
+        int lines;
+
+        Visitor(int frontMatterLines) {
+            this.frontMatterLines = frontMatterLines;
+        }
+
+        @Override
+        public void hunk(Hunk hunk) {
+            lineNum = hunk.newStartLine();
+            // We can't see whether the hunk starts within a listing
+            inListing = false;
+        }
+
+        @Override
+        public void line(Line.Type type, CharSequence content, int position) {
+            int num = lineNum++;
+            if (num <= frontMatterLines) {
+                return;
+            }
+            if (isListingDelimiter(content)) {
+                inListing = !inListing;
+                return;
+            }
+            if (type == Line.Type.ADD && !inListing && isProse(content) && hasSeveralSentences(content)) {
+                if (firstPosition < 0) {
+                    firstPosition = position;
+                }
+                lines++;
+            }
+        }
+    }
+
+    private static boolean isListingDelimiter(CharSequence line) {
+        if (line.length() < 4) {
+            return false;
+        }
+        char ch = line.charAt(0);
+        if (ch != '-' && ch != '.' && ch != '`') {
+            return false;
+        }
+        for (int i = 1; i < line.length(); i++) {
+            if (line.charAt(i) != ch) {
+                return ch == '`' && i >= 3;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isProse(CharSequence line) {
+        if (line.length() == 0) {
+            return false;
+        }
+        switch (line.charAt(0)) {
+            case '=':
+            case '|':
+            case '[':
+            case ':':
+            case '/':
+            case ' ':
+            case '\t':
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * @return Whether a sentence ends within the line, i.e. a '.', '?' or '!' is followed by a space and
+     * then a capital, other than after an abbreviation or an initial.
+     */
+    static boolean hasSeveralSentences(CharSequence line) {
+        int length = line.length();
+        int wordStart = 0;
+        for (int i = 0; i < length; i++) {
+            char ch = line.charAt(i);
+            if (ch == ' ') {
+                wordStart = i + 1;
+            } else if ((ch == '.' || ch == '?' || ch == '!')
+                    && i + 2 < length
+                    && line.charAt(i + 1) == ' ') {
+                int next = i + 2;
+                while (next < length && line.charAt(next) == ' ') {
+                    next++;
+                }
+                if (next < length && Character.isUpperCase(line.charAt(next))) {
+                    int start = wordStart;
+                    while (start < i && !Character.isLetterOrDigit(line.charAt(start))) {
+                        start++;
+                    }
+                    String word = line.subSequence(start, i).toString();
+                    if (ch != '.' || (word.length() > 1 && !ABBREVIATIONS.contains(word))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -16,20 +16,55 @@
  */
 package org.bf2.arch.bot;
 
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.inject.Instance;
 import javax.inject.Inject;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLMapper;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.quarkiverse.githubapp.runtime.github.GitHubService;
 import io.quarkus.scheduler.Scheduled;
+import org.bf2.arch.bot.github.ArchBotGitHubService;
+import org.bf2.arch.bot.github.RateLimitBudget;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.context.ManagedExecutor;
+import org.kohsuke.github.GHAppInstallation;
+import org.kohsuke.github.GHContent;
 import org.kohsuke.github.GHDirection;
+import org.kohsuke.github.GHException;
+import org.kohsuke.github.GHFileNotFoundException;
 import org.kohsuke.github.GHIssue;
 import org.kohsuke.github.GHIssueSearchBuilder;
+import org.kohsuke.github.GHLabel;
 import org.kohsuke.github.GHPullRequest;
+import org.kohsuke.github.GHRepository;
 import org.kohsuke.github.GitHub;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,34 +74,142 @@ public class StalledDiscussionFlow {
 
     private static final Logger LOG = LoggerFactory.getLogger(StalledDiscussionFlow.class);
     public static final String ENABLE = "bot.enable.stalled-discussion";
+    private static final String FLOW = "stalled-discussion";
 
+    /** The rate limit resources sweeps spend. */
+    private static final String[] SWEEP_RESOURCES = {"core", "search", "graphql"};
+
+    /** How long a discussion has to have been quiet for before it's considered stalled. */
+    static final long STALLED_AFTER_MS = 24*40*60*1000L;
+
+    /** Roughly how many requests the REST full scan makes per PR. */
+    static final int REST_REQUESTS_PER_PR = 5;
+
+    /** Where the framework reads the per-repo config from. */
+    static final String REPO_CONFIG_PATH = ".github/" + Util.CONFIG_REPO_PATH;
+
+    private static final ObjectMapper YAML_MAPPER = new YAMLMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+
+    /**
+     * When set only this installation is swept, otherwise every installation of the app is.
+     */
     @ConfigProperty(name = "bot.installation.id")
-    Long installationId;
+    Optional<Long> installationId;
 
     @ConfigProperty(name = ENABLE, defaultValue = "false")
     boolean enabled;
 
-    private Date lastRan = new Date(0);
+    /**
+     * When true only PRs whose last update crossed the stall threshold since the previous sweep are processed.
+     * When false every open PR under review is re-examined on every sweep.
+     */
+    @ConfigProperty(name = "bot.stalled-discussion.incremental", defaultValue = "true")
+    boolean incremental;
+
+    /**
+     * When true sweeps fetch PRs using GraphQL, a page of 100 PRs at a time,
+     * falling back to REST if that fails. When false they use REST.
+     * The full scan needs several REST requests per PR, and the incremental scan's REST searches count against
+     * the search rate limit (30 a minute), whereas GraphQL searches share the much larger GraphQL limit.
+     */
+    @ConfigProperty(name = "bot.stalled-discussion.graphql", defaultValue = "true")
+    boolean graphql;
+
+    /**
+     * How many of an installation's repos are swept at once.
+     * Installations are swept in parallel with each other, each up to this many repos at a time.
+     */
+    @ConfigProperty(name = "bot.stalled-discussion.max-concurrency-per-installation", defaultValue = "2")
+    int maxConcurrencyPerInstallation;
+
+    /**
+     * How many repos are swept at once, across all installations.
+     * The repos are swept on their own threads, rather than on the {@link #executor} running the installations'
+     * sweeps, which wait for them.
+     */
+    @ConfigProperty(name = "bot.stalled-discussion.threads", defaultValue = "4")
+    int threads;
+
+    /** How long a repo's config is used for before it's read again. */
+    @ConfigProperty(name = "bot.stalled-discussion.config-ttl", defaultValue = "PT10M")
+    Duration configTtl;
+
+    @ConfigProperty(name = "bot.state.dir", defaultValue = "/tmp/bf2-arch-bot")
+    String stateDir;
+
+    @Inject
+    MeterRegistry registry;
+
+    @Inject
+    RateLimitBudget budget;
 
-    GitHub client;
-    //ArchBotConfig config;
+    @Inject
+    ManagedExecutor executor;
 
+    /** Used to list the app's installations; not available in tests. */
     @Inject
-    void init(GitHubService service) {
+    Instance<ArchBotGitHubService> appService;
+
+    GitHubService service;
+    ScanCursors cursors;
+    /** Sweeps single repos. */
+    ExecutorService repoExecutor;
+
+    /**
+     * The installations being swept.
+     * A tick doesn't start another sweep of an installation whose previous sweep is still running.
+     */
+    final Set<Long> sweeping = ConcurrentHashMap.newKeySet();
+
+    /**
+     * By installation, sweeps are skipped until this time, so that they only use the rate limit that's spare.
+     */
+    final Map<Long, Long> nextSweepAt = new ConcurrentHashMap<>();
+
+    /** By repo, when it was last swept, for honouring its {@link ArchBotConfig#stalledDiscussionPollTimeMins}. */
+    final Map<String, Long> lastSweptAt = new ConcurrentHashMap<>();
+
+    /**
+     * A repo's config, as read at a given time.
+     */
+    private static final class CachedConfig {
+        /** The config, or null if the repo doesn't have one. */
+        final ArchBotConfig config;
+        final long readAt;
+
+        CachedConfig(ArchBotConfig config, long readAt) {
+            this.config = config;
+            this.readAt = readAt;
+        }
+    }
+
+    /** By repo, its config, so that a tick doesn't read the config of every repo. */
+    final Map<String, CachedConfig> repoConfigs = new ConcurrentHashMap<>();
+
+    @Inject
+    void init(GitHubService service) throws IOException {
         if (!enabled) {
             LOG.debug("Ignoring init: disabled due to {}=false", ENABLE);
         } else {
-            if (installationId != null) {
-                // TODO parameterise this installactionId
-                client = service.getInstallationClient(installationId);
-                // TODO load the config
-            } else {
-                throw new RuntimeException("installaction id is requied");
-            }
+            this.service = service;
+            cursors = ScanCursors.load(Path.of(stateDir, "stalled-discussion-cursors.properties"));
+            var count = new AtomicInteger();
+            repoExecutor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "stalled-discussion-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
         }
     }
 
-
+    @PreDestroy
+    void shutdown() {
+        if (repoExecutor != null) {
+            repoExecutor.shutdownNow();
+        }
+    }
 
     /**
      * When
@@ -91,14 +234,360 @@ public class StalledDiscussionFlow {
             LOG.debug("Ignoring scheduled trigger: disabled due to {}=false", ENABLE);
             return;
         }
-        long now = System.currentTimeMillis();
-        long thresh = now - 24*40*60*1000L;
-        LOG.info("Checking for stalled discussions");
-        // TODO need a parameter for this installation id
+        for (long id : installationIds()) {
+            long now = System.currentTimeMillis();
+            long due = nextSweepAt.getOrDefault(id, 0L);
+            if (now < due) {
+                LOG.debug("Installation {}: skipping sweep, next due at {}", id, Instant.ofEpochMilli(due));
+            } else if (!sweeping.add(id)) {
+                LOG.debug("Installation {}: skipping sweep, previous sweep still running", id);
+            } else {
+                executor.execute(() -> {
+                    try {
+                        checkForStalledDiscussions(id);
+                    } catch (IOException | RuntimeException e) {
+                        LOG.error("Installation {}: sweep failed", id, e);
+                    } finally {
+                        sweeping.remove(id);
+                    }
+                });
+            }
+        }
+    }
 
+    /**
+     * @return The installations to sweep: the configured one, or else all of the app's installations.
+     */
+    List<Long> installationIds() throws IOException {
+        if (installationId.isPresent()) {
+            return List.of(installationId.get());
+        }
+        if (!appService.isResolvable()) {
+            throw new IllegalStateException("bot.installation.id is required when the app client isn't available");
+        }
+        List<Long> ids = new ArrayList<>();
+        for (GHAppInstallation installation : appService.get().getApplicationClient().getApp().listInstallations()) {
+            ids.add(installation.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * Sweeps the repos of a single installation.
+     */
+    void checkForStalledDiscussions(long installationId) throws IOException {
+        GitHub client = service.getInstallationClient(installationId);
+        OpenReviewsQuery openReviewsQuery = graphql
+                ? new OpenReviewsQuery(service.getInstallationGraphQLClient(installationId))
+                : null;
+        long start = System.currentTimeMillis();
+        long requestsBefore = sweepRequests(installationId);
+        BotMetrics.timeFlow(registry, FLOW, () -> {
+            long thresh = start - STALLED_AFTER_MS;
+            LOG.info("Installation {}: checking for stalled discussions", installationId);
+            try {
+                RateLimitBudget.asSweep(() -> sweep(installationId, client, openReviewsQuery, thresh));
+            } catch (IOException | GHException e) {
+                var exhausted = exhausted(e);
+                if (exhausted == null) {
+                    throw e;
+                }
+                // The cursors weren't advanced past the repos we didn't get to, so the next sweep resumes there
+                LOG.info("Installation {}: sweep stopped, rate limit budget exhausted for {}ms",
+                        installationId, exhausted.waitMillis());
+                nextSweepAt.put(installationId, System.currentTimeMillis() + exhausted.waitMillis());
+                return;
+            }
+            nextSweepAt.put(installationId,
+                    start + sustainableInterval(installationId, sweepRequests(installationId) - requestsBefore, start));
+        });
+    }
+
+    /**
+     * Sweeps the installation's repos which have a config file, and whose poll time has passed,
+     * up to {@link #maxConcurrencyPerInstallation} at a time.
+     * Once a repo's sweep fails no more are started, and the first failure is thrown.
+     */
+    void sweep(long installationId, GitHub client, OpenReviewsQuery openReviewsQuery, long thresh) throws IOException {
+        var permits = new Semaphore(maxConcurrencyPerInstallation);
+        var inFlight = new Phaser(1);
+        var failure = new AtomicReference<Throwable>();
+        try {
+            for (GHRepository repository : repositories(installationId, client)) {
+                if (!due(repository, System.currentTimeMillis())) {
+                    continue;
+                }
+                permits.acquire();
+                if (failure.get() != null) {
+                    break;
+                }
+                inFlight.register();
+                repoExecutor.execute(() -> {
+                    try {
+                        RateLimitBudget.asSweep(() -> sweep(installationId, client, openReviewsQuery, repository, thresh));
+                        lastSweptAt.put(repository.getFullName(), System.currentTimeMillis());
+                    } catch (IOException | RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        permits.release();
+                        inFlight.arriveAndDeregister();
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted sweeping installation " + installationId);
+        } finally {
+            inFlight.arriveAndAwaitAdvance();
+        }
+        Throwable t = failure.get();
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        } else if (t != null) {
+            throw (RuntimeException) t;
+        }
+    }
+
+    /**
+     * @return The repos of the given installation, read with its client.
+     */
+    Iterable<GHRepository> repositories(long installationId, GitHub client) throws IOException {
+        if (!appService.isResolvable()) {
+            throw new IllegalStateException("Listing an installation's repos needs the app client");
+        }
+        List<GHRepository> repositories = new ArrayList<>();
+        for (String name : appService.get().installationRepositories(installationId)) {
+            repositories.add(client.getRepository(name));
+        }
+        return repositories;
+    }
+
+    /**
+     * @return Whether the given repo should be swept now: it has a config file, and it wasn't swept
+     * more recently than its config's poll time.
+     */
+    boolean due(GHRepository repository, long now) throws IOException {
+        var config = cachedRepoConfig(repository, now);
+        if (config == null) {
+            LOG.debug("{}: no {}, not sweeping", repository.getFullName(), REPO_CONFIG_PATH);
+            return false;
+        }
+        Long last = lastSweptAt.get(repository.getFullName());
+        if (last != null && now - last < TimeUnit.MINUTES.toMillis(config.stalledDiscussionPollTimeMins)) {
+            LOG.debug("{}: swept at {}, within its poll time", repository.getFullName(), Instant.ofEpochMilli(last));
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return The repo's config, or null if it doesn't have one, as read within the last {@link #configTtl}.
+     */
+    ArchBotConfig cachedRepoConfig(GHRepository repository, long now) throws IOException {
+        var cached = repoConfigs.get(repository.getFullName());
+        if (cached == null || now - cached.readAt >= configTtl.toMillis()) {
+            cached = new CachedConfig(repoConfig(repository), now);
+            repoConfigs.put(repository.getFullName(), cached);
+        }
+        return cached.config;
+    }
+
+    /**
+     * @return The repo's config, or null if it doesn't have one.
+     */
+    static ArchBotConfig repoConfig(GHRepository repository) throws IOException {
+        GHContent content;
+        try {
+            content = repository.getFileContent(REPO_CONFIG_PATH);
+        } catch (GHFileNotFoundException e) {
+            return null;
+        }
+        try (InputStream in = content.read()) {
+            return YAML_MAPPER.readValue(in, ArchBotConfig.class);
+        }
+    }
+
+    /**
+     * Sweeps a single repo.
+     */
+    void sweep(long installationId, GitHub client, OpenReviewsQuery openReviewsQuery,
+               GHRepository repository, long thresh) throws IOException {
+        if (incremental) {
+            checkForStalledDiscussions(client, openReviewsQuery, repository, thresh);
+            return;
+        }
+        if (openReviewsQuery != null) {
+            try {
+                fullScan(openReviewsQuery, repository, thresh);
+                return;
+            } catch (IOException e) {
+                if (exhausted(e) != null) {
+                    throw e;
+                }
+                LOG.warn("{}: GraphQL scan failed, falling back to REST", repository.getFullName(), e);
+            }
+        }
+        restFullScan(installationId, client, repository, thresh);
+    }
+
+    private static RateLimitBudget.ExhaustedException exhausted(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof RateLimitBudget.ExhaustedException) {
+                return (RateLimitBudget.ExhaustedException) t;
+            }
+        }
+        return null;
+    }
+
+    private long sweepRequests(long installationId) {
+        long requests = 0;
+        for (String resource : SWEEP_RESOURCES) {
+            requests += budget.bucket(installationId, resource).sweepRequests();
+        }
+        return requests;
+    }
+
+    /**
+     * @return How long to wait after a sweep of an installation which cost the given number of requests,
+     * so that repeating it uses no more than the sweeps' share of the installation's rate limit before it resets.
+     */
+    long sustainableInterval(long installationId, long cost, long now) {
+        long interval = 0;
+        for (String resource : SWEEP_RESOURCES) {
+            var bucket = budget.bucket(installationId, resource);
+            long allowance = bucket.sweepAllowance();
+            long untilReset = bucket.millisUntilReset(now);
+            interval = Math.max(interval, allowance == 0 ? untilReset : cost * untilReset / allowance);
+        }
+        return interval;
+    }
+
+    /**
+     * Incrementally scans a single repository, using GraphQL if given a query, otherwise (or if that fails) REST.
+     * A PR becomes stalled at the moment its last update falls behind the stall threshold,
+     * so the only PRs which can have become stalled since the previous sweep are those whose
+     * {@code updated_at} lies between the previous sweep's threshold (the repo's high-water mark)
+     * and this sweep's threshold.
+     * Review comments bump the PR's {@code updated_at}, so every PR in that window has had no review
+     * comments since the threshold either, and we don't need to list them.
+     */
+    void checkForStalledDiscussions(GitHub client, OpenReviewsQuery openReviewsQuery,
+                                    GHRepository repository, long thresh) throws IOException {
+        String repoName = repository.getFullName();
+        long since = cursors.get(repoName);
+        if (since >= thresh) {
+            LOG.debug("{}: already scanned up to {}", repoName, Instant.ofEpochMilli(since));
+            return;
+        }
+        String query = quietQuery(repoName, since, thresh);
+        if (openReviewsQuery != null) {
+            try {
+                var openReviews = openReviewsQuery.search(repository.getOwnerName(), repository.getName(),
+                        query + " sort:updated-asc");
+                LOG.info("{}: found {} PRs which went quiet since {}", repoName, openReviews.pullRequests.size(),
+                        Instant.ofEpochMilli(since));
+                for (var pullRequest : openReviews.pullRequests) {
+                    if (pullRequest.labels.contains(Labels.NOTICE_STALLED_DISCUSSION)) {
+                        LOG.debug("PR#{}: already labelled {}", pullRequest.number, Labels.NOTICE_STALLED_DISCUSSION);
+                    } else {
+                        LOG.info("PR#{}: last activity {}, adding {} label", pullRequest.number,
+                                pullRequest.lastActivity, Labels.NOTICE_STALLED_DISCUSSION);
+                        addStalledLabel(openReviewsQuery, openReviews, repository, pullRequest);
+                    }
+                }
+                cursors.advance(repoName, thresh);
+                return;
+            } catch (IOException e) {
+                if (exhausted(e) != null) {
+                    throw e;
+                }
+                LOG.warn("{}: GraphQL search failed, falling back to REST", repoName, e);
+            }
+        }
+        var results = client.searchIssues()
+                .q(query)
+                .sort(GHIssueSearchBuilder.Sort.UPDATED)
+                .order(GHDirection.ASC)
+                .list();
+        LOG.info("{}: found {} PRs which went quiet since {}", repoName, results.getTotalCount(), Instant.ofEpochMilli(since));
+        for (GHIssue issue : results) {
+            boolean labelled = issue.getLabels().stream()
+                    .map(GHLabel::getName)
+                    .anyMatch(Labels.NOTICE_STALLED_DISCUSSION::equals);
+            if (labelled) {
+                LOG.debug("PR#{}: already labelled {}", issue.getNumber(), Labels.NOTICE_STALLED_DISCUSSION);
+            } else {
+                LOG.info("PR#{}: last updated {}, adding {} label", issue.getNumber(), issue.getUpdatedAt(),
+                        Labels.NOTICE_STALLED_DISCUSSION);
+                issue.addLabels(Labels.NOTICE_STALLED_DISCUSSION);
+            }
+        }
+        cursors.advance(repoName, thresh);
+    }
+
+    /**
+     * @return An issue search query for the open PRs under review in the given repo
+     * which were last updated between the given times.
+     */
+    static String quietQuery(String repoName, long since, long thresh) {
+        return "is:open is:pr repo:" + repoName
+                + " label:\"" + Labels.STATE_NEEDS_REVIEWERS + "\",\"" + Labels.STATE_BEING_REVIEWED + "\""
+                + " -label:\"" + Labels.NOTICE_OVERDUE + "\""
+                + " updated:" + updatedRange(since, thresh);
+    }
+
+    /**
+     * @return A search qualifier value selecting updates in the range from {@code since} (exclusive) to
+     * {@code until} (inclusive), at the one second granularity supported by search.
+     */
+    static String updatedRange(long since, long until) {
+        String upper = Instant.ofEpochMilli(until).truncatedTo(ChronoUnit.SECONDS).toString();
+        if (since <= 0) {
+            return "<=" + upper;
+        }
+        // Search is inclusive at both ends, but PRs on the boundary were already dealt with by the last sweep.
+        String lower = Instant.ofEpochMilli(since).truncatedTo(ChronoUnit.SECONDS).plusSeconds(1).toString();
+        return lower + ".." + upper;
+    }
+
+    /**
+     * Re-examines every open PR under review in a single repository, using GraphQL.
+     */
+    void fullScan(OpenReviewsQuery openReviewsQuery, GHRepository repository, long thresh) throws IOException {
+        var openReviews = openReviewsQuery.openReviews(repository.getOwnerName(), repository.getName());
+        LOG.info("{}: found {} PRs under review", repository.getFullName(), openReviews.pullRequests.size());
+        for (var pullRequest : openReviews.pullRequests) {
+            if (pullRequest.labels.contains(Labels.NOTICE_OVERDUE)
+                    || pullRequest.labels.contains(Labels.NOTICE_STALLED_DISCUSSION)) {
+                continue;
+            }
+            LOG.info("PR#{}: Last activity {}", pullRequest.number, pullRequest.lastActivity);
+            if (pullRequest.lastActivity.toEpochMilli() < thresh) {
+                LOG.info("PR#{}: adding {} label", pullRequest.number, Labels.NOTICE_STALLED_DISCUSSION);
+                addStalledLabel(openReviewsQuery, openReviews, repository, pullRequest);
+            }
+        }
+    }
+
+    private static void addStalledLabel(OpenReviewsQuery openReviewsQuery, OpenReviewsQuery.OpenReviews openReviews,
+                                        GHRepository repository, OpenReviewsQuery.OpenReview pullRequest) throws IOException {
+        if (openReviews.stalledLabelId != null) {
+            openReviewsQuery.addLabel(pullRequest.id, openReviews.stalledLabelId);
+        } else {
+            // Adding the label using REST creates it
+            repository.getIssue(pullRequest.number).addLabels(Labels.NOTICE_STALLED_DISCUSSION);
+        }
+    }
+
+    /**
+     * Re-examines every open PR under review in a single repository, looking at each one's reviews and comments,
+     * using REST.
+     */
+    void restFullScan(long installationId, GitHub client, GHRepository repository, long thresh) throws IOException {
         var results = client.searchIssues()
                 .isOpen()
                 .q("is:pr")
+                .q("repo:" + repository.getFullName())
                 // multiple labels in a label query term => OR, see https://github.com/github/feedback/discussions/4507
                 // whereas multiple label query terms => AND
                 .q("label:\"" + Labels.STATE_NEEDS_REVIEWERS + "\",\"" + Labels.STATE_BEING_REVIEWED + "\"")
@@ -106,13 +595,16 @@ public class StalledDiscussionFlow {
                 .sort(GHIssueSearchBuilder.Sort.UPDATED)
                 .order(GHDirection.ASC)
                 .list();
-        LOG.info("Top-level query found {} PRs", results.getTotalCount());
+        // Only take on as many PRs as the budget allows, the least recently updated first
+        int batch = Math.max(1, budget.bucket(installationId, "core").sweepAllowance() / REST_REQUESTS_PER_PR);
+        LOG.info("{}: found {} PRs under review, examining up to {}", repository.getFullName(),
+                results.getTotalCount(), batch);
         int processed = 0;
         for (GHIssue issue : results) {
-//            if () {
-//                lastRan = new Date();
-//                break;
-//            }
+            if (processed == batch) {
+                LOG.info("Examined {} PRs, leaving the rest for later sweeps", processed);
+                break;
+            }
             processed++;
             try {
                 GHPullRequest pullRequest = Util.findPullRequest(issue);
@@ -120,53 +612,42 @@ public class StalledDiscussionFlow {
                     LOG.info("Issue#{} is not a PR, ignoring", issue.getNumber());
                     continue;
                 }
-                // TODO calling listReviewComments() like this is inefficient
-                // we're really interested in them in created sort
-                // and since the last time we ran
-                // those are supported by the github API
-                // https://docs.github.com/en/rest/pulls/comments#list-review-comments-in-a-repository
-                // but the client doesn't expose them
-                Date lastCommentDate;
-                var mostRecent = pullRequest.listReviewComments().toList().stream()
-//                        .filter(pr -> {
-//                            try {
-//                                return !Util.isThisBot(config, pr.getUser());
-//                            } catch (IOException e) {
-//                                return true;
-//                            }
-//                        })
-                        .map(comment -> {
-                            try {
-                                LOG.info("Comment: {}", comment.getBody());
-                                LOG.info("User: {}", comment.getUser().getLogin());
-                                return comment.getCreatedAt();
-                            } catch (IOException e) {
-                                return new Date(0);
-                            }
-                        }).max(Date::compareTo);
-
-                lastCommentDate = mostRecent.orElseGet(() -> {
-                    try {
-                        return pullRequest.getUpdatedAt();
-                    } catch (IOException e) {
-                        try {
-                            return pullRequest.getCreatedAt();
-                        } catch (IOException ex) {
-                            return new Date(0);
-                        }
-                    }
-                });
-                LOG.info("PR#{}: Last comment time {}", pullRequest.getNumber(), lastCommentDate);
+                Date lastActivity = lastActivity(pullRequest);
+                LOG.info("PR#{}: Last activity {}", pullRequest.getNumber(), lastActivity);
 
-                if (lastCommentDate.getTime() < thresh) {
+                if (lastActivity.getTime() < thresh) {
                     LOG.info("PR#{}: adding {} label", pullRequest.getNumber(), Labels.NOTICE_STALLED_DISCUSSION);
                     Set<String> labels = Util.existingLabels(pullRequest);
                     labels.add(Labels.NOTICE_STALLED_DISCUSSION);
                     Util.setLabels(pullRequest, labels);
                 }
-            } catch (URISyntaxException | IOException e) {
-                throw new RuntimeException(e);
+            } catch (URISyntaxException e) {
+                throw new IOException(e);
             }
         }
     }
+
+    /**
+     * @return When the most recent review or comment on the PR was made, or when the PR was last updated
+     * if it has neither, the same as the GraphQL scan's {@link OpenReviewsQuery.OpenReview#lastActivity}.
+     * Review comments are always part of a review, so they're covered by the review's timestamp.
+     */
+    static Date lastActivity(GHPullRequest pullRequest) throws IOException {
+        Date last = null;
+        for (var review : pullRequest.listReviews()) {
+            last = latest(last, review.getSubmittedAt());
+        }
+        for (var comment : pullRequest.listComments()) {
+            last = latest(last, comment.getCreatedAt());
+        }
+        return last != null ? last : pullRequest.getUpdatedAt();
+    }
+
+    private static Date latest(Date current, Date date) {
+        // A pending review has no submission time
+        if (date == null) {
+            return current;
+        }
+        return current == null || date.after(current) ? date : current;
+    }
 }
@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import javax.enterprise.context.ApplicationScoped;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+import org.bf2.arch.bot.model.patch.FilePatch;
+import org.bf2.arch.bot.model.patch.Line;
+
+/**
+ * Checks that a record's status is valid, and that a change to it is a plausible transition.
+ */
+@ApplicationScoped
+public class StatusTransitionRule implements ReviewRule {
+
+    static final List<String> STATUSES = List.of("Draft", "Accepted", "Superseded", "Rejected", "Deferred");
+
+    private static final Pattern STATUS_LINE = Pattern.compile("^status:.*$");
+
+    @Override
+    public String name() {
+        return "status-transition";
+    }
+
+    @Override
+    public List<ReviewComment> review(RecordChange change) {
+        String baseStatus = change.base() != null ? change.base().frontMatter.status : null;
+        String headStatus = change.head().frontMatter.status;
+        if (change.base() != null && baseStatus.equals(headStatus)) {
+            return List.of();
+        }
+        if (change.previous() != null && Objects.equals(change.previous().frontMatter.status, headStatus)) {
+            // Already reviewed
+            return List.of();
+        }
+        int statusLineNumber = change.patch().linesMatching(EnumSet.of(Line.Type.ADD), STATUS_LINE).findFirst()
+                .map(FilePatch.LineMatch::patchLineNum)
+                .orElse(1);
+        List<ReviewComment> comments = new ArrayList<>();
+        if (!STATUSES.contains(headStatus)) {
+            comments.add(new ReviewComment(change.path(), statusLineNumber, "Status must be one of " + STATUSES));
+        }
+        if (change.base() == null) {
+            return comments;
+        }
+        // Validate the status transition (e.g. Draft -> Superseded, or Accepted -> Rejected)
+        boolean suspect;
+        switch (String.valueOf(headStatus)) {
+            case "Deferred":
+            case "Accepted":
+            case "Rejected":
+                suspect = !"Draft".equals(baseStatus);
+                break;
+            case "Superseded":
+                suspect = !"Accepted".equals(baseStatus);
+                break;
+            default:
+                suspect = false;
+        }
+        if (suspect) {
+            comments.add(new ReviewComment(change.path(), statusLineNumber, "Suspect state transition"));
+        }
+        return comments;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import javax.enterprise.context.ApplicationScoped;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.bf2.arch.bot.model.patch.Line;
+
+/**
+ * Comments on the first use, on a line a change adds, of each of the repo's {@link ArchBotConfig#suspectTerms},
+ * with the advice given for it.
+ */
+@ApplicationScoped
+public class SuspectTermsRule implements ReviewRule {
+
+    /** Compiled term dictionaries, by their terms, so each revision of a repo's config is only compiled once. */
+    private final Cache<List<String>, TermScanner> termScanners = Caffeine.newBuilder()
+            .maximumSize(64)
+            .build();
+
+    @Override
+    public String name() {
+        return "suspect-terms";
+    }
+
+    @Override
+    public List<ReviewComment> review(RecordChange change) {
+        var dictionary = change.config().suspectTerms;
+        if (dictionary.isEmpty()) {
+            return List.of();
+        }
+        TermScanner scanner = termScanners.get(List.copyOf(dictionary.keySet()), TermScanner::new);
+        var found = new boolean[scanner.terms().size()];
+        List<ReviewComment> comments = new ArrayList<>();
+        change.patch().visit(EnumSet.of(Line.Type.ADD), (type, content, position) ->
+                scanner.scan(content, (term, start, end) -> {
+                    if (!found[term]) {
+                        found[term] = true;
+                        String key = scanner.terms().get(term);
+                        comments.add(new ReviewComment(change.path(), position,
+                                "Suspect terminology: " + key + ". " + dictionary.get(key)));
+                    }
+                }));
+        return comments;
+    }
+}
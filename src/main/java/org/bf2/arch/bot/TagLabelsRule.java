@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import javax.enterprise.context.ApplicationScoped;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.bf2.arch.bot.model.patch.FilePatch;
+import org.bf2.arch.bot.model.patch.Line;
+
+/**
+ * Checks that each tag a change adds to a record has a {@code tag: } label in the repo,
+ * since {@link CreateDraftRecordFlow} maps between the two.
+ */
+@ApplicationScoped
+public class TagLabelsRule implements ReviewRule {
+
+    private static final Pattern TAGS_LINE = Pattern.compile("^tags:.*$");
+
+    @Override
+    public String name() {
+        return "tag-labels";
+    }
+
+    @Override
+    public List<ReviewComment> review(RecordChange change) {
+        List<String> tags = change.head().frontMatter.tags;
+        if (tags == null) {
+            return List.of();
+        }
+        List<String> baseTags = change.base() != null && change.base().frontMatter.tags != null
+                ? change.base().frontMatter.tags
+                : List.of();
+        List<String> previousTags = change.previous() != null && change.previous().frontMatter.tags != null
+                ? change.previous().frontMatter.tags
+                : List.of();
+        List<ReviewComment> comments = new ArrayList<>();
+        for (String tag : tags) {
+            if (baseTags.contains(tag) || previousTags.contains(tag)
+                    || change.repoLabels().contains(Labels.PREFIX_TAG + tag)) {
+                continue;
+            }
+            // The line adding the tag, or the tags line for a flow style list
+            int position = change.patch().linesMatching(EnumSet.of(Line.Type.ADD),
+                            Pattern.compile("^\\s*-\\s*[\"']?" + Pattern.quote(tag) + "[\"']?\\s*$"))
+                    .findFirst()
+                    .or(() -> change.patch().linesMatching(EnumSet.of(Line.Type.ADD), TAGS_LINE).findFirst())
+                    .map(FilePatch.LineMatch::patchLineNum)
+                    .orElse(1);
+            comments.add(new ReviewComment(change.path(), position,
+                    "There's no `" + Labels.PREFIX_TAG + tag + "` label for the tag `" + tag + "`"));
+        }
+        return comments;
+    }
+}
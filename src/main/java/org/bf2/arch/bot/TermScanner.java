@@ -0,0 +1,203 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Finds the uses of any of a dictionary of terms in text, in a single pass, using an Aho–Corasick automaton,
+ * so the time taken depends on the length of the text and not on the number of terms.
+ *
+ * <p>Matching ignores case, and terms only match whole words: "actor" matches in "An Actor, or actors",
+ * but not in "reactor". Terms can contain several words.</p>
+ *
+ * <p>A scanner is immutable once built, so can be shared.</p>
+ */
+final class TermScanner {
+
+    /**
+     * Receives the matches found by {@link #scan(CharSequence, MatchConsumer)}.
+     */
+    @FunctionalInterface
+    interface MatchConsumer {
+        /**
+         * @param term The index of the term, in {@link #terms()}.
+         * @param start The index in the text of the first character of the match.
+         * @param end The index in the text after the last character of the match.
+         */
+        void match(int term, int start, int end);
+    }
+
+    private final List<String> terms;
+    // For each state the characters it has transitions on, sorted, and the states they go to
+    private final char[][] edgeChars;
+    private final int[][] edgeTargets;
+    // For each state the state to continue from when there's no transition
+    private final int[] fail;
+    // The root's transitions on ASCII characters, looked up directly since most characters are scanned there
+    private final int[] rootTargets = new int[128];
+    // For each state the term ending there, or -1
+    private final int[] output;
+    // For each state the next state along its failure chain with an output, or -1
+    private final int[] outputLink;
+
+    /**
+     * @param terms The terms to find. Case is ignored, and empty terms and duplicates are ignored.
+     */
+    TermScanner(Collection<String> terms) {
+        this.terms = new ArrayList<>(terms.size());
+        // Build the trie
+        List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        List<Integer> outputs = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        outputs.add(-1);
+        for (String term : terms) {
+            if (term.isEmpty()) {
+                continue;
+            }
+            int state = 0;
+            for (int i = 0; i < term.length(); i++) {
+                char ch = fold(term.charAt(i));
+                Integer next = trie.get(state).get(ch);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new TreeMap<>());
+                    outputs.add(-1);
+                    trie.get(state).put(ch, next);
+                }
+                state = next;
+            }
+            if (outputs.get(state) == -1) {
+                outputs.set(state, this.terms.size());
+                this.terms.add(term);
+            }
+        }
+        int states = trie.size();
+        edgeChars = new char[states][];
+        edgeTargets = new int[states][];
+        output = new int[states];
+        for (int state = 0; state < states; state++) {
+            var edges = trie.get(state);
+            edgeChars[state] = new char[edges.size()];
+            edgeTargets[state] = new int[edges.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> edge : edges.entrySet()) {
+                edgeChars[state][i] = edge.getKey();
+                edgeTargets[state][i] = edge.getValue();
+                i++;
+            }
+            output[state] = outputs.get(state);
+        }
+        for (char ch = 0; ch < rootTargets.length; ch++) {
+            rootTargets[ch] = edge(0, ch);
+        }
+        // Breadth first, so a state's failure state is done before the state
+        fail = new int[states];
+        outputLink = new int[states];
+        outputLink[0] = -1;
+        var queue = new ArrayDeque<Integer>();
+        for (int child : edgeTargets[0]) {
+            fail[child] = 0;
+            outputLink[child] = -1;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.remove();
+            for (int i = 0; i < edgeChars[state].length; i++) {
+                char ch = edgeChars[state][i];
+                int child = edgeTargets[state][i];
+                int f = fail[state];
+                while (f != 0 && target(f, ch) < 0) {
+                    f = fail[f];
+                }
+                int t = target(f, ch);
+                fail[child] = t >= 0 ? t : 0;
+                outputLink[child] = output[fail[child]] >= 0 ? fail[child] : outputLink[fail[child]];
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * @return The terms, as they're numbered in matches.
+     */
+    List<String> terms() {
+        return terms;
+    }
+
+    private int target(int state, char ch) {
+        if (state == 0 && ch < rootTargets.length) {
+            return rootTargets[ch];
+        }
+        return edge(state, ch);
+    }
+
+    private int edge(int state, char ch) {
+        int i = Arrays.binarySearch(edgeChars[state], ch);
+        return i >= 0 ? edgeTargets[state][i] : -1;
+    }
+
+    /**
+     * Passes the whole word matches of the terms in the text to the consumer,
+     * in order of where they end (and, for matches ending at the same place, longest first).
+     */
+    void scan(CharSequence text, MatchConsumer consumer) {
+        int state = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char ch = fold(text.charAt(i));
+            int t;
+            while ((t = target(state, ch)) < 0 && state != 0) {
+                state = fail[state];
+            }
+            state = Math.max(t, 0);
+            for (int s = output[state] >= 0 ? state : outputLink[state]; s >= 0; s = outputLink[s]) {
+                int term = output[s];
+                int end = i + 1;
+                int start = end - terms.get(term).length();
+                if (isWholeWord(text, start, end)) {
+                    consumer.match(term, start, end);
+                }
+            }
+        }
+    }
+
+    private static boolean isWholeWord(CharSequence text, int start, int end) {
+        // Only a term which starts (or ends) with a word character needs a boundary there
+        if (isWordChar(text.charAt(start)) && start > 0 && isWordChar(text.charAt(start - 1))) {
+            return false;
+        }
+        return !(isWordChar(text.charAt(end - 1)) && end < text.length() && isWordChar(text.charAt(end)));
+    }
+
+    private static boolean isWordChar(char ch) {
+        return Character.isLetterOrDigit(ch) || ch == '_';
+    }
+
+    private static char fold(char ch) {
+        if (ch < 128) {
+            return ch >= 'A' && ch <= 'Z' ? (char) (ch + ('a' - 'A')) : ch;
+        }
+        return Character.toLowerCase(Character.toUpperCase(ch));
+    }
+}
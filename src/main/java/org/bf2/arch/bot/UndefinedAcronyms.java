@@ -0,0 +1,249 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.bf2.arch.bot.model.patch.FilePatch;
+import org.bf2.arch.bot.model.patch.Hunk;
+import org.bf2.arch.bot.model.patch.Line;
+
+/**
+ * Heuristic to identify undefined acronyms/initialisms, in a single pass over text fed to it a line at a time.
+ *
+ * <p>An acronym is a word of 2 or more capitals and digits. It's defined where it's directly preceded
+ * or followed by words whose initials spell it, i.e. where it's used like either:</p>
+ * <ol>
+ * <li>Three Letter Abbreviation (TLA)</li>
+ * <li>TLA (Three letter abbreviation)</li>
+ * </ol>
+ * <p>and after that it may be used freely.</p>
+ *
+ * <p>The initials of the last {@link #MAX_LENGTH} words are kept, so an expansion preceding an acronym is
+ * checked without looking back at the text. An acronym which might be followed by its expansion is
+ * held until enough words have followed to decide. Each word is looked at once, and is only copied if it's
+ * an acronym, so the time taken is linear in the length of the text.</p>
+ *
+ * <p>Only the first undefined use of each acronym is reported.</p>
+ */
+class UndefinedAcronyms implements FilePatch.LineVisitor {
+
+    /** Words longer than this aren't considered to be acronyms. */
+    static final int MAX_LENGTH = 16;
+
+    /**
+     * The use of an undefined acronym.
+     */
+    static final class Use {
+        private final String acronym;
+        private final int position;
+        private final long word;
+
+        Use(String acronym, int position, long word) {
+            this.acronym = acronym;
+            this.position = position;
+            this.word = word;
+        }
+
+        public String acronym() {
+            return acronym;
+        }
+
+        /**
+         * @return Where the acronym was used, as given to {@link #scan(CharSequence, int, boolean)}.
+         */
+        public int position() {
+            return position;
+        }
+
+        @Override
+        public String toString() {
+            return acronym + "@" + position;
+        }
+    }
+
+    /** An acronym waiting to see whether its expansion follows it. */
+    private static final class Pending {
+        final Use use;
+        final boolean report;
+        int matched;
+
+        Pending(Use use, boolean report) {
+            this.use = use;
+            this.report = report;
+        }
+    }
+
+    private final Set<String> defined;
+    private final Set<String> reported = new HashSet<>();
+    private final List<Use> undefined = new ArrayList<>();
+    private final List<Pending> pending = new ArrayList<>();
+    /** A ring of the upper-cased initials of the last words. */
+    private final char[] initials = new char[MAX_LENGTH];
+    /** The number of words since the window was last reset. */
+    private long words;
+    /** The number of words seen, for ordering the results. */
+    private long seq;
+
+    /**
+     * @param knownAcronyms Acronyms which don't need defining.
+     */
+    UndefinedAcronyms(Set<String> knownAcronyms) {
+        this.defined = new HashSet<>(knownAcronyms);
+    }
+
+    /**
+     * Scans text for definitions only, e.g. text which has already been reviewed.
+     */
+    UndefinedAcronyms define(CharSequence text) {
+        // Line ends separate words like any other non-word character
+        scan(text, 0, false);
+        gap();
+        return this;
+    }
+
+    /**
+     * Scans the undefined acronyms in the lines of the patch which are being added.
+     * Context lines are scanned for definitions only.
+     */
+    UndefinedAcronyms scan(FilePatch patch) {
+        patch.visit(EnumSet.of(Line.Type.CONTEXT, Line.Type.ADD), this);
+        return this;
+    }
+
+    @Override
+    public void hunk(Hunk hunk) {
+        gap();
+    }
+
+    @Override
+    public void line(Line.Type type, CharSequence content, int position) {
+        scan(content, position, type == Line.Type.ADD);
+    }
+
+    /**
+     * Scans the next line of text.
+     * @param position Where the line is, for reporting uses of undefined acronyms.
+     * @param report Whether uses of undefined acronyms on this line should be reported.
+     */
+    void scan(CharSequence line, int position, boolean report) {
+        int length = line.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !isWordChar(line.charAt(i))) {
+                i++;
+            }
+            if (i == length) {
+                break;
+            }
+            int start = i;
+            boolean candidate = true;
+            while (i < length && isWordChar(line.charAt(i))) {
+                char ch = line.charAt(i);
+                candidate &= (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9');
+                i++;
+            }
+            word(line, start, i, candidate && i - start >= 2 && i - start <= MAX_LENGTH, position, report);
+        }
+    }
+
+    private void word(CharSequence line, int start, int end, boolean candidate, int position, boolean report) {
+        char initial = upper(line.charAt(start));
+        // Does this word continue or break the expansions following pending acronyms?
+        int kept = 0;
+        for (int j = 0; j < pending.size(); j++) {
+            Pending p = pending.get(j);
+            if (p.use.acronym.charAt(p.matched) != initial) {
+                undefined(p);
+            } else if (++p.matched == p.use.acronym.length()) {
+                defined.add(p.use.acronym);
+            } else {
+                pending.set(kept++, p);
+            }
+        }
+        if (kept < pending.size()) {
+            pending.subList(kept, pending.size()).clear();
+        }
+        if (candidate) {
+            String acronym = line.subSequence(start, end).toString();
+            if (!defined.contains(acronym)) {
+                if (expansionPrecedes(acronym)) {
+                    defined.add(acronym);
+                } else {
+                    pending.add(new Pending(new Use(acronym, position, seq), report));
+                }
+            }
+        }
+        initials[(int) (words % MAX_LENGTH)] = initial;
+        words++;
+        seq++;
+    }
+
+    private boolean expansionPrecedes(String acronym) {
+        int n = acronym.length();
+        if (words < n) {
+            return false;
+        }
+        for (int j = 0; j < n; j++) {
+            if (initials[(int) ((words - n + j) % MAX_LENGTH)] != acronym.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Notes that the following text doesn't directly follow the preceding text,
+     * so expansions can't span it.
+     */
+    void gap() {
+        for (Pending p : pending) {
+            undefined(p);
+        }
+        pending.clear();
+        words = 0;
+    }
+
+    private void undefined(Pending p) {
+        if (p.report && !defined.contains(p.use.acronym) && reported.add(p.use.acronym)) {
+            undefined.add(p.use);
+        }
+    }
+
+    /**
+     * @return The first undefined use of each acronym, in the order they're used.
+     */
+    List<Use> finish() {
+        gap();
+        undefined.sort(Comparator.comparingLong(use -> use.word));
+        return undefined;
+    }
+
+    private static boolean isWordChar(char ch) {
+        // As in \w
+        return (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9') || ch == '_';
+    }
+
+    private static char upper(char ch) {
+        return ch >= 'a' && ch <= 'z' ? (char) (ch - ('a' - 'A')) : ch;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import javax.enterprise.context.ApplicationScoped;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * Comments on the first use, on each line a change adds, of each acronym which is neither known
+ * nor defined by the time it's used. See {@link UndefinedAcronyms}.
+ * Definitions in the base page count, as do those in the patch's context.
+ */
+@ApplicationScoped
+public class UndefinedAcronymsRule implements ReviewRule {
+
+    /**
+     * Acronyms which records can use without defining them, in addition to a repo's
+     * {@link ArchBotConfig#knownAcronyms}.
+     */
+    @ConfigProperty(name = "bot.review.known-acronyms", defaultValue = "OK")
+    Set<String> knownAcronyms;
+
+    public UndefinedAcronymsRule() {
+    }
+
+    UndefinedAcronymsRule(Set<String> knownAcronyms) {
+        this.knownAcronyms = knownAcronyms;
+    }
+
+    @Override
+    public String name() {
+        return "undefined-acronyms";
+    }
+
+    @Override
+    public List<ReviewComment> review(RecordChange change) {
+        Set<String> known = new HashSet<>(knownAcronyms);
+        known.addAll(change.config().knownAcronyms);
+        var scanner = new UndefinedAcronyms(known);
+        if (change.base() != null) {
+            scanner.define(change.base().bodyContent());
+        }
+        if (change.previous() != null) {
+            // Acronyms defined by earlier commits of the PR, in hunks which aren't being reviewed again
+            scanner.define(change.previous().bodyContent());
+        }
+        return scanner.scan(change.patch()).finish().stream()
+                .map(use -> new ReviewComment(change.path(), use.position(),
+                        "Acronym " + use.acronym() + " is used without having been defined"))
+                .collect(Collectors.toList());
+    }
+}
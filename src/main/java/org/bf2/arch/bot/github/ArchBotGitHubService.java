@@ -0,0 +1,294 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot.github;
+
+import javax.annotation.Priority;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.inject.Alternative;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToDoubleFunction;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkiverse.githubapp.runtime.config.GitHubAppRuntimeConfig;
+import io.quarkiverse.githubapp.runtime.github.GitHubService;
+import io.quarkiverse.githubapp.runtime.signing.JwtTokenCreator;
+import io.quarkus.arc.profile.UnlessBuildProfile;
+import io.smallrye.graphql.client.dynamic.api.DynamicGraphQLClient;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.kohsuke.github.GHAppInstallationToken;
+import org.kohsuke.github.GitHub;
+import org.kohsuke.github.GitHubBuilder;
+import org.kohsuke.github.HttpException;
+import org.kohsuke.github.connector.GitHubConnector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replaces the framework's {@link GitHubService}, so that the installation clients used by the webhook
+ * flows and by the scheduled flows all share a {@link ResponseCache}, each installation through its own
+ * {@link CachingGitHubConnector} partition of it, and their requests, GraphQL ones included,
+ * are counted by a {@link MeteredGitHubConnector}.
+ * Each installation's requests, REST and GraphQL, are also paced by the {@link RateLimitBudget}, and requests which
+ * hit a secondary rate limit are retried after a {@link SecondaryLimitBackoff}.
+ * Tests which use {@code @GitHubAppTest} mock the framework's service, so this replacement isn't used in tests.
+ */
+@Alternative
+@Priority(1)
+@ApplicationScoped
+@UnlessBuildProfile("test")
+public class ArchBotGitHubService extends GitHubService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ArchBotGitHubService.class);
+
+    /** Refresh installation tokens this long before they expire. */
+    private static final long TOKEN_REFRESH_MARGIN_SECS = 5 * 60;
+
+    private static final int PAGE_SIZE = 100;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final GitHubAppRuntimeConfig config;
+    private final JwtTokenCreator jwtTokenCreator;
+    private final Map<Long, GHAppInstallationToken> tokens = new ConcurrentHashMap<>();
+    private final Map<Long, Object> refreshLocks = new ConcurrentHashMap<>();
+    private final MeterRegistry registry;
+    private final ResponseCache responseCache;
+    /** The connector of the app client. */
+    private final GitHubConnector connector;
+    private final Map<Long, MeteredGitHubConnector> installationMetered = new ConcurrentHashMap<>();
+    private final Map<Long, GitHubConnector> installationConnectors = new ConcurrentHashMap<>();
+    private final RateLimitBudget budget;
+    private final SecondaryLimitBackoff backoff = new SecondaryLimitBackoff();
+
+    /**
+     * For the client proxy only.
+     */
+    ArchBotGitHubService() {
+        super(null, null);
+        this.config = null;
+        this.jwtTokenCreator = null;
+        this.registry = null;
+        this.responseCache = null;
+        this.connector = null;
+        this.budget = null;
+    }
+
+    @Inject
+    public ArchBotGitHubService(GitHubAppRuntimeConfig config,
+                                JwtTokenCreator jwtTokenCreator,
+                                @ConfigProperty(name = "bot.http-cache.enabled", defaultValue = "true")
+                                boolean cacheEnabled,
+                                @ConfigProperty(name = "bot.state.dir", defaultValue = "/tmp/bf2-arch-bot")
+                                String stateDir,
+                                @ConfigProperty(name = "bot.http-cache.memory-max-bytes", defaultValue = "16777216")
+                                long memoryMaxBytes,
+                                @ConfigProperty(name = "bot.http-cache.disk-enabled", defaultValue = "false")
+                                boolean diskEnabled,
+                                @ConfigProperty(name = "bot.http-cache.disk-max-bytes", defaultValue = "268435456")
+                                long diskMaxBytes,
+                                MeterRegistry registry,
+                                RateLimitBudget budget) throws IOException {
+        super(config, jwtTokenCreator);
+        this.config = config;
+        this.jwtTokenCreator = jwtTokenCreator;
+        this.budget = budget;
+        this.registry = registry;
+        // Count what's actually sent to GitHub, including the revalidations
+        var metered = new MeteredGitHubConnector(GitHubConnector.DEFAULT, registry, "app");
+        if (cacheEnabled) {
+            this.responseCache = new ResponseCache(diskEnabled ? Path.of(stateDir, "http-cache") : null,
+                    memoryMaxBytes, diskMaxBytes);
+            this.connector = backoff.clearingOnSuccess(new CachingGitHubConnector(metered, responseCache, "app"));
+            cacheCounter(registry, "hit", ResponseCache::hits);
+            cacheCounter(registry, "miss", ResponseCache::misses);
+            cacheCounter(registry, "not-modified", ResponseCache::notModified);
+        } else {
+            this.responseCache = null;
+            this.connector = backoff.clearingOnSuccess(metered);
+        }
+    }
+
+    private void cacheCounter(MeterRegistry registry, String result, ToDoubleFunction<ResponseCache> count) {
+        FunctionCounter.builder("bot.http-cache.requests", responseCache, count)
+                .description("Lookups in the conditional request cache")
+                .tag("result", result)
+                .register(registry);
+    }
+
+    /**
+     * @return The response cache, or null if caching is disabled.
+     */
+    public ResponseCache responseCache() {
+        return responseCache;
+    }
+
+    @Override
+    public GitHub getInstallationClient(Long installationId) {
+        try {
+            return new GitHubBuilder()
+                    .withAppInstallationToken(installationToken(installationId))
+                    .withEndpoint(config.instanceEndpoint)
+                    .withConnector(installationConnector(installationId))
+                    .withAbuseLimitHandler(backoff)
+                    .build();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to create a GitHub client for the installation " + installationId, e);
+        }
+    }
+
+    /**
+     * @return A GraphQL client for the given installation, whose requests are paced, backed off and counted
+     * along with the REST clients', drawing on the installation's {@code graphql} rate limit.
+     */
+    @Override
+    public DynamicGraphQLClient getInstallationGraphQLClient(Long installationId) {
+        try {
+            return new ConnectorGraphQLClient(installationConnector(installationId), config.instanceEndpoint,
+                    () -> installationToken(installationId), backoff);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to create a GraphQL client for the installation " + installationId, e);
+        }
+    }
+
+    /**
+     * @return A client authenticated as the app itself (rather than as one of its installations).
+     */
+    public GitHub getApplicationClient() {
+        String jwtToken;
+        try {
+            jwtToken = jwtTokenCreator.createJwtToken(config.appId, config.privateKey, 540);
+        } catch (GeneralSecurityException | IOException e) {
+            throw new IllegalStateException("Unable to generate the JWT token", e);
+        }
+        try {
+            return new GitHubBuilder()
+                    .withJwtToken(jwtToken)
+                    .withEndpoint(config.instanceEndpoint)
+                    .withConnector(connector)
+                    .withAbuseLimitHandler(backoff)
+                    .build();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to create the GitHub app client", e);
+        }
+    }
+
+    /**
+     * @return The full names of the repos the given installation can access.
+     */
+    public List<String> installationRepositories(long installationId) throws IOException {
+        return installationRepositories(installationConnector(installationId), config.instanceEndpoint,
+                installationToken(installationId));
+    }
+
+    /**
+     * @return The connector for the given installation's requests, with its own partition of the response cache.
+     */
+    private GitHubConnector installationConnector(long installationId) {
+        return installationConnectors.computeIfAbsent(installationId, id -> {
+            GitHubConnector metered = installationMetered(id);
+            GitHubConnector cached = responseCache != null
+                    ? new CachingGitHubConnector(metered, responseCache, "installation-" + id)
+                    : metered;
+            return backoff.clearingOnSuccess(new BudgetedGitHubConnector(cached, budget, id));
+        });
+    }
+
+    /**
+     * @return The connector which counts the given installation's requests, as sent to GitHub.
+     */
+    private MeteredGitHubConnector installationMetered(long installationId) {
+        return installationMetered.computeIfAbsent(installationId,
+                id -> new MeteredGitHubConnector(GitHubConnector.DEFAULT, registry, Long.toString(id)));
+    }
+
+    /**
+     * Lists the installation's repos with {@code GET /installation/repositories}, which needs the installation's
+     * own token. The client can only make that request through a {@code GHAppInstallation} bound to an
+     * installation client, which the client's public API has no way to make, so it's made through the connector.
+     */
+    static List<String> installationRepositories(GitHubConnector connector, String endpoint, String token)
+            throws IOException {
+        List<String> names = new ArrayList<>();
+        for (int page = 1; ; page++) {
+            var url = new URL(endpoint + "/installation/repositories?per_page=" + PAGE_SIZE + "&page=" + page);
+            JsonNode result;
+            try (var response = connector.send(new ConnectorRequest("GET", url, token, null))) {
+                if (response.statusCode() != HttpURLConnection.HTTP_OK) {
+                    throw new HttpException("Unable to list the installation's repositories",
+                            response.statusCode(), response.header("Status"), url.toString());
+                }
+                try (InputStream in = response.bodyStream()) {
+                    result = MAPPER.readTree(in);
+                }
+            }
+            JsonNode repositories = result.path("repositories");
+            for (JsonNode repository : repositories) {
+                names.add(repository.path("full_name").asText());
+            }
+            if (repositories.size() < PAGE_SIZE || names.size() >= result.path("total_count").asInt()) {
+                return names;
+            }
+        }
+    }
+
+    /**
+     * @return A current token for the given installation.
+     * A token which needs refreshing is refreshed under a lock for its installation,
+     * so concurrent callers make one request, and other installations' callers aren't held up.
+     */
+    public String installationToken(long installationId) {
+        try {
+            GHAppInstallationToken token = tokens.get(installationId);
+            if (fresh(token)) {
+                return token.getToken();
+            }
+            synchronized (refreshLocks.computeIfAbsent(installationId, id -> new Object())) {
+                token = tokens.get(installationId);
+                if (!fresh(token)) {
+                    LOG.debug("Creating token for installation {}", installationId);
+                    token = createToken(installationId);
+                    tokens.put(installationId, token);
+                }
+                return token.getToken();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to create a token for the installation " + installationId, e);
+        }
+    }
+
+    private static boolean fresh(GHAppInstallationToken token) throws IOException {
+        return token != null
+                && token.getExpiresAt().toInstant().isAfter(Instant.now().plusSeconds(TOKEN_REFRESH_MARGIN_SECS));
+    }
+
+    GHAppInstallationToken createToken(long installationId) throws IOException {
+        return getApplicationClient().getApp().getInstallationById(installationId).createToken().create();
+    }
+}
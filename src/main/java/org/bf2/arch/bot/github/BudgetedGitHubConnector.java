@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot.github;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import org.kohsuke.github.connector.GitHubConnector;
+import org.kohsuke.github.connector.GitHubConnectorRequest;
+import org.kohsuke.github.connector.GitHubConnectorResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link GitHubConnector} for one installation, which takes each request's budget from the {@link RateLimitBudget}
+ * before sending it, and updates the budget from the rate limit reported in the response.
+ * Requests made by sweeps wait for budget, up to a limit, after which they fail with
+ * {@link RateLimitBudget.ExhaustedException}.
+ */
+public class BudgetedGitHubConnector implements GitHubConnector {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BudgetedGitHubConnector.class);
+
+    private final GitHubConnector delegate;
+    private final RateLimitBudget budget;
+    private final long installationId;
+
+    public BudgetedGitHubConnector(GitHubConnector delegate, RateLimitBudget budget, long installationId) {
+        this.delegate = delegate;
+        this.budget = budget;
+        this.installationId = installationId;
+    }
+
+    @Override
+    public GitHubConnectorResponse send(GitHubConnectorRequest request) throws IOException {
+        var bucket = budget.bucket(installationId, resource(request.url().getPath()));
+        var priority = RateLimitBudget.priority();
+        long waited = 0;
+        long wait;
+        while ((wait = bucket.acquire(priority, System.currentTimeMillis())) > 0) {
+            if (waited + wait > budget.maxSweepWait().toMillis()) {
+                throw new RateLimitBudget.ExhaustedException(wait);
+            }
+            LOG.debug("Installation {}: sweep waiting {}ms for budget", installationId, wait);
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            waited += wait;
+        }
+        GitHubConnectorResponse response = delegate.send(request);
+        String limit = response.header("X-RateLimit-Limit");
+        String remaining = response.header("X-RateLimit-Remaining");
+        String reset = response.header("X-RateLimit-Reset");
+        if (limit != null && remaining != null && reset != null) {
+            try {
+                bucket.observe(Integer.parseInt(limit.trim()), Integer.parseInt(remaining.trim()),
+                        Long.parseLong(reset.trim()) * 1000);
+            } catch (NumberFormatException e) {
+                // Not numbers: ignore them
+            }
+        }
+        return response;
+    }
+
+    /**
+     * @return The rate limit resource requests to the given path count against.
+     */
+    static String resource(String path) {
+        if (path.startsWith("/graphql")) {
+            return "graphql";
+        } else if (path.startsWith("/search/")) {
+            return "search";
+        }
+        return "core";
+    }
+}
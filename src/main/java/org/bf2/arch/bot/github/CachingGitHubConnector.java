@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot.github;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.kohsuke.github.connector.GitHubConnector;
+import org.kohsuke.github.connector.GitHubConnectorRequest;
+import org.kohsuke.github.connector.GitHubConnectorResponse;
+
+/**
+ * A {@link GitHubConnector} which makes GETs conditional on the validators of any
+ * previously {@linkplain ResponseCache cached} response, turning a {@code 304 Not Modified} back
+ * into the cached response.
+ * GitHub doesn't count 304s against the primary rate limit.
+ *
+ * <p>A cache can be shared by several connectors, each with its own partition of it, e.g. one per installation,
+ * so that a response is only ever revalidated, and served, with the credentials it was fetched with.</p>
+ */
+public class CachingGitHubConnector implements GitHubConnector {
+
+    private final GitHubConnector delegate;
+    private final ResponseCache cache;
+    private final String partition;
+
+    /**
+     * @param partition Identifies the credentials of the requests sent through this connector.
+     */
+    public CachingGitHubConnector(GitHubConnector delegate, ResponseCache cache, String partition) {
+        this.delegate = delegate;
+        this.cache = cache;
+        this.partition = partition;
+    }
+
+    @Override
+    public GitHubConnectorResponse send(GitHubConnectorRequest request) throws IOException {
+        if (!"GET".equals(request.method()) || request.hasBody()) {
+            return delegate.send(request);
+        }
+        String key = partition + " " + request.url() + " " + request.header("Accept");
+        ResponseCache.Entry cached = cache.get(key);
+        GitHubConnectorResponse response;
+        if (cached == null) {
+            response = delegate.send(request);
+        } else {
+            var conditional = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+            conditional.putAll(request.allHeaders());
+            if (cached.etag != null) {
+                conditional.put("If-None-Match", List.of(cached.etag));
+            }
+            if (cached.lastModified != null) {
+                conditional.put("If-Modified-Since", List.of(cached.lastModified));
+            }
+            response = delegate.send(new ConditionalRequest(request, conditional));
+            if (response.statusCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                cache.recordNotModified();
+                // The fresh headers carry the current rate limit, which the client keeps track of
+                var headers = mergeHeaders(cached.headers, response.allHeaders());
+                response.close();
+                return new CachedResponse(request, headers, cached.body);
+            }
+        }
+        if (response.statusCode() != HttpURLConnection.HTTP_OK) {
+            return response;
+        }
+        String etag = response.header("ETag");
+        String lastModified = response.header("Last-Modified");
+        if (etag == null && lastModified == null) {
+            return response;
+        }
+        byte[] body;
+        try (InputStream in = response.bodyStream()) {
+            body = in.readAllBytes();
+        } finally {
+            response.close();
+        }
+        // The body has already been decoded, so the encoding headers no longer apply to it
+        var headers = mergeHeaders(Map.of(), response.allHeaders());
+        cache.put(key, new ResponseCache.Entry(etag, lastModified, headers, body));
+        return new CachedResponse(request, headers, body);
+    }
+
+    private static Map<String, List<String>> mergeHeaders(Map<String, List<String>> base,
+                                                          Map<String, List<String>> overrides) {
+        var headers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+        headers.putAll(base);
+        overrides.forEach((name, values) -> {
+            if (name != null) {
+                headers.put(name, values);
+            }
+        });
+        headers.remove("Content-Encoding");
+        headers.remove("Content-Length");
+        headers.remove("Transfer-Encoding");
+        return headers;
+    }
+
+    /**
+     * A request with different headers.
+     */
+    private static class ConditionalRequest implements GitHubConnectorRequest {
+        private final GitHubConnectorRequest request;
+        private final Map<String, List<String>> headers;
+
+        ConditionalRequest(GitHubConnectorRequest request, Map<String, List<String>> headers) {
+            this.request = request;
+            this.headers = headers;
+        }
+
+        @Override
+        public String method() {
+            return request.method();
+        }
+
+        @Override
+        public Map<String, List<String>> allHeaders() {
+            return headers;
+        }
+
+        @Override
+        public String header(String name) {
+            List<String> values = headers.get(name);
+            return values == null || values.isEmpty() ? null : String.join(", ", values);
+        }
+
+        @Override
+        public String contentType() {
+            return request.contentType();
+        }
+
+        @Override
+        public InputStream body() {
+            return request.body();
+        }
+
+        @Override
+        public URL url() {
+            return request.url();
+        }
+
+        @Override
+        public boolean hasBody() {
+            return request.hasBody();
+        }
+    }
+
+    /**
+     * A 200 response served from memory.
+     */
+    private static class CachedResponse extends GitHubConnectorResponse.ByteArrayResponse {
+        private final byte[] body;
+
+        CachedResponse(GitHubConnectorRequest request, Map<String, List<String>> headers, byte[] body) {
+            super(request, HttpURLConnection.HTTP_OK, headers);
+            this.body = body;
+        }
+
+        @Override
+        protected InputStream rawBodyStream() {
+            return new ByteArrayInputStream(body);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot.github;
+
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+import io.smallrye.graphql.client.Request;
+import io.smallrye.graphql.client.Response;
+import io.smallrye.graphql.client.core.Document;
+import io.smallrye.graphql.client.dynamic.api.DynamicGraphQLClient;
+import io.smallrye.graphql.client.impl.ResponseReader;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import org.kohsuke.github.HttpException;
+import org.kohsuke.github.connector.GitHubConnector;
+
+/**
+ * A {@link DynamicGraphQLClient} which sends its requests through a {@link GitHubConnector}, so that they're
+ * paced and counted by the same {@link BudgetedGitHubConnector} and {@link MeteredGitHubConnector} as the REST
+ * client's, rather than through a client of its own.
+ * Requests which hit a secondary rate limit are retried after the same {@link SecondaryLimitBackoff}
+ * as the REST client's, at most {@value #MAX_RETRIES} times.
+ * GitHub's GraphQL API has no subscriptions, so they aren't supported.
+ */
+public class ConnectorGraphQLClient implements DynamicGraphQLClient {
+
+    static final int MAX_RETRIES = 3;
+
+    private final GitHubConnector connector;
+    private final URL url;
+    private final Supplier<String> token;
+    private final SecondaryLimitBackoff backoff;
+
+    /**
+     * @param token Supplies a current installation token for each request.
+     */
+    public ConnectorGraphQLClient(GitHubConnector connector, String endpoint, Supplier<String> token,
+                                  SecondaryLimitBackoff backoff) throws IOException {
+        this.connector = connector;
+        this.url = new URL(endpoint + "/graphql");
+        this.token = token;
+        this.backoff = backoff;
+    }
+
+    @Override
+    public Response executeSync(String query, Map<String, Object> variables, String operationName)
+            throws ExecutionException, InterruptedException {
+        JsonObjectBuilder body = Json.createObjectBuilder()
+                .add("query", query)
+                .add("variables", Json.createObjectBuilder(variables));
+        if (operationName != null) {
+            body.add("operationName", operationName);
+        }
+        byte[] bytes = body.build().toString().getBytes(StandardCharsets.UTF_8);
+        try {
+            for (int retries = 0; ; retries++) {
+                try (var response = connector.send(new ConnectorRequest("POST", url, token.get(), bytes))) {
+                    if (SecondaryLimitBackoff.isLimited(response) && retries < MAX_RETRIES) {
+                        backoff.onError(response);
+                        continue;
+                    }
+                    if (response.statusCode() != HttpURLConnection.HTTP_OK) {
+                        throw new HttpException("GraphQL request failed",
+                                response.statusCode(), response.header("Status"), url.toString());
+                    }
+                    try (InputStream in = response.bodyStream()) {
+                        return ResponseReader.readFrom(new String(in.readAllBytes(), StandardCharsets.UTF_8),
+                                response.allHeaders());
+                    }
+                }
+            }
+        } catch (InterruptedIOException e) {
+            throw new InterruptedException(e.getMessage());
+        } catch (IOException e) {
+            throw new ExecutionException(e);
+        }
+    }
+
+    @Override
+    public Response executeSync(String query, Map<String, Object> variables)
+            throws ExecutionException, InterruptedException {
+        return executeSync(query, variables, null);
+    }
+
+    @Override
+    public Response executeSync(String query, String operationName) throws ExecutionException, InterruptedException {
+        return executeSync(query, Map.of(), operationName);
+    }
+
+    @Override
+    public Response executeSync(String query) throws ExecutionException, InterruptedException {
+        return executeSync(query, Map.of(), null);
+    }
+
+    @Override
+    public Response executeSync(Document document, Map<String, Object> variables, String operationName)
+            throws ExecutionException, InterruptedException {
+        return executeSync(document.build(), variables, operationName);
+    }
+
+    @Override
+    public Response executeSync(Document document, Map<String, Object> variables)
+            throws ExecutionException, InterruptedException {
+        return executeSync(document.build(), variables, null);
+    }
+
+    @Override
+    public Response executeSync(Document document, String operationName)
+            throws ExecutionException, InterruptedException {
+        return executeSync(document.build(), Map.of(), operationName);
+    }
+
+    @Override
+    public Response executeSync(Document document) throws ExecutionException, InterruptedException {
+        return executeSync(document.build(), Map.of(), null);
+    }
+
+    @Override
+    public Response executeSync(Request request) throws ExecutionException, InterruptedException {
+        return executeSync(request.getDocument(), request.getVariables(), null);
+    }
+
+    @Override
+    public Uni<Response> executeAsync(String query, Map<String, Object> variables, String operationName) {
+        return Uni.createFrom().emitter(emitter -> {
+            try {
+                emitter.complete(executeSync(query, variables, operationName));
+            } catch (ExecutionException e) {
+                emitter.fail(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                emitter.fail(e);
+            }
+        });
+    }
+
+    @Override
+    public Uni<Response> executeAsync(String query, Map<String, Object> variables) {
+        return executeAsync(query, variables, null);
+    }
+
+    @Override
+    public Uni<Response> executeAsync(String query, String operationName) {
+        return executeAsync(query, Map.of(), operationName);
+    }
+
+    @Override
+    public Uni<Response> executeAsync(String query) {
+        return executeAsync(query, Map.of(), null);
+    }
+
+    @Override
+    public Uni<Response> executeAsync(Document document, Map<String, Object> variables, String operationName) {
+        return executeAsync(document.build(), variables, operationName);
+    }
+
+    @Override
+    public Uni<Response> executeAsync(Document document, Map<String, Object> variables) {
+        return executeAsync(document.build(), variables, null);
+    }
+
+    @Override
+    public Uni<Response> executeAsync(Document document, String operationName) {
+        return executeAsync(document.build(), Map.of(), operationName);
+    }
+
+    @Override
+    public Uni<Response> executeAsync(Document document) {
+        return executeAsync(document.build(), Map.of(), null);
+    }
+
+    @Override
+    public Uni<Response> executeAsync(Request request) {
+        return executeAsync(request.getDocument(), request.getVariables(), null);
+    }
+
+    @Override
+    public Multi<Response> subscription(String query, Map<String, Object> variables, String operationName) {
+        return Multi.createFrom().failure(new UnsupportedOperationException("GitHub has no GraphQL subscriptions"));
+    }
+
+    @Override
+    public Multi<Response> subscription(String query, Map<String, Object> variables) {
+        return subscription(query, variables, null);
+    }
+
+    @Override
+    public Multi<Response> subscription(String query, String operationName) {
+        return subscription(query, Map.of(), operationName);
+    }
+
+    @Override
+    public Multi<Response> subscription(String query) {
+        return subscription(query, Map.of(), null);
+    }
+
+    @Override
+    public Multi<Response> subscription(Document document, Map<String, Object> variables, String operationName) {
+        return subscription(document.build(), variables, operationName);
+    }
+
+    @Override
+    public Multi<Response> subscription(Document document, Map<String, Object> variables) {
+        return subscription(document.build(), variables, null);
+    }
+
+    @Override
+    public Multi<Response> subscription(Document document, String operationName) {
+        return subscription(document.build(), Map.of(), operationName);
+    }
+
+    @Override
+    public Multi<Response> subscription(Document document) {
+        return subscription(document.build(), Map.of(), null);
+    }
+
+    @Override
+    public Multi<Response> subscription(Request request) {
+        return subscription(request.getDocument(), request.getVariables(), null);
+    }
+
+    @Override
+    public void close() {
+        // The connector isn't ours to close
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot.github;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.kohsuke.github.connector.GitHubConnectorRequest;
+
+/**
+ * A request which the bot sends through a {@link org.kohsuke.github.connector.GitHubConnector} itself,
+ * rather than through a {@link org.kohsuke.github.GitHub} client, authenticated with an installation token.
+ */
+class ConnectorRequest implements GitHubConnectorRequest {
+
+    private final String method;
+    private final URL url;
+    private final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final byte[] body;
+
+    /**
+     * @param body The JSON body, or null if the request doesn't have one.
+     */
+    ConnectorRequest(String method, URL url, String token, byte[] body) {
+        this.method = method;
+        this.url = url;
+        this.body = body;
+        headers.put("Authorization", List.of("token " + token));
+        headers.put("Accept", List.of("application/vnd.github.v3+json"));
+        if (body != null) {
+            headers.put("Content-Type", List.of("application/json; charset=utf-8"));
+        }
+    }
+
+    @Override
+    public String method() {
+        return method;
+    }
+
+    @Override
+    public Map<String, List<String>> allHeaders() {
+        return headers;
+    }
+
+    @Override
+    public String header(String name) {
+        List<String> values = headers.get(name);
+        return values == null || values.isEmpty() ? null : String.join(", ", values);
+    }
+
+    @Override
+    public String contentType() {
+        return header("Content-Type");
+    }
+
+    @Override
+    public InputStream body() {
+        return new ByteArrayInputStream(body != null ? body : new byte[0]);
+    }
+
+    @Override
+    public URL url() {
+        return url;
+    }
+
+    @Override
+    public boolean hasBody() {
+        return body != null;
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot.github;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.inject.Instance;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.MessageFormat;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongFunction;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bare local clones of the installed repositories, from which files and trees can be read without using the
+ * REST contents API (which is slow, paginated and limited to 1MB files).
+ *
+ * <p>A repository is cloned on its first {@link #fetch(String, long) fetch}, and fetched again on each push.
+ * The branches and the heads of pull requests are mirrored, so the blobs of a PR's head are available
+ * without fetching the fork.
+ * Pack files are read through memory-mapped I/O.</p>
+ *
+ * <p>Reads return null when the mirror doesn't have what's asked for
+ * (because it's disabled, or the repo hasn't been fetched since the commit was pushed),
+ * and callers are expected to fall back to the API.
+ * A read of an unknown commit of a repo which has been fetched triggers one fetch before giving up,
+ * but at most one such fetch per repo per {@code bot.git-mirror.miss-fetch-interval}, so that reads of commits
+ * which aren't in the repo (yet) don't each block their caller on a fetch.</p>
+ */
+@ApplicationScoped
+public class GitMirror {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GitMirror.class);
+
+    public static final String ENABLE = "bot.git-mirror.enabled";
+
+    static final Duration DEFAULT_MISS_FETCH_INTERVAL = Duration.ofSeconds(30);
+
+    private static final List<RefSpec> REF_SPECS = List.of(
+            new RefSpec("+refs/heads/*:refs/heads/*"),
+            new RefSpec("+refs/pull/*/head:refs/pull/*/head"));
+
+    private final boolean enabled;
+    private final Path dir;
+    private final String urlTemplate;
+    private final LongFunction<String> tokens;
+    private final long missFetchIntervalNanos;
+    /** The installation each repo was last fetched for. */
+    private final Map<String, Long> installations = new ConcurrentHashMap<>();
+    private final Map<String, Repository> repositories = new ConcurrentHashMap<>();
+    /** By repo, when a read of an unknown commit last made it fetch, in {@link System#nanoTime()}. */
+    private final Map<String, Long> lastMissFetch = new ConcurrentHashMap<>();
+
+    /**
+     * For the client proxy only.
+     */
+    GitMirror() {
+        this.enabled = false;
+        this.dir = null;
+        this.urlTemplate = null;
+        this.tokens = null;
+        this.missFetchIntervalNanos = 0;
+    }
+
+    @Inject
+    public GitMirror(@ConfigProperty(name = ENABLE, defaultValue = "false")
+                     boolean enabled,
+                     @ConfigProperty(name = "bot.state.dir", defaultValue = "/tmp/bf2-arch-bot")
+                     String stateDir,
+                     @ConfigProperty(name = "bot.git-mirror.url", defaultValue = "https://github.com/{0}.git")
+                     String urlTemplate,
+                     @ConfigProperty(name = "bot.git-mirror.miss-fetch-interval", defaultValue = "PT30S")
+                     Duration missFetchInterval,
+                     Instance<ArchBotGitHubService> service) {
+        this(enabled, Path.of(stateDir, "git-mirror"), urlTemplate,
+                service.isResolvable() ? service.get()::installationToken : null, missFetchInterval);
+    }
+
+    /**
+     * A mirror which fetches for reads of unknown commits at most every {@link #DEFAULT_MISS_FETCH_INTERVAL}.
+     */
+    public GitMirror(boolean enabled, Path dir, String urlTemplate, LongFunction<String> tokens) {
+        this(enabled, dir, urlTemplate, tokens, DEFAULT_MISS_FETCH_INTERVAL);
+    }
+
+    /**
+     * @param dir The directory to keep the clones in.
+     * @param urlTemplate The URL of a repo, with the {@code {0}} placeholder for its full name.
+     * @param tokens Provides the token to authenticate as an installation, or null to fetch anonymously.
+     * @param missFetchInterval The least time between the fetches of a repo made because of reads of unknown commits.
+     */
+    public GitMirror(boolean enabled, Path dir, String urlTemplate, LongFunction<String> tokens,
+                     Duration missFetchInterval) {
+        this.enabled = enabled;
+        this.dir = dir;
+        this.urlTemplate = urlTemplate;
+        this.tokens = tokens;
+        this.missFetchIntervalNanos = missFetchInterval.toNanos();
+        if (enabled) {
+            var windowCacheConfig = new WindowCacheConfig();
+            windowCacheConfig.setPackedGitMMAP(true);
+            windowCacheConfig.install();
+        }
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * Brings the mirror of the given repo up to date, cloning it if necessary.
+     * @param fullName The repo's full name (owner/name).
+     * @param installationId The installation to authenticate as.
+     */
+    public void fetch(String fullName, long installationId) throws IOException {
+        if (!enabled) {
+            return;
+        }
+        installations.put(fullName, installationId);
+        Repository repository = repository(fullName);
+        synchronized (repository) {
+            long start = System.currentTimeMillis();
+            try (var git = new Git(repository)) {
+                CredentialsProvider credentials = null;
+                if (tokens != null) {
+                    credentials = new UsernamePasswordCredentialsProvider("x-access-token",
+                            tokens.apply(installationId));
+                }
+                git.fetch()
+                        .setRemote(MessageFormat.format(urlTemplate, fullName))
+                        .setRefSpecs(REF_SPECS)
+                        .setRemoveDeletedRefs(true)
+                        .setCredentialsProvider(credentials)
+                        .call();
+            } catch (GitAPIException e) {
+                throw new IOException("Unable to fetch " + fullName, e);
+            }
+            LOG.debug("Fetched {} in {}ms", fullName, System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * @return The id of the blob or tree at the given path at the given commit, or null if the path doesn't exist
+     * or the mirror doesn't have the commit.
+     */
+    @Nullable
+    public ObjectId entryId(String fullName, String commitSha, String path) throws IOException {
+        RevCommit commit = commit(fullName, commitSha);
+        if (commit == null) {
+            return null;
+        }
+        Repository repository = repositories.get(fullName);
+        try (TreeWalk walk = TreeWalk.forPath(repository, path, commit.getTree())) {
+            return walk != null ? walk.getObjectId(0) : null;
+        }
+    }
+
+    /**
+     * @return The names of the entries of the directory at the given path at the given commit,
+     * an empty list if there's no such directory, or null if the mirror doesn't have the commit.
+     */
+    @Nullable
+    public List<String> list(String fullName, String commitSha, String path) throws IOException {
+        RevCommit commit = commit(fullName, commitSha);
+        if (commit == null) {
+            return null;
+        }
+        Repository repository = repositories.get(fullName);
+        var names = new ArrayList<String>();
+        try (TreeWalk dirWalk = TreeWalk.forPath(repository, path, commit.getTree())) {
+            if (dirWalk == null || !dirWalk.isSubtree()) {
+                return names;
+            }
+            try (TreeWalk walk = new TreeWalk(repository)) {
+                walk.addTree(dirWalk.getObjectId(0));
+                walk.setRecursive(false);
+                while (walk.next()) {
+                    names.add(walk.getNameString());
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @return The content of the given blob, or null if the mirror doesn't have it.
+     */
+    @Nullable
+    public byte[] read(String fullName, String blobSha) throws IOException {
+        if (!enabled || !Files.isDirectory(gitDir(fullName))) {
+            return null;
+        }
+        Repository repository = repository(fullName);
+        ObjectId id = ObjectId.fromString(blobSha);
+        if (!repository.getObjectDatabase().has(id)) {
+            return null;
+        }
+        return repository.open(id).getBytes(Integer.MAX_VALUE);
+    }
+
+    @Nullable
+    private RevCommit commit(String fullName, String commitSha) throws IOException {
+        if (!enabled || !Files.isDirectory(gitDir(fullName))) {
+            return null;
+        }
+        Repository repository = repository(fullName);
+        ObjectId id = repository.resolve(commitSha);
+        if (id == null || !repository.getObjectDatabase().has(id)) {
+            Long installationId = installations.get(fullName);
+            if (installationId == null) {
+                return null;
+            }
+            if (!claimMissFetch(fullName)) {
+                LOG.debug("{} not in mirror of {}, which was fetched for a miss recently", commitSha, fullName);
+                return null;
+            }
+            LOG.debug("{} not in mirror of {}, fetching", commitSha, fullName);
+            fetch(fullName, installationId);
+            id = repository.resolve(commitSha);
+            if (id == null || !repository.getObjectDatabase().has(id)) {
+                return null;
+            }
+        }
+        try (RevWalk walk = new RevWalk(repository)) {
+            return walk.parseCommit(id);
+        }
+    }
+
+    /**
+     * @return Whether the caller may fetch the given repo because of a read of an unknown commit,
+     * in which case no other caller may until the interval has passed.
+     */
+    private boolean claimMissFetch(String fullName) {
+        long now = System.nanoTime();
+        boolean[] claimed = new boolean[1];
+        lastMissFetch.compute(fullName, (name, last) -> {
+            claimed[0] = last == null || now - last >= missFetchIntervalNanos;
+            return claimed[0] ? now : last;
+        });
+        return claimed[0];
+    }
+
+    private Path gitDir(String fullName) {
+        if (fullName.contains("..") || fullName.startsWith("/")) {
+            throw new IllegalArgumentException("Not a repository name: " + fullName);
+        }
+        return dir.resolve(fullName + ".git");
+    }
+
+    private Repository repository(String fullName) throws IOException {
+        try {
+            return repositories.computeIfAbsent(fullName, name -> {
+                Path gitDir = gitDir(name);
+                try {
+                    Repository repository = new FileRepositoryBuilder()
+                            .setGitDir(gitDir.toFile())
+                            .setBare()
+                            .build();
+                    if (!Files.isDirectory(gitDir)) {
+                        LOG.info("Creating mirror of {} in {}", name, gitDir);
+                        repository.create(true);
+                    }
+                    return repository;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot.github;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.kohsuke.github.connector.GitHubConnector;
+import org.kohsuke.github.connector.GitHubConnectorRequest;
+import org.kohsuke.github.connector.GitHubConnectorResponse;
+
+/**
+ * A {@link GitHubConnector} which counts the requests sent to GitHub, by method, endpoint and status,
+ * and keeps a gauge of the remaining rate limit of each rate limit resource ({@code core}, {@code graphql}, etc).
+ * Each installation has its own rate limits, so each has its own connector, whose gauges are tagged with it.
+ *
+ * <p>Endpoints are the request path with the parts which identify a particular resource
+ * (owners, repos, numbers, SHAs, paths, refs) replaced by placeholders,
+ * e.g. {@code /repos/{owner}/{repo}/pulls/{id}/files}.</p>
+ */
+public class MeteredGitHubConnector implements GitHubConnector {
+
+    public static final String REQUESTS = "github.api.requests";
+    public static final String RATE_LIMIT_REMAINING = "github.ratelimit.remaining";
+
+    /** Path segments after which the remainder of the path identifies a resource. */
+    private static final Set<String> REST_IS_NAME = Set.of("contents", "ref", "refs", "compare");
+    /** Path segments after which the next segment identifies a resource. */
+    private static final Set<String> NEXT_IS_NAME = Set.of("branches", "labels", "collaborators", "users", "orgs");
+
+    private final GitHubConnector delegate;
+    private final MeterRegistry registry;
+    private final String installation;
+    private final Map<String, AtomicLong> remaining = new ConcurrentHashMap<>();
+
+    /**
+     * @param installation The id of the installation whose requests are sent through this connector,
+     * or {@code app} for those made as the app itself.
+     */
+    public MeteredGitHubConnector(GitHubConnector delegate, MeterRegistry registry, String installation) {
+        this.delegate = delegate;
+        this.registry = registry;
+        this.installation = installation;
+    }
+
+    @Override
+    public GitHubConnectorResponse send(GitHubConnectorRequest request) throws IOException {
+        GitHubConnectorResponse response;
+        try {
+            response = delegate.send(request);
+        } catch (IOException e) {
+            count(request, "error");
+            throw e;
+        }
+        count(request, Integer.toString(response.statusCode()));
+        String limitRemaining = response.header("X-RateLimit-Remaining");
+        if (limitRemaining != null) {
+            String resource = response.header("X-RateLimit-Resource");
+            try {
+                remaining(resource != null ? resource : "core").set(Long.parseLong(limitRemaining.trim()));
+            } catch (NumberFormatException e) {
+                // Not a number: ignore it
+            }
+        }
+        return response;
+    }
+
+    private void count(GitHubConnectorRequest request, String status) {
+        Counter.builder(REQUESTS)
+                .description("Requests sent to the GitHub API")
+                .tag("method", request.method())
+                .tag("endpoint", endpoint(request.url().getPath()))
+                .tag("status", status)
+                .register(registry)
+                .increment();
+    }
+
+    private AtomicLong remaining(String resource) {
+        return remaining.computeIfAbsent(resource, r -> {
+            var value = new AtomicLong();
+            Gauge.builder(RATE_LIMIT_REMAINING, value, AtomicLong::get)
+                    .description("Requests remaining in the current rate limit window")
+                    .tag("installation", installation)
+                    .tag("resource", r)
+                    .register(registry);
+            return value;
+        });
+    }
+
+    /**
+     * @return The given request path, with the parts identifying a particular resource replaced by placeholders.
+     */
+    static String endpoint(String path) {
+        String[] segments = path.split("/");
+        var sb = new StringBuilder();
+        for (int i = 1; i < segments.length; i++) {
+            String segment = segments[i];
+            String previous = segments[i - 1];
+            sb.append('/');
+            if (i >= 2 && "repos".equals(segments[i - 1])) {
+                sb.append("{owner}");
+            } else if (i >= 3 && "repos".equals(segments[i - 2])) {
+                sb.append("{repo}");
+            } else if (NEXT_IS_NAME.contains(previous)) {
+                sb.append("{name}");
+            } else if (isNumber(segment)) {
+                sb.append("{id}");
+            } else if (isSha(segment)) {
+                sb.append("{sha}");
+            } else {
+                sb.append(segment);
+                if (REST_IS_NAME.contains(segment) && i + 1 < segments.length) {
+                    sb.append("/{path}");
+                    break;
+                }
+            }
+        }
+        return sb.length() == 0 ? "/" : sb.toString();
+    }
+
+    private static boolean isNumber(String segment) {
+        if (segment.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < segment.length(); i++) {
+            if (!Character.isDigit(segment.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSha(String segment) {
+        if (segment.length() != 40) {
+            return false;
+        }
+        for (int i = 0; i < segment.length(); i++) {
+            if (Character.digit(segment.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
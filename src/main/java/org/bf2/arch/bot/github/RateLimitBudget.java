@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot.github;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * Shares the GitHub API rate limit of each installation between the webhook flows and the background sweeps.
+ *
+ * <p>Each installation has a {@link Bucket} per rate limit resource ({@code core}, {@code graphql}, {@code search}),
+ * which tracks the remaining limit and reset time GitHub reports in its responses.
+ * Requests made for webhooks are never held back. Requests made by sweeps (see {@link #asSweep(Body)}) draw on a
+ * token bucket which refills at the rate which would leave a reserve of the limit for webhooks when the limit resets,
+ * so sweeps slow down as the limit is used up, and stop once only the reserve is left.</p>
+ */
+@ApplicationScoped
+public class RateLimitBudget {
+
+    /**
+     * Who a request is made for.
+     */
+    public enum Priority {
+        WEBHOOK,
+        SWEEP
+    }
+
+    /** The limit assumed before GitHub has reported one. */
+    static final int DEFAULT_LIMIT = 5000;
+
+    private static final ThreadLocal<Priority> PRIORITY = ThreadLocal.withInitial(() -> Priority.WEBHOOK);
+
+    private final double reserve;
+    private final int sweepBurst;
+    private final Duration maxSweepWait;
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    @Inject
+    public RateLimitBudget(@ConfigProperty(name = "bot.rate-limit.reserve", defaultValue = "0.2")
+                           double reserve,
+                           @ConfigProperty(name = "bot.rate-limit.sweep-burst", defaultValue = "20")
+                           int sweepBurst,
+                           @ConfigProperty(name = "bot.rate-limit.max-sweep-wait", defaultValue = "PT30S")
+                           Duration maxSweepWait) {
+        this.reserve = reserve;
+        this.sweepBurst = sweepBurst;
+        this.maxSweepWait = maxSweepWait;
+    }
+
+    /**
+     * The body of a sweep.
+     */
+    @FunctionalInterface
+    public interface Body {
+        void run() throws IOException;
+    }
+
+    /**
+     * Runs the given body with the requests it makes from this thread drawing on the sweep budget.
+     */
+    public static void asSweep(Body body) throws IOException {
+        Priority previous = PRIORITY.get();
+        PRIORITY.set(Priority.SWEEP);
+        try {
+            body.run();
+        } finally {
+            PRIORITY.set(previous);
+        }
+    }
+
+    static Priority priority() {
+        return PRIORITY.get();
+    }
+
+    /**
+     * @return The bucket of the given rate limit resource of the given installation.
+     */
+    public Bucket bucket(long installationId, String resource) {
+        return buckets.computeIfAbsent(installationId + " " + resource, k -> new Bucket(reserve, sweepBurst));
+    }
+
+    Duration maxSweepWait() {
+        return maxSweepWait;
+    }
+
+    /**
+     * Thrown when a sweep's request would have to wait too long for budget.
+     */
+    public static class ExhaustedException extends IOException {
+        private final long waitMillis;
+
+        public ExhaustedException(long waitMillis) {
+            super("Sweep budget exhausted for " + waitMillis + "ms");
+            this.waitMillis = waitMillis;
+        }
+
+        public long waitMillis() {
+            return waitMillis;
+        }
+    }
+
+    /**
+     * The state of one rate limit resource of one installation.
+     */
+    public static class Bucket {
+        private final double reserveFraction;
+        private final int burst;
+
+        private int limit = DEFAULT_LIMIT;
+        private int remaining = DEFAULT_LIMIT;
+        /** When the limit resets, or 0 if GitHub hasn't said. */
+        private long resetAtMillis;
+
+        /** Sweep tokens, refilled at {@link #sweepRate(long)}. */
+        private double tokens;
+        private long refilledAt = -1;
+        private long sweepRequests;
+
+        Bucket(double reserveFraction, int burst) {
+            this.reserveFraction = reserveFraction;
+            this.burst = burst;
+            this.tokens = burst;
+        }
+
+        /**
+         * Records the rate limit GitHub reported in a response.
+         */
+        public synchronized void observe(int limit, int remaining, long resetAtMillis) {
+            this.limit = limit;
+            this.remaining = remaining;
+            this.resetAtMillis = resetAtMillis;
+        }
+
+        private int reserve() {
+            return (int) Math.ceil(limit * reserveFraction);
+        }
+
+        /**
+         * @return How many more requests sweeps can make before only the reserve is left.
+         */
+        public synchronized int sweepAllowance() {
+            return Math.max(0, remaining - reserve());
+        }
+
+        /**
+         * @return How long until the limit resets, or an hour if GitHub hasn't said.
+         */
+        public synchronized long millisUntilReset(long now) {
+            return resetAtMillis > now ? resetAtMillis - now : resetAtMillis == 0 ? Duration.ofHours(1).toMillis() : 0;
+        }
+
+        /**
+         * @return The number of requests made by sweeps.
+         */
+        public synchronized long sweepRequests() {
+            return sweepRequests;
+        }
+
+        /** Sweep tokens per millisecond. */
+        private double sweepRate(long now) {
+            return (double) sweepAllowance() / Math.max(1000, millisUntilReset(now));
+        }
+
+        /**
+         * Takes the budget for a request.
+         * @return 0 if the request can be made now, otherwise how many milliseconds to wait before trying again.
+         */
+        public synchronized long acquire(Priority priority, long now) {
+            if (priority == Priority.WEBHOOK) {
+                remaining = Math.max(0, remaining - 1);
+                return 0;
+            }
+            if (refilledAt >= 0) {
+                tokens = Math.min(burst, tokens + sweepRate(now) * (now - refilledAt));
+            }
+            refilledAt = now;
+            if (sweepAllowance() == 0) {
+                return Math.max(1000, millisUntilReset(now));
+            }
+            if (tokens >= 1) {
+                tokens -= 1;
+                remaining = Math.max(0, remaining - 1);
+                sweepRequests++;
+                return 0;
+            }
+            return (long) Math.ceil((1 - tokens) / sweepRate(now));
+        }
+    }
+}
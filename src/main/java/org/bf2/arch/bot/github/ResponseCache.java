@@ -0,0 +1,279 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot.github;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A size-bounded, two-level (memory, then disk) cache of GitHub API responses,
+ * keyed by request URL (and {@code Accept} header, and the partition of the {@link CachingGitHubConnector}).
+ * Entries are never served without revalidation, so there's no expiry: the cache just remembers
+ * each response's validators ({@code ETag}, {@code Last-Modified}) and body so that a
+ * {@code 304 Not Modified} can be turned back into the full response.
+ */
+public class ResponseCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResponseCache.class);
+
+    /**
+     * A cached response.
+     */
+    public static class Entry {
+        final String etag;
+        final String lastModified;
+        final Map<String, List<String>> headers;
+        final byte[] body;
+
+        Entry(String etag, String lastModified, Map<String, List<String>> headers, byte[] body) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        int weight() {
+            return body.length + 256;
+        }
+    }
+
+    private final Cache<String, Entry> memory;
+    private final Path dir;
+    private final long maxDiskBytes;
+    private final AtomicLong diskBytes = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+
+    /**
+     * @param dir The directory for the on-disk level, or null for a memory-only cache.
+     * The responses can be of private repos, so where the file system allows it only its owner can read it.
+     * @param maxMemoryBytes The approximate bound on the memory used by the in-memory level.
+     * @param maxDiskBytes The approximate bound on the disk space used by the on-disk level.
+     */
+    public ResponseCache(Path dir, long maxMemoryBytes, long maxDiskBytes) throws IOException {
+        this.memory = Caffeine.newBuilder()
+                .maximumWeight(maxMemoryBytes)
+                .weigher((String key, Entry entry) -> entry.weight())
+                .build();
+        this.dir = dir;
+        this.maxDiskBytes = maxDiskBytes;
+        if (dir != null) {
+            Files.createDirectories(dir);
+            if (Files.getFileStore(dir).supportsFileAttributeView(PosixFileAttributeView.class)) {
+                Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString("rwx------"));
+            }
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path file : files) {
+                    diskBytes.addAndGet(Files.size(file));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The number of requests for which the cache had a response that could be revalidated.
+     */
+    public long hits() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of requests for which the cache had no response.
+     */
+    public long misses() {
+        return misses.get();
+    }
+
+    /**
+     * @return The number of revalidations which GitHub answered with {@code 304 Not Modified},
+     * i.e. which were served from the cache without costing any primary rate limit.
+     */
+    public long notModified() {
+        return notModified.get();
+    }
+
+    void recordNotModified() {
+        notModified.incrementAndGet();
+    }
+
+    Entry get(String key) {
+        Entry entry = memory.getIfPresent(key);
+        if (entry == null && dir != null) {
+            entry = readFromDisk(key);
+            if (entry != null) {
+                memory.put(key, entry);
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return entry;
+    }
+
+    void put(String key, Entry entry) {
+        memory.put(key, entry);
+        if (dir != null) {
+            writeToDisk(key, entry);
+        }
+    }
+
+    private Path file(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            var sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return dir.resolve(sb.toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Entry readFromDisk(String key) {
+        Path file = file(key);
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (!key.equals(in.readUTF())) {
+                // A hash collision: treat as absent
+                return null;
+            }
+            String etag = nullIfEmpty(in.readUTF());
+            String lastModified = nullIfEmpty(in.readUTF());
+            int numHeaders = in.readInt();
+            Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (int i = 0; i < numHeaders; i++) {
+                String name = in.readUTF();
+                int numValues = in.readInt();
+                var values = new ArrayList<String>(numValues);
+                for (int j = 0; j < numValues; j++) {
+                    values.add(in.readUTF());
+                }
+                headers.put(name, values);
+            }
+            byte[] body = in.readNBytes(in.readInt());
+            // Record the access, so that eviction is least recently used
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return new Entry(etag, lastModified, headers, body);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            LOG.warn("Ignoring unreadable cache file {}", file, e);
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, Entry entry) {
+        Path file = file(key);
+        Path tmp = file.resolveSibling(file.getFileName() + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            long previousSize = Files.exists(file) ? Files.size(file) : 0;
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeUTF(key);
+                out.writeUTF(entry.etag != null ? entry.etag : "");
+                out.writeUTF(entry.lastModified != null ? entry.lastModified : "");
+                out.writeInt(entry.headers.size());
+                for (var header : entry.headers.entrySet()) {
+                    out.writeUTF(header.getKey());
+                    out.writeInt(header.getValue().size());
+                    for (String value : header.getValue()) {
+                        out.writeUTF(value);
+                    }
+                }
+                out.writeInt(entry.body.length);
+                out.write(entry.body);
+            }
+            long size = Files.size(tmp);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (diskBytes.addAndGet(size - previousSize) > maxDiskBytes) {
+                evictFromDisk();
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to write cache file {}", file, e);
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {
+                // best effort
+            }
+        }
+    }
+
+    /**
+     * Deletes least recently used files until the disk level is back to 90% of its bound.
+     */
+    private synchronized void evictFromDisk() throws IOException {
+        if (diskBytes.get() <= maxDiskBytes) {
+            return;
+        }
+        var files = new ArrayList<Path>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            stream.forEach(files::add);
+        }
+        files.sort(Comparator.comparing(file -> {
+            try {
+                return Files.getLastModifiedTime(file);
+            } catch (IOException e) {
+                return FileTime.fromMillis(0);
+            }
+        }));
+        long target = maxDiskBytes * 9 / 10;
+        for (Path file : files) {
+            if (diskBytes.get() <= target) {
+                break;
+            }
+            try {
+                long size = Files.size(file);
+                Files.delete(file);
+                diskBytes.addAndGet(-size);
+            } catch (NoSuchFileException e) {
+                // concurrently deleted
+            }
+        }
+    }
+
+    private static String nullIfEmpty(String s) {
+        return s.isEmpty() ? null : s;
+    }
+}
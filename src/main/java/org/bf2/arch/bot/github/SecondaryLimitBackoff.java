@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot.github;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.kohsuke.github.GitHubAbuseLimitHandler;
+import org.kohsuke.github.connector.GitHubConnector;
+import org.kohsuke.github.connector.GitHubConnectorResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Waits before the client retries a request which hit a secondary rate limit.
+ *
+ * <p>The wait is GitHub's {@code Retry-After}, if given, otherwise an exponential backoff.
+ * Either way it's jittered, so that requests which were limited together don't retry together.</p>
+ */
+public class SecondaryLimitBackoff extends GitHubAbuseLimitHandler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SecondaryLimitBackoff.class);
+
+    static final long BASE_MILLIS = 1000;
+    static final long MAX_MILLIS = 60_000;
+
+    /**
+     * The request last limited on this thread, and how many times in a row,
+     * until a request sent through a {@link #clearingOnSuccess(GitHubConnector) clearing connector} isn't limited.
+     */
+    private final ThreadLocal<String> lastRequest = new ThreadLocal<>();
+    private final ThreadLocal<Integer> attempts = ThreadLocal.withInitial(() -> 0);
+
+    @Override
+    public void onError(GitHubConnectorResponse response) throws IOException {
+        String request = response.request().method() + " " + response.request().url();
+        long delay = delayMillis(response.header("Retry-After"), nextAttempt(request),
+                ThreadLocalRandom.current().nextDouble());
+        LOG.warn("Secondary rate limit hit by {}, retrying in {}ms", request, delay);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * @return The number of previous consecutive retries of the given request on this thread, counting this one.
+     */
+    int nextAttempt(String request) {
+        int attempt = request.equals(lastRequest.get()) ? attempts.get() + 1 : 0;
+        lastRequest.set(request);
+        attempts.set(attempt);
+        return attempt;
+    }
+
+    /**
+     * @return A connector which forgets this thread's limited request once a response isn't limited,
+     * so that the request's next limit, if any, starts the backoff afresh.
+     */
+    public GitHubConnector clearingOnSuccess(GitHubConnector delegate) {
+        return request -> {
+            GitHubConnectorResponse response = delegate.send(request);
+            if (!isLimited(response)) {
+                lastRequest.remove();
+                attempts.remove();
+            }
+            return response;
+        };
+    }
+
+    /**
+     * @return Whether the response is to a request which hit a secondary rate limit, as the client decides it,
+     * for clients which send requests themselves.
+     */
+    static boolean isLimited(GitHubConnectorResponse response) {
+        return response.statusCode() == HttpURLConnection.HTTP_FORBIDDEN && response.header("Retry-After") != null;
+    }
+
+    /**
+     * @param retryAfter The {@code Retry-After} header, in seconds, or null.
+     * @param attempt The number of previous consecutive retries of the request.
+     * @param random A random number between 0 and 1.
+     * @return How long to wait before retrying.
+     */
+    static long delayMillis(String retryAfter, int attempt, double random) {
+        if (retryAfter != null) {
+            try {
+                // Up to a second later than asked
+                return Long.parseLong(retryAfter.trim()) * 1000 + (long) (random * 1000);
+            } catch (NumberFormatException e) {
+                // Not a number of seconds: back off instead
+            }
+        }
+        long ceiling = Math.min(MAX_MILLIS, BASE_MILLIS << Math.min(attempt, 16));
+        // Somewhere in the upper half of the ceiling
+        return ceiling / 2 + (long) (random * ceiling / 2);
+    }
+}
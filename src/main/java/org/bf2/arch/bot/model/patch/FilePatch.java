@@ -16,13 +16,11 @@
  */
 package org.bf2.arch.bot.model.patch;
 
-import java.io.IOException;
-import java.io.LineNumberReader;
-import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.EnumSet;
 import java.util.List;
-import java.util.Objects;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
@@ -50,10 +48,20 @@ import java.util.stream.Stream;
 */
 public class FilePatch {
 
+    /** The fuzz factor {@link #apply(CharSequence)} uses, as {@code patch(1)} does. */
+    public static final int DEFAULT_FUZZ = 2;
+
     private final List<Hunk> hunks;
+    /** The new-file line numbers of the added lines being reviewed, or null for all of them. */
+    private final BitSet reviewed;
 
     public FilePatch(List<Hunk> hunks) {
+        this(hunks, null);
+    }
+
+    private FilePatch(List<Hunk> hunks, BitSet reviewed) {
         this.hunks = hunks;
+        this.reviewed = reviewed;
     }
 
     public List<Hunk> hunks() {
@@ -84,106 +92,363 @@ public class FilePatch {
         }
     }
 
+    /**
+     * @return The lines of the given types whose content matches the given pattern, in patch order.
+     * Added lines which aren't being reviewed count as context, see {@link #hunksAdding(BitSet)}.
+     */
     public Stream<LineMatch> linesMatching(EnumSet<Line.Type> type, Pattern pattern) {
+        // Lines are matched in place, through a slice of the patch, and only the matches get a Line and a Matcher
+        var slice = new Slice();
+        Matcher scratch = pattern.matcher("");
         return hunks().stream()
                 .flatMap(hunk -> {
-                    int[] patchLineNum = new int[]{hunk.hunkStartLine() - 1};
-
-                    return hunk.lines().stream()
-                            .map(line -> {
-                                patchLineNum[0]++;
-                                Matcher matcher = pattern.matcher(line.line());
-                                if (type.contains(line.type()) && matcher.matches()) {
-                                    return new LineMatch(line, matcher, patchLineNum[0]);
-                                } else {
-                                    return null;
-                                }
-                            })
-                            .filter(Objects::nonNull);
+                    var matches = new ArrayList<LineMatch>();
+                    int lineNum = hunk.newStartLine();
+                    for (int i = 0; i < hunk.size(); i++) {
+                        Line.Type lineType = type(hunk.type(i), lineNum);
+                        if (lineType != Line.Type.REMOVE) {
+                            lineNum++;
+                        }
+                        if (type.contains(lineType)
+                                && scratch.reset(hunk.content(i, slice)).matches()) {
+                            Line line = hunk.lines().get(i);
+                            Matcher matcher = pattern.matcher(line.line());
+                            matcher.matches();
+                            matches.add(new LineMatch(line, matcher, hunk.position(i)));
+                        }
+                    }
+                    return matches.stream();
                 });
     }
 
-    //    /**
-//     * Apply a patch (as a list of hunks) to some input
-//     *
-//     * @param input
-//     * @param hunks
-//     * @return
-//     */
-//    static String patch(String input, Patch hunks) {
-//
-//        StringBuffer output = new StringBuffer();
-//        int inputLineNum = 1;
-//        var it = input.lines().iterator();
-//        while (true) {
-//            inputLineNum++;
-//            if ()
-//                String inputLine = it.next();
-//        }
-//        // TODO copy lines from input to output until we're in change of a hunk
-//        // TODO then copy from the hunk:
-//        // Content lines copies as is (optionally assert that they're identical to the input
-//        // Ignore - lines (optionally assert that they're identical to the input
-//        // Copy + lines (don't assert, obvs)
-//        return null;
-//    }
+    /**
+     * Receives the lines of a patch, in patch order, from {@link #visit(EnumSet, LineVisitor)}.
+     */
+    public interface LineVisitor {
+        /**
+         * Called before the lines of each hunk.
+         * Consecutive lines of different hunks aren't adjacent in the file.
+         */
+        default void hunk(Hunk hunk) {
+        }
+
+        /**
+         * Called for each line.
+         * @param content The line's content, without its prefix. Only valid until this method returns.
+         * @param position The line's position, as in {@link LineMatch#patchLineNum()}.
+         */
+        void line(Line.Type type, CharSequence content, int position);
+    }
+
+    /**
+     * Passes the lines of the given types to the visitor, without creating a {@link Line} for each.
+     * Added lines which aren't being reviewed are passed as context, see {@link #hunksAdding(BitSet)}.
+     */
+    public void visit(EnumSet<Line.Type> types, LineVisitor visitor) {
+        var slice = new Slice();
+        for (Hunk hunk : hunks) {
+            visitor.hunk(hunk);
+            int lineNum = hunk.newStartLine();
+            for (int i = 0; i < hunk.size(); i++) {
+                Line.Type type = type(hunk.type(i), lineNum);
+                if (type != Line.Type.REMOVE) {
+                    lineNum++;
+                }
+                if (types.contains(type)) {
+                    visitor.line(type, hunk.content(i, slice), hunk.position(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The line numbers, in the new file, of the lines this patch adds.
+     */
+    public BitSet addedLines() {
+        var added = new BitSet();
+        for (Hunk hunk : hunks) {
+            int lineNum = hunk.newStartLine();
+            for (int i = 0; i < hunk.size(); i++) {
+                Line.Type type = hunk.type(i);
+                if (type == Line.Type.ADD) {
+                    added.set(lineNum);
+                }
+                if (type != Line.Type.REMOVE) {
+                    lineNum++;
+                }
+            }
+        }
+        return added;
+    }
+
+    /**
+     * @return The type of a line of a hunk, with added lines which aren't being reviewed counting as context.
+     */
+    private Line.Type type(Line.Type type, int lineNum) {
+        return type == Line.Type.ADD && reviewed != null && !reviewed.get(lineNum) ? Line.Type.CONTEXT : type;
+    }
+
+    /**
+     * @param lines Line numbers in the new file.
+     * @return The hunks of this patch which add any of the given lines, keeping their positions in this patch.
+     * Only the given lines are reviewed: {@link #visit(EnumSet, LineVisitor)} and
+     * {@link #linesMatching(EnumSet, Pattern)} treat the hunks' other added lines as context.
+     */
+    public FilePatch hunksAdding(BitSet lines) {
+        var result = new ArrayList<Hunk>();
+        for (Hunk hunk : hunks) {
+            int lineNum = hunk.newStartLine();
+            for (int i = 0; i < hunk.size(); i++) {
+                Line.Type type = hunk.type(i);
+                if (type == Line.Type.ADD && lines.get(lineNum)) {
+                    result.add(hunk);
+                    break;
+                }
+                if (type != Line.Type.REMOVE) {
+                    lineNum++;
+                }
+            }
+        }
+        var reviewing = (BitSet) lines.clone();
+        if (reviewed != null) {
+            reviewing.and(reviewed);
+        }
+        return new FilePatch(result, reviewing);
+    }
+
+    /**
+     * Applies this patch, with the default fuzz factor of {@value #DEFAULT_FUZZ}.
+     * @see #apply(CharSequence, int)
+     */
+    public String apply(CharSequence original) {
+        return apply(original, DEFAULT_FUZZ);
+    }
+
+    /**
+     * Applies this patch to the file it was made from.
+     * A hunk which isn't where its header says is looked for nearby, and then, up to the given fuzz factor,
+     * ignoring lines of context at each end.
+     * @param original The content of the file. Use "" for a file the patch creates.
+     * @param fuzz The most lines of context to ignore at each end of a hunk.
+     * @return The content of the patched file.
+     * @throws PatchConflictException If a hunk doesn't apply to the file.
+     */
+    public String apply(CharSequence original, int fuzz) {
+        return new PatchApplier(original, fuzz).apply(this);
+    }
 
     /**
      * Parse a patch, returning the list of hunks.
+     *
+     * <p>The patch is scanned once. The lines of the hunks are recorded as ranges of the given patch,
+     * and {@link Line Lines} are only created when they're asked for.
+     * The header counts may be omitted (meaning 1), and the header may be followed by section text.
+     * A {@code \ No newline at end of file} marker applies to the line before it.
+     * {@code \n} and {@code \r\n} line endings are both understood.</p>
+     *
+     * @param patch The patch, in the format of the GitHub pull request files API. May be null, for a file
+     * with no textual changes.
+     * @throws MalformedPatchException If the patch can't be parsed.
      */
-    public static FilePatch parsePatch(String patch) {
-        Pattern headerPattern = Pattern.compile("^@@ -([0-9]+),([0-9]+) \\+([0-9]+),([0-9]+) @@$");
-        Pattern linePattern = Pattern.compile("^([ +-])(.*)$");
+    public static FilePatch parsePatch(CharSequence patch) {
         var hunks = new ArrayList<Hunk>();
-        // TODO care over handling of new lines
-        try {
-            try (var it = new LineNumberReader(new StringReader(patch))) {
-                String line = it.readLine();
-                while (line != null) {
-                    Matcher headerMatcher = headerPattern.matcher(line);
-                    if (!headerMatcher.matches()) {
-                        throw new IllegalStateException();
-                    }
-                    // See https://docs.github.com/en/rest/reference/pulls#create-a-review-comment-for-a-pull-request
-                    int hunkStartLine = it.getLineNumber();
-                    var lines = new ArrayList<Line>();
-                    line = it.readLine();
-                    while (line != null) {
-                        Matcher lineMatcher = linePattern.matcher(line);
-                        if (lineMatcher.matches()) {
-                            Line.Type type;
-                            switch (lineMatcher.group(1)) {
-                                case " ":
-                                    type = Line.Type.CONTEXT;
-                                    break;
-                                case "+":
-                                    type = Line.Type.ADD;
-                                    break;
-                                case "-":
-                                    type = Line.Type.REMOVE;
-                                    break;
-                                default:
-                                    throw new IllegalStateException();
+        if (patch == null) {
+            return new FilePatch(hunks);
+        }
+        return new Parser(patch).parse();
+    }
+
+    private static final class Parser {
+        private final CharSequence patch;
+        private final int length;
+        // The bounds of the current line, excluding its terminator
+        private int lineStart;
+        private int lineEnd;
+        private int next;
+        private int lineNumber;
+
+        // The lines of the current hunk
+        private Line.Type[] types = new Line.Type[16];
+        private int[] positions = new int[16];
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private boolean[] noNewline = new boolean[16];
+        private int size;
+
+        Parser(CharSequence patch) {
+            this.patch = patch;
+            this.length = patch.length();
+        }
+
+        /** Advances to the next line, returning false at the end of the patch. */
+        private boolean nextLine() {
+            if (next >= length) {
+                return false;
+            }
+            lineStart = next;
+            int i = next;
+            while (i < length && patch.charAt(i) != '\n') {
+                i++;
+            }
+            next = i < length ? i + 1 : i;
+            lineEnd = i > lineStart && patch.charAt(i - 1) == '\r' ? i - 1 : i;
+            lineNumber++;
+            return true;
+        }
+
+        FilePatch parse() {
+            var hunks = new ArrayList<Hunk>();
+            boolean haveLine = nextLine();
+            while (haveLine) {
+                if (lineStart == lineEnd) {
+                    // Blank lines between hunks (e.g. a trailing newline) are not significant
+                    haveLine = nextLine();
+                    continue;
+                }
+                int[] header = header();
+                // See https://docs.github.com/en/rest/reference/pulls#create-a-review-comment-for-a-pull-request
+                int hunkStartLine = lineNumber;
+                String section = section(header[4]);
+                int oldRemaining = header[1];
+                int newRemaining = header[3];
+                size = 0;
+                haveLine = nextLine();
+                while (haveLine) {
+                    Line.Type type;
+                    int contentStart = lineStart + 1;
+                    if (lineStart == lineEnd) {
+                        if (oldRemaining <= 0 && newRemaining <= 0) {
+                            break;
+                        }
+                        // A context line whose leading space has been lost
+                        type = Line.Type.CONTEXT;
+                        contentStart = lineStart;
+                    } else {
+                        char prefix = patch.charAt(lineStart);
+                        if (prefix == '\\') {
+                            if (size == 0) {
+                                throw new MalformedPatchException(lineNumber, "'\\' marker without a preceding line");
                             }
-                            Line l = new Line(type, lineMatcher.group(2));
-                            lines.add(l);
-                        } else {
+                            noNewline[size - 1] = true;
+                            haveLine = nextLine();
+                            continue;
+                        } else if (prefix == '@') {
                             break;
                         }
-                        line = it.readLine();
+                        type = Line.Type.of(prefix);
+                        if (type == null) {
+                            throw new MalformedPatchException(lineNumber, "Unexpected line prefix '" + prefix + "'");
+                        }
+                    }
+                    if (type != Line.Type.ADD) {
+                        oldRemaining--;
                     }
-                    var hunk = new Hunk(hunkStartLine,
-                            Integer.parseInt(headerMatcher.group(1)),
-                            Integer.parseInt(headerMatcher.group(2)),
-                            Integer.parseInt(headerMatcher.group(3)),
-                            Integer.parseInt(headerMatcher.group(4)),
-                            lines);
-                    hunks.add(hunk);
+                    if (type != Line.Type.REMOVE) {
+                        newRemaining--;
+                    }
+                    add(type, contentStart);
+                    haveLine = nextLine();
                 }
+                hunks.add(new Hunk(hunkStartLine, header[0], header[1], header[2], header[3], section,
+                        patch,
+                        Arrays.copyOf(types, size),
+                        Arrays.copyOf(positions, size),
+                        Arrays.copyOf(starts, size),
+                        Arrays.copyOf(ends, size),
+                        Arrays.copyOf(noNewline, size)));
             }
             return new FilePatch(hunks);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        }
+
+        private void add(Line.Type type, int contentStart) {
+            if (size == types.length) {
+                int capacity = size * 2;
+                types = Arrays.copyOf(types, capacity);
+                positions = Arrays.copyOf(positions, capacity);
+                starts = Arrays.copyOf(starts, capacity);
+                ends = Arrays.copyOf(ends, capacity);
+                noNewline = Arrays.copyOf(noNewline, capacity);
+            }
+            types[size] = type;
+            // The position is the number of lines below the first hunk header
+            positions[size] = lineNumber - 1;
+            starts[size] = contentStart;
+            ends[size] = lineEnd;
+            noNewline[size] = false;
+            size++;
+        }
+
+        /**
+         * Parses a {@code @@ -a[,b] +c[,d] @@} header.
+         * @return {a, b, c, d, offset after the closing @@}
+         */
+        private int[] header() {
+            int[] result = new int[5];
+            int i = expect(lineStart, "@@ -");
+            i = number(i, result, 0);
+            if (i < lineEnd && patch.charAt(i) == ',') {
+                i = number(i + 1, result, 1);
+            } else {
+                result[1] = 1;
+            }
+            i = expect(i, " +");
+            i = number(i, result, 2);
+            if (i < lineEnd && patch.charAt(i) == ',') {
+                i = number(i + 1, result, 3);
+            } else {
+                result[3] = 1;
+            }
+            result[4] = expect(i, " @@");
+            return result;
+        }
+
+        private int expect(int i, String expected) {
+            if (lineEnd - i < expected.length()) {
+                throw malformedHeader();
+            }
+            for (int j = 0; j < expected.length(); j++) {
+                if (patch.charAt(i + j) != expected.charAt(j)) {
+                    throw malformedHeader();
+                }
+            }
+            return i + expected.length();
+        }
+
+        private int number(int i, int[] result, int index) {
+            int start = i;
+            int value = 0;
+            while (i < lineEnd) {
+                char ch = patch.charAt(i);
+                if (ch < '0' || ch > '9') {
+                    break;
+                }
+                int digit = ch - '0';
+                if (value > (Integer.MAX_VALUE - digit) / 10) {
+                    throw malformedHeader();
+                }
+                value = value * 10 + digit;
+                i++;
+            }
+            if (i == start) {
+                throw malformedHeader();
+            }
+            result[index] = value;
+            return i;
+        }
+
+        private String section(int i) {
+            if (i == lineEnd) {
+                return "";
+            }
+            if (patch.charAt(i) != ' ') {
+                throw malformedHeader();
+            }
+            return patch.subSequence(i + 1, lineEnd).toString();
+        }
+
+        private MalformedPatchException malformedHeader() {
+            return new MalformedPatchException(lineNumber,
+                    "Expected a hunk header but found '" + patch.subSequence(lineStart, lineEnd) + "'");
         }
     }
 }
@@ -16,10 +16,14 @@
  */
 package org.bf2.arch.bot.model.patch;
 
+import java.util.AbstractList;
 import java.util.List;
 
 /**
- * A hunk of a patch
+ * A hunk of a patch.
+ *
+ * <p>A hunk parsed by {@link FilePatch#parsePatch(CharSequence)} records where its lines are in the patch,
+ * and only creates {@link Line} objects as they're requested.</p>
  */
 public class Hunk {
 
@@ -28,8 +32,17 @@ public class Hunk {
     private final int oldLength;
     private final int newStartLine;
     private final int newLength;
+    private final String section;
     private final List<Line> lines;
 
+    // For a parsed hunk: the patch, and for each line its type, position and the bounds of its content
+    private final CharSequence source;
+    private final Line.Type[] types;
+    private final int[] positions;
+    private final int[] starts;
+    private final int[] ends;
+    private final boolean[] noNewline;
+
     public Hunk(int hunkStartLine,
                 int oldStartLine,
                 int oldLength,
@@ -41,13 +54,60 @@ public class Hunk {
         this.oldLength = oldLength;
         this.newStartLine = newStartLine;
         this.newLength = newLength;
+        this.section = "";
         this.lines = lines;
+        this.source = null;
+        this.types = null;
+        this.positions = null;
+        this.starts = null;
+        this.ends = null;
+        this.noNewline = null;
+    }
+
+    Hunk(int hunkStartLine,
+         int oldStartLine,
+         int oldLength,
+         int newStartLine,
+         int newLength,
+         String section,
+         CharSequence source,
+         Line.Type[] types,
+         int[] positions,
+         int[] starts,
+         int[] ends,
+         boolean[] noNewline) {
+        this.hunkStartLine = hunkStartLine;
+        this.oldStartLine = oldStartLine;
+        this.oldLength = oldLength;
+        this.newStartLine = newStartLine;
+        this.newLength = newLength;
+        this.section = section;
+        this.source = source;
+        this.types = types;
+        this.positions = positions;
+        this.starts = starts;
+        this.ends = ends;
+        this.noNewline = noNewline;
+        this.lines = new AbstractList<>() {
+            @Override
+            public Line get(int index) {
+                if (index < 0 || index >= types.length) {
+                    throw new IndexOutOfBoundsException(index);
+                }
+                return new Line(types[index], source, starts[index], ends[index], noNewline[index]);
+            }
+
+            @Override
+            public int size() {
+                return types.length;
+            }
+        };
     }
 
     @Override
     public String toString() {
         return String.format("@@ -%d,%d +%d,%d @@",
-                oldLength(),
+                oldStartLine(),
                 oldLength(),
                 newStartLine(),
                 newLength());
@@ -76,8 +136,48 @@ public class Hunk {
         return newLength;
     }
 
+    /**
+     * @return The section text following the header's closing {@code @@} (often the enclosing function), or "".
+     */
+    public String section() {
+        return section;
+    }
+
     /** The lines in the patch */
     public List<Line> lines() {
         return lines;
     }
+
+    int size() {
+        return types != null ? types.length : lines.size();
+    }
+
+    Line.Type type(int index) {
+        return types != null ? types[index] : lines.get(index).type();
+    }
+
+    /**
+     * @return The position of the given line, in the sense of the GitHub review comments API:
+     * the number of lines it is below the patch's first hunk header.
+     */
+    int position(int index) {
+        return positions != null ? positions[index] : hunkStartLine + index;
+    }
+
+    /**
+     * @return Whether the given line is followed by a {@code \ No newline at end of file} marker.
+     */
+    boolean noNewline(int index) {
+        return noNewline != null ? noNewline[index] : lines.get(index).noNewline();
+    }
+
+    /**
+     * @return The content of the given line, as a view on the patch when possible.
+     */
+    CharSequence content(int index, Slice slice) {
+        if (source != null) {
+            return slice.of(source, starts[index], ends[index]);
+        }
+        return lines.get(index).line();
+    }
 }
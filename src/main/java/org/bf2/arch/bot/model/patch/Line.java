@@ -30,26 +30,67 @@ public class Line {
         private Type(char prefix) {
             this.prefix = prefix;
         }
+
+        static Type of(char prefix) {
+            switch (prefix) {
+                case ' ':
+                    return CONTEXT;
+                case '+':
+                    return ADD;
+                case '-':
+                    return REMOVE;
+                default:
+                    return null;
+            }
+        }
     }
 
     private final Type type;
-    private final String line;
+    private final CharSequence source;
+    private final int start;
+    private final int end;
+    private final boolean noNewline;
+    private String line;
 
     public Line(Type type, String line) {
+        this(type, line, 0, line.length(), false);
+    }
+
+    /**
+     * A line whose content is the given range of the source, which is only copied if {@link #line()} is called.
+     */
+    Line(Type type, CharSequence source, int start, int end, boolean noNewline) {
         this.type = type;
-        this.line = line;
+        this.source = source;
+        this.start = start;
+        this.end = end;
+        this.noNewline = noNewline;
     }
 
     public Type type() {
         return type;
     }
 
+    /**
+     * @return The content of the line, without the prefix and line terminator.
+     */
     public String line() {
+        if (line == null) {
+            line = source.subSequence(start, end).toString();
+        }
         return line;
     }
 
+    /**
+     * @return Whether the patch says this line is the last in the file and has no newline at the end
+     * (via a {@code \ No newline at end of file} marker).
+     */
+    public boolean noNewline() {
+        return noNewline;
+    }
+
     @Override
     public String toString() {
-        return type.prefix + line;
+        return type.prefix + line();
     }
 }
@@ -0,0 +1,37 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot.model.patch;
+
+/**
+ * Thrown when a patch can't be parsed.
+ */
+public class MalformedPatchException extends IllegalArgumentException {
+
+    private final int lineNumber;
+
+    public MalformedPatchException(int lineNumber, String message) {
+        super("Line " + lineNumber + " of patch: " + message);
+        this.lineNumber = lineNumber;
+    }
+
+    /**
+     * @return The (1-based) number of the line of the patch which couldn't be parsed.
+     */
+    public int lineNumber() {
+        return lineNumber;
+    }
+}
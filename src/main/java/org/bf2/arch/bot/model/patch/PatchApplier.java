@@ -0,0 +1,248 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot.model.patch;
+
+import java.util.Arrays;
+
+/**
+ * Applies a {@link FilePatch} to the file it was made from, in the manner of {@code patch(1)}.
+ *
+ * <p>Each hunk is looked for where its header says it is, adjusted by how far the previous hunk was from
+ * where its header said, and then at increasing distances either side of there.
+ * If the hunk isn't found, it's looked for again ignoring a line of the context at each end,
+ * and so on up to the fuzz factor.
+ * The context and removed lines of a hunk must match the file exactly where it's found,
+ * and hunks mayn't overlap.</p>
+ *
+ * <p>The file is indexed by line once, and its lines are compared and copied in place,
+ * so applying a patch allocates little more than the result.
+ * The file's line separator ({@code \n} or {@code \r\n}) is used for the added lines.</p>
+ */
+final class PatchApplier {
+
+    private final CharSequence input;
+    private final int fuzz;
+    // The bounds of each line of the input, excluding its terminator
+    private int[] starts = new int[64];
+    private int[] ends = new int[64];
+    private int lineCount;
+    /** Whether the input's last line has a terminator. */
+    private boolean finalNewline;
+    private String separator = "\n";
+    private final Slice slice = new Slice();
+
+    private StringBuilder out;
+    /** Whether the last line appended to {@link #out} lacks a terminator. */
+    private boolean unterminated;
+
+    PatchApplier(CharSequence input, int fuzz) {
+        if (fuzz < 0) {
+            throw new IllegalArgumentException("Negative fuzz: " + fuzz);
+        }
+        this.input = input;
+        this.fuzz = fuzz;
+        index();
+    }
+
+    private void index() {
+        int length = input.length();
+        int lineStart = 0;
+        for (int i = 0; i < length; i++) {
+            if (input.charAt(i) == '\n') {
+                boolean crlf = i > lineStart && input.charAt(i - 1) == '\r';
+                if (lineCount == 0 && crlf) {
+                    separator = "\r\n";
+                }
+                addLine(lineStart, crlf ? i - 1 : i);
+                lineStart = i + 1;
+            }
+        }
+        finalNewline = lineStart == length;
+        if (!finalNewline) {
+            addLine(lineStart, length);
+        }
+    }
+
+    private void addLine(int start, int end) {
+        if (lineCount == starts.length) {
+            starts = Arrays.copyOf(starts, lineCount * 2);
+            ends = Arrays.copyOf(ends, lineCount * 2);
+        }
+        starts[lineCount] = start;
+        ends[lineCount] = end;
+        lineCount++;
+    }
+
+    /**
+     * @return The patched file.
+     * @throws PatchConflictException If a hunk can't be found in the file.
+     */
+    String apply(FilePatch patch) {
+        out = new StringBuilder(input.length() + input.length() / 8 + 16);
+        unterminated = false;
+        // The next line of the input to copy
+        int cursor = 0;
+        // How far the last hunk was from where its header said
+        int offset = 0;
+        for (Hunk hunk : patch.hunks()) {
+            int leading = leadingContext(hunk);
+            int trailing = trailingContext(hunk);
+            int found = -1;
+            int skipLeading = 0;
+            int skipTrailing = 0;
+            for (int f = 0; f <= fuzz && found < 0; f++) {
+                int l = Math.min(f, leading);
+                int t = Math.min(f, trailing);
+                if (f > 0 && l == skipLeading && t == skipTrailing) {
+                    // No more context to ignore
+                    break;
+                }
+                skipLeading = l;
+                skipTrailing = t;
+                found = find(hunk, skipLeading, skipTrailing, oldStart(hunk) + offset + skipLeading, cursor);
+            }
+            if (found < 0) {
+                throw new PatchConflictException(hunk, "the lines it changes aren't in the file"
+                        + (fuzz > 0 ? ", even ignoring " + fuzz + " lines of context" : ""));
+            }
+            copyInput(cursor, found);
+            int line = found;
+            for (int i = skipLeading; i < hunk.size() - skipTrailing; i++) {
+                switch (hunk.type(i)) {
+                    case CONTEXT:
+                        // The file's own line, which is the same
+                        copyInput(line, line + 1);
+                        line++;
+                        break;
+                    case REMOVE:
+                        line++;
+                        break;
+                    default:
+                        CharSequence added = hunk.content(i, slice);
+                        append(added, 0, added.length(), !hunk.noNewline(i));
+                }
+            }
+            cursor = line;
+            offset = found - skipLeading - oldStart(hunk);
+        }
+        copyInput(cursor, lineCount);
+        return out.toString();
+    }
+
+    /**
+     * @return The index of the first of the hunk's lines in the old file, according to its header.
+     */
+    private static int oldStart(Hunk hunk) {
+        // A hunk without old lines inserts after the line its header gives
+        return hunk.oldLength() == 0 ? hunk.oldStartLine() : hunk.oldStartLine() - 1;
+    }
+
+    private static int leadingContext(Hunk hunk) {
+        int i = 0;
+        while (i < hunk.size() && hunk.type(i) == Line.Type.CONTEXT) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int trailingContext(Hunk hunk) {
+        int i = hunk.size();
+        while (i > 0 && hunk.type(i - 1) == Line.Type.CONTEXT) {
+            i--;
+        }
+        return hunk.size() - i;
+    }
+
+    /**
+     * Looks for the old lines of the hunk, ignoring the given numbers of lines at each end,
+     * at or after line {@code min} and as close as possible to line {@code expected}.
+     * @return The index of the input line where the first of them is, or -1 if they're not in the input.
+     */
+    private int find(Hunk hunk, int skipLeading, int skipTrailing, int expected, int min) {
+        int oldLines = 0;
+        for (int i = skipLeading; i < hunk.size() - skipTrailing; i++) {
+            if (hunk.type(i) != Line.Type.ADD) {
+                oldLines++;
+            }
+        }
+        int max = lineCount - oldLines;
+        if (max < min) {
+            return -1;
+        }
+        if (oldLines == 0) {
+            // Nothing to match, so trust the header as far as possible
+            return Math.max(min, Math.min(expected, max));
+        }
+        for (int distance = 0; expected - distance >= min || expected + distance <= max; distance++) {
+            int after = expected + distance;
+            if (after >= min && after <= max && matches(hunk, skipLeading, skipTrailing, after)) {
+                return after;
+            }
+            int before = expected - distance;
+            if (distance > 0 && before >= min && before <= max && matches(hunk, skipLeading, skipTrailing, before)) {
+                return before;
+            }
+        }
+        return -1;
+    }
+
+    private boolean matches(Hunk hunk, int skipLeading, int skipTrailing, int at) {
+        int line = at;
+        for (int i = skipLeading; i < hunk.size() - skipTrailing; i++) {
+            if (hunk.type(i) == Line.Type.ADD) {
+                continue;
+            }
+            CharSequence expected = hunk.content(i, slice);
+            int start = starts[line];
+            int length = ends[line] - start;
+            if (expected.length() != length) {
+                return false;
+            }
+            for (int j = 0; j < length; j++) {
+                if (expected.charAt(j) != input.charAt(start + j)) {
+                    return false;
+                }
+            }
+            line++;
+        }
+        return true;
+    }
+
+    /** Copies the input lines {@code [from, to)} to the output. */
+    private void copyInput(int from, int to) {
+        if (from < to) {
+            // In one go, with the terminators between the lines as they are
+            append(input, starts[from], ends[to - 1], to < lineCount || finalNewline);
+        }
+    }
+
+    private void append(CharSequence s, int start, int end, boolean terminated) {
+        if (unterminated) {
+            // A line which was the last of the old file isn't the last of the new one
+            out.append(separator);
+        }
+        if (s instanceof Slice) {
+            ((Slice) s).appendTo(out, start, end);
+        } else {
+            out.append(s, start, end);
+        }
+        if (terminated) {
+            out.append(separator);
+        }
+        unterminated = !terminated;
+    }
+}
@@ -16,6 +16,8 @@
  */
 package org.bf2.arch.bot.model.record;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -57,4 +59,19 @@ public class RecordFrontMatter {
     @JsonAnySetter
     @JsonAnyGetter
     public Map<String, Object> any;
+
+    /**
+     * @return A copy of this front matter, which can be changed without affecting this one.
+     */
+    public RecordFrontMatter copy() {
+        var copy = new RecordFrontMatter();
+        copy.num = num;
+        copy.title = title;
+        copy.status = status;
+        copy.authors = authors != null ? new ArrayList<>(authors) : null;
+        copy.tags = tags != null ? new ArrayList<>(tags) : null;
+        copy.supersededBy = supersededBy;
+        copy.any = any != null ? new LinkedHashMap<>(any) : null;
+        return copy;
+    }
 }
@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot.model.record;
+
+import java.util.Arrays;
+
+/**
+ * A sorted set of record numbers, held in an {@code int[]}.
+ * Instances are immutable: {@link #with(int)} and {@link #without(int)} return a new set.
+ */
+public final class RecordNumbers {
+
+    public static final RecordNumbers EMPTY = new RecordNumbers(new int[0]);
+
+    private final int[] numbers;
+
+    private RecordNumbers(int[] sortedDistinct) {
+        this.numbers = sortedDistinct;
+    }
+
+    /**
+     * @return The set of the given numbers, in any order and possibly with duplicates.
+     */
+    public static RecordNumbers of(int... numbers) {
+        int[] sorted = numbers.clone();
+        Arrays.sort(sorted);
+        int size = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (size == 0 || sorted[size - 1] != sorted[i]) {
+                sorted[size++] = sorted[i];
+            }
+        }
+        return new RecordNumbers(size == sorted.length ? sorted : Arrays.copyOf(sorted, size));
+    }
+
+    public int size() {
+        return numbers.length;
+    }
+
+    public boolean contains(int number) {
+        return Arrays.binarySearch(numbers, number) >= 0;
+    }
+
+    /**
+     * @return The largest number in the set, or {@code orElse} if the set is empty.
+     */
+    public int max(int orElse) {
+        return numbers.length == 0 ? orElse : numbers[numbers.length - 1];
+    }
+
+    public RecordNumbers with(int number) {
+        int index = Arrays.binarySearch(numbers, number);
+        if (index >= 0) {
+            return this;
+        }
+        int insertAt = -index - 1;
+        int[] result = new int[numbers.length + 1];
+        System.arraycopy(numbers, 0, result, 0, insertAt);
+        result[insertAt] = number;
+        System.arraycopy(numbers, insertAt, result, insertAt + 1, numbers.length - insertAt);
+        return new RecordNumbers(result);
+    }
+
+    public RecordNumbers without(int number) {
+        int index = Arrays.binarySearch(numbers, number);
+        if (index < 0) {
+            return this;
+        }
+        int[] result = new int[numbers.length - 1];
+        System.arraycopy(numbers, 0, result, 0, index);
+        System.arraycopy(numbers, index + 1, result, index, numbers.length - index - 1);
+        return new RecordNumbers(result);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return Arrays.equals(numbers, ((RecordNumbers) o).numbers);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(numbers);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(numbers);
+    }
+}
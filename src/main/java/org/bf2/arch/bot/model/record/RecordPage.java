@@ -22,27 +22,141 @@ import com.fasterxml.jackson.dataformat.yaml.YAMLMapper;
 
 /**
  * Represents a record, consisting of some {@linkplain RecordFrontMatter front matter} and some (asciidoc) content.
+ *
+ * <p>A page read by {@link #fromContent(String)} keeps the content it was read from, and only copies the body out
+ * of it if {@link #bodyContent()} is called.</p>
  */
 public class RecordPage {
     private static final YAMLMapper YAML_MAPPER = new YAMLMapper();
 
+    /** How far into the content the closing delimiter of the front matter is looked for. */
+    static final int MAX_FRONT_MATTER_LENGTH = 64 * 1024;
+
     public final RecordFrontMatter frontMatter;
-    public final String bodyContent;
+    // The body is content[bodyStart:]
+    private final String content;
+    private final int bodyStart;
+    private String bodyContent;
 
     public RecordPage(RecordFrontMatter recordFrontMatter, String bodyContent) {
+        this(recordFrontMatter, bodyContent, 0);
+    }
+
+    private RecordPage(RecordFrontMatter recordFrontMatter, String content, int bodyStart) {
         this.frontMatter = recordFrontMatter;
-        this.bodyContent = bodyContent;
+        this.content = content;
+        this.bodyStart = bodyStart;
     }
 
+    /**
+     * Parses a page, which must begin with front matter delimited by lines of three or more dashes.
+     * The body is everything after the closing dashes, and can itself contain lines of dashes.
+     * @throws IOException If the page has no front matter, or it can't be parsed.
+     */
     public static RecordPage fromContent(String content) throws IOException {
-        String[] parts = content.split("---+", 3);
-        String frontmatter = parts[1];
-        String bodyContent = parts[2];
-        var fm = YAML_MAPPER.readValue(frontmatter, RecordFrontMatter.class);
-        return new RecordPage(fm, bodyContent);
+        int openingEnd = delimiterEnd(content, 0);
+        if (openingEnd < 0) {
+            throw new IOException("Record page does not start with front matter");
+        }
+        int limit = Math.min(content.length(), MAX_FRONT_MATTER_LENGTH);
+        int lineStart = nextLine(content, openingEnd);
+        while (lineStart < limit) {
+            int closingEnd = delimiterEnd(content, lineStart);
+            if (closingEnd >= 0) {
+                var fm = YAML_MAPPER.readValue(content.substring(openingEnd, lineStart), RecordFrontMatter.class);
+                return new RecordPage(fm, content, closingEnd);
+            }
+            lineStart = nextLine(content, lineStart);
+        }
+        throw new IOException("Record page front matter is not terminated within "
+                + MAX_FRONT_MATTER_LENGTH + " characters");
+    }
+
+    /**
+     * @return The offset just after the dashes, if the line starting at the given offset consists of three or
+     * more dashes (and optionally trailing whitespace), otherwise -1.
+     */
+    private static int delimiterEnd(String content, int lineStart) {
+        int i = lineStart;
+        int length = content.length();
+        while (i < length && content.charAt(i) == '-') {
+            i++;
+        }
+        if (i - lineStart < 3) {
+            return -1;
+        }
+        int dashesEnd = i;
+        while (i < length && content.charAt(i) != '\n') {
+            char ch = content.charAt(i);
+            if (ch != ' ' && ch != '\t' && ch != '\r') {
+                return -1;
+            }
+            i++;
+        }
+        return dashesEnd;
+    }
+
+    private static int nextLine(String content, int from) {
+        int newline = content.indexOf('\n', from);
+        return newline < 0 ? content.length() : newline + 1;
+    }
+
+    /**
+     * @return The content the page was read from by {@link #fromContent(String)}, or null if it wasn't read.
+     */
+    public String content() {
+        return bodyStart > 0 ? content : null;
+    }
+
+    /**
+     * @return The (asciidoc) body of the page, starting with the line break after the front matter.
+     */
+    public String bodyContent() {
+        if (bodyContent == null) {
+            bodyContent = content.substring(bodyStart);
+        }
+        return bodyContent;
+    }
+
+    /**
+     * @return The number of lines of the page before the body, i.e. up to and including the front matter's
+     * closing delimiter.
+     */
+    public int frontMatterLines() {
+        if (bodyStart == 0) {
+            return 0;
+        }
+        int lines = 1;
+        for (int i = 0; i < bodyStart; i++) {
+            if (content.charAt(i) == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * @return A copy of this page, whose front matter can be changed without affecting this one.
+     */
+    public RecordPage copy() {
+        var copy = new RecordPage(frontMatter.copy(), content, bodyStart);
+        copy.bodyContent = bodyContent;
+        return copy;
+    }
+
+    /**
+     * @return The approximate number of bytes of memory used by this page.
+     */
+    public int weight() {
+        return 2 * content.length() + 512;
     }
 
     public String toContentString() throws IOException {
-        return YAML_MAPPER.writeValueAsString(frontMatter) + "---" + bodyContent;
+        String yaml = YAML_MAPPER.writeValueAsString(frontMatter);
+        return new StringBuilder(yaml.length() + 3 + content.length() - bodyStart)
+                .append(yaml)
+                .append("---")
+                .append(content, bodyStart, content.length())
+                .toString();
     }
 }
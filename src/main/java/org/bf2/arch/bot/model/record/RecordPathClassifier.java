@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot.model.record;
+
+import java.util.Collection;
+import java.util.EnumSet;
+
+/**
+ * Maps repo paths of the form {@code <repoDir>/<num>/index.adoc} to the {@link RecordId} they're the page of.
+ *
+ * <p>The path is examined in a single pass, without regular expressions,
+ * and the {@link RecordId} instances for commonly used numbers are shared,
+ * so classifying a path normally allocates nothing.</p>
+ *
+ * <p>Record types are recognised by their {@link RecordType#repoDir}, so a new record type only needs a new
+ * {@link RecordType} constant to be recognised by {@link #DEFAULT}.</p>
+ */
+public final class RecordPathClassifier {
+
+    static final String PAGE_NAME = "index.adoc";
+
+    /** {@link RecordId} instances for numbers below this are shared. */
+    static final int SHARED_IDS = 256;
+
+    /** Classifies paths for all the record types. */
+    public static final RecordPathClassifier DEFAULT = new RecordPathClassifier(EnumSet.allOf(RecordType.class));
+
+    private final RecordType[] recordTypes;
+    private final RecordId[][] sharedIds;
+
+    public RecordPathClassifier(Collection<RecordType> recordTypes) {
+        this.recordTypes = recordTypes.toArray(new RecordType[0]);
+        this.sharedIds = new RecordId[RecordType.values().length][];
+        for (RecordType recordType : this.recordTypes) {
+            RecordId[] ids = new RecordId[SHARED_IDS];
+            for (int num = 0; num < SHARED_IDS; num++) {
+                ids[num] = new RecordId(recordType, num);
+            }
+            sharedIds[recordType.ordinal()] = ids;
+        }
+    }
+
+    /**
+     * @param repoPath A path within a repo.
+     * @return The record whose page is at the given path, or null if the path isn't a record page.
+     */
+    public RecordId classify(CharSequence repoPath) {
+        int length = repoPath.length();
+        RecordType recordType = null;
+        int dirEnd = -1;
+        for (RecordType candidate : recordTypes) {
+            String dir = candidate.repoDir;
+            int dirLength = dir.length();
+            if (length > dirLength
+                    && repoPath.charAt(dirLength) == '/'
+                    && regionEquals(repoPath, 0, dir)) {
+                recordType = candidate;
+                dirEnd = dirLength;
+                break;
+            }
+        }
+        if (recordType == null) {
+            return null;
+        }
+        // The number: one or more digits
+        int i = dirEnd + 1;
+        int num = 0;
+        int numStart = i;
+        while (i < length) {
+            char ch = repoPath.charAt(i);
+            if (ch < '0' || ch > '9') {
+                break;
+            }
+            int digit = ch - '0';
+            if (num > (Integer.MAX_VALUE - digit) / 10) {
+                // Too big to be a record number
+                return null;
+            }
+            num = num * 10 + digit;
+            i++;
+        }
+        if (i == numStart
+                || i + 1 + PAGE_NAME.length() != length
+                || repoPath.charAt(i) != '/'
+                || !regionEquals(repoPath, i + 1, PAGE_NAME)) {
+            return null;
+        }
+        if (num < SHARED_IDS) {
+            return sharedIds[recordType.ordinal()][num];
+        }
+        return new RecordId(recordType, num);
+    }
+
+    private static boolean regionEquals(CharSequence s, int offset, String expected) {
+        for (int j = 0; j < expected.length(); j++) {
+            if (s.charAt(offset + j) != expected.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,17 +1,29 @@
 package org.bf2.arch.bot;
 
+import java.time.Duration;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.bf2.arch.bot.model.record.RecordType;
 import org.junit.jupiter.api.Test;
+import org.kohsuke.github.GHIssueComment;
 import org.kohsuke.github.GHPullRequest;
 import org.kohsuke.github.GHPullRequestFileDetail;
+import org.kohsuke.github.GHRepository;
+import org.kohsuke.github.GHUser;
 import org.kohsuke.github.PagedIterable;
 import org.kohsuke.github.PagedIterator;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /*
@@ -54,8 +66,68 @@ class ArchReviewStateMachineFlowTest {
         });
         when(pullRequest.listFiles()).thenReturn(pagedIterable);
 
-        EnumSet<RecordType> recordTypes = new ArchReviewStateMachineFlow().touchesRecord(pullRequest);
+        var snapshot = new PullRequestSnapshot(pullRequest);
+        EnumSet<RecordType> recordTypes = new ArchReviewStateMachineFlow().touchesRecord(snapshot);
 
         assertEquals(EnumSet.of(RecordType.ADR), recordTypes);
+
+        // The files are listed only once, however many times the snapshot is used
+        assertEquals(recordTypes, new ArchReviewStateMachineFlow().touchesRecord(snapshot));
+        verify(pullRequest, times(1)).listFiles();
+    }
+
+    @Test
+    public void testQueuedFlowsSeeEachOthersLabels() throws Exception {
+        var repo = mock(GHRepository.class);
+        when(repo.getFullName()).thenReturn("org/repo");
+        GHPullRequest pullRequest = mock(GHPullRequest.class);
+        when(pullRequest.getNumber()).thenReturn(42);
+        when(pullRequest.getRepository()).thenReturn(repo);
+        when(repo.getPullRequest(42)).thenReturn(pullRequest);
+
+        var file = mock(GHPullRequestFileDetail.class);
+        when(file.getFilename()).thenReturn("_adr/12/index.adoc");
+        PagedIterable<GHPullRequestFileDetail> pagedIterable = mock(PagedIterable.class);
+        when(pagedIterable.iterator()).thenAnswer(invocation -> {
+            PagedIterator<GHPullRequestFileDetail> iterator = mock(PagedIterator.class);
+            var it = List.of(file).iterator();
+            when(iterator.hasNext()).thenAnswer(i -> it.hasNext());
+            when(iterator.next()).thenAnswer(i -> it.next());
+            return iterator;
+        });
+        when(pullRequest.listFiles()).thenReturn(pagedIterable);
+        when(pullRequest.getLabels()).thenReturn(List.of());
+
+        var reviewer = mock(GHUser.class);
+        when(reviewer.getLogin()).thenReturn("alice");
+        when(pullRequest.getRequestedReviewers()).thenReturn(List.of(reviewer));
+        var comment = mock(GHIssueComment.class);
+        when(comment.getUser()).thenReturn(reviewer);
+        when(comment.getBody()).thenReturn("/accept");
+        when(pullRequest.getComments()).thenReturn(List.of(comment));
+
+        List<Set<Object>> labelUpdates = new CopyOnWriteArrayList<>();
+        var updated = new CountDownLatch(2);
+        doAnswer(invocation -> {
+            labelUpdates.add(Set.of(invocation.getArguments()));
+            updated.countDown();
+            return null;
+        }).when(pullRequest).setLabels(any());
+
+        var flow = new ArchReviewStateMachineFlow();
+        flow.queue = new PullRequestEventQueue(Duration.ofMillis(50), 1);
+        try {
+            // Both flows run against the same snapshot
+            flow.queue.submit("classify", pullRequest, flow::classify);
+            flow.queue.submit("ready-for-merge", pullRequest, flow::readyForMerge);
+            assertTrue(updated.await(5, TimeUnit.SECONDS));
+        } finally {
+            flow.queue.shutdown();
+        }
+
+        assertEquals(List.of(
+                Set.of(Labels.TYPE_ADR, Labels.STATE_BEING_REVIEWED),
+                // The type label set by classify survives
+                Set.of(Labels.TYPE_ADR, Labels.STATE_READY_FOR_MERGE)), labelUpdates);
     }
-}
\ No newline at end of file
+}
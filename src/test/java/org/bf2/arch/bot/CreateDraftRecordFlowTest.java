@@ -17,6 +17,8 @@ import org.kohsuke.github.GHTree;
 import org.kohsuke.github.GHTreeEntry;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -108,6 +110,7 @@ class CreateDraftRecordFlowTest {
         var adr3 = mock(GHTreeEntry.class);
         var adr12 = mock(GHTreeEntry.class);
 
+        when(repo.getFullName()).thenReturn("org/repo");
         when(repo.getCommit(commitSha)).thenReturn(commit);
         when(commit.getTree()).thenReturn(tree);
         when(tree.getEntry(RecordType.ADR.repoDir)).thenReturn(entry);
@@ -116,7 +119,30 @@ class CreateDraftRecordFlowTest {
         when(adr3.getPath()).thenReturn("3");
         when(adr12.getPath()).thenReturn("12");
 
-        assertEquals(13, new CreateDraftRecordFlow().allocateId(repo, commitSha, RecordType.ADR));
+        assertEquals(13, new RecordIdAllocator(new RecordIndex()).nextId(repo, commitSha, RecordType.ADR));
+    }
+
+    @Test
+    public void testDraftRecord() {
+        assertEquals(new RecordId(RecordType.PADR, 7), CreateDraftRecordFlow.draftRecord("create-PADR-7"));
+        assertEquals(new RecordId(RecordType.ADR, 13), CreateDraftRecordFlow.draftRecord("create-ADR-13"));
+        assertNull(CreateDraftRecordFlow.draftRecord("create-ADR-13-fixup"));
+        assertNull(CreateDraftRecordFlow.draftRecord("main"));
+    }
+
+    @Test
+    public void testPhaseTimingsShowOnlyTheLastAttempt() {
+        var timings = new CreateDraftRecordFlow.PhaseTimings();
+        timings.phase("branch");
+        for (int attempt = 0; attempt < 3; attempt++) {
+            timings.attempt();
+            timings.phase("allocate");
+            timings.phase("read");
+        }
+        timings.phase("commit");
+        assertTrue(timings.toString().matches(
+                "branch=\\d+ms, retries=2 in \\d+ms, allocate=\\d+ms, read=\\d+ms, commit=\\d+ms, total=\\d+ms"),
+                timings.toString());
     }
 
     @Test
@@ -132,9 +158,19 @@ class CreateDraftRecordFlowTest {
         var page = CreateDraftRecordFlow.getPage(repo, branch, "_adr/0/index.adoc");
 
         assertEquals(0, page.frontMatter.num);
-        assertTrue(page.bodyContent.contains("Hello, world"));
+        assertTrue(page.bodyContent().contains("Hello, world"));
     }
 
-    // TODO test supersededContent
+    @Test
+    public void testSupersededContent() throws IOException {
+        var superseded = CreateDraftRecordFlow.supersededContent(RecordPage.fromContent(EXAMPLE_TEMPLATE),
+                new RecordId(RecordType.ADR, 3), 13);
+        assertEquals("Superseded", superseded.frontMatter.status);
+        assertEquals(13, superseded.frontMatter.supersededBy);
+
+        var e = assertThrows(BotError.class, () -> CreateDraftRecordFlow.supersededContent(null,
+                new RecordId(RecordType.ADR, 3), 13));
+        assertEquals("There is no ADR with number 3", e.getMessage());
+    }
 
 }
\ No newline at end of file
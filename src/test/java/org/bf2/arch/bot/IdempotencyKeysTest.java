@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bf2.arch.bot.model.record.RecordType;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IdempotencyKeysTest {
+
+    @Test
+    public void testDuplicatesWithinWindowAreDropped() {
+        var now = new AtomicLong(1000);
+        var keys = new IdempotencyKeys(Duration.ofSeconds(10), 100, now::get);
+        assertTrue(keys.add("a"));
+        assertFalse(keys.add("a"));
+        assertTrue(keys.contains("a"));
+        now.addAndGet(9_999);
+        assertFalse(keys.add("a"));
+        now.addAndGet(1);
+        // Forgotten once the window has passed
+        assertFalse(keys.contains("a"));
+        assertTrue(keys.add("a"));
+    }
+
+    @Test
+    public void testBounded() {
+        var keys = new IdempotencyKeys(Duration.ofHours(1), 2, () -> 0);
+        assertTrue(keys.add("a"));
+        assertTrue(keys.add("b"));
+        assertTrue(keys.add("c"));
+        // The oldest was forgotten to make room
+        assertFalse(keys.contains("a"));
+        assertTrue(keys.contains("b"));
+        assertTrue(keys.contains("c"));
+    }
+
+    @Test
+    public void testRemove() {
+        var keys = new IdempotencyKeys(Duration.ofHours(1), 2, () -> 0);
+        assertTrue(keys.add("a"));
+        // The work failed, so it can be done again
+        keys.remove("a");
+        assertFalse(keys.contains("a"));
+        assertTrue(keys.add("a"));
+    }
+
+    @Test
+    public void testDeliveriesAndCommandsAreBoundedSeparately() {
+        var deliveries = new IdempotencyKeys.Deliveries(Duration.ofHours(1), 2);
+        var commands = new IdempotencyKeys.Commands(Duration.ofHours(1), 2);
+        assertTrue(commands.add("create-draft:7:create ADR"));
+        for (int i = 0; i < 10; i++) {
+            deliveries.add("delivery:" + i);
+        }
+        assertTrue(commands.contains("create-draft:7:create ADR"));
+    }
+
+    @Test
+    public void testCommandKey() {
+        assertEquals("create-draft:7:create ADR", CreateDraftRecordFlow.commandKey(7, RecordType.ADR, -1));
+        assertEquals("create-draft:7:supersede AP 3", CreateDraftRecordFlow.commandKey(7, RecordType.AP, 3));
+        // Editing a comment into a different command is a new command
+        assertNotEquals(CreateDraftRecordFlow.commandKey(7, RecordType.ADR, -1),
+                CreateDraftRecordFlow.commandKey(7, RecordType.PADR, -1));
+    }
+}
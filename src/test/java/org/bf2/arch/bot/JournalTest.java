@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import javax.enterprise.event.Event;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import io.quarkiverse.githubapp.GitHubEvent;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class JournalTest {
+
+    @TempDir
+    Path dir;
+
+    private static List<String> bodies(Journal journal) {
+        return journal.entries().stream()
+                .map(entry -> entry.type + ":" + new String(entry.body, StandardCharsets.UTF_8))
+                .collect(Collectors.toList());
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testAppendAndReopen() throws IOException {
+        Path file = dir.resolve("j");
+        var journal = Journal.open(file, 1 << 20);
+        journal.append((byte) 1, utf8("one"));
+        journal.append((byte) 2, utf8("two"));
+        journal.force();
+        assertEquals(List.of("1:one", "2:two"), bodies(Journal.open(file, 1 << 20)));
+    }
+
+    @Test
+    public void testGrowsUpToMax() throws IOException {
+        Path file = dir.resolve("j");
+        var journal = Journal.open(file, 4 * Journal.MIN_CAPACITY);
+        byte[] body = new byte[Journal.MIN_CAPACITY / 2];
+        for (int i = 0; i < 7; i++) {
+            journal.append((byte) 1, body);
+        }
+        assertThrows(IOException.class, () -> journal.append((byte) 1, body));
+        assertEquals(7, Journal.open(file, 4 * Journal.MIN_CAPACITY).entries().size());
+    }
+
+    @Test
+    public void testTornAppendIsDiscarded() throws IOException {
+        Path file = dir.resolve("j");
+        var journal = Journal.open(file, 1 << 20);
+        journal.append((byte) 1, utf8("one"));
+        int torn = journal.size();
+        journal.append((byte) 1, utf8("two"));
+        journal.force();
+        // Corrupt the second entry's body, as if the process died part way through writing it
+        try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(utf8("x")), torn + 9);
+        }
+        var reopened = Journal.open(file, 1 << 20);
+        assertEquals(List.of("1:one"), bodies(reopened));
+        reopened.append((byte) 1, utf8("three"));
+        assertEquals(List.of("1:one", "1:three"), bodies(Journal.open(file, 1 << 20)));
+    }
+
+    @Test
+    public void testRewrite() throws IOException {
+        Path file = dir.resolve("j");
+        var journal = Journal.open(file, 1 << 20);
+        journal.append((byte) 1, utf8("one"));
+        journal.append((byte) 1, utf8("two"));
+        journal.rewrite(List.of(new Journal.Entry((byte) 3, utf8("kept"))));
+        journal.append((byte) 1, utf8("after"));
+        assertEquals(List.of("3:kept", "1:after"), bodies(Journal.open(file, 1 << 20)));
+    }
+
+    private static GitHubEvent event(String deliveryId) {
+        String payload = "{\"action\":\"created\"}";
+        return new GitHubEvent(1L, "bot", deliveryId, "org/repo", "issue_comment", "created",
+                payload, new JsonObject(payload), false);
+    }
+
+    @SuppressWarnings("unchecked")
+    private EventJournal eventJournal(List<String> replayed, long oldestOutstanding) {
+        var journal = new EventJournal();
+        journal.enabled = true;
+        journal.stateDir = dir.toString();
+        journal.settle = Duration.ZERO;
+        journal.maxBytes = 1 << 20;
+        journal.dispatcher = mock(Event.class);
+        doAnswer(invocation -> {
+            GitHubEvent event = invocation.getArgument(0);
+            assertTrue(event.isReplayed());
+            replayed.add(event.getDeliveryId());
+            return null;
+        }).when(journal.dispatcher).fire(any());
+        journal.queue = mock(PullRequestEventQueue.class);
+        when(journal.queue.oldestOutstanding()).thenReturn(oldestOutstanding);
+        return journal;
+    }
+
+    @Test
+    public void testUnfinishedEventsAreReplayed() throws Exception {
+        List<String> replayed = new ArrayList<>();
+        var journal = eventJournal(replayed, 0);
+        journal.onStart(null);
+        journal.onEvent(event("d1"));
+        journal.onEvent(event("d2"));
+        journal.checkpoint("create-draft:1", "record", "ADR:13");
+        // The queue still has work submitted before both were received
+        journal.advance();
+
+        var restarted = eventJournal(replayed, 0);
+        restarted.onStart(null);
+        assertEquals(List.of("d1", "d2"), replayed);
+        assertEquals(Map.of("record", "ADR:13"), restarted.progress("create-draft:1"));
+
+        // Now the work's all finished
+        Thread.sleep(2);
+        when(restarted.queue.oldestOutstanding()).thenReturn(System.currentTimeMillis());
+        restarted.advance();
+        replayed.clear();
+        eventJournal(replayed, 0).onStart(null);
+        assertEquals(List.of(), replayed);
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.smallrye.graphql.client.dynamic.api.DynamicGraphQLClient;
+import io.smallrye.graphql.client.vertx.dynamic.VertxDynamicGraphQLClientBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OpenReviewsQueryTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final String PAGE_1 = "{\"data\":{\"repository\":{" +
+            "\"stalledLabel\":{\"id\":\"LA_stalled\"}," +
+            "\"pullRequests\":{\"pageInfo\":{\"hasNextPage\":true,\"endCursor\":\"c1\"},\"nodes\":[" +
+            "{\"id\":\"PR_1\",\"number\":1,\"createdAt\":\"2022-01-01T00:00:00Z\",\"updatedAt\":\"2022-01-05T00:00:00Z\"," +
+            "\"labels\":{\"nodes\":[{\"name\":\"state: being-reviewed\"}]}," +
+            "\"latestReview\":{\"nodes\":[{\"submittedAt\":\"2022-01-03T00:00:00Z\"}]}," +
+            "\"latestComment\":{\"nodes\":[{\"createdAt\":\"2022-01-02T00:00:00Z\"}]}}" +
+            "]}}}}";
+
+    private static final String PAGE_2 = "{\"data\":{\"repository\":{" +
+            "\"stalledLabel\":{\"id\":\"LA_stalled\"}," +
+            "\"pullRequests\":{\"pageInfo\":{\"hasNextPage\":false,\"endCursor\":\"c2\"},\"nodes\":[" +
+            "{\"id\":\"PR_2\",\"number\":2,\"createdAt\":\"2022-01-01T00:00:00Z\",\"updatedAt\":\"2022-01-06T00:00:00Z\"," +
+            "\"labels\":{\"nodes\":[{\"name\":\"state: needs-reviewers\"}]}," +
+            "\"latestReview\":{\"nodes\":[]}," +
+            "\"latestComment\":{\"nodes\":[]}}" +
+            "]}}}}";
+
+    private static final String SEARCH_PAGE = "{\"data\":{\"repository\":{\"stalledLabel\":null}," +
+            "\"search\":{\"pageInfo\":{\"hasNextPage\":false,\"endCursor\":\"c1\"},\"nodes\":[" +
+            "{\"id\":\"PR_3\",\"number\":3,\"createdAt\":\"2022-01-01T00:00:00Z\",\"updatedAt\":\"2022-01-04T00:00:00Z\"," +
+            "\"labels\":{\"nodes\":[]}," +
+            "\"latestReview\":{\"nodes\":[{\"submittedAt\":null}]}," +
+            "\"latestComment\":{\"nodes\":[{\"createdAt\":\"2022-01-02T00:00:00Z\"}]}}," +
+            // An issue, rather than a PR
+            "{}" +
+            "]}}}";
+
+    private HttpServer server;
+    private DynamicGraphQLClient client;
+    private final List<JsonNode> requests = new CopyOnWriteArrayList<>();
+    private volatile String mutationResponse = "{\"data\":{\"addLabelsToLabelable\":{\"clientMutationId\":null}}}";
+
+    @BeforeEach
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/graphql", this::handle);
+        server.start();
+        client = new VertxDynamicGraphQLClientBuilder()
+                .url("http://localhost:" + server.getAddress().getPort() + "/graphql")
+                .build();
+    }
+
+    @AfterEach
+    public void stop() throws Exception {
+        client.close();
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        JsonNode request = MAPPER.readTree(exchange.getRequestBody());
+        requests.add(request);
+        String query = request.get("query").asText();
+        String response;
+        if (query.startsWith("mutation")) {
+            response = mutationResponse;
+        } else if (query.contains("search(")) {
+            response = SEARCH_PAGE;
+        } else if (request.path("variables").has("after")) {
+            response = PAGE_2;
+        } else {
+            response = PAGE_1;
+        }
+        byte[] body = response.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Test
+    public void testPaginatedQuery() throws IOException {
+        var openReviews = new OpenReviewsQuery(client).openReviews("org", "repo");
+
+        assertEquals(2, requests.size());
+        assertEquals("org", requests.get(0).get("variables").get("owner").asText());
+        assertEquals("c1", requests.get(1).get("variables").get("after").asText());
+
+        assertEquals("LA_stalled", openReviews.stalledLabelId);
+        assertEquals(2, openReviews.pullRequests.size());
+
+        var first = openReviews.pullRequests.get(0);
+        assertEquals(1, first.number);
+        assertEquals("PR_1", first.id);
+        assertEquals(Set.of(Labels.STATE_BEING_REVIEWED), first.labels);
+        // The latest of the review and the comment
+        assertEquals(Instant.parse("2022-01-03T00:00:00Z"), first.lastActivity);
+
+        var second = openReviews.pullRequests.get(1);
+        assertEquals(2, second.number);
+        // No reviews or comments, so the last update
+        assertEquals(Instant.parse("2022-01-06T00:00:00Z"), second.lastActivity);
+    }
+
+    @Test
+    public void testSearch() throws IOException {
+        var openReviews = new OpenReviewsQuery(client).search("org", "repo", "repo:org/repo is:pr");
+
+        assertEquals(1, requests.size());
+        assertEquals("repo:org/repo is:pr", requests.get(0).get("variables").get("query").asText());
+
+        // The repo doesn't have the label yet
+        assertNull(openReviews.stalledLabelId);
+        assertEquals(1, openReviews.pullRequests.size());
+        var pullRequest = openReviews.pullRequests.get(0);
+        assertEquals(3, pullRequest.number);
+        // The pending review is ignored
+        assertEquals(Instant.parse("2022-01-02T00:00:00Z"), pullRequest.lastActivity);
+    }
+
+    @Test
+    public void testAddLabel() throws IOException {
+        new OpenReviewsQuery(client).addLabel("PR_1", "LA_stalled");
+
+        assertEquals(1, requests.size());
+        var variables = requests.get(0).get("variables");
+        assertEquals("PR_1", variables.get("id").asText());
+        assertEquals("LA_stalled", variables.get("labelId").asText());
+    }
+
+    @Test
+    public void testErrorsAreReported() {
+        mutationResponse = "{\"errors\":[{\"message\":\"Could not resolve to a node\"}]}";
+        var e = assertThrows(IOException.class, () -> new OpenReviewsQuery(client).addLabel("PR_X", "LA_stalled"));
+        assertTrue(e.getMessage().contains("Could not resolve to a node"), e.getMessage());
+    }
+}
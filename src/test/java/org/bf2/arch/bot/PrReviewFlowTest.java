@@ -0,0 +1,298 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.bf2.arch.bot.model.patch.FilePatch;
+import org.bf2.arch.bot.model.record.RecordPage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.kohsuke.github.GHBlob;
+import org.kohsuke.github.GHBranch;
+import org.kohsuke.github.GHCommit;
+import org.kohsuke.github.GHCommitPointer;
+import org.kohsuke.github.GHCompare;
+import org.kohsuke.github.GHContent;
+import org.kohsuke.github.GHFileNotFoundException;
+import org.kohsuke.github.GHLabel;
+import org.kohsuke.github.GHPullRequest;
+import org.kohsuke.github.GHPullRequestFileDetail;
+import org.kohsuke.github.GHPullRequestReview;
+import org.kohsuke.github.GHPullRequestReviewBuilder;
+import org.kohsuke.github.GHPullRequestReviewComment;
+import org.kohsuke.github.GHRepository;
+import org.kohsuke.github.GHUser;
+import org.kohsuke.github.PagedIterable;
+import org.kohsuke.github.PagedIterator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PrReviewFlowTest {
+
+    @Test
+    public void testUndefinedAcronyms() {
+        String text = "WOOT. This is some text with a Three Letter Abbreviation (TLA).\n" +
+                "And some more stuff. It's OK to mention TLA again here.\n" +
+                "But later on I might use 3LA (3 letter abbreviation), which is also fine.\n" +
+                "So long as I don't use FLA and not define it. WDYT?";
+        assertEquals(List.of("WOOT", "FLA", "WDYT"), PrReviewFlow.undefinedAcronyms(text, Set.of("OK")));
+        assertEquals(List.of(), PrReviewFlow.undefinedAcronyms("(TLA) Three Letter Abbreviation", Set.of()));
+    }
+
+    private static final String PAGE = "_adr/12/index.adoc";
+    private static final String OTHER_PAGE = "_adr/13/index.adoc";
+
+    /** The PR's patch for {@link #PAGE}: a change near the top, and another further down. */
+    private static final String PATCH = "@@ -1,3 +1,3 @@\n" +
+            " ---\n" +
+            "-num: 1\n" +
+            "+num: 12\n" +
+            " title: \"Example\"\n" +
+            "@@ -20,2 +20,3 @@\n" +
+            " Twenty.\n" +
+            "+Twenty one.\n" +
+            " Twenty two.\n";
+
+    private PrReviewFlow flow;
+    private GHRepository repo;
+    private GHCommitPointer head;
+    private List<List<RecordChange>> reviewed;
+    /** What the engine says about every change. */
+    private List<ReviewComment> comments;
+    /** The reviews already on the PR. */
+    private List<GHPullRequestReview> reviews;
+    private GHPullRequestReviewBuilder reviewBuilder;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setup() throws IOException {
+        repo = mock(GHRepository.class);
+        when(repo.getFullName()).thenReturn("org/repo");
+        when(repo.getDefaultBranch()).thenReturn("main");
+        var branch = mock(GHBranch.class);
+        when(branch.getSHA1()).thenReturn("base");
+        when(repo.getBranch("main")).thenReturn(branch);
+        PagedIterable<GHLabel> labels = mock(PagedIterable.class);
+        when(labels.toList()).thenReturn(List.of());
+        when(repo.listLabels()).thenReturn(labels);
+        head = mock(GHCommitPointer.class);
+
+        var pageCache = mock(RecordPageCache.class);
+        var page = RecordPage.fromContent("---\nnum: 12\ntitle: \"Example\"\nstatus: \"Draft\"\n---\nBody\n");
+        when(pageCache.page(any(GHRepository.class), anyString())).thenReturn(page);
+        when(pageCache.page(any(), anyString(), anyString())).thenReturn(page);
+
+        reviewed = new ArrayList<>();
+        comments = List.of();
+        reviews = List.of();
+        reviewBuilder = mock(GHPullRequestReviewBuilder.class, RETURNS_SELF);
+        var engine = mock(ReviewEngine.class);
+        when(engine.review(any())).thenAnswer(invocation -> {
+            reviewed.add(invocation.getArgument(0));
+            return comments;
+        });
+
+        flow = new PrReviewFlow();
+        flow.pageCache = pageCache;
+        flow.engine = engine;
+        flow.reviewedHeads = new ReviewedHeads(100);
+    }
+
+    private static GHPullRequestFileDetail file(String path, String sha, String patch) {
+        var file = mock(GHPullRequestFileDetail.class);
+        when(file.getFilename()).thenReturn(path);
+        when(file.getSha()).thenReturn(sha);
+        when(file.getPatch()).thenReturn(patch);
+        when(file.getStatus()).thenReturn("modified");
+        return file;
+    }
+
+    /** Reviews the PR at the given head, whose pages are at the given blobs. */
+    private void review(String headSha, String pageBlob, String otherPageBlob) throws IOException {
+        review(headSha, pageBlob, otherPageBlob, null);
+    }
+
+    private void review(String headSha, String pageBlob, String otherPageBlob, ArchBotConfig config)
+            throws IOException {
+        when(head.getSha()).thenReturn(headSha);
+        var pr = mock(GHPullRequest.class);
+        var base = mock(GHCommitPointer.class);
+        when(base.getRepository()).thenReturn(repo);
+        when(pr.getBase()).thenReturn(base);
+        when(pr.getHead()).thenReturn(head);
+        when(pr.createReview()).thenReturn(reviewBuilder);
+        var files = List.of(file(PAGE, pageBlob, PATCH), file(OTHER_PAGE, otherPageBlob, "@@ -1,1 +1,1 @@\n-a\n+b\n"));
+        var snapshot = mock(PullRequestSnapshot.class);
+        when(snapshot.pullRequest()).thenReturn(pr);
+        when(snapshot.number()).thenReturn(7);
+        when(snapshot.files()).thenReturn(files);
+        when(snapshot.reviews()).thenReturn(reviews);
+        when(snapshot.patch(any())).thenAnswer(invocation ->
+                FilePatch.parsePatch(((GHPullRequestFileDetail) invocation.getArgument(0)).getPatch()));
+        flow.files(snapshot, config);
+    }
+
+    private void compare(String from, String to, GHCompare.Status status, String patch) throws IOException {
+        var file = mock(GHCommit.File.class);
+        when(file.getFileName()).thenReturn(PAGE);
+        when(file.getPatch()).thenReturn(patch);
+        var compare = mock(GHCompare.class);
+        when(compare.getStatus()).thenReturn(status);
+        when(compare.getFiles()).thenReturn(new GHCommit.File[] {file});
+        when(repo.getCompare(from, to)).thenReturn(compare);
+    }
+
+    @Test
+    public void testUnchangedHeadIsNotReviewedAgain() throws IOException {
+        review("h1", "b1", "c1");
+        review("h1", "b1", "c1");
+        assertEquals(1, reviewed.size());
+        assertEquals(2, reviewed.get(0).size());
+        verify(repo, never()).getCompare(anyString(), anyString());
+    }
+
+    @Test
+    public void testConfigChangeMeansReviewingInFull() throws IOException {
+        var config = new ArchBotConfig();
+        review("h1", "b1", "c1", config);
+        review("h1", "b1", "c1", config);
+        assertEquals(1, reviewed.size());
+
+        config.suspectTerms.put("actor", "Use persona.");
+        review("h1", "b1", "c1", config);
+        assertEquals(2, reviewed.size());
+        assertEquals(2, reviewed.get(1).size());
+        assertNull(reviewed.get(1).get(0).previous());
+        review("h1", "b1", "c1", config);
+        assertEquals(2, reviewed.size());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testConfigChangeDoesntRepeatComments() throws IOException {
+        var config = new ArchBotConfig();
+        config.botUserLogin = "bot";
+        comments = List.of(new ReviewComment(PAGE, 2, "Acronym TLA isn't defined"));
+        review("h1", "b1", "c1", config);
+        verify(reviewBuilder).comment("Acronym TLA isn't defined", PAGE, 2);
+        verify(reviewBuilder).create();
+
+        // The bot's review of h1, as GitHub now has it
+        var posted = mock(GHPullRequestReviewComment.class);
+        when(posted.getPath()).thenReturn(PAGE);
+        when(posted.getOriginalPosition()).thenReturn(2);
+        when(posted.getBody()).thenReturn("Acronym TLA isn't defined");
+        PagedIterable<GHPullRequestReviewComment> postedComments = mock(PagedIterable.class);
+        when(postedComments.iterator()).thenAnswer(i -> {
+            PagedIterator<GHPullRequestReviewComment> it = mock(PagedIterator.class);
+            when(it.hasNext()).thenReturn(true, false);
+            when(it.next()).thenReturn(posted);
+            return it;
+        });
+        var review = mock(GHPullRequestReview.class);
+        var bot = mock(GHUser.class);
+        when(bot.getLogin()).thenReturn("bot");
+        when(review.getUser()).thenReturn(bot);
+        when(review.getCommitId()).thenReturn("h1");
+        when(review.listReviewComments()).thenReturn(postedComments);
+        reviews = List.of(review);
+
+        // The new rule's comment is posted, the one already made isn't
+        config.suspectTerms.put("actor", "Use persona.");
+        comments = List.of(new ReviewComment(PAGE, 2, "Acronym TLA isn't defined"),
+                new ReviewComment(PAGE, 5, "Use persona."));
+        review("h1", "b1", "c1", config);
+        verify(reviewBuilder).comment("Use persona.", PAGE, 5);
+        verify(reviewBuilder, times(1)).comment("Acronym TLA isn't defined", PAGE, 2);
+        verify(reviewBuilder, times(2)).create();
+
+        // Nothing new to say
+        config.suspectTerms.put("user", "Use persona.");
+        comments = List.of(new ReviewComment(PAGE, 2, "Acronym TLA isn't defined"));
+        review("h1", "b1", "c1", config);
+        verify(reviewBuilder, times(2)).create();
+    }
+
+    @Test
+    public void testOnlyChangedHunksAreReviewed() throws IOException {
+        review("h1", "b1", "c1");
+        // h2 only changes line 21 of PAGE
+        compare("h1", "h2", GHCompare.Status.ahead, "@@ -20,3 +20,3 @@\n Twenty.\n-Twenty 1.\n+Twenty one.\n Twenty two.\n");
+        review("h2", "b2", "c1");
+        assertEquals(2, reviewed.size());
+        var changes = reviewed.get(1);
+        assertEquals(1, changes.size());
+        var change = changes.get(0);
+        assertEquals(PAGE, change.path());
+        assertNotNull(change.previous());
+        assertEquals(1, change.patch().hunks().size());
+        assertEquals(20, change.patch().hunks().get(0).newStartLine());
+    }
+
+    @Test
+    public void testRebasedBranchIsReviewedInFull() throws IOException {
+        review("h1", "b1", "c1");
+        compare("h1", "h2", GHCompare.Status.diverged, "@@ -20,3 +20,3 @@\n Twenty.\n-Twenty 1.\n+Twenty one.\n Twenty two.\n");
+        review("h2", "b2", "c1");
+        var change = reviewed.get(1).get(0);
+        assertNull(change.previous());
+        assertEquals(2, change.patch().hunks().size());
+
+        when(repo.getCompare("h2", "h3")).thenThrow(new GHFileNotFoundException());
+        review("h3", "b3", "c1");
+        assertEquals(2, reviewed.get(2).get(0).patch().hunks().size());
+    }
+
+    @Test
+    public void testHeadPageIsReconstructedFromBase() throws IOException {
+        String base = "---\nnum: 1\ntitle: \"Example\"\nstatus: \"Draft\"\n---\n"
+                + "Body.\n".repeat(14)
+                + "Twenty.\nTwenty two.\n";
+        String headContent = base.replace("num: 1", "num: 12").replace("Twenty.\n", "Twenty.\nTwenty one.\n");
+        var content = mock(GHContent.class);
+        when(content.getSha()).thenReturn("baseblob");
+        when(content.read()).thenAnswer(i -> new ByteArrayInputStream(base.getBytes(StandardCharsets.UTF_8)));
+        when(repo.getFileContent(PAGE, "base")).thenReturn(content);
+        when(repo.getFileContent(OTHER_PAGE, "base")).thenThrow(new GHFileNotFoundException());
+        var blob = mock(GHBlob.class);
+        when(blob.read()).thenAnswer(i -> new ByteArrayInputStream(base.getBytes(StandardCharsets.UTF_8)));
+        when(repo.getBlob("c1")).thenReturn(blob);
+        flow.pageCache = new RecordPageCache(1024 * 1024);
+
+        review("h1", RecordPageCache.blobSha(headContent.getBytes(StandardCharsets.UTF_8)), "c1");
+        assertEquals(12, reviewed.get(0).get(0).head().frontMatter.num);
+        // Only the page which the patch doesn't make is fetched
+        verify(repo, never()).getBlob(RecordPageCache.blobSha(headContent.getBytes(StandardCharsets.UTF_8)));
+        verify(repo).getBlob("c1");
+    }
+}
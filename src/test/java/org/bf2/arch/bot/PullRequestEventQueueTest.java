@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.kohsuke.github.GHPullRequest;
+import org.kohsuke.github.GHRepository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PullRequestEventQueueTest {
+
+    private static GHPullRequest pullRequest(int number) throws IOException {
+        var repo = mock(GHRepository.class);
+        when(repo.getFullName()).thenReturn("org/repo");
+        var pullRequest = mock(GHPullRequest.class);
+        when(pullRequest.getNumber()).thenReturn(number);
+        when(pullRequest.getRepository()).thenReturn(repo);
+        when(repo.getPullRequest(number)).thenReturn(pullRequest);
+        return pullRequest;
+    }
+
+    @Test
+    public void testBurstIsCoalesced() throws Exception {
+        var queue = new PullRequestEventQueue(Duration.ofMillis(200), 2);
+        var pr = pullRequest(1);
+        List<String> runs = new CopyOnWriteArrayList<>();
+        var done = new CountDownLatch(2);
+        for (int i = 0; i < 5; i++) {
+            int event = i;
+            queue.submit("a", pr, p -> {
+                runs.add("a" + event);
+                done.countDown();
+            });
+        }
+        queue.submit("b", pr, p -> {
+            runs.add("b");
+            done.countDown();
+        });
+        assertEquals(1, queue.depth());
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        // Only the latest submission per flow runs, in order of first submission
+        assertEquals(List.of("a4", "b"), runs);
+        queue.shutdown();
+    }
+
+    @Test
+    public void testDistinctPullRequestsRunInParallel() throws Exception {
+        var queue = new PullRequestEventQueue(Duration.ofMillis(50), 2);
+        var bothRunning = new CountDownLatch(2);
+        var finished = new CountDownLatch(2);
+        PullRequestEventQueue.Action action = p -> {
+            bothRunning.countDown();
+            try {
+                // Would time out if the PRs were processed one at a time
+                assertTrue(bothRunning.await(5, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            finished.countDown();
+        };
+        queue.submit("a", pullRequest(1), action);
+        queue.submit("a", pullRequest(2), action);
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        queue.shutdown();
+    }
+
+    @Test
+    public void testSamePullRequestIsSerialized() throws Exception {
+        var queue = new PullRequestEventQueue(Duration.ofMillis(50), 4);
+        var pr = pullRequest(1);
+        var firstStarted = new CountDownLatch(1);
+        var releaseFirst = new CountDownLatch(1);
+        List<String> runs = new CopyOnWriteArrayList<>();
+        var done = new CountDownLatch(2);
+        queue.submit("a", pr, p -> {
+            firstStarted.countDown();
+            try {
+                releaseFirst.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            runs.add("first");
+            done.countDown();
+        });
+        assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+        queue.submit("a", pr, p -> {
+            runs.add("second");
+            done.countDown();
+        });
+        Thread.sleep(200);
+        // The second action must wait for the first to finish
+        assertEquals(List.of(), runs);
+        releaseFirst.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("first", "second"), runs);
+        queue.shutdown();
+    }
+
+    @Test
+    public void testReposAreServedInTurn() throws Exception {
+        var queue = new PullRequestEventQueue(Duration.ofMillis(50), 1);
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        List<String> runs = new CopyOnWriteArrayList<>();
+        var done = new CountDownLatch(4);
+        queue.execute("org/a", "x", () -> {
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        for (String work : List.of("a1", "a2", "a3", "b1")) {
+            queue.execute("org/" + work.charAt(0), "x", () -> {
+                runs.add(work);
+                done.countDown();
+            });
+        }
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        // b1 doesn't wait for all of a's work
+        assertEquals(List.of("a1", "b1", "a2", "a3"), runs);
+        queue.shutdown();
+    }
+
+    @Test
+    public void testWorkAfterShutdownIsDropped() throws Exception {
+        var queue = new PullRequestEventQueue(Duration.ofMillis(50), 1);
+        var done = new CountDownLatch(1);
+        queue.submit("a", pullRequest(1), p -> done.countDown());
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(0, queue.depth());
+
+        queue.shutdown();
+        List<String> runs = new CopyOnWriteArrayList<>();
+        // Neither throws
+        queue.submit("a", pullRequest(1), p -> runs.add("a"));
+        queue.execute("org/repo", "x", () -> runs.add("x"));
+        assertEquals(0, queue.depth());
+        Thread.sleep(200);
+        assertEquals(List.of(), runs);
+    }
+
+    @Test
+    public void testRejectsWhenFull() throws Exception {
+        var queue = new PullRequestEventQueue(Duration.ofSeconds(10), 1, 2);
+        List<String> runs = new CopyOnWriteArrayList<>();
+        queue.submit("a", pullRequest(1), p -> runs.add("1"));
+        queue.submit("a", pullRequest(2), p -> runs.add("2"));
+        // Coalescing with waiting work is still accepted
+        queue.submit("b", pullRequest(2), p -> runs.add("2b"));
+        assertEquals(2, queue.depth());
+        queue.submit("a", pullRequest(3), p -> runs.add("3"));
+        queue.execute("org/repo", "x", () -> runs.add("x"));
+        assertEquals(2, queue.depth());
+        assertEquals(List.of(), runs);
+        queue.shutdown();
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.bf2.arch.bot.model.record.RecordId;
+import org.bf2.arch.bot.model.record.RecordNumbers;
+import org.bf2.arch.bot.model.record.RecordType;
+import org.junit.jupiter.api.Test;
+import org.kohsuke.github.GHRepository;
+import org.kohsuke.github.HttpException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RecordIdAllocatorTest {
+
+    private static GHRepository repo() {
+        var repo = mock(GHRepository.class);
+        when(repo.getFullName()).thenReturn("org/repo");
+        return repo;
+    }
+
+    /** An index in which the existing ADRs are 0 to 12. */
+    private static RecordIndex index() throws IOException {
+        var index = mock(RecordIndex.class);
+        when(index.numbers(any(), anyString(), any())).thenReturn(RecordNumbers.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12));
+        when(index.nextId(any(), anyString(), any())).thenReturn(13);
+        return index;
+    }
+
+    @Test
+    public void testConcurrentCreationsGetDistinctIds() throws Exception {
+        var allocator = new RecordIdAllocator(index());
+        var repo = repo();
+        int n = 8;
+        var allStarted = new CountDownLatch(n);
+        var executor = Executors.newFixedThreadPool(n);
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            futures.add(executor.submit(() -> allocator.allocate(repo, "c1", RecordType.ADR, recordId -> {
+                // All the creations are in progress at the same time
+                allStarted.countDown();
+                try {
+                    assertTrue(allStarted.await(5, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return recordId.num();
+            })));
+        }
+        Set<Integer> ids = ConcurrentHashMap.newKeySet();
+        for (var future : futures) {
+            ids.add(future.get());
+        }
+        executor.shutdown();
+        assertEquals(Set.of(13, 14, 15, 16, 17, 18, 19, 20), ids);
+    }
+
+    @Test
+    public void testRetryWhenTakenElsewhere() throws IOException {
+        var allocator = new RecordIdAllocator(index());
+        var repo = repo();
+        List<Integer> attempts = new ArrayList<>();
+        int id = allocator.allocate(repo, "c1", RecordType.ADR, recordId -> {
+            attempts.add(recordId.num());
+            if (recordId.num() < 15) {
+                // Another replica created the branch first
+                throw new RecordIdAllocator.IdTakenException(recordId,
+                        new HttpException("Reference already exists", 422, "Unprocessable Entity", ""));
+            }
+            return recordId.num();
+        });
+        assertEquals(15, id);
+        assertEquals(List.of(13, 14, 15), attempts);
+        // Later allocations skip the ids known to be taken, and the one reserved
+        assertEquals(16, allocator.nextId(repo, "c1", RecordType.ADR));
+    }
+
+    @Test
+    public void testFailedCreationReleasesId() throws IOException {
+        var allocator = new RecordIdAllocator(index());
+        var repo = repo();
+        assertThrows(IOException.class, () -> allocator.allocate(repo, "c1", RecordType.ADR, recordId -> {
+            throw new IOException("Boom");
+        }));
+        assertEquals(13, allocator.nextId(repo, "c1", RecordType.ADR));
+    }
+
+    @Test
+    public void testReleaseGivesBackId() throws IOException {
+        var allocator = new RecordIdAllocator(index());
+        var repo = repo();
+        int first = allocator.allocate(repo, "c1", RecordType.ADR, RecordId::num);
+        int second = allocator.allocate(repo, "c1", RecordType.ADR, RecordId::num);
+        assertEquals(List.of(13, 14), List.of(first, second));
+        assertEquals(15, allocator.nextId(repo, "c1", RecordType.ADR));
+
+        // The PR for the last one was closed
+        allocator.release(repo, new RecordId(RecordType.ADR, 14));
+        assertEquals(14, allocator.nextId(repo, "c1", RecordType.ADR));
+    }
+
+    @Test
+    public void testGivesUp() throws IOException {
+        var allocator = new RecordIdAllocator(index());
+        assertThrows(BotError.class, () -> allocator.allocate(repo(), "c1", RecordType.ADR, recordId -> {
+            throw new RecordIdAllocator.IdTakenException(recordId, null);
+        }));
+    }
+
+    @Test
+    public void testIsRefConflict() {
+        assertTrue(RecordIdAllocator.isRefConflict(new HttpException(
+                "{\"message\":\"Reference already exists\",\"documentation_url\":\"https://docs.github.com/rest\"}",
+                422, "Unprocessable Entity", "")));
+        // Not every 422 means the ref exists
+        assertFalse(RecordIdAllocator.isRefConflict(new HttpException(
+                "{\"message\":\"Object does not exist\"}", 422, "Unprocessable Entity", "")));
+        assertFalse(RecordIdAllocator.isRefConflict(new HttpException("nope", 404, "Not Found", "")));
+        assertFalse(RecordIdAllocator.isRefConflict(new IOException()));
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bf2.arch.bot.model.record.RecordNumbers;
+import org.bf2.arch.bot.model.record.RecordType;
+import org.junit.jupiter.api.Test;
+import org.kohsuke.github.GHCommit;
+import org.kohsuke.github.GHCompare;
+import org.kohsuke.github.GHRepository;
+import org.kohsuke.github.GHTree;
+import org.kohsuke.github.GHTreeEntry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RecordIndexTest {
+
+    private static GHTreeEntry entry(String path) {
+        var entry = mock(GHTreeEntry.class);
+        when(entry.getPath()).thenReturn(path);
+        return entry;
+    }
+
+    private static void commit(GHRepository repo, String commitSha, String treeSha, String... names) throws IOException {
+        var commit = mock(GHCommit.class);
+        var root = mock(GHTree.class);
+        var dir = mock(GHTreeEntry.class);
+        var dirTree = mock(GHTree.class);
+        when(repo.getCommit(commitSha)).thenReturn(commit);
+        when(commit.getTree()).thenReturn(root);
+        when(root.getEntry(RecordType.ADR.repoDir)).thenReturn(dir);
+        when(dir.getSha()).thenReturn(treeSha);
+        when(dir.asTree()).thenReturn(dirTree);
+        List<GHTreeEntry> entries = new ArrayList<>();
+        for (String name : names) {
+            entries.add(entry(name));
+        }
+        when(dirTree.getTree()).thenReturn(entries);
+    }
+
+    private static GHCommit.File file(String status, String fileName) {
+        var file = mock(GHCommit.File.class);
+        when(file.getStatus()).thenReturn(status);
+        when(file.getFileName()).thenReturn(fileName);
+        return file;
+    }
+
+    private static void compare(GHRepository repo, String from, String to, GHCompare.Status status,
+                                GHCommit.File... files) throws IOException {
+        var compare = mock(GHCompare.class);
+        when(compare.getStatus()).thenReturn(status);
+        when(compare.getFiles()).thenReturn(files);
+        when(repo.getCompare(from, to)).thenReturn(compare);
+    }
+
+    private static GHRepository repo() {
+        var repo = mock(GHRepository.class);
+        when(repo.getFullName()).thenReturn("org/repo");
+        return repo;
+    }
+
+    @Test
+    public void testBuildAndLookup() throws IOException {
+        var repo = repo();
+        commit(repo, "c1", "t1", "0", "3", "12", "README.adoc");
+        var index = new RecordIndex();
+
+        assertEquals(RecordNumbers.of(0, 3, 12), index.numbers(repo, "c1", RecordType.ADR));
+        assertEquals(13, index.nextId(repo, "c1", RecordType.ADR));
+        // The second lookup doesn't go to GitHub
+        verify(repo, times(1)).getCommit("c1");
+    }
+
+    @Test
+    public void testIncrementalUpdate() throws IOException {
+        var repo = repo();
+        commit(repo, "c1", "t1", "0", "3", "12");
+        compare(repo, "c1", "c2", GHCompare.Status.ahead,
+                file("added", "_adr/13/index.adoc"),
+                file("modified", "_adr/3/index.adoc"),
+                file("added", "_ap/20/index.adoc"));
+        var index = new RecordIndex();
+
+        assertEquals(13, index.nextId(repo, "c1", RecordType.ADR));
+        assertEquals(14, index.nextId(repo, "c2", RecordType.ADR));
+        // Updated without listing the tree at c2
+        verify(repo, times(0)).getCommit("c2");
+    }
+
+    @Test
+    public void testRebuildWhenNotFastForward() throws IOException {
+        var repo = repo();
+        commit(repo, "c1", "t1", "0", "3", "12");
+        commit(repo, "c2", "t2", "0", "3");
+        compare(repo, "c1", "c2", GHCompare.Status.diverged);
+        var index = new RecordIndex();
+
+        assertEquals(13, index.nextId(repo, "c1", RecordType.ADR));
+        assertEquals(4, index.nextId(repo, "c2", RecordType.ADR));
+    }
+
+    @Test
+    public void testRebuildWhenRecordRemoved() throws IOException {
+        var repo = repo();
+        commit(repo, "c1", "t1", "0", "3", "12");
+        commit(repo, "c2", "t2", "0", "3");
+        compare(repo, "c1", "c2", GHCompare.Status.ahead,
+                file("removed", "_adr/12/index.adoc"));
+        var index = new RecordIndex();
+
+        assertEquals(13, index.nextId(repo, "c1", RecordType.ADR));
+        assertEquals(4, index.nextId(repo, "c2", RecordType.ADR));
+    }
+
+    @Test
+    public void testNumberIn() {
+        assertEquals(12, RecordIndex.numberIn(RecordType.ADR, "_adr/12/index.adoc"));
+        assertEquals(12, RecordIndex.numberIn(RecordType.ADR, "_adr/12"));
+        assertEquals(-1, RecordIndex.numberIn(RecordType.ADR, "_adr/index.adoc"));
+        assertEquals(-1, RecordIndex.numberIn(RecordType.ADR, "_padr/12/index.adoc"));
+        assertEquals(-1, RecordIndex.numberIn(RecordType.ADR, "_adrx/12/index.adoc"));
+        assertEquals(-1, RecordIndex.numberIn(RecordType.ADR, "_adr/"));
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+import org.kohsuke.github.GHBlob;
+import org.kohsuke.github.GHContent;
+import org.kohsuke.github.GHRepository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RecordPageCacheTest {
+
+    private static final String PAGE = "---\n" +
+            "num: 3\n" +
+            "title: \"Foo\"\n" +
+            "status: \"Draft\"\n" +
+            "---\n" +
+            "Hello, world\n";
+
+    private static GHRepository repoWithBlob(String sha) throws IOException {
+        var repo = mock(GHRepository.class);
+        var blob = mock(GHBlob.class);
+        when(repo.getBlob(sha)).thenReturn(blob);
+        when(blob.read()).thenAnswer(i -> new ByteArrayInputStream(PAGE.getBytes(StandardCharsets.UTF_8)));
+        return repo;
+    }
+
+    @Test
+    public void testBlobFetchedOnce() throws IOException {
+        var cache = new RecordPageCache(1024 * 1024);
+        var repo = repoWithBlob("abc");
+
+        var first = cache.page(repo, "abc");
+        var second = cache.page(repo, "abc");
+
+        assertEquals("Draft", first.frontMatter.status);
+        assertEquals("Draft", second.frontMatter.status);
+        verify(repo, times(1)).getBlob("abc");
+        assertEquals(1, cache.stats().hitCount());
+        assertEquals(1, cache.stats().missCount());
+    }
+
+    @Test
+    public void testPagesAreCopies() throws IOException {
+        var cache = new RecordPageCache(1024 * 1024);
+        var repo = repoWithBlob("abc");
+
+        var first = cache.page(repo, "abc");
+        first.frontMatter.status = "Superseded";
+        var second = cache.page(repo, "abc");
+
+        assertNotSame(first, second);
+        assertEquals("Draft", second.frontMatter.status);
+        assertEquals(first.bodyContent(), second.bodyContent());
+    }
+
+    @Test
+    public void testContentKeyedBySha() throws IOException {
+        var cache = new RecordPageCache(1024 * 1024);
+        var repo = repoWithBlob("abc");
+        var content = mock(GHContent.class);
+        when(content.getSha()).thenReturn("abc");
+
+        cache.page(repo, "abc");
+        assertEquals(3, cache.page(content).frontMatter.num);
+        // Served from the cache without reading the content
+        verify(content, times(0)).read();
+    }
+
+    @Test
+    public void testContentCheckedAgainstBlob() throws IOException {
+        var cache = new RecordPageCache(1024 * 1024);
+        // git hash-object of the page
+        String sha = RecordPageCache.blobSha(PAGE.getBytes(StandardCharsets.UTF_8));
+        assertEquals(40, sha.length());
+        assertEquals("e69de29bb2d1d6434b8b29ae775ad8c2e48c5391", RecordPageCache.blobSha(new byte[0]));
+
+        assertNull(cache.cached(sha));
+        assertNull(cache.page(sha, PAGE.replace("Draft", "Accepted")));
+        assertNull(cache.cached(sha));
+        assertEquals("Draft", cache.page(sha, PAGE).frontMatter.status);
+        assertEquals("Draft", cache.cached(sha).frontMatter.status);
+    }
+}
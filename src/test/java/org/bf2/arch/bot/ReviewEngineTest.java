@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bf2.arch.bot.model.patch.FilePatch;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReviewEngineTest {
+
+    /** A rule which comments at a fixed position on every change. */
+    private static ReviewRule rule(String name, int position, String body) {
+        return new ReviewRule() {
+            @Override
+            public String name() {
+                return name;
+            }
+
+            @Override
+            public List<ReviewComment> review(RecordChange change) {
+                return List.of(new ReviewComment(change.path(), position, body));
+            }
+        };
+    }
+
+    private static RecordChange change(String path) {
+        return new RecordChange(null, path, null, null, null, FilePatch.parsePatch(""), null, Set.of());
+    }
+
+    @Test
+    public void testMergesCommentsInDiffOrder() {
+        var registry = new SimpleMeterRegistry();
+        var engine = new ReviewEngine(List.of(
+                rule("b", 7, "Later"),
+                rule("a", 2, "Earlier"),
+                // The same comment from another rule is only made once
+                rule("c", 2, "Earlier")), 2, registry);
+        try {
+            assertEquals(List.of(
+                            new ReviewComment("_adr/1/index.adoc", 2, "Earlier"),
+                            new ReviewComment("_adr/1/index.adoc", 7, "Later"),
+                            new ReviewComment("_adr/2/index.adoc", 2, "Earlier"),
+                            new ReviewComment("_adr/2/index.adoc", 7, "Later")),
+                    engine.review(List.of(change("_adr/2/index.adoc"), change("_adr/1/index.adoc"))));
+            var timer = registry.find(BotMetrics.REVIEW_RULE_DURATION).tags("rule", "a", "outcome", "success").timer();
+            assertNotNull(timer);
+            assertEquals(2, timer.count());
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void testRulesRunInParallel() {
+        int n = 4;
+        var allStarted = new CountDownLatch(n);
+        ReviewRule waiting = new ReviewRule() {
+            @Override
+            public String name() {
+                return "waiting";
+            }
+
+            @Override
+            public List<ReviewComment> review(RecordChange change) {
+                allStarted.countDown();
+                try {
+                    // Only returns if all the reviews are in progress at the same time
+                    assertTrue(allStarted.await(5, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return List.of();
+            }
+        };
+        var engine = new ReviewEngine(List.of(waiting), n, new SimpleMeterRegistry());
+        try {
+            assertEquals(List.of(), engine.review(List.of(change("a"), change("b"), change("c"), change("d"))));
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailingRuleIsIgnored() {
+        var registry = new SimpleMeterRegistry();
+        ReviewRule failing = new ReviewRule() {
+            @Override
+            public String name() {
+                return "failing";
+            }
+
+            @Override
+            public List<ReviewComment> review(RecordChange change) throws IOException {
+                throw new IOException("Boom");
+            }
+        };
+        var engine = new ReviewEngine(List.of(failing, rule("ok", 1, "Fine")), 1, registry);
+        try {
+            assertEquals(List.of(new ReviewComment("a", 1, "Fine")), engine.review(List.of(change("a"))));
+            assertNotNull(registry.find(BotMetrics.REVIEW_RULE_DURATION).tags("rule", "failing", "outcome", "failure").timer());
+        } finally {
+            engine.shutdown();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+
+import org.bf2.arch.bot.model.patch.FilePatch;
+import org.bf2.arch.bot.model.record.RecordId;
+import org.bf2.arch.bot.model.record.RecordPage;
+import org.bf2.arch.bot.model.record.RecordType;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReviewRulesTest {
+
+    private static final String PATH = "_adr/12/index.adoc";
+
+    private static RecordPage page(String status, String tags, String body) throws IOException {
+        return RecordPage.fromContent("---\n" +
+                "num: 12\n" +
+                "title: \"Example\"\n" +
+                "status: \"" + status + "\"\n" +
+                "tags:\n" +
+                tags +
+                "---\n" +
+                body);
+    }
+
+    private static RecordChange change(RecordPage base, RecordPage head, String patch, ArchBotConfig config) {
+        return change(base, head, null, patch, config);
+    }
+
+    private static RecordChange change(RecordPage base, RecordPage head, RecordPage previous, String patch,
+                                       ArchBotConfig config) {
+        return new RecordChange(new RecordId(RecordType.ADR, 12), PATH, base, head, previous,
+                FilePatch.parsePatch(patch), config, Set.of("tag: kafka"));
+    }
+
+    private static final String STATUS_PATCH = "@@ -1,5 +1,5 @@\n" +
+            " ---\n" +
+            " num: 12\n" +
+            " title: \"Example\"\n" +
+            "-status: \"Draft\"\n" +
+            "+status: \"Superseded\"\n" +
+            " tags:\n";
+
+    @Test
+    public void testStatusTransition() throws IOException {
+        var rule = new StatusTransitionRule();
+        var base = page("Draft", "", "");
+        assertEquals(List.of(new ReviewComment(PATH, 5, "Suspect state transition")),
+                rule.review(change(base, page("Superseded", "", ""), STATUS_PATCH, null)));
+        assertEquals(List.of(),
+                rule.review(change(base, page("Accepted", "", ""), STATUS_PATCH.replace("Superseded", "Accepted"), null)));
+        assertEquals(List.of(), rule.review(change(base, base, "@@ -1,1 +1,1 @@\n ---\n", null)));
+        assertEquals(List.of(new ReviewComment(PATH, 5, "Status must be one of " + StatusTransitionRule.STATUSES)),
+                rule.review(change(base, page("Done", "", ""), STATUS_PATCH.replace("Superseded", "Done"), null)));
+        // A new record isn't a transition
+        assertEquals(List.of(), rule.review(change(null, page("Draft", "", ""), "@@ -0,0 +1,1 @@\n+---\n", null)));
+    }
+
+    @Test
+    public void testTagLabels() throws IOException {
+        var rule = new TagLabelsRule();
+        var base = page("Draft", "  - \"kafka\"\n", "");
+        String patch = "@@ -4,3 +4,4 @@\n" +
+                " status: \"Draft\"\n" +
+                " tags:\n" +
+                "   - \"kafka\"\n" +
+                "+  - \"registry\"\n";
+        var head = page("Draft", "  - \"kafka\"\n  - \"registry\"\n", "");
+        assertEquals(List.of(new ReviewComment(PATH, 4, "There's no `tag: registry` label for the tag `registry`")),
+                rule.review(change(base, head, patch, null)));
+        // Tags which were there before, or which have labels, aren't reviewed
+        assertEquals(List.of(), rule.review(change(head, head, patch, null)));
+        assertEquals(List.of(), rule.review(change(null, base, "@@ -0,0 +1,1 @@\n+  - \"kafka\"\n", null)));
+    }
+
+    @Test
+    public void testUndefinedAcronyms() throws IOException {
+        var rule = new UndefinedAcronymsRule(Set.of("OK"));
+        var base = page("Draft", "", "The Three Letter Abbreviation (TLA) is defined here.\n");
+        String patch = "@@ -7,1 +7,3 @@\n" +
+                " The Three Letter Abbreviation (TLA) is defined here.\n" +
+                "+A TLA is OK,\n" +
+                "+but an API isn't, and nor is an SLO.\n";
+        var config = new ArchBotConfig();
+        config.knownAcronyms.add("SLO");
+        assertEquals(List.of(new ReviewComment(PATH, 3, "Acronym API is used without having been defined")),
+                rule.review(change(base, base, patch, config)));
+    }
+
+    @Test
+    public void testSuspectTerms() throws IOException {
+        var rule = new SuspectTermsRule();
+        var config = new ArchBotConfig();
+        config.suspectTerms.put("actor", "Use persona.");
+        config.suspectTerms.put("end user", "Say who they are.");
+        config.suspectTerms.put("tenant", "Not used.");
+        String patch = "@@ -1,2 +1,4 @@\n" +
+                " An actor in the context isn't reviewed.\n" +
+                "-An actor in a removed line isn't either.\n" +
+                "+The End User is an Actor,\n" +
+                "+and so is every other actor.\n" +
+                " \n";
+        var page = page("Draft", "", "");
+        assertEquals(List.of(
+                        new ReviewComment(PATH, 3, "Suspect terminology: end user. Say who they are."),
+                        new ReviewComment(PATH, 3, "Suspect terminology: actor. Use persona.")),
+                rule.review(change(page, page, patch, config)));
+
+        assertEquals(List.of(), rule.review(change(page, page, patch, new ArchBotConfig())));
+        assertEquals(List.of(), rule.review(change(page, page, patch, null)));
+    }
+
+    @Test
+    public void testSentencePerLine() throws IOException {
+        var rule = new SentencePerLineRule();
+        var head = page("Draft", "", "One. Two.\n");
+        String patch = "@@ -6,2 +6,8 @@\n" +
+                " ---\n" +
+                "+One sentence, e.g. this one.\n" +
+                "+Two sentences. On one line.\n" +
+                "+----\n" +
+                "+Code. Isn't prose.\n" +
+                "+----\n" +
+                "+Three. Sentences. Here.\n" +
+                " \n";
+        assertEquals(List.of(new ReviewComment(PATH, 3,
+                        "Please put each sentence on a line of its own (2 lines added here have more than one sentence)")),
+                rule.review(change(head, head, patch, null)));
+        // Lines in the front matter aren't prose
+        assertEquals(List.of(), rule.review(change(head, head, "@@ -1,1 +1,2 @@\n ---\n+title: \"A. B.\"\n", null)));
+
+        assertTrue(SentencePerLineRule.hasSeveralSentences("One. Two."));
+        assertTrue(SentencePerLineRule.hasSeveralSentences("Really? Yes!"));
+        assertFalse(SentencePerLineRule.hasSeveralSentences("Use a tool, e.g. Maven, i.e. this one."));
+        assertFalse(SentencePerLineRule.hasSeveralSentences("Version 1.2 is out."));
+        assertFalse(SentencePerLineRule.hasSeveralSentences("One sentence."));
+    }
+
+    @Test
+    public void testPreviouslyReviewed() throws IOException {
+        var base = page("Draft", "", "");
+        var previous = page("Superseded", "  - \"registry\"\n", "The Application Programming Interface (API).\n");
+        var head = page("Superseded", "  - \"registry\"\n", "The Application Programming Interface (API).\nAn API.\n");
+        String patch = "@@ -7,1 +7,2 @@\n" +
+                " The Application Programming Interface (API).\n" +
+                "+An API.\n";
+        // What the bot said about the earlier commits of the PR isn't said again
+        assertEquals(List.of(), new StatusTransitionRule().review(change(base, head, previous, patch, null)));
+        assertEquals(List.of(), new TagLabelsRule().review(change(base, head, previous, patch, null)));
+        // Acronyms can be defined in hunks which aren't being reviewed
+        assertEquals(List.of(), new UndefinedAcronymsRule(Set.of()).review(change(base, head, previous,
+                "@@ -8,0 +8,1 @@\n+An API.\n", null)));
+        assertEquals(1, new UndefinedAcronymsRule(Set.of()).review(change(base, head, null,
+                "@@ -8,0 +8,1 @@\n+An API.\n", null)).size());
+    }
+
+    @Test
+    public void testOnlyChangedLinesAreReviewed() throws IOException {
+        var config = new ArchBotConfig();
+        config.suspectTerms.put("actor", "Use persona.");
+        var base = page("Draft", "", "");
+        var previous = page("Draft", "", "An actor uses the API.\n");
+        var head = page("Draft", "", "An actor uses the API.\nAnother actor uses the CLI.\n");
+        // The PR's hunk adds lines 7 and 8, but only line 8 has changed since the last review
+        var changed = new BitSet();
+        changed.set(8);
+        var patch = FilePatch.parsePatch("@@ -6,1 +6,3 @@\n" +
+                " ---\n" +
+                "+An actor uses the API.\n" +
+                "+Another actor uses the CLI.\n").hunksAdding(changed);
+        var change = new RecordChange(new RecordId(RecordType.ADR, 12), PATH, base, head, previous, patch,
+                config, Set.of());
+        assertEquals(List.of(new ReviewComment(PATH, 3, "Suspect terminology: actor. Use persona.")),
+                new SuspectTermsRule().review(change));
+        assertEquals(List.of(new ReviewComment(PATH, 3, "Acronym CLI is used without having been defined")),
+                new UndefinedAcronymsRule(Set.of()).review(change));
+    }
+}
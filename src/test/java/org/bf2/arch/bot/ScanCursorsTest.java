@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ScanCursorsTest {
+
+    @Test
+    public void testAdvanceIsPersisted(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("cursors.properties");
+        var cursors = ScanCursors.load(file);
+        assertEquals(0, cursors.get("org/repo"));
+        cursors.advance("org/repo", 1000);
+        cursors.advance("org/other", 2000);
+        // Marks never go backwards
+        cursors.advance("org/repo", 500);
+
+        var reloaded = ScanCursors.load(file);
+        assertEquals(1000, reloaded.get("org/repo"));
+        assertEquals(2000, reloaded.get("org/other"));
+        assertEquals(0, reloaded.get("org/unknown"));
+    }
+
+    @Test
+    public void testUpdatedRange() {
+        assertEquals("<=1970-01-01T00:00:10Z",
+                StalledDiscussionFlow.updatedRange(0, 10_500));
+        assertEquals("1970-01-01T00:00:06Z..1970-01-01T00:00:10Z",
+                StalledDiscussionFlow.updatedRange(5_200, 10_500));
+    }
+}
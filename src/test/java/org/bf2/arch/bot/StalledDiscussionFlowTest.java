@@ -0,0 +1,252 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.InjectableValues;
+import org.junit.jupiter.api.Test;
+import org.kohsuke.github.GHContent;
+import org.kohsuke.github.GHFileNotFoundException;
+import org.kohsuke.github.GHIssueComment;
+import org.kohsuke.github.GHPullRequest;
+import org.kohsuke.github.GHPullRequestReview;
+import org.kohsuke.github.GHRepository;
+import org.kohsuke.github.GitHub;
+import org.kohsuke.github.PagedIterable;
+import org.kohsuke.github.PagedIterator;
+import org.kohsuke.github.connector.GitHubConnectorResponse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class StalledDiscussionFlowTest {
+
+    private static GHRepository repo(String name, boolean configured) throws IOException {
+        var repo = mock(GHRepository.class);
+        when(repo.getFullName()).thenReturn("org/" + name);
+        if (configured) {
+            var content = mock(GHContent.class);
+            when(content.read()).thenAnswer(invocation -> StalledDiscussionFlowTest.class.getResourceAsStream("/config.yaml"));
+            when(repo.getFileContent(StalledDiscussionFlow.REPO_CONFIG_PATH)).thenReturn(content);
+        } else {
+            when(repo.getFileContent(StalledDiscussionFlow.REPO_CONFIG_PATH)).thenThrow(new GHFileNotFoundException());
+        }
+        return repo;
+    }
+
+    /**
+     * A flow over the given repos, whose repo sweeps record which repos were swept, and how many at once.
+     */
+    private static class TestFlow extends StalledDiscussionFlow {
+        final List<GHRepository> repos;
+        final Set<String> swept = ConcurrentHashMap.newKeySet();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        String failOn;
+
+        TestFlow(ExecutorService pool, int maxConcurrencyPerInstallation, List<GHRepository> repos) {
+            this.repos = repos;
+            this.maxConcurrencyPerInstallation = maxConcurrencyPerInstallation;
+            this.installationId = Optional.empty();
+            this.repoExecutor = pool;
+            this.configTtl = Duration.ofMinutes(10);
+        }
+
+        @Override
+        Iterable<GHRepository> repositories(long installationId, GitHub client) {
+            return repos;
+        }
+
+        @Override
+        void sweep(long installationId, GitHub client, OpenReviewsQuery openReviewsQuery,
+                   GHRepository repository, long thresh) throws IOException {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                running.decrementAndGet();
+            }
+            if (repository.getFullName().equals(failOn)) {
+                throw new IOException("Boom");
+            }
+            swept.add(repository.getFullName());
+        }
+    }
+
+    @Test
+    public void testRepoConfig() throws IOException {
+        var config = StalledDiscussionFlow.repoConfig(repo("configured", true));
+        assertEquals("bf2-arch-test", config.botUserLogin);
+        assertEquals(1440, config.stalledDiscussionPollTimeMins);
+        assertEquals(Set.of("tombentley"), config.recordCreationApprovers);
+        assertEquals(Set.of("API"), config.knownAcronyms);
+        assertEquals(Map.of("actor", "Use \"persona\" for the people who use the service."), config.suspectTerms);
+        assertNull(StalledDiscussionFlow.repoConfig(repo("unconfigured", false)));
+    }
+
+    @Test
+    public void testSweepsConfiguredReposWithBoundedConcurrency() throws IOException {
+        List<GHRepository> repos = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            repos.add(repo("r" + i, i != 3));
+        }
+        var pool = Executors.newFixedThreadPool(8);
+        try {
+            var flow = new TestFlow(pool, 2, repos);
+            flow.sweep(1L, null, null, 0);
+            assertEquals(Set.of("org/r0", "org/r1", "org/r2", "org/r4", "org/r5", "org/r6", "org/r7"), flow.swept);
+            assertTrue(flow.maxRunning.get() <= 2, "At most 2 repos at once, but saw " + flow.maxRunning.get());
+
+            // Within their poll time, so not swept again
+            flow.swept.clear();
+            flow.sweep(1L, null, null, 0);
+            assertEquals(Set.of(), flow.swept);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testRepoConfigIsCached() throws IOException {
+        var repo = repo("r", true);
+        var flow = new TestFlow(null, 1, List.of(repo));
+        assertTrue(flow.due(repo, 0));
+        assertTrue(flow.due(repo, 60_000));
+        verify(repo, times(1)).getFileContent(StalledDiscussionFlow.REPO_CONFIG_PATH);
+        // Read again once it's expired
+        assertTrue(flow.due(repo, 600_000));
+        verify(repo, times(2)).getFileContent(StalledDiscussionFlow.REPO_CONFIG_PATH);
+    }
+
+    @Test
+    public void testSweepStopsOnFailure() throws IOException {
+        List<GHRepository> repos = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            repos.add(repo("r" + i, true));
+        }
+        var pool = Executors.newFixedThreadPool(8);
+        try {
+            var flow = new TestFlow(pool, 1, repos);
+            flow.failOn = "org/r2";
+            assertThrows(IOException.class, () -> flow.sweep(1L, null, null, 0));
+            assertEquals(Set.of("org/r0", "org/r1"), flow.swept);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testConfiguredInstallation() throws IOException {
+        var flow = new StalledDiscussionFlow();
+        flow.installationId = Optional.of(42L);
+        assertEquals(List.of(42L), flow.installationIds());
+    }
+
+    @Test
+    public void testIncrementalScanUsesGraphQL() throws IOException {
+        var repo = repo("r", true);
+        when(repo.getOwnerName()).thenReturn("org");
+        when(repo.getName()).thenReturn("r");
+        long thresh = Instant.parse("2022-01-10T00:00:00Z").toEpochMilli();
+        var query = mock(OpenReviewsQuery.class);
+        var quiet = new OpenReviewsQuery.OpenReview("PR_1", 1, Set.of(Labels.STATE_BEING_REVIEWED),
+                Instant.parse("2022-01-02T00:00:00Z"));
+        var labelled = new OpenReviewsQuery.OpenReview("PR_2", 2, Set.of(Labels.NOTICE_STALLED_DISCUSSION),
+                Instant.parse("2022-01-03T00:00:00Z"));
+        when(query.search("org", "r", StalledDiscussionFlow.quietQuery("org/r", 0, thresh) + " sort:updated-asc"))
+                .thenReturn(new OpenReviewsQuery.OpenReviews("LA_stalled", List.of(quiet, labelled)));
+
+        var flow = new StalledDiscussionFlow();
+        flow.cursors = ScanCursors.load(Files.createTempDirectory("cursors").resolve("cursors.properties"));
+        var client = mock(GitHub.class);
+        flow.checkForStalledDiscussions(client, query, repo, thresh);
+
+        verify(query).addLabel("PR_1", "LA_stalled");
+        // Without a REST search
+        verifyNoInteractions(client);
+        assertEquals(thresh, flow.cursors.get("org/r"));
+    }
+
+    @Test
+    public void testRestLastActivityMatchesGraphQL() throws IOException {
+        var pullRequest = mock(GHPullRequest.class);
+        when(pullRequest.getUpdatedAt()).thenReturn(date("2022-01-09T00:00:00Z"));
+        var review = mock(GHPullRequestReview.class);
+        when(review.getSubmittedAt()).thenReturn(date("2022-01-03T00:00:00Z"));
+        var pending = mock(GHPullRequestReview.class);
+        // getCreatedAt() has bridge methods which can't be stubbed, so use a real comment
+        GHIssueComment comment = GitHub.getMappingObjectReader()
+                .forType(GHIssueComment.class)
+                .with(new InjectableValues.Std()
+                        .addValue(GitHub.class, null)
+                        .addValue(GitHubConnectorResponse.class, null))
+                .readValue("{\"created_at\":\"2022-01-02T00:00:00Z\"}");
+        PagedIterable<GHPullRequestReview> reviews = paged(List.of(review, pending));
+        PagedIterable<GHIssueComment> comments = paged(List.of(comment));
+        when(pullRequest.listReviews()).thenReturn(reviews);
+        when(pullRequest.listComments()).thenReturn(comments);
+        // The latest of the reviews and comments
+        assertEquals(date("2022-01-03T00:00:00Z"), StalledDiscussionFlow.lastActivity(pullRequest));
+
+        // No reviews or comments, so the last update
+        PagedIterable<GHPullRequestReview> noReviews = paged(List.of());
+        PagedIterable<GHIssueComment> noComments = paged(List.of());
+        when(pullRequest.listReviews()).thenReturn(noReviews);
+        when(pullRequest.listComments()).thenReturn(noComments);
+        assertEquals(date("2022-01-09T00:00:00Z"), StalledDiscussionFlow.lastActivity(pullRequest));
+    }
+
+    private static Date date(String instant) {
+        return Date.from(Instant.parse(instant));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> PagedIterable<T> paged(List<T> items) {
+        PagedIterable<T> pagedIterable = mock(PagedIterable.class);
+        when(pagedIterable.iterator()).thenAnswer(invocation -> {
+            PagedIterator<T> iterator = mock(PagedIterator.class);
+            var it = items.iterator();
+            when(iterator.hasNext()).thenAnswer(i -> it.hasNext());
+            when(iterator.next()).thenAnswer(i -> it.next());
+            return iterator;
+        });
+        return pagedIterable;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TermScannerTest {
+
+    private static List<String> matches(TermScanner scanner, String text) {
+        List<String> matches = new ArrayList<>();
+        scanner.scan(text, (term, start, end) ->
+                matches.add(scanner.terms().get(term) + "@" + start + "=" + text.substring(start, end)));
+        return matches;
+    }
+
+    @Test
+    public void testWholeWordsIgnoringCase() {
+        var scanner = new TermScanner(List.of("actor", "end user", "user"));
+        assertEquals(List.of("actor@3=Actor", "actor@11=ACTOR"),
+                matches(scanner, "An Actor, (ACTOR) actors and a reactor"));
+        // The spacing of a term with several words has to match
+        assertEquals(List.of("user@9=user"), matches(scanner, "the end  user"));
+        assertEquals(List.of("end user@4=End User", "user@8=User"),
+                matches(scanner, "The End User."));
+    }
+
+    @Test
+    public void testOverlappingTerms() {
+        // "he" and "she" end at the same place, "hers" shares a prefix with "he"
+        var scanner = new TermScanner(List.of("he", "she", "his", "hers", "s h"));
+        assertEquals(List.of("she@0=she", "he@4=he", "hers@7=hers", "s h@15=s h"),
+                matches(scanner, "she he hers is s h"));
+        assertEquals(List.of(), matches(scanner, "ushers"));
+    }
+
+    @Test
+    public void testDuplicatesAndEmpty() {
+        var scanner = new TermScanner(List.of("Persona", "", "persona"));
+        assertEquals(List.of("Persona"), scanner.terms());
+        assertEquals(List.of("Persona@0=persona"), matches(scanner, "persona"));
+        assertEquals(List.of(), matches(new TermScanner(List.of()), "anything"));
+    }
+
+    @Test
+    public void testAgreesWithNaiveSearch() {
+        var random = new Random(42);
+        String alphabet = "ab ";
+        for (int round = 0; round < 200; round++) {
+            List<String> terms = new ArrayList<>();
+            for (int t = 0; t < 1 + random.nextInt(6); t++) {
+                terms.add(randomWord(random, 1 + random.nextInt(3)));
+            }
+            var text = new StringBuilder();
+            for (int i = 0; i < 30; i++) {
+                text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            var scanner = new TermScanner(terms);
+            assertEquals(naive(scanner.terms(), text.toString()), matches(scanner, text.toString()), terms + " in '" + text + "'");
+        }
+    }
+
+    private static String randomWord(Random random, int length) {
+        var sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append(random.nextBoolean() ? 'a' : 'B');
+        }
+        return sb.toString();
+    }
+
+    /** Checks every term at every end position, longest first. */
+    private static List<String> naive(List<String> terms, String text) {
+        List<String> matches = new ArrayList<>();
+        String lower = text.toLowerCase(Locale.ROOT);
+        for (int end = 1; end <= text.length(); end++) {
+            List<String> here = new ArrayList<>();
+            for (String term : terms) {
+                int start = end - term.length();
+                if (start >= 0 && lower.startsWith(term.toLowerCase(Locale.ROOT), start)
+                        && (start == 0 || text.charAt(start - 1) == ' ')
+                        && (end == text.length() || text.charAt(end) == ' ')) {
+                    here.add(term);
+                }
+            }
+            here.sort((x, y) -> y.length() - x.length());
+            for (String term : here) {
+                matches.add(term + "@" + (end - term.length()) + "=" + text.substring(end - term.length(), end));
+            }
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.bf2.arch.bot.model.patch.FilePatch;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class UndefinedAcronymsTest {
+
+    private static List<String> uses(List<UndefinedAcronyms.Use> uses) {
+        return uses.stream().map(UndefinedAcronyms.Use::toString).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testExpansions() {
+        var scanner = new UndefinedAcronyms(Set.of());
+        scanner.scan("A Three Letter Abbreviation (TLA) and an FLA (four letter", 1, true);
+        // The expansion can continue on the next line
+        scanner.scan("abbreviation) then TLA, FLA, and XYZ.", 2, true);
+        assertEquals(List.of("XYZ@2"), uses(scanner.finish()));
+    }
+
+    @Test
+    public void testReportsFirstUseOnly() {
+        var scanner = new UndefinedAcronyms(Set.of("OK"));
+        scanner.scan("OK so ABC then DEF", 1, true);
+        scanner.scan("and ABC again", 2, true);
+        assertEquals(List.of("ABC@1", "DEF@1"), uses(scanner.finish()));
+    }
+
+    @Test
+    public void testUseBeforeDefinition() {
+        var scanner = new UndefinedAcronyms(Set.of());
+        scanner.scan("Using SLO before saying", 1, true);
+        scanner.scan("what a Service Level Objective (SLO) is", 2, true);
+        assertEquals(List.of("SLO@1"), uses(scanner.finish()));
+    }
+
+    @Test
+    public void testNotAcronyms() {
+        var scanner = new UndefinedAcronyms(Set.of());
+        scanner.scan("A I x2 Ab AB_C ABCDEFGHIJKLMNOPQ", 1, true);
+        assertEquals(List.of(), uses(scanner.finish()));
+    }
+
+    @Test
+    public void testPatch() {
+        String patch = "@@ -1,3 +1,4 @@\n" +
+                " We use a Service Level Objective (SLO).\n" +
+                "-The old line with ZZZ.\n" +
+                "+The SLO covers the API and the CRD.\n" +
+                "+The CRD is a Custom Resource\n" +
+                " Definition, which we meant to say.\n" +
+                "@@ -20,2 +21,3 @@\n" +
+                " Context which uses an undefined ABC.\n" +
+                "+More ABC and the TLS which the base page defined.\n" +
+                "+Now TLA (Three\n" +
+                "@@ -30,1 +32,1 @@\n" +
+                " Letter Abbreviation) doesn't continue in the next hunk.\n";
+        var uses = new UndefinedAcronyms(Set.of("API"))
+                .define("---\nUse Transport Layer Security (TLS).\n")
+                .scan(FilePatch.parsePatch(patch))
+                .finish();
+        // CRD's expansion doesn't directly follow it.
+        // ABC was already used undefined in the context, but only the added lines are being reviewed.
+        assertEquals(List.of("CRD@3", "ABC@8", "TLA@9"), uses(uses));
+    }
+}
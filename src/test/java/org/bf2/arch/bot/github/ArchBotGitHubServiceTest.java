@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot.github;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+import org.kohsuke.github.GHAppInstallationToken;
+import org.kohsuke.github.connector.GitHubConnector;
+import org.kohsuke.github.connector.GitHubConnectorRequest;
+import org.kohsuke.github.connector.GitHubConnectorResponse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ArchBotGitHubServiceTest {
+
+    /** A service whose installation 1 takes until {@link #release} to get a token. */
+    static class SlowService extends ArchBotGitHubService {
+        final CountDownLatch release = new CountDownLatch(1);
+        final Map<Long, AtomicInteger> created = new ConcurrentHashMap<>();
+        // Stubbed up front: stubbing mocks concurrently on the callers' threads isn't reliable
+        final Map<Long, GHAppInstallationToken> tokens;
+
+        SlowService() throws IOException {
+            tokens = Map.of(1L, token(1), 2L, token(2));
+        }
+
+        private static GHAppInstallationToken token(long installationId) throws IOException {
+            var token = mock(GHAppInstallationToken.class);
+            when(token.getToken()).thenReturn("token-" + installationId);
+            when(token.getExpiresAt()).thenReturn(Date.from(Instant.now().plusSeconds(3600)));
+            return token;
+        }
+
+        @Override
+        GHAppInstallationToken createToken(long installationId) throws IOException {
+            created.computeIfAbsent(installationId, id -> new AtomicInteger()).incrementAndGet();
+            if (installationId == 1) {
+                try {
+                    assertTrue(release.await(5, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return tokens.get(installationId);
+        }
+    }
+
+    @Test
+    public void testRefreshDoesntBlockOtherInstallations() throws Exception {
+        var service = new SlowService();
+        var executor = Executors.newFixedThreadPool(3);
+        try {
+            var first = executor.submit(() -> service.installationToken(1));
+            var second = executor.submit(() -> service.installationToken(1));
+            // Installation 1's refresh is in progress, but installation 2 gets its token
+            assertEquals("token-2", executor.submit(() -> service.installationToken(2)).get(5, TimeUnit.SECONDS));
+            service.release.countDown();
+            assertEquals("token-1", first.get(5, TimeUnit.SECONDS));
+            assertEquals("token-1", second.get(5, TimeUnit.SECONDS));
+            // Concurrent callers share a refresh, and later ones use the token
+            assertEquals("token-1", service.installationToken(1));
+            assertEquals(1, service.created.get(1L).get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testInstallationRepositoriesArePagedWithTheInstallationToken() throws IOException {
+        List<GitHubConnectorRequest> requests = new ArrayList<>();
+        GitHubConnector connector = request -> {
+            requests.add(request);
+            int page = requests.size();
+            // 100 repos on the first page, and one on the second
+            var repos = IntStream.range(0, page == 1 ? 100 : 1)
+                    .mapToObj(i -> "{\"full_name\": \"org/repo-" + page + "-" + i + "\"}")
+                    .collect(Collectors.joining(","));
+            byte[] body = ("{\"total_count\": 101, \"repositories\": [" + repos + "]}")
+                    .getBytes(StandardCharsets.UTF_8);
+            return new GitHubConnectorResponse.ByteArrayResponse(request, 200, Map.of()) {
+                @Override
+                protected InputStream rawBodyStream() {
+                    return new ByteArrayInputStream(body);
+                }
+            };
+        };
+        var names = ArchBotGitHubService.installationRepositories(connector, "https://api.example.com", "t");
+        assertEquals(101, names.size());
+        assertEquals("org/repo-1-0", names.get(0));
+        assertEquals("org/repo-2-0", names.get(100));
+        assertEquals(2, requests.size());
+        assertEquals("https://api.example.com/installation/repositories?per_page=100&page=2",
+                requests.get(1).url().toString());
+        assertEquals("token t", requests.get(1).header("Authorization"));
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot.github;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.kohsuke.github.connector.GitHubConnector;
+import org.kohsuke.github.connector.GitHubConnectorRequest;
+import org.kohsuke.github.connector.GitHubConnectorResponse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CachingGitHubConnectorTest {
+
+    /** A fake GitHub which serves a single resource with the given ETag. */
+    static class FakeGitHub implements GitHubConnector {
+        String etag = "\"v1\"";
+        String body = "{\"name\":\"main\"}";
+        List<String> ifNoneMatch = new ArrayList<>();
+
+        @Override
+        public GitHubConnectorResponse send(GitHubConnectorRequest request) {
+            String condition = request.header("If-None-Match");
+            ifNoneMatch.add(condition);
+            if (etag.equals(condition)) {
+                return response(request, 304, Map.of("X-RateLimit-Remaining", List.of("4999")), "");
+            }
+            return response(request, 200, Map.of("ETag", List.of(etag),
+                    "X-RateLimit-Remaining", List.of("4998")), body);
+        }
+
+        static GitHubConnectorResponse response(GitHubConnectorRequest request, int status,
+                                                Map<String, List<String>> headers, String body) {
+            return new GitHubConnectorResponse.ByteArrayResponse(request, status, headers) {
+                @Override
+                protected InputStream rawBodyStream() {
+                    return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+                }
+            };
+        }
+    }
+
+    private static GitHubConnectorRequest get(String url) throws IOException {
+        var request = mock(GitHubConnectorRequest.class);
+        when(request.method()).thenReturn("GET");
+        when(request.url()).thenReturn(new URL(url));
+        when(request.allHeaders()).thenReturn(Map.of("Accept", List.of("application/json")));
+        when(request.header("Accept")).thenReturn("application/json");
+        return request;
+    }
+
+    private static String read(GitHubConnectorResponse response) throws IOException {
+        try (InputStream in = response.bodyStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void testRevalidation(@TempDir Path dir) throws IOException {
+        var github = new FakeGitHub();
+        var cache = new ResponseCache(dir, 1024 * 1024, 1024 * 1024);
+        var connector = new CachingGitHubConnector(github, cache, "installation-1");
+        String url = "https://api.github.com/repos/o/r/branches/main";
+
+        var first = connector.send(get(url));
+        assertEquals(200, first.statusCode());
+        assertEquals(github.body, read(first));
+
+        var second = connector.send(get(url));
+        assertEquals(200, second.statusCode());
+        assertEquals(github.body, read(second));
+        // The fresh rate limit headers win over the cached ones
+        assertEquals("4999", second.header("X-RateLimit-Remaining"));
+
+        assertEquals(List.of(github.etag), github.ifNoneMatch.subList(1, 2));
+        assertNull(github.ifNoneMatch.get(0));
+        assertEquals(1, cache.misses());
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.notModified());
+
+        // A changed resource is downloaded again
+        github.etag = "\"v2\"";
+        github.body = "{\"name\":\"main2\"}";
+        assertEquals(github.body, read(connector.send(get(url))));
+        assertEquals(1, cache.notModified());
+
+        // The disk level survives a restart
+        var restartedCache = new ResponseCache(dir, 1024 * 1024, 1024 * 1024);
+        var restarted = new CachingGitHubConnector(github, restartedCache, "installation-1");
+        assertEquals(github.body, read(restarted.send(get(url))));
+        assertEquals(1, restartedCache.notModified());
+    }
+
+    @Test
+    public void testInstallationsHaveTheirOwnPartitions() throws IOException {
+        var github = new FakeGitHub();
+        var cache = new ResponseCache(null, 1024 * 1024, 0);
+        var first = new CachingGitHubConnector(github, cache, "installation-1");
+        var second = new CachingGitHubConnector(github, cache, "installation-2");
+        String url = "https://api.github.com/repos/o/r/branches/main";
+
+        read(first.send(get(url)));
+        read(second.send(get(url)));
+        // The second installation's request isn't made conditional on the first's response
+        assertEquals(Arrays.asList(null, null), github.ifNoneMatch);
+        assertEquals(2, cache.misses());
+        read(second.send(get(url)));
+        assertEquals(github.etag, github.ifNoneMatch.get(2));
+    }
+
+    @Test
+    public void testDiskLevelIsOnlyReadableByItsOwner(@TempDir Path dir) throws IOException {
+        Path cacheDir = dir.resolve("http-cache");
+        new ResponseCache(cacheDir, 1024, 1024);
+        if (Files.getFileStore(cacheDir).supportsFileAttributeView(PosixFileAttributeView.class)) {
+            assertEquals(PosixFilePermissions.fromString("rwx------"), Files.getPosixFilePermissions(cacheDir));
+        }
+    }
+}
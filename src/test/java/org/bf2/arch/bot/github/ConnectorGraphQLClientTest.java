@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot.github;
+
+import javax.json.Json;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.kohsuke.github.HttpException;
+import org.kohsuke.github.connector.GitHubConnector;
+import org.kohsuke.github.connector.GitHubConnectorRequest;
+import org.kohsuke.github.connector.GitHubConnectorResponse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ConnectorGraphQLClientTest {
+
+    /** A fake GitHub which answers every request with the given status and body. */
+    static class FakeGitHub implements GitHubConnector {
+        final List<GitHubConnectorRequest> requests = new ArrayList<>();
+        final List<String> bodies = new ArrayList<>();
+        int status = 200;
+        /** How many requests are first refused by a secondary rate limit. */
+        int limited;
+        String body = "{\"data\": {\"repository\": {\"id\": \"R_1\"}}}";
+
+        @Override
+        public GitHubConnectorResponse send(GitHubConnectorRequest request) throws IOException {
+            requests.add(request);
+            bodies.add(new String(request.body().readAllBytes(), StandardCharsets.UTF_8));
+            if (requests.size() <= limited) {
+                return response(request, 403, Map.of("Retry-After", List.of("0")), "{}");
+            }
+            return response(request, status, Map.of(
+                    "X-RateLimit-Remaining", List.of("4990"),
+                    "X-RateLimit-Resource", List.of("graphql")), body);
+        }
+
+        private static GitHubConnectorResponse response(GitHubConnectorRequest request, int status,
+                Map<String, List<String>> headers, String body) {
+            byte[] responseBody = body.getBytes(StandardCharsets.UTF_8);
+            return new GitHubConnectorResponse.ByteArrayResponse(request, status, headers) {
+                @Override
+                protected InputStream rawBodyStream() {
+                    return new ByteArrayInputStream(responseBody);
+                }
+            };
+        }
+    }
+
+    @Test
+    public void testRequestsGoThroughTheConnector() throws Exception {
+        var github = new FakeGitHub();
+        var registry = new SimpleMeterRegistry();
+        var client = new ConnectorGraphQLClient(new MeteredGitHubConnector(github, registry, "1"),
+                "https://api.example.com", () -> "t", new SecondaryLimitBackoff());
+
+        var response = client.executeSync("query($owner: String!) { repository { id } }", Map.of("owner", "org"));
+        assertEquals("R_1", response.getData().getJsonObject("repository").getString("id"));
+
+        var request = github.requests.get(0);
+        assertEquals("POST", request.method());
+        assertEquals("https://api.example.com/graphql", request.url().toString());
+        assertEquals("token t", request.header("Authorization"));
+        var body = Json.createReader(new StringReader(github.bodies.get(0))).readObject();
+        assertEquals("org", body.getJsonObject("variables").getString("owner"));
+
+        // Counted like the REST client's requests
+        assertEquals(1.0, registry.get(MeteredGitHubConnector.REQUESTS).tag("endpoint", "/graphql").counter().count());
+        assertEquals(4990.0, registry.get(MeteredGitHubConnector.RATE_LIMIT_REMAINING).tag("installation", "1")
+                .tag("resource", "graphql").gauge().value());
+    }
+
+    @Test
+    public void testFailedRequest() throws IOException {
+        var github = new FakeGitHub();
+        github.status = 502;
+        var client = new ConnectorGraphQLClient(github, "https://api.example.com", () -> "t",
+                new SecondaryLimitBackoff());
+        var e = assertThrows(ExecutionException.class, () -> client.executeSync("{ viewer { login } }"));
+        assertInstanceOf(HttpException.class, e.getCause());
+        assertEquals(502, ((HttpException) e.getCause()).getResponseCode());
+    }
+
+    @Test
+    public void testSecondaryLimitIsRetried() throws Exception {
+        var github = new FakeGitHub();
+        github.limited = 1;
+        var client = new ConnectorGraphQLClient(github, "https://api.example.com", () -> "t",
+                new SecondaryLimitBackoff());
+        var response = client.executeSync("{ repository { id } }");
+        assertEquals("R_1", response.getData().getJsonObject("repository").getString("id"));
+        assertEquals(2, github.requests.size());
+    }
+
+    @Test
+    public void testSecondaryLimitRetriesAreBounded() throws IOException {
+        var github = new FakeGitHub();
+        github.limited = Integer.MAX_VALUE;
+        var client = new ConnectorGraphQLClient(github, "https://api.example.com", () -> "t",
+                new SecondaryLimitBackoff());
+        var e = assertThrows(ExecutionException.class, () -> client.executeSync("{ viewer { login } }"));
+        assertEquals(403, ((HttpException) e.getCause()).getResponseCode());
+        assertEquals(ConnectorGraphQLClient.MAX_RETRIES + 1, github.requests.size());
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot.github;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import org.bf2.arch.bot.RecordPageCache;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.kohsuke.github.GHRepository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+class GitMirrorTest {
+
+    private static final String PAGE = "---\n" +
+            "num: 3\n" +
+            "title: \"Foo\"\n" +
+            "status: \"Draft\"\n" +
+            "---\n" +
+            "Hello, world\n";
+
+    @TempDir
+    Path tmp;
+
+    private RevCommit commit(Git origin, String path, String content) throws Exception {
+        Path file = origin.getRepository().getWorkTree().toPath().resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+        origin.add().addFilepattern(path).call();
+        return origin.commit().setMessage("Add " + path).setAuthor("test", "test@example.com").call();
+    }
+
+    private GitMirror mirror() {
+        return new GitMirror(true, tmp.resolve("mirror"), "file://" + tmp.resolve("origin") + "/{0}", null);
+    }
+
+    @Test
+    public void testReadsFromMirror() throws Exception {
+        try (var origin = Git.init().setDirectory(tmp.resolve("origin/org/repo").toFile()).setInitialBranch("main").call()) {
+            commit(origin, "_adr/0/index.adoc", PAGE);
+            RevCommit first = commit(origin, "_adr/3/index.adoc", PAGE);
+
+            var mirror = mirror();
+            assertNull(mirror.list("org/repo", first.name(), "_adr"), "Not fetched yet");
+            mirror.fetch("org/repo", 1);
+
+            assertEquals(List.of("0", "3"), mirror.list("org/repo", first.name(), "_adr"));
+            assertEquals(List.of("0", "3"), mirror.list("org/repo", "refs/heads/main", "_adr"));
+            assertEquals(List.of(), mirror.list("org/repo", first.name(), "_ap"));
+            var blobId = mirror.entryId("org/repo", first.name(), "_adr/3/index.adoc");
+            assertEquals(PAGE, new String(mirror.read("org/repo", blobId.name()), StandardCharsets.UTF_8));
+            assertNull(mirror.entryId("org/repo", first.name(), "_adr/4/index.adoc"));
+
+            // A commit the mirror hasn't seen yet is fetched on demand
+            RevCommit second = commit(origin, "_adr/4/index.adoc", PAGE);
+            assertEquals(List.of("0", "3", "4"), mirror.list("org/repo", second.name(), "_adr"));
+        }
+    }
+
+    @Test
+    public void testMissesFetchAtMostOncePerInterval() throws Exception {
+        try (var origin = Git.init().setDirectory(tmp.resolve("origin/org/repo").toFile()).setInitialBranch("main").call()) {
+            commit(origin, "_adr/0/index.adoc", PAGE);
+            var mirror = new GitMirror(true, tmp.resolve("mirror"), "file://" + tmp.resolve("origin") + "/{0}", null,
+                    Duration.ofHours(1));
+            mirror.fetch("org/repo", 1);
+
+            // A commit which isn't in the repo costs a fetch
+            assertNull(mirror.list("org/repo", "0123456789012345678901234567890123456789", "_adr"));
+            // So another miss soon after doesn't fetch, even though this commit would be found
+            RevCommit second = commit(origin, "_adr/4/index.adoc", PAGE);
+            assertNull(mirror.list("org/repo", second.name(), "_adr"));
+
+            // Until the next push
+            mirror.fetch("org/repo", 1);
+            assertEquals(List.of("0", "4"), mirror.list("org/repo", second.name(), "_adr"));
+        }
+    }
+
+    @Test
+    public void testPageCacheUsesMirror() throws Exception {
+        try (var origin = Git.init().setDirectory(tmp.resolve("origin/org/repo").toFile()).setInitialBranch("main").call()) {
+            RevCommit commit = commit(origin, "_adr/3/index.adoc", PAGE);
+            var mirror = mirror();
+            mirror.fetch("org/repo", 1);
+
+            var repo = mock(GHRepository.class);
+            when(repo.getFullName()).thenReturn("org/repo");
+            var cache = new RecordPageCache(1024 * 1024, mirror);
+            var page = cache.page(repo, commit.name(), "_adr/3/index.adoc");
+
+            assertEquals(3, page.frontMatter.num);
+            assertNull(cache.page(repo, commit.name(), "_adr/3/index.adoc").frontMatter.supersededBy);
+            assertEquals(1, cache.stats().hitCount());
+            // Nothing was read through the API
+            verify(repo, atLeastOnce()).getFullName();
+            verifyNoMoreInteractions(repo);
+        }
+    }
+
+    @Test
+    public void testDisabled() throws IOException {
+        var mirror = new GitMirror(false, tmp.resolve("mirror"), "file://" + tmp.resolve("origin") + "/{0}", null);
+        mirror.fetch("org/repo", 1);
+        assertNull(mirror.list("org/repo", "main", "_adr"));
+        assertFalse(Files.exists(tmp.resolve("mirror")));
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot.github;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.kohsuke.github.connector.GitHubConnector;
+import org.kohsuke.github.connector.GitHubConnectorResponse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MeteredGitHubConnectorTest {
+
+    @Test
+    public void testEndpoint() {
+        assertEquals("/repos/{owner}/{repo}/pulls/{id}/files",
+                MeteredGitHubConnector.endpoint("/repos/bf2fc6cc711aee1a0c2a/architecture/pulls/123/files"));
+        assertEquals("/repos/{owner}/{repo}/contents/{path}",
+                MeteredGitHubConnector.endpoint("/repos/org/repo/contents/_adr/12/index.adoc"));
+        assertEquals("/repos/{owner}/{repo}/git/trees/{sha}",
+                MeteredGitHubConnector.endpoint("/repos/org/repo/git/trees/0123456789abcdef0123456789abcdef01234567"));
+        assertEquals("/repos/{owner}/{repo}/git/refs/{path}",
+                MeteredGitHubConnector.endpoint("/repos/org/repo/git/refs/heads/create-ADR-13"));
+        assertEquals("/repos/{owner}/{repo}/branches/{name}",
+                MeteredGitHubConnector.endpoint("/repos/org/repo/branches/main"));
+        assertEquals("/repos/{owner}/{repo}/compare/{path}",
+                MeteredGitHubConnector.endpoint("/repos/org/repo/compare/abc...def"));
+        assertEquals("/app/installations/{id}/access_tokens",
+                MeteredGitHubConnector.endpoint("/app/installations/42/access_tokens"));
+        assertEquals("/graphql", MeteredGitHubConnector.endpoint("/graphql"));
+        assertEquals("/", MeteredGitHubConnector.endpoint("/"));
+    }
+
+    @Test
+    public void testRateLimitRemainingIsPerInstallation() throws IOException {
+        var registry = new SimpleMeterRegistry();
+        GitHubConnector github = request -> new GitHubConnectorResponse.ByteArrayResponse(request, 200, Map.of(
+                "X-RateLimit-Remaining", List.of(request.url().getHost().equals("one") ? "4000" : "3000"),
+                "X-RateLimit-Resource", List.of("core"))) {
+            @Override
+            protected InputStream rawBodyStream() {
+                return new ByteArrayInputStream(new byte[0]);
+            }
+        };
+        new MeteredGitHubConnector(github, registry, "1")
+                .send(new ConnectorRequest("GET", new URL("https://one/"), "t", null));
+        new MeteredGitHubConnector(github, registry, "2")
+                .send(new ConnectorRequest("GET", new URL("https://two/"), "t", null));
+        assertEquals(4000.0, remaining(registry, "1"));
+        assertEquals(3000.0, remaining(registry, "2"));
+    }
+
+    private static double remaining(SimpleMeterRegistry registry, String installation) {
+        return registry.get(MeteredGitHubConnector.RATE_LIMIT_REMAINING)
+                .tag("installation", installation)
+                .tag("resource", "core")
+                .gauge().value();
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot.github;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bf2.arch.bot.github.RateLimitBudget.Priority;
+import org.junit.jupiter.api.Test;
+import org.kohsuke.github.connector.GitHubConnectorResponse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateLimitBudgetTest {
+
+    private static final long NOW = 1_000_000L;
+    private static final long HOUR = Duration.ofHours(1).toMillis();
+
+    private static RateLimitBudget budget() {
+        return new RateLimitBudget(0.2, 10, Duration.ofSeconds(30));
+    }
+
+    @Test
+    public void testSweepBurstThenPaced() {
+        var bucket = budget().bucket(1, "core");
+        // 5000 - 1000 reserved, over an hour: 4000 an hour, i.e. one per 900ms
+        bucket.observe(5000, 5000, NOW + HOUR);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, bucket.acquire(Priority.SWEEP, NOW));
+        }
+        long wait = bucket.acquire(Priority.SWEEP, NOW);
+        assertTrue(wait > 800 && wait < 1000, "wait " + wait);
+        assertEquals(0, bucket.acquire(Priority.SWEEP, NOW + wait));
+        assertEquals(11, bucket.sweepRequests());
+    }
+
+    @Test
+    public void testReserveIsForWebhooks() {
+        var bucket = budget().bucket(1, "core");
+        bucket.observe(5000, 1000, NOW + HOUR);
+        assertEquals(0, bucket.sweepAllowance());
+        // Sweeps wait for the reset
+        assertEquals(HOUR, bucket.acquire(Priority.SWEEP, NOW));
+        // Webhooks don't wait
+        assertEquals(0, bucket.acquire(Priority.WEBHOOK, NOW));
+        assertEquals(0, bucket.sweepRequests());
+    }
+
+    @Test
+    public void testSweepsSlowAsTheLimitIsUsed() {
+        var plenty = budget().bucket(1, "core");
+        plenty.observe(5000, 5000, NOW + HOUR);
+        var scarce = budget().bucket(1, "core");
+        scarce.observe(5000, 1100, NOW + HOUR);
+        for (int i = 0; i < 10; i++) {
+            plenty.acquire(Priority.SWEEP, NOW);
+            scarce.acquire(Priority.SWEEP, NOW);
+        }
+        assertTrue(scarce.acquire(Priority.SWEEP, NOW) > 10 * plenty.acquire(Priority.SWEEP, NOW));
+    }
+
+    @Test
+    public void testBucketsPerInstallationAndResource() {
+        var budget = budget();
+        assertSame(budget.bucket(1, "core"), budget.bucket(1, "core"));
+        assertTrue(budget.bucket(1, "core") != budget.bucket(2, "core"));
+        assertTrue(budget.bucket(1, "core") != budget.bucket(1, "search"));
+        assertEquals("search", BudgetedGitHubConnector.resource("/search/issues"));
+        assertEquals("graphql", BudgetedGitHubConnector.resource("/graphql"));
+        assertEquals("core", BudgetedGitHubConnector.resource("/repos/org/repo/pulls"));
+    }
+
+    @Test
+    public void testPriorityIsRestored() throws IOException {
+        assertEquals(Priority.WEBHOOK, RateLimitBudget.priority());
+        RateLimitBudget.asSweep(() -> assertEquals(Priority.SWEEP, RateLimitBudget.priority()));
+        assertEquals(Priority.WEBHOOK, RateLimitBudget.priority());
+    }
+
+    @Test
+    public void testSecondaryLimitBackoff() {
+        // Retry-After, plus up to a second
+        assertEquals(60_000, SecondaryLimitBackoff.delayMillis("60", 0, 0));
+        assertEquals(60_500, SecondaryLimitBackoff.delayMillis("60", 0, 0.5));
+        // Otherwise exponential, in the upper half of the ceiling
+        assertEquals(500, SecondaryLimitBackoff.delayMillis(null, 0, 0));
+        assertEquals(1000, SecondaryLimitBackoff.delayMillis(null, 1, 0));
+        assertEquals(4000, SecondaryLimitBackoff.delayMillis(null, 3, 0));
+        assertEquals(7999, SecondaryLimitBackoff.delayMillis(null, 3, 0.99999));
+        assertEquals(SecondaryLimitBackoff.MAX_MILLIS / 2, SecondaryLimitBackoff.delayMillis("soon", 20, 0));
+    }
+
+    @Test
+    public void testSecondaryLimitAttemptsClearedOnSuccess() throws IOException {
+        var backoff = new SecondaryLimitBackoff();
+        var status = new AtomicInteger(403);
+        var connector = backoff.clearingOnSuccess(request -> new GitHubConnectorResponse.ByteArrayResponse(request,
+                status.get(), status.get() == 403 ? Map.of("Retry-After", List.of("1")) : Map.of()) {
+            @Override
+            protected InputStream rawBodyStream() {
+                return InputStream.nullInputStream();
+            }
+        });
+        var request = new ConnectorRequest("GET", new URL("https://api.example.com/repos/org/repo"), "t", null);
+
+        assertEquals(0, backoff.nextAttempt("GET https://api.example.com/repos/org/repo"));
+        connector.send(request).close();
+        // Still limited: the retries count up
+        assertEquals(1, backoff.nextAttempt("GET https://api.example.com/repos/org/repo"));
+        status.set(200);
+        connector.send(request).close();
+        // The request's next limit starts afresh
+        assertEquals(0, backoff.nextAttempt("GET https://api.example.com/repos/org/repo"));
+    }
+}
@@ -1,5 +1,7 @@
 package org.bf2.arch.bot.model.patch;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.regex.Pattern;
@@ -8,6 +10,10 @@ import java.util.stream.Collectors;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /*
  * Licensed to the Apache Software Foundation (ASF) under one or more
@@ -123,4 +129,106 @@ class FilePatchTest {
         assertEquals("status: \"Foo\"", list.get(1).line().line());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testNoNewlineAtEndOfFile() {
+        FilePatch filePatch = FilePatch.parsePatch(
+                "@@ -42,4 +42,4 @@ tags: []\n" +
+                        " // What are the knock-on effects if this decision is accepted?\n" +
+                        "\n" +
+                        " ## Consequences if not completed\n" +
+                        "-// What are the knock-on effects if this decision is not accepted?\n" +
+                        "\\ No newline at end of file\n" +
+                        "+// What are the knock-on effects if this decision is not accepted?\n" +
+                        "\\ No newline at end of file");
+        Hunk hunk = filePatch.hunks().get(0);
+        assertEquals("tags: []", hunk.section());
+        assertEquals(5, hunk.lines().size());
+        assertEquals(Line.Type.CONTEXT, hunk.lines().get(1).type());
+        assertEquals("", hunk.lines().get(1).line());
+        assertFalse(hunk.lines().get(2).noNewline());
+        assertTrue(hunk.lines().get(3).noNewline());
+        assertTrue(hunk.lines().get(4).noNewline());
+        // The markers still count towards the positions of later lines
+        var list = filePatch.linesMatching(EnumSet.of(Line.Type.ADD),
+                Pattern.compile("^// (.*)$")).collect(Collectors.toList());
+        assertEquals(1, list.size());
+        assertEquals(6, list.get(0).patchLineNum());
+        assertEquals("What are the knock-on effects if this decision is not accepted?", list.get(0).matcher().group(1));
+    }
+
+    @Test
+    public void testHeaderWithoutCounts() {
+        FilePatch filePatch = FilePatch.parsePatch("@@ -1 +1 @@\r\n-foo\r\n+bar\r\n");
+        Hunk hunk = filePatch.hunks().get(0);
+        assertEquals(1, hunk.oldLength());
+        assertEquals(1, hunk.newLength());
+        assertEquals("", hunk.section());
+        assertEquals(List.of("foo", "bar"), List.of(hunk.lines().get(0).line(), hunk.lines().get(1).line()));
+    }
+
+    @Test
+    public void testEmptyPatch() {
+        assertEquals(0, FilePatch.parsePatch(null).hunks().size());
+        assertEquals(0, FilePatch.parsePatch("").hunks().size());
+    }
+
+    @Test
+    public void testMalformed() {
+        var e = assertThrows(MalformedPatchException.class, () -> FilePatch.parsePatch("@@ -1,1 +1,1 @@\n foo\n*bar\n"));
+        assertEquals(3, e.lineNumber());
+        e = assertThrows(MalformedPatchException.class, () -> FilePatch.parsePatch("diff --git a/x b/x\n"));
+        assertEquals(1, e.lineNumber());
+        assertThrows(MalformedPatchException.class, () -> FilePatch.parsePatch("@@ -1,x +1,1 @@\n"));
+    }
+
+    @Test
+    public void testHunksAdding() {
+        FilePatch filePatch = FilePatch.parsePatch(
+                "@@ -1,3 +1,3 @@\n" +
+                " one\n" +
+                "-two\n" +
+                "+2\n" +
+                " three\n" +
+                "@@ -20,2 +20,3 @@\n" +
+                " twenty\n" +
+                "+twenty-one\n" +
+                " twenty-two\n");
+        var added = filePatch.addedLines();
+        assertEquals(List.of(2, 21), added.stream().boxed().collect(Collectors.toList()));
+
+        var second = new BitSet();
+        second.set(21);
+        var hunks = filePatch.hunksAdding(second).hunks();
+        assertEquals(1, hunks.size());
+        assertSame(filePatch.hunks().get(1), hunks.get(0));
+        // Lines which the patch has as context don't select their hunk
+        var context = new BitSet();
+        context.set(1);
+        context.set(20);
+        assertEquals(List.of(), filePatch.hunksAdding(context).hunks());
+    }
+
+    @Test
+    public void testHunksAddingTreatsOtherAddedLinesAsContext() {
+        FilePatch filePatch = FilePatch.parsePatch(
+                "@@ -1,2 +1,4 @@\n" +
+                " one\n" +
+                "+two\n" +
+                "+three\n" +
+                " four\n");
+        var third = new BitSet();
+        third.set(3);
+        var reviewing = filePatch.hunksAdding(third);
+        var added = new ArrayList<String>();
+        var context = new ArrayList<String>();
+        reviewing.visit(EnumSet.of(Line.Type.ADD, Line.Type.CONTEXT), (type, content, position) ->
+                (type == Line.Type.ADD ? added : context).add(content.toString()));
+        assertEquals(List.of("three"), added);
+        assertEquals(List.of("one", "two", "four"), context);
+        assertEquals(List.of(3), reviewing.linesMatching(EnumSet.of(Line.Type.ADD), Pattern.compile("t.*"))
+                .map(FilePatch.LineMatch::patchLineNum)
+                .collect(Collectors.toList()));
+        // The patch itself still reviews all the lines it adds
+        assertEquals(2, filePatch.linesMatching(EnumSet.of(Line.Type.ADD), Pattern.compile("t.*")).count());
+    }
+}
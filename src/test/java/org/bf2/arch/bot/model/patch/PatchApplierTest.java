@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot.model.patch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PatchApplierTest {
+
+    private static final String ORIGINAL = "---\n" +
+            "num: 89\n" +
+            "title: \"dfdff\"\n" +
+            "status: \"Draft\"\n" +
+            "authors:\n" +
+            "- \"tombentley\"\n" +
+            "tags: []\n" +
+            "---\n";
+
+    private static final String PATCH = "@@ -2,5 +2,5 @@\n" +
+            " num: 89\n" +
+            " title: \"dfdff\"\n" +
+            "-status: \"Draft\"\n" +
+            "+status: \"Accepted\"\n" +
+            " authors:\n" +
+            " - \"tombentley\"\n";
+
+    @Test
+    public void testApply() {
+        assertEquals(ORIGINAL.replace("Draft", "Accepted"), FilePatch.parsePatch(PATCH).apply(ORIGINAL));
+        assertEquals("", FilePatch.parsePatch(null).apply(""));
+        assertEquals(ORIGINAL, FilePatch.parsePatch(null).apply(ORIGINAL));
+    }
+
+    @Test
+    public void testNewFile() {
+        assertEquals("one\ntwo\n", FilePatch.parsePatch("@@ -0,0 +1,2 @@\n+one\n+two\n").apply(""));
+        assertEquals("one\ntwo", FilePatch.parsePatch("@@ -0,0 +1,2 @@\n+one\n+two\n\\ No newline at end of file\n")
+                .apply(""));
+    }
+
+    @Test
+    public void testOffset() {
+        // Lines added above where the patch was made
+        String moved = "\n\n\n" + ORIGINAL;
+        assertEquals(moved.replace("Draft", "Accepted"), FilePatch.parsePatch(PATCH).apply(moved));
+        // and removed
+        String cut = ORIGINAL.substring(ORIGINAL.indexOf('\n') + 1);
+        assertEquals(cut.replace("Draft", "Accepted"), FilePatch.parsePatch(PATCH).apply(cut));
+    }
+
+    @Test
+    public void testFuzz() {
+        // The first line of context differs
+        String changed = ORIGINAL.replace("num: 89", "num: 90");
+        var patch = FilePatch.parsePatch(PATCH);
+        assertEquals(changed.replace("Draft", "Accepted"), patch.apply(changed));
+        assertEquals(changed.replace("Draft", "Accepted"), patch.apply(changed, 1));
+        var e = assertThrows(PatchConflictException.class, () -> patch.apply(changed, 0));
+        assertSame(patch.hunks().get(0), e.hunk());
+        // A removed line which differs is never fuzzed
+        assertThrows(PatchConflictException.class, () -> patch.apply(ORIGINAL.replace("Draft", "Deferred")));
+    }
+
+    @Test
+    public void testNoNewlineAtEndOfFile() {
+        assertEquals("a\nc\n", FilePatch.parsePatch("@@ -1,2 +1,2 @@\n a\n-b\n\\ No newline at end of file\n+c\n")
+                .apply("a\nb"));
+        assertEquals("a\nc", FilePatch.parsePatch("@@ -1,2 +1,2 @@\n a\n-b\n+c\n\\ No newline at end of file\n")
+                .apply("a\nb\n"));
+        // Appending to a file without a newline at its end
+        assertEquals("a\nb\nc\n", FilePatch.parsePatch(
+                "@@ -1,2 +1,3 @@\n a\n-b\n\\ No newline at end of file\n+b\n+c\n").apply("a\nb"));
+        // Context at the end of a file without a newline
+        assertEquals("x\nb", FilePatch.parsePatch("@@ -1,2 +1,2 @@\n-a\n+x\n b\n\\ No newline at end of file\n")
+                .apply("a\nb"));
+    }
+
+    @Test
+    public void testCrLf() {
+        assertEquals("a\r\nx\r\nc\r\n", FilePatch.parsePatch("@@ -1,3 +1,3 @@\n a\n-b\n+x\n c\n").apply("a\r\nb\r\nc\r\n"));
+    }
+
+    @Test
+    public void testHunksDontOverlap() {
+        // The second hunk's lines are only in the file before where the first was applied
+        var patch = FilePatch.parsePatch("@@ -3,1 +3,1 @@\n-c\n+x\n@@ -5,1 +5,1 @@\n-a\n+y\n");
+        assertThrows(PatchConflictException.class, () -> patch.apply("a\nb\nc\nd\ne\n"));
+    }
+
+    /**
+     * Applies random edits, as patches with three lines of context, to random files, with and without
+     * lines added before the first hunk.
+     */
+    @Test
+    public void testRandomPatches() {
+        var random = new Random(42);
+        for (int round = 0; round < 500; round++) {
+            List<String> original = new ArrayList<>();
+            int length = random.nextInt(200);
+            for (int i = 0; i < length; i++) {
+                // Few distinct lines, so hunks could match in the wrong place
+                original.add("line " + random.nextInt(8));
+            }
+            List<String> result = new ArrayList<>();
+            var patch = new StringBuilder();
+            int oldLine = 0;
+            int delta = 0;
+            while (true) {
+                // The next edit is at least 7 lines after the last, so their contexts don't overlap
+                int at = oldLine + (oldLine == 0 ? random.nextInt(10) : 7 + random.nextInt(20));
+                if (at > original.size()) {
+                    break;
+                }
+                int removed = Math.min(random.nextInt(4), original.size() - at);
+                int added = random.nextInt(4);
+                if (removed == 0 && added == 0) {
+                    added = 1;
+                }
+                int contextStart = Math.max(oldLine, at - 3);
+                int contextEnd = Math.min(original.size(), at + removed + 3);
+                result.addAll(original.subList(oldLine, contextStart));
+                var hunk = new StringBuilder();
+                int oldCount = 0;
+                int newCount = 0;
+                for (int i = contextStart; i < at; i++, oldCount++, newCount++) {
+                    hunk.append(' ').append(original.get(i)).append('\n');
+                    result.add(original.get(i));
+                }
+                for (int i = at; i < at + removed; i++, oldCount++) {
+                    hunk.append('-').append(original.get(i)).append('\n');
+                }
+                for (int i = 0; i < added; i++, newCount++) {
+                    String line = "added " + round + "." + i;
+                    hunk.append('+').append(line).append('\n');
+                    result.add(line);
+                }
+                for (int i = at + removed; i < contextEnd; i++, oldCount++, newCount++) {
+                    hunk.append(' ').append(original.get(i)).append('\n');
+                    result.add(original.get(i));
+                }
+                int oldStart = oldCount == 0 ? contextStart : contextStart + 1;
+                int newStart = newCount == 0 ? contextStart + delta : contextStart + delta + 1;
+                patch.append("@@ -").append(oldStart).append(',').append(oldCount)
+                        .append(" +").append(newStart).append(',').append(newCount).append(" @@\n")
+                        .append(hunk);
+                delta += newCount - oldCount;
+                oldLine = contextEnd;
+            }
+            result.addAll(original.subList(oldLine, original.size()));
+
+            var filePatch = FilePatch.parsePatch(patch);
+            assertEquals(lines(result), filePatch.apply(lines(original)), patch::toString);
+            if (original.isEmpty()) {
+                // Without context there's nothing to say where the hunks have moved to
+                continue;
+            }
+            var prefix = List.of("prefix 1", "prefix 2");
+            var shifted = new ArrayList<>(prefix);
+            shifted.addAll(original);
+            var shiftedResult = new ArrayList<>(prefix);
+            shiftedResult.addAll(result);
+            assertEquals(lines(shiftedResult), filePatch.apply(lines(shifted)), patch::toString);
+        }
+    }
+
+    private static String lines(List<String> lines) {
+        var sb = new StringBuilder();
+        for (String line : lines) {
+            sb.append(line).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot.model.record;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RecordPageTest {
+
+    @Test
+    public void testBodyWithHorizontalRules() throws IOException {
+        var page = RecordPage.fromContent("---\n" +
+                "num: 3\n" +
+                "title: \"Before --- after\"\n" +
+                "status: \"Draft\"\n" +
+                "authors:\n" +
+                "- \"me\"\n" +
+                "tags: []\n" +
+                "-----\n" +
+                "Intro\n" +
+                "---\n" +
+                "|===\n" +
+                "|---|\n");
+        assertEquals(3, page.frontMatter.num);
+        assertEquals("Before --- after", page.frontMatter.title);
+        assertEquals("\nIntro\n---\n|===\n|---|\n", page.bodyContent());
+        assertEquals(8, page.frontMatterLines());
+        assertEquals("---\n" +
+                "num: 3\n" +
+                "title: \"Before --- after\"\n" +
+                "status: \"Draft\"\n" +
+                "authors:\n" +
+                "- \"me\"\n" +
+                "tags: []\n" +
+                "---\n" +
+                "Intro\n" +
+                "---\n" +
+                "|===\n" +
+                "|---|\n", page.toContentString());
+    }
+
+    @Test
+    public void testCrlf() throws IOException {
+        var page = RecordPage.fromContent("---\r\nnum: 3\r\n---\r\nBody\r\n");
+        assertEquals(3, page.frontMatter.num);
+        assertEquals("\r\nBody\r\n", page.bodyContent());
+        assertEquals(3, page.frontMatterLines());
+    }
+
+    @Test
+    public void testNoFrontMatter() {
+        assertThrows(IOException.class, () -> RecordPage.fromContent("= Title\n---\nnum: 3\n---\n"));
+        assertThrows(IOException.class, () -> RecordPage.fromContent("---\nnum: 3\n"));
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bf2.arch.bot.model.record;
+
+import java.util.EnumSet;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class RecordPathClassifierTest {
+
+    @Test
+    public void testClassify() {
+        var classifier = RecordPathClassifier.DEFAULT;
+        assertEquals(new RecordId(RecordType.ADR, 12), classifier.classify("_adr/12/index.adoc"));
+        assertEquals(new RecordId(RecordType.PADR, 3), classifier.classify("_padr/3/index.adoc"));
+        assertEquals(new RecordId(RecordType.AP, 0), classifier.classify("_ap/0/index.adoc"));
+        assertEquals(new RecordId(RecordType.ADR, 12), classifier.classify("_adr/012/index.adoc"));
+        assertEquals(new RecordId(RecordType.ADR, 1234), classifier.classify("_adr/1234/index.adoc"));
+
+        assertNull(classifier.classify(""));
+        assertNull(classifier.classify("_adr"));
+        assertNull(classifier.classify("_adr/"));
+        assertNull(classifier.classify("_adr/12"));
+        assertNull(classifier.classify("_adr/12/"));
+        assertNull(classifier.classify("_adr//index.adoc"));
+        assertNull(classifier.classify("_adr/x/index.adoc"));
+        assertNull(classifier.classify("_adr/12/index.adoc.orig"));
+        assertNull(classifier.classify("_adr/12/image.png"));
+        assertNull(classifier.classify("_adr/12/sub/index.adoc"));
+        assertNull(classifier.classify("_adrs/12/index.adoc"));
+        assertNull(classifier.classify("docs/_adr/12/index.adoc"));
+        assertNull(classifier.classify("_adr/99999999999/index.adoc"));
+    }
+
+    @Test
+    public void testSharedIds() {
+        var classifier = RecordPathClassifier.DEFAULT;
+        assertSame(classifier.classify("_adr/12/index.adoc"), classifier.classify("_adr/12/index.adoc"));
+    }
+
+    @Test
+    public void testRestrictedTypes() {
+        var classifier = new RecordPathClassifier(EnumSet.of(RecordType.AP));
+        assertNull(classifier.classify("_adr/12/index.adoc"));
+        assertEquals(new RecordId(RecordType.AP, 12), classifier.classify("_ap/12/index.adoc"));
+    }
+
+    @Test
+    public void testRecordOf() {
+        assertEquals(new RecordId(RecordType.ADR, 12), RecordType.ADR.recordOf("_adr/12/index.adoc"));
+        assertNull(RecordType.PADR.recordOf("_adr/12/index.adoc"));
+    }
+}